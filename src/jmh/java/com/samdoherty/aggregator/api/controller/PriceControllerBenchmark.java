@@ -0,0 +1,77 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.samdoherty.aggregator.Application;
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Single price route from request symbol to response bytes, using the application's ObjectMapper
+ * <p>
+ * Leaves out the servlet and MVC dispatch, which are the same for every route
+ */
+@State(Scope.Thread)
+public class PriceControllerBenchmark {
+
+    private PriceAggregatorService aggregatorService;
+    private PriceController controller;
+    private int id;
+    private long price = 12210750L;
+    private String etag;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        aggregatorService = new PriceAggregatorService();
+        InstrumentRegistry registry = new InstrumentRegistry(aggregatorService);
+        ObjectMapper objectMapper = new Application().objectMapper();
+        controller = new PriceController(aggregatorService, registry, objectMapper);
+
+        id = registry.register(Instrument.builder().exchange("bitstamp").base("BTC").quote("USD").scale(2).build());
+        aggregatorService.addPrice(id, price);
+        etag = controller.getPrices("btc-usd", null, null).getHeaders().getETag();
+    }
+
+    /**
+     * Unchanged price, the cached bytes
+     */
+    @Benchmark
+    public byte[] consolidatedPrice() {
+        return controller.getPrices("btc-usd", null, null).getBody();
+    }
+
+    @Benchmark
+    public byte[] venuePrice() {
+        return controller.getPrices("btc-usd", "bitstamp", null).getBody();
+    }
+
+    /**
+     * Unchanged price as application/cbor
+     */
+    @Benchmark
+    public byte[] compactPrice() {
+        return controller.getCompactPrices("btc-usd", null, null).getBody();
+    }
+
+    /**
+     * A client polling with the ETag it already holds
+     */
+    @Benchmark
+    public int notModified() {
+        return controller.getPrices("btc-usd", null, etag).getStatusCode().value();
+    }
+
+    /**
+     * Price changed since the last request, serialised again. Includes the write
+     */
+    @Benchmark
+    public byte[] changedPrice() {
+        aggregatorService.addPrice(id, ++price);
+        return controller.getPrices("btc-usd", "bitstamp", null).getBody();
+    }
+}
@@ -0,0 +1,72 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.samdoherty.aggregator.Application;
+import com.samdoherty.aggregator.domain.model.Price;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * A price encoded as the JSON Price against application/cbor, each from the fixed-point form it is stored in, and
+ * decoded as a client would. The size of each encoding is printed at setup, 16 bytes of CBOR against 57 of JSON
+ */
+@State(Scope.Thread)
+public class PriceFormatBenchmark {
+
+    private static final long MANTISSA = 12210750L;
+    private static final int SCALE = 2;
+    private static final long EPOCH_NANOS = 1752485434749389600L;
+
+    private final CBORFactory cborFactory = new CBORFactory();
+    private final long[] price = {MANTISSA, SCALE, EPOCH_NANOS};
+    private final long[] decoded = new long[3];
+
+    private ObjectMapper objectMapper;
+    private byte[] json;
+    private byte[] cbor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        objectMapper = new Application().objectMapper();
+        json = objectMapper.writeValueAsBytes(Price.of(MANTISSA, SCALE, EPOCH_NANOS));
+        cbor = CompactPrices.encode(price);
+        System.out.printf("%nPrice on the wire: JSON %d bytes, CBOR %d bytes%n", json.length, cbor.length);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws IOException {
+        return objectMapper.writeValueAsBytes(Price.of(MANTISSA, SCALE, EPOCH_NANOS));
+    }
+
+    @Benchmark
+    public byte[] encodeCbor() {
+        return CompactPrices.encode(price);
+    }
+
+    @Benchmark
+    public Price decodeJson() throws IOException {
+        return objectMapper.readValue(json, Price.class);
+    }
+
+    /**
+     * Streamed into primitives, as a client keeping fixed-point prices would
+     */
+    @Benchmark
+    public long[] decodeCbor() throws IOException {
+        try (JsonParser parser = cborFactory.createParser(cbor)) {
+            parser.nextToken();
+            for (int i = 0; i < 3; i++) {
+                parser.nextToken();
+                decoded[i] = parser.getLongValue();
+            }
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,80 @@
+package com.samdoherty.aggregator.domain.service;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Price;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Store writes and reads, alone and with one writer racing three readers over the same instruments
+ * <p>
+ * Two venues list every pair, so each write also maintains the consolidated median
+ */
+@State(Scope.Group)
+public class PriceAggregatorServiceBenchmark {
+
+    private static final int PAIRS = 64;
+
+    private final PriceAggregatorService service = new PriceAggregatorService();
+
+    private final int[] venueIds = new int[PAIRS];
+    private final int[] consolidatedIds = new int[PAIRS];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < PAIRS; i++) {
+            String base = "" + (char) ('A' + i / 26 % 26) + (char) ('A' + i % 26) + 'X';
+            venueIds[i] = service.register(instrument("bitstamp", base));
+            consolidatedIds[i] = service.consolidatedId(venueIds[i]);
+
+            int other = service.register(instrument("other", base));
+            service.addPrice(other, 100_000L + i);
+            service.addPrice(venueIds[i], 100_000L + i);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+        private long price = 100_000L;
+
+        int next() {
+            return next = (next + 1) & (PAIRS - 1);
+        }
+    }
+
+    @Benchmark
+    @Group("uncontendedWrite")
+    public void addPrice(Cursor cursor) {
+        service.addPrice(venueIds[cursor.next()], cursor.price++);
+    }
+
+    @Benchmark
+    @Group("uncontendedRead")
+    public Price getPrice(Cursor cursor) {
+        return service.getPrice(consolidatedIds[cursor.next()]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedAddPrice(Cursor cursor) {
+        service.addPrice(venueIds[cursor.next()], cursor.price++);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public Price contendedGetPrice(Cursor cursor) {
+        return service.getPrice(consolidatedIds[cursor.next()]);
+    }
+
+    private static Instrument instrument(String exchange, String base) {
+        return Instrument.builder().exchange(exchange).base(base).quote("USD").scale(2).build();
+    }
+}
@@ -0,0 +1,58 @@
+package com.samdoherty.aggregator.infrastructure.journal;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Journal appends on the ingest worker, committed per record (worst case) and per batch of 64
+ * <p>
+ * Segments of 1M records roll several times per iteration, so the cost of mapping a new segment is included
+ */
+@State(Scope.Thread)
+public class TickJournalBenchmark {
+
+    private static final int INSTRUMENTS = 16;
+    private static final int BATCH = 64;
+
+    private TickJournal journal;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Only the latest few segments are kept, so long runs do not fill the disk
+        journal = new TickJournal(Files.createTempDirectory("journal-benchmark"), 1 << 20, 4,
+                id -> Instrument.builder().exchange("bitstamp").base("B" + (char) ('A' + id) + "X").quote("USD").scale(2).build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        journal.close();
+    }
+
+    @Benchmark
+    public void appendAndCommit() {
+        append();
+        journal.commit();
+    }
+
+    @Benchmark
+    public void appendBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            append();
+        }
+        journal.commit();
+    }
+
+    private void append() {
+        long n = sequence++;
+        journal.append((int) (n & (INSTRUMENTS - 1)), 2, 1752485434749389L + n, 1752485434800000000L + n * 1_000, 12210712L + (n & 1023), 1250000L);
+    }
+}
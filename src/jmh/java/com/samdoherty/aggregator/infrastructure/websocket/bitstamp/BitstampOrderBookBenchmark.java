@@ -0,0 +1,121 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import com.samdoherty.aggregator.domain.store.OrderBook;
+import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import com.samdoherty.aggregator.infrastructure.configuration.PairsConfiguration;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournals;
+import com.samdoherty.aggregator.infrastructure.recording.FrameRecorders;
+import com.samdoherty.aggregator.infrastructure.websocket.Shard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Cost of keeping an order book, a diff frame applied in place and a whole 100 level snapshot frame through the
+ * ingest worker. Neither should allocate
+ */
+@State(Scope.Thread)
+public class BitstampOrderBookBenchmark {
+
+    private static final int FRAMES = 1024;
+    private static final int DEPTH = 100;
+    private static final long MID = 12_210_000L;
+
+    private final BitstampFrameParser parser = new BitstampFrameParser();
+    private final OrderBook book = new OrderBook();
+
+    /**
+     * Two levels a side each, alternately removing and restoring levels through the depth of the book
+     */
+    private final String[] diffs = new String[FRAMES];
+    private final String[] snapshots = new String[FRAMES];
+    private int next;
+
+    private BitstampWebsocket websocket;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int level = 1; level <= DEPTH; level++) {
+            book.bid(MID - level, 100_000_000L);
+            book.ask(MID + level, 100_000_000L);
+        }
+
+        for (int i = 0; i < FRAMES; i++) {
+            long micros = 1752485434749389L + i * 1_000L;
+            int level = 1 + (i / 2) % (DEPTH - 1);
+            String amount = (i & 1) == 0 ? "0.00000000" : "1.00000000";
+            diffs[i] = ("{\"data\": {\"timestamp\": \"%d\", \"microtimestamp\": \"%d\", "
+                    + "\"bids\": [[\"%s\", \"%s\"], [\"%s\", \"%s\"]], \"asks\": [[\"%s\", \"%s\"], [\"%s\", \"%s\"]]}, "
+                    + "\"channel\": \"diff_order_book_btcusd\", \"event\": \"data\"}")
+                    .formatted(micros / 1_000_000, micros, price(MID - level), amount, price(MID - level - 1), amount,
+                            price(MID + level), amount, price(MID + level + 1), amount);
+            // All at one time, so none is dropped as older when the frames wrap around
+            snapshots[i] = snapshot(1752485434749389L, MID + i % 100);
+        }
+
+        PriceAggregatorService aggregatorService = new PriceAggregatorService();
+        websocket = new BitstampWebsocket("bitstamp", "wss://benchmark", Shard.ONLY, 1, BitstampBookFeed.SNAPSHOT,
+                new PairsConfiguration(List.of(new Pair("BTC", "USD"))),
+                aggregatorService,
+                new QuoteService(aggregatorService),
+                new InstrumentRegistry(aggregatorService),
+                new CandleService(aggregatorService),
+                new BitstampStubs.StubApiClient(),
+                new BitstampStubs.StubMarketCache(List.of(new Pair("BTC", "USD"))),
+                new TickJournals(aggregatorService, false, Path.of("unused"), 1024, 0),
+                new FrameRecorders(false, Path.of("unused"))) {
+            @Override
+            protected void connect() {
+                // Frames are fed directly
+            }
+        };
+    }
+
+    /**
+     * Scan a diff frame and apply its levels, the per frame work of a diff_order_book_ channel
+     */
+    @Benchmark
+    public long diff() {
+        parser.parse(diffs[next]);
+        parser.applyLevels(true, book, 2, CandleService.VOLUME_SCALE);
+        parser.applyLevels(false, book, 2, CandleService.VOLUME_SCALE);
+        next = (next + 1) & (FRAMES - 1);
+        return book.bestBid();
+    }
+
+    /**
+     * A whole order_book_ frame through the websocket, published as a batch of one
+     */
+    @Benchmark
+    public void snapshot() {
+        websocket.readMessage(snapshots[next]);
+        websocket.endOfBatch();
+        next = (next + 1) & (FRAMES - 1);
+    }
+
+    private static String snapshot(long micros, long mid) {
+        StringBuilder bids = new StringBuilder();
+        StringBuilder asks = new StringBuilder();
+        for (int level = 1; level <= DEPTH; level++) {
+            String separator = level == 1 ? "" : ", ";
+            bids.append(separator).append("[\"").append(price(mid - level)).append("\", \"0.50000000\"]");
+            asks.append(separator).append("[\"").append(price(mid + level)).append("\", \"0.50000000\"]");
+        }
+        return ("{\"data\": {\"timestamp\": \"%d\", \"microtimestamp\": \"%d\", \"bids\": [%s], \"asks\": [%s]}, "
+                + "\"channel\": \"order_book_btcusd\", \"event\": \"data\"}")
+                .formatted(micros / 1_000_000, micros, bids, asks);
+    }
+
+    private static String price(long mantissa) {
+        return "%d.%02d".formatted(mantissa / 100, mantissa % 100);
+    }
+}
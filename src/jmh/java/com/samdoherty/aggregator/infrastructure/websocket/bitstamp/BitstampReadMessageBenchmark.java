@@ -0,0 +1,100 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import com.samdoherty.aggregator.infrastructure.configuration.PairsConfiguration;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournals;
+import com.samdoherty.aggregator.infrastructure.recording.FrameRecorders;
+import com.samdoherty.aggregator.infrastructure.websocket.Shard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Cost of handling each kind of frame on the ingest worker, from raw String to the aggregator
+ * <p>
+ * Trades are applied as batches of one, the worst case, where every trade is written through rather than conflated
+ */
+@State(Scope.Thread)
+public class BitstampReadMessageBenchmark {
+
+    private static final int FRAMES = 1024;
+
+    private static final String HEARTBEAT = "{\"event\":\"bts:heartbeat\",\"channel\":\"\",\"data\":{\"status\":\"success\"}}";
+    private static final String SUBSCRIPTION_SUCCEEDED = "{\"event\":\"bts:subscription_succeeded\",\"channel\":\"live_trades_btcusd\",\"data\":{}}";
+
+    private BitstampWebsocket websocket;
+
+    /**
+     * Trades as Bitstamp sends them, data first, with varying ids, amounts and prices
+     */
+    private final String[] trades = new String[FRAMES];
+    private int next;
+
+    private TickJournals journals;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        PriceAggregatorService aggregatorService = new PriceAggregatorService();
+        // Trades are journaled, as in production
+        journals = new TickJournals(aggregatorService, true, Files.createTempDirectory("journal-benchmark"), 1 << 20, 4);
+
+        websocket = new BitstampWebsocket("bitstamp", "wss://benchmark", Shard.ONLY, 1, BitstampBookFeed.NONE,
+                new PairsConfiguration(List.of(new Pair("BTC", "USD"))),
+                aggregatorService,
+                new QuoteService(aggregatorService),
+                new InstrumentRegistry(aggregatorService),
+                new CandleService(aggregatorService),
+                new BitstampStubs.StubApiClient(),
+                new BitstampStubs.StubMarketCache(List.of(new Pair("BTC", "USD"))),
+                journals,
+                new FrameRecorders(false, Path.of("unused"))) {
+            @Override
+            protected void connect() {
+                // Frames are fed directly
+            }
+        };
+
+        for (int i = 0; i < FRAMES; i++) {
+            long micros = 1752485434749389L + i * 1_000L;
+            trades[i] = ("{\"data\": {\"id\": %d, \"timestamp\": \"%d\", \"amount\": 0.0%04d, \"amount_str\": \"0.0%04d0000\", "
+                    + "\"price\": 1221%02d.%d, \"price_str\": \"1221%02d.%d\", \"type\": %d, \"microtimestamp\": \"%d\", "
+                    + "\"buy_order_id\": 1893417283674113, \"sell_order_id\": 1893417282039810}, "
+                    + "\"channel\": \"live_trades_btcusd\", \"event\": \"trade\"}")
+                    .formatted(412345678 + i, micros / 1_000_000, i, i, i % 100, i % 10, i % 100, i % 10, i & 1, micros);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        journals.close();
+    }
+
+    @Benchmark
+    public void trade() {
+        websocket.readMessage(trades[next]);
+        websocket.endOfBatch();
+        next = (next + 1) & (FRAMES - 1);
+    }
+
+    @Benchmark
+    public void heartbeat() {
+        websocket.readMessage(HEARTBEAT);
+    }
+
+    @Benchmark
+    public void subscriptionSucceeded() {
+        websocket.readMessage(SUBSCRIPTION_SUCCEEDED);
+    }
+}
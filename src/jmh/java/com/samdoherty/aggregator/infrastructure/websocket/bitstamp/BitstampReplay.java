@@ -0,0 +1,72 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import com.samdoherty.aggregator.infrastructure.configuration.PairsConfiguration;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournals;
+import com.samdoherty.aggregator.infrastructure.recording.FrameRecorders;
+import com.samdoherty.aggregator.infrastructure.recording.FrameReplayer;
+import com.samdoherty.aggregator.infrastructure.websocket.Shard;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a recording of Bitstamp frames through a fully wired, offline {@link BitstampWebsocket} and prints the
+ * sustained rate, latency and allocation
+ * <p>
+ * Run with {@code ./gradlew replay -Preplay.file=bitstamp.frames -Preplay.speed=10 -Preplay.pairs=BTC-USD,ETH-USD}.
+ * Speed is a multiple of the recorded rate, or 'max' for as fast as possible. Trades are journaled, as in production
+ */
+public final class BitstampReplay {
+
+    private BitstampReplay() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args[0].isBlank()) {
+            System.err.println("Usage: BitstampReplay <recording> [speed|max] [BASE-QUOTE,...]");
+            System.exit(1);
+        }
+
+        Path recording = Path.of(args[0]);
+        double speed = args.length < 2 || args[1].equalsIgnoreCase("max") ? FrameReplayer.FLAT_OUT : Double.parseDouble(args[1]);
+        List<Pair> pairs = Arrays.stream((args.length < 3 ? "BTC-USD" : args[2]).split(","))
+                .map(pair -> pair.trim().split("-"))
+                .map(pair -> new Pair(pair[0], pair[1]))
+                .toList();
+
+        PriceAggregatorService aggregatorService = new PriceAggregatorService();
+        TickJournals journals = new TickJournals(aggregatorService, true, Files.createTempDirectory("journal-replay"), 1 << 20, 4);
+
+        BitstampWebsocket websocket = new BitstampWebsocket("bitstamp", "wss://replay", Shard.ONLY, 1, BitstampBookFeed.NONE,
+                new PairsConfiguration(pairs),
+                aggregatorService,
+                new QuoteService(aggregatorService),
+                new InstrumentRegistry(aggregatorService),
+                new CandleService(aggregatorService),
+                new BitstampStubs.StubApiClient(),
+                new BitstampStubs.StubMarketCache(pairs),
+                journals,
+                new FrameRecorders(false, Path.of("unused"))) {
+            @Override
+            protected void connect() {
+                // Frames are replayed
+            }
+        };
+
+        try {
+            System.out.printf("Replaying %s at %s%n", recording, speed == FrameReplayer.FLAT_OUT ? "max speed" : speed + "x");
+            System.out.println(new FrameReplayer(recording).replay(websocket, speed));
+        } finally {
+            journals.close();
+            System.exit(0);
+        }
+    }
+}
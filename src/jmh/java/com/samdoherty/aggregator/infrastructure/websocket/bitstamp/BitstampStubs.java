@@ -0,0 +1,51 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampApiClient;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampMarketCache;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Market;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Offline stand-ins for Bitstamp's REST API, so a websocket can be built without the network
+ */
+final class BitstampStubs {
+
+    private BitstampStubs() {
+    }
+
+    static final class StubApiClient extends BitstampApiClient {
+
+        StubApiClient() {
+            super("https://offline");
+        }
+    }
+
+    /**
+     * Lists a market for every pair, each priced to 2 decimal places
+     */
+    static final class StubMarketCache extends BitstampMarketCache {
+
+        private final Map<String, Market> markets;
+
+        StubMarketCache(@NotNull List<Pair> pairs) {
+            super(new StubApiClient(), Path.of("offline-markets.json"), Duration.ZERO, Duration.ZERO);
+            this.markets = pairs.stream()
+                    .map(pair -> new Market((pair.base() + pair.quote()).toLowerCase(Locale.ROOT), pair.base(), pair.quote(), 2))
+                    .collect(Collectors.toMap(Market::symbol, Function.identity()));
+        }
+
+        @Override
+        public @NotNull Map<String, Market> getMarkets() {
+            return markets;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.api.exception.InvalidIntervalException;
+import com.samdoherty.aggregator.api.exception.SymbolNotFoundException;
+import com.samdoherty.aggregator.domain.model.Candle;
+import com.samdoherty.aggregator.domain.model.CandleInterval;
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import jakarta.validation.constraints.Min;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Candle history route
+ */
+@Validated
+@RestController
+@RequiredArgsConstructor
+public class CandleController {
+
+    private static final String INTERVALS = Arrays.stream(CandleInterval.values())
+            .map(CandleInterval::getLabel)
+            .collect(Collectors.joining(", "));
+
+    private final CandleService candleService;
+    private final InstrumentRegistry instrumentRegistry;
+
+    /**
+     * Get the most recent OHLCV candles of an instrument
+     *
+     * @param symbol   format 'AAA-BBB' using uppercase or lowercase letters
+     * @param interval one of 1s, 1m, 5m, 1h
+     * @param limit    most recent candles wanted, capped at those retained for the interval
+     * @param exchange optional venue e.g. 'bitstamp'. Trades from every venue if absent
+     * @return candles oldest first. Intervals without trades have no candle
+     */
+    @GetMapping("/prices/{symbol}/candles")
+    public ResponseEntity<List<Candle>> getCandles(@PathVariable String symbol,
+                                                   @RequestParam(defaultValue = "1m") String interval,
+                                                   @RequestParam(defaultValue = "60") @Min(value = 1, message = "Request parameter 'limit' must be at least 1") int limit,
+                                                   @RequestParam(required = false) @Nullable String exchange) {
+
+        CandleInterval candleInterval = CandleInterval.fromLabel(interval);
+        if (candleInterval == null) {
+            throw new InvalidIntervalException("Request parameter 'interval' must be one of " + INTERVALS);
+        }
+
+        int id = instrumentRegistry.resolve(Symbols.exchange(exchange), symbol);
+        if (id == InstrumentRegistry.UNKNOWN) {
+            Symbols.validate(symbol, Symbols.PATH_SYMBOL);
+            throw new SymbolNotFoundException("No symbol found for " + symbol);
+        }
+
+        return ResponseEntity.ok(candleService.getCandles(id, candleInterval, limit));
+    }
+}
@@ -0,0 +1,57 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * CBOR encoding of prices for machine consumers, served as application/cbor
+ * <p>
+ * A price is a three element array of integers, [mantissa, scale, epoch nanos], e.g. 122107.50 at
+ * 2025-07-14T09:30:34.7493896Z is [12210750, 2, 1752485434749389600]. The value is mantissa * 10^-scale, exactly
+ */
+final class CompactPrices {
+
+    private static final CBORFactory FACTORY = new CBORFactory();
+
+    /**
+     * Longest encoding of a price, the array head and three 9 byte integers
+     */
+    private static final int MAX_SIZE = 1 + 3 * 9;
+
+    private CompactPrices() {
+    }
+
+    /**
+     * @param price mantissa, scale and epoch nanos as read from the price store
+     */
+    static byte[] encode(long @NotNull [] price) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_SIZE);
+        try (JsonGenerator generator = generator(bytes)) {
+            write(generator, price);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static @NotNull JsonGenerator generator(@NotNull OutputStream outputStream) throws IOException {
+        return FACTORY.createGenerator(outputStream);
+    }
+
+    /**
+     * @param price mantissa, scale and epoch nanos as read from the price store
+     */
+    static void write(@NotNull JsonGenerator generator, long @NotNull [] price) throws IOException {
+        generator.writeStartArray(price, 3);
+        generator.writeNumber(price[0]);
+        generator.writeNumber((int) price[1]);
+        generator.writeNumber(price[2]);
+        generator.writeEndArray();
+    }
+}
@@ -0,0 +1,123 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.samdoherty.aggregator.api.exception.InvalidHistoryQueryException;
+import com.samdoherty.aggregator.api.exception.SymbolNotFoundException;
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Tick;
+import com.samdoherty.aggregator.domain.service.HistoryService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.store.EpochClock;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+
+/**
+ * Trade history routes, answered from the on-disk tick histories
+ * <p>
+ * Histories are kept per venue, so an exchange is required
+ */
+@RestController
+@RequiredArgsConstructor
+public class HistoryController {
+
+    private final HistoryService historyService;
+    private final InstrumentRegistry instrumentRegistry;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Get the price of an instrument at a point in time, that of the last trade at or before it
+     *
+     * @param symbol   format 'AAA-BBB' using uppercase or lowercase letters
+     * @param time     ISO 8601 with an offset e.g. '2025-07-14T09:30:34Z'
+     * @param exchange venue e.g. 'bitstamp'
+     * @return the last trade at or before the time
+     */
+    @GetMapping("/prices/{symbol}/at")
+    public ResponseEntity<Tick> getPriceAt(@PathVariable String symbol,
+                                           @RequestParam String time,
+                                           @RequestParam(required = false) @Nullable String exchange) throws IOException {
+
+        long epochNanos = epochNanos(time, "time");
+        Tick tick = historyService.at(resolve(symbol, exchange), epochNanos);
+
+        if (tick == null) {
+            throw new SymbolNotFoundException("No price found for " + symbol + " at " + time);
+        }
+
+        return ResponseEntity.ok(tick);
+    }
+
+    /**
+     * Get every trade of an instrument within a time range
+     * <p>
+     * Ticks are read from disk a block at a time and streamed straight out, so a range is never held in memory whole
+     *
+     * @param symbol   format 'AAA-BBB' using uppercase or lowercase letters
+     * @param from     ISO 8601 with an offset, inclusive
+     * @param to       ISO 8601 with an offset, inclusive. Now if absent
+     * @param exchange venue e.g. 'bitstamp'
+     * @return JSON array of trades oldest first
+     */
+    @GetMapping("/prices/{symbol}/history")
+    public ResponseEntity<StreamingResponseBody> getHistory(@PathVariable String symbol,
+                                                            @RequestParam String from,
+                                                            @RequestParam(required = false) @Nullable String to,
+                                                            @RequestParam(required = false) @Nullable String exchange) {
+
+        long fromNanos = epochNanos(from, "from");
+        long toNanos = to == null ? EpochClock.nanos() : epochNanos(to, "to");
+        if (fromNanos > toNanos) {
+            throw new InvalidHistoryQueryException("Request parameter 'from' must not be after 'to'");
+        }
+
+        int id = resolve(symbol, exchange);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(outputStream -> writeTicks(outputStream, id, fromNanos, toNanos));
+    }
+
+    private void writeTicks(OutputStream outputStream, int id, long from, long to) throws IOException {
+        try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+            generator.writeStartArray();
+            historyService.ticks(id, from, to, generator::writeObject);
+            generator.writeEndArray();
+        }
+    }
+
+    private int resolve(String symbol, @Nullable String exchange) {
+        if (exchange == null || Instrument.CONSOLIDATED.equalsIgnoreCase(exchange)) {
+            throw new InvalidHistoryQueryException("Request parameter 'exchange' must name a venue, history is kept per venue");
+        }
+
+        int id = instrumentRegistry.resolve(exchange, symbol);
+        if (id == InstrumentRegistry.UNKNOWN) {
+            Symbols.validate(symbol, Symbols.PATH_SYMBOL);
+            throw new SymbolNotFoundException("No symbol found for " + symbol);
+        }
+        return id;
+    }
+
+    private static long epochNanos(String time, String name) {
+        try {
+            Instant instant = OffsetDateTime.parse(time).toInstant();
+            return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+        } catch (DateTimeException | ArithmeticException e) {
+            throw new InvalidHistoryQueryException("Request parameter '" + name + "' must be an ISO 8601 time with an offset e.g. '2025-07-14T09:30:34Z'");
+        }
+    }
+}
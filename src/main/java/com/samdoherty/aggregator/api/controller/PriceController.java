@@ -1,56 +1,212 @@
 package com.samdoherty.aggregator.api.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.samdoherty.aggregator.api.exception.SymbolNotFoundException;
-import com.samdoherty.aggregator.domain.model.Instrument;
 import com.samdoherty.aggregator.domain.model.Price;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
 import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
-import jakarta.validation.Valid;
-import jakarta.validation.constraints.NotBlank;
-import jakarta.validation.constraints.Pattern;
-import lombok.RequiredArgsConstructor;
-import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
 
 /**
  * Core external route into application
  */
-@Validated
 @RestController
-@RequiredArgsConstructor
 public class PriceController {
 
-    private static final String DEFAULT_EXCHANGE = "bitstamp";
-
     private final PriceAggregatorService priceAggregatorService;
+    private final InstrumentRegistry instrumentRegistry;
+    private final ObjectMapper objectMapper;
+    private final PriceResponseCache jsonResponses;
+    private final PriceResponseCache compactResponses;
+
+    public PriceController(@NotNull PriceAggregatorService priceAggregatorService,
+                           @NotNull InstrumentRegistry instrumentRegistry,
+                           @NotNull ObjectMapper objectMapper) {
+        this.priceAggregatorService = priceAggregatorService;
+        this.instrumentRegistry = instrumentRegistry;
+        this.objectMapper = objectMapper;
+        this.jsonResponses = new PriceResponseCache(priceAggregatorService, this::encodeJson);
+        this.compactResponses = new PriceResponseCache(priceAggregatorService, this::encodeCompact);
+    }
 
     /**
      * Get the latest price of an instrument
+     * <p>
+     * Symbols are resolved through the registry first, validation only happens for symbols it does not know
+     * <p>
+     * The price is serialised once per change and the bytes reused until the next, tagged with an ETag of the price's
+     * version. A client sending that back in If-None-Match gets 304 Not Modified until the price moves
      *
-     * @param symbol format 'AAA-BBB' using uppercase or lowercase letters
-     * @return Price object
+     * @param symbol      format 'AAA-BBB' using uppercase or lowercase letters
+     * @param exchange    optional venue e.g. 'bitstamp'. The median across every venue if absent
+     * @param ifNoneMatch optional ETags the client already holds
+     * @return Price object as JSON
      */
     @GetMapping("/prices/{symbol}")
-    public ResponseEntity<Price> getPrices(
-            @Valid
-            @NotBlank(message = "Path variable 'symbol' cannot be blank")
-            @Pattern(regexp = "^[A-Za-z]{3}-[A-Za-z]{3}$", message = "Path variable 'symbol' must be in the format 'AAA-BBB' using uppercase or lowercase letters.")
-            @PathVariable
-            String symbol) {
-
-        Price price = priceAggregatorService.getPrice(Instrument.builder()
-                .exchange(DEFAULT_EXCHANGE)
-                .base(StringUtils.left(symbol, 3).toUpperCase())
-                .quote(StringUtils.right(symbol, 3).toUpperCase())
-                .build());
+    public ResponseEntity<byte[]> getPrices(@PathVariable String symbol,
+                                            @RequestParam(required = false) @Nullable String exchange,
+                                            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                            @Nullable String ifNoneMatch) {
 
-        if (price == null) {
+        return respond(jsonResponses, MediaType.APPLICATION_JSON, symbol, exchange, ifNoneMatch);
+    }
+
+    /**
+     * {@link #getPrices} for clients accepting application/cbor, see {@link CompactPrices} for the layout
+     */
+    @GetMapping(value = "/prices/{symbol}", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public ResponseEntity<byte[]> getCompactPrices(@PathVariable String symbol,
+                                                   @RequestParam(required = false) @Nullable String exchange,
+                                                   @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)
+                                                   @Nullable String ifNoneMatch) {
+
+        return respond(compactResponses, MediaType.APPLICATION_CBOR, symbol, exchange, ifNoneMatch);
+    }
+
+    /**
+     * Get the latest prices of many instruments in one call, or of every tracked instrument if no symbols are given
+     * <p>
+     * Symbols are all resolved up front, then prices are read in a single pass and streamed out as one JSON object
+     * keyed by symbol. Known symbols without a price yet are left out
+     *
+     * @param symbols  optional, comma separated, each format 'AAA-BBB' using uppercase or lowercase letters
+     * @param exchange optional venue e.g. 'bitstamp'. The median across every venue if absent
+     * @return JSON object of symbol to Price
+     */
+    @GetMapping("/prices")
+    public ResponseEntity<StreamingResponseBody> getAllPrices(@RequestParam(required = false) @Nullable List<String> symbols,
+                                                              @RequestParam(required = false) @Nullable String exchange) {
+
+        int[] ids = resolve(symbols, exchange);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(outputStream -> writePrices(outputStream, ids));
+    }
+
+    /**
+     * {@link #getAllPrices} for clients accepting application/cbor, a CBOR map of symbol to price as laid out in
+     * {@link CompactPrices}
+     */
+    @GetMapping(value = "/prices", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAllCompactPrices(@RequestParam(required = false) @Nullable List<String> symbols,
+                                                                     @RequestParam(required = false) @Nullable String exchange) {
+
+        int[] ids = resolve(symbols, exchange);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_CBOR)
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(outputStream -> writeCompactPrices(outputStream, ids));
+    }
+
+    private ResponseEntity<byte[]> respond(PriceResponseCache responses, MediaType contentType, String symbol,
+                                           @Nullable String exchange, @Nullable String ifNoneMatch) {
+
+        int id = instrumentRegistry.resolve(Symbols.exchange(exchange), symbol);
+        if (id == InstrumentRegistry.UNKNOWN) {
+            Symbols.validate(symbol, Symbols.PATH_SYMBOL);
             throw new SymbolNotFoundException("No symbol found for " + symbol);
         }
 
-        return ResponseEntity.ok(price);
+        PriceResponseCache.Entry response = responses.get(id);
+
+        if (response == null) {
+            throw new SymbolNotFoundException("No symbol found for " + symbol);
+        }
+
+        if (response.etag() == null) {
+            return ResponseEntity.ok()
+                    .contentType(contentType)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .body(response.body());
+        }
+        if (response.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(response.etag())
+                    .cacheControl(CacheControl.noCache())
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(response.etag())
+                .cacheControl(CacheControl.noCache())
+                .contentType(contentType)
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(response.body());
+    }
+
+    private int[] resolve(@Nullable List<String> symbols, @Nullable String exchange) {
+        String venue = Symbols.exchange(exchange);
+        return symbols == null ? instrumentRegistry.ids(venue) : Symbols.resolveAll(instrumentRegistry, venue, symbols);
+    }
+
+    private byte @Nullable [] encodeJson(int id) {
+        Price price = priceAggregatorService.getPrice(id);
+        if (price == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsBytes(price);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte @Nullable [] encodeCompact(int id) {
+        long[] price = new long[3];
+        return priceAggregatorService.copyPrice(id, price) ? CompactPrices.encode(price) : null;
+    }
+
+    private void writePrices(OutputStream outputStream, int[] ids) throws IOException {
+        try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+            generator.writeStartObject();
+
+            for (int id : ids) {
+                Price price = priceAggregatorService.getPrice(id);
+                if (price != null) {
+                    generator.writeFieldName(instrumentRegistry.symbol(id));
+                    generator.writeObject(price);
+                }
+            }
+
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeCompactPrices(OutputStream outputStream, int[] ids) throws IOException {
+        long[] price = new long[3];
+        try (JsonGenerator generator = CompactPrices.generator(outputStream)) {
+            generator.writeStartObject();
+
+            for (int id : ids) {
+                if (priceAggregatorService.copyPrice(id, price)) {
+                    generator.writeFieldName(instrumentRegistry.symbol(id));
+                    CompactPrices.write(generator, price);
+                }
+            }
+
+            generator.writeEndObject();
+        }
     }
 }
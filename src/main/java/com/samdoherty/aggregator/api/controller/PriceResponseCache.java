@@ -0,0 +1,130 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Each instrument's latest price serialised once per change, on the first read after it. One cache per response format
+ * <p>
+ * An entry is valid for as long as the price's slot version is unchanged, so a hit costs one version read. Entries are
+ * immutable and replaced whole. A replacement lost to a concurrent grow is serialised again on the next read
+ */
+class PriceResponseCache {
+
+    /**
+     * Reads lost to a write between the version check and the price read before serving uncached
+     */
+    private static final int ATTEMPTS = 3;
+
+    private final PriceAggregatorService priceAggregatorService;
+    private final Encoder encoder;
+
+    /**
+     * Tells this cache's ETags from those of another format, or of an earlier run whose slot versions started from
+     * the same place
+     */
+    private final String tag = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    private volatile Entry[] entries = new Entry[0];
+
+    PriceResponseCache(@NotNull PriceAggregatorService priceAggregatorService, @NotNull Encoder encoder) {
+        this.priceAggregatorService = priceAggregatorService;
+        this.encoder = encoder;
+    }
+
+    /**
+     * @return the instrument's latest price encoded, or null if it has none yet
+     */
+    @Nullable Entry get(int id) {
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            long version = priceAggregatorService.version(id);
+            Entry[] current = entries;
+            Entry cached = id < current.length ? current[id] : null;
+            if (cached != null && cached.version == version) {
+                return cached;
+            }
+
+            byte[] body = encoder.encode(id);
+            if (body == null) {
+                return null;
+            }
+            if ((version & 1) == 1 || priceAggregatorService.version(id) != version) {
+                // Written meanwhile, the price may be newer than the version
+                continue;
+            }
+            if (version == 0) {
+                // Never written, nothing to key an entry on
+                return new Entry(version, body, null);
+            }
+
+            Entry entry = new Entry(version, body, '"' + tag + '-' + Long.toHexString(version) + '"');
+            store(id, entry);
+            return entry;
+        }
+
+        byte[] body = encoder.encode(id);
+        return body == null ? null : new Entry(-1, body, null);
+    }
+
+    private void store(int id, Entry entry) {
+        Entry[] current = entries;
+        if (id >= current.length) {
+            current = grow(id);
+        }
+        current[id] = entry;
+    }
+
+    private synchronized Entry[] grow(int id) {
+        Entry[] current = entries;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(id + 1, priceAggregatorService.size()));
+            entries = current;
+        }
+        return current;
+    }
+
+    /**
+     * Serialises an instrument's latest price
+     */
+    @FunctionalInterface
+    interface Encoder {
+
+        /**
+         * @return the encoded price, or null if the instrument has none yet
+         */
+        byte @Nullable [] encode(int id);
+    }
+
+    /**
+     * @param version slot version the price was read at
+     * @param body    encoded price
+     * @param etag    strong entity tag of this version, null if the response must not be cached
+     */
+    record Entry(long version, byte @NotNull [] body, @Nullable String etag) {
+
+        /**
+         * @param ifNoneMatch If-None-Match request header, e.g. '"a1-2"', 'W/"a1-2", "a1-4"' or '*'
+         * @return true if the client already holds this version
+         */
+        boolean matches(@Nullable String ifNoneMatch) {
+            if (etag == null || ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    // Weak comparison, as RFC 9110 asks of If-None-Match
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
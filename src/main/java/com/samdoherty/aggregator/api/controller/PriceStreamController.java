@@ -0,0 +1,48 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.api.stream.PriceStreamPublisher;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Push alternative to polling the price routes
+ */
+@RestController
+@RequiredArgsConstructor
+public class PriceStreamController {
+
+    private final PriceStreamPublisher priceStreamPublisher;
+    private final InstrumentRegistry instrumentRegistry;
+
+    /**
+     * Stream price changes as Server-Sent Events named 'price'
+     * <p>
+     * The current price of each instrument is sent on connect. After that a slow client is only ever sent
+     * the newest price per instrument, intermediate changes are dropped
+     *
+     * @param symbols  optional, comma separated, each format 'AAA-BBB'. Every tracked instrument if absent
+     * @param exchange optional venue e.g. 'bitstamp'. The median across every venue if absent
+     * @return event stream of PriceUpdate objects
+     */
+    @GetMapping(path = "/prices/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPrices(@RequestParam(required = false) @Nullable List<String> symbols,
+                                   @RequestParam(required = false) @Nullable String exchange) {
+
+        String venue = Symbols.exchange(exchange);
+        int[] ids = symbols == null ? instrumentRegistry.ids(venue)
+                : Symbols.resolveAll(instrumentRegistry, venue, symbols);
+
+        String[] names = Arrays.stream(ids).mapToObj(instrumentRegistry::symbol).toArray(String[]::new);
+
+        return priceStreamPublisher.subscribe(ids, names);
+    }
+}
@@ -0,0 +1,49 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.api.exception.SymbolNotFoundException;
+import com.samdoherty.aggregator.domain.model.Quote;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Top of book route, next to the last trade price
+ */
+@RestController
+@RequiredArgsConstructor
+public class QuoteController {
+
+    private final QuoteService quoteService;
+    private final InstrumentRegistry instrumentRegistry;
+
+    /**
+     * Get the best bid, best ask, mid and spread of an instrument
+     *
+     * @param symbol   format 'AAA-BBB' using uppercase or lowercase letters
+     * @param exchange optional venue e.g. 'bitstamp'. The best bid and best ask across every venue if absent
+     * @return the latest top of book
+     */
+    @GetMapping("/prices/{symbol}/quote")
+    public ResponseEntity<Quote> getQuote(@PathVariable String symbol,
+                                          @RequestParam(required = false) @Nullable String exchange) {
+
+        int id = instrumentRegistry.resolve(Symbols.exchange(exchange), symbol);
+        if (id == InstrumentRegistry.UNKNOWN) {
+            Symbols.validate(symbol, Symbols.PATH_SYMBOL);
+            throw new SymbolNotFoundException("No symbol found for " + symbol);
+        }
+
+        Quote quote = quoteService.getQuote(id);
+        if (quote == null) {
+            throw new SymbolNotFoundException("No order book for " + symbol);
+        }
+
+        return ResponseEntity.ok(quote);
+    }
+}
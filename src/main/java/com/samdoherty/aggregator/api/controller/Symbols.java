@@ -0,0 +1,70 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.api.exception.InvalidSymbolException;
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Shared symbol resolution for the price routes
+ * <p>
+ * Symbols are resolved through the registry first, validation only happens for symbols it does not know
+ */
+final class Symbols {
+
+    static final String PATH_SYMBOL = "Path variable 'symbol'";
+    static final String PARAM_SYMBOLS = "Request parameter 'symbols'";
+
+    private static final Pattern SYMBOL_PATTERN = Pattern.compile("^[A-Za-z]{3}-[A-Za-z]{3}$");
+
+    private Symbols() {
+    }
+
+    /**
+     * @param exchange as requested, in any case
+     * @return the requested exchange, or the consolidated cross venue view if none was requested
+     */
+    static @NotNull String exchange(@Nullable String exchange) {
+        return exchange == null ? Instrument.CONSOLIDATED : exchange;
+    }
+
+    /**
+     * Resolve many symbols. Malformed symbols fail the whole request, well-formed but untracked ones are simply absent
+     *
+     * @return ids of the tracked symbols, in request order
+     */
+    static int[] resolveAll(@NotNull InstrumentRegistry registry, @NotNull String exchange, @NotNull List<String> symbols) {
+        int[] ids = new int[symbols.size()];
+        int count = 0;
+
+        for (String symbol : symbols) {
+            int id = registry.resolve(exchange, symbol);
+            if (id == InstrumentRegistry.UNKNOWN) {
+                validate(symbol, PARAM_SYMBOLS);
+                continue;
+            }
+            ids[count++] = id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * @param source how the symbol was supplied, used in the error message e.g. "Path variable 'symbol'"
+     * @throws InvalidSymbolException if the symbol is not in the format 'AAA-BBB'
+     */
+    static void validate(String symbol, String source) {
+        if (StringUtils.isBlank(symbol)) {
+            throw new InvalidSymbolException(source + " cannot be blank");
+        }
+
+        if (!SYMBOL_PATTERN.matcher(symbol).matches()) {
+            throw new InvalidSymbolException(source + " must be in the format 'AAA-BBB' using uppercase or lowercase letters.");
+        }
+    }
+}
@@ -26,6 +26,45 @@ public class GlobalExceptionAdvice {
                 .build(), HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(InvalidSymbolException.class)
+    public ResponseEntity<ApiError> handleInvalidSymbolException(
+            InvalidSymbolException ex,
+            HttpServletRequest request) {
+
+        return ResponseEntity.badRequest().body(ApiError.builder()
+                .status(HttpStatus.BAD_REQUEST.value())
+                .error("Validation Failed")
+                .message(ex.getMessage())
+                .path(request.getRequestURI())
+                .build());
+    }
+
+    @ExceptionHandler(InvalidIntervalException.class)
+    public ResponseEntity<ApiError> handleInvalidIntervalException(
+            InvalidIntervalException ex,
+            HttpServletRequest request) {
+
+        return ResponseEntity.badRequest().body(ApiError.builder()
+                .status(HttpStatus.BAD_REQUEST.value())
+                .error("Validation Failed")
+                .message(ex.getMessage())
+                .path(request.getRequestURI())
+                .build());
+    }
+
+    @ExceptionHandler(InvalidHistoryQueryException.class)
+    public ResponseEntity<ApiError> handleInvalidHistoryQueryException(
+            InvalidHistoryQueryException ex,
+            HttpServletRequest request) {
+
+        return ResponseEntity.badRequest().body(ApiError.builder()
+                .status(HttpStatus.BAD_REQUEST.value())
+                .error("Validation Failed")
+                .message(ex.getMessage())
+                .path(request.getRequestURI())
+                .build());
+    }
+
     @ExceptionHandler(ConstraintViolationException.class)
     public ResponseEntity<ApiError> handleValidationException(
             ConstraintViolationException ex,
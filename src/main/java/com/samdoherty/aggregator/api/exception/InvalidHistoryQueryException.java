@@ -0,0 +1,11 @@
+package com.samdoherty.aggregator.api.exception;
+
+/**
+ * When history is requested for a malformed time or range, or without a venue, we throw this exception
+ */
+public class InvalidHistoryQueryException extends RuntimeException {
+
+    public InvalidHistoryQueryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.samdoherty.aggregator.api.exception;
+
+/**
+ * When candles are requested for an interval we do not keep, we throw this exception
+ */
+public class InvalidIntervalException extends RuntimeException {
+
+    public InvalidIntervalException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package com.samdoherty.aggregator.api.exception;
+
+/**
+ * When api requests are made with a symbol that is not in the expected format we throw this exception
+ * <p>
+ * Symbols are validated by hand, and only once they fail to resolve, so known symbols skip validation entirely
+ */
+public class InvalidSymbolException extends RuntimeException {
+
+    public InvalidSymbolException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,217 @@
+package com.samdoherty.aggregator.api.stream;
+
+import com.samdoherty.aggregator.domain.model.Price;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.service.PriceListener;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fans price changes out to Server-Sent Event subscribers
+ * <p>
+ * The exchange threads only ever wake the dispatcher, they do no per-subscriber work. The dispatcher compares
+ * price versions of followed instruments against what it last dispatched and flags changed instruments on each
+ * follower. Sending happens on virtual threads, one per busy subscriber rather than per connection,
+ * so a slow client only delays itself
+ */
+@Slf4j
+@Service
+public class PriceStreamPublisher implements PriceListener {
+
+    /**
+     * Upper bound on how long the dispatcher sleeps if it is never woken, guards against a missed signal
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final PriceAggregatorService aggregatorService;
+
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final List<PriceSubscriber> subscribers = new ArrayList<>();
+
+    private volatile WatchTable watches = WatchTable.EMPTY;
+
+    private final AtomicBoolean signalled = new AtomicBoolean();
+
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+
+    /**
+     * Last dispatched version per instrument id, only touched by the dispatcher thread
+     */
+    private long[] dispatchedVersions = new long[0];
+
+    public PriceStreamPublisher(PriceAggregatorService aggregatorService) {
+        this.aggregatorService = aggregatorService;
+
+        dispatcher = new Thread(this::dispatch, "price-stream-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        aggregatorService.addListener(this);
+    }
+
+    /**
+     * Hot path, called on exchange threads for every price change
+     */
+    @Override
+    public void onPrice(int id) {
+        if (watches.isEmpty() || signalled.get()) {
+            return;
+        }
+
+        if (signalled.compareAndSet(false, true)) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    /**
+     * Start streaming the given instruments. The latest price of each is sent straight away
+     *
+     * @param ids     aggregator ids to follow
+     * @param symbols symbol of each id, as presented to the client
+     * @return emitter to hand back to Spring MVC
+     */
+    public @NotNull SseEmitter subscribe(int @NotNull [] ids, String @NotNull [] symbols) {
+        // No timeout, subscribers stay until they disconnect
+        SseEmitter emitter = new SseEmitter(0L);
+        PriceSubscriber subscriber = new PriceSubscriber(ids, symbols, emitter, this);
+
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(e -> unsubscribe(subscriber));
+
+        synchronized (subscribers) {
+            subscribers.add(subscriber);
+            watches = WatchTable.of(subscribers);
+        }
+
+        subscriber.markAllChanged(senders);
+        return emitter;
+    }
+
+    void unsubscribe(@NotNull PriceSubscriber subscriber) {
+        subscriber.close();
+
+        synchronized (subscribers) {
+            if (subscribers.remove(subscriber)) {
+                watches = WatchTable.of(subscribers);
+            }
+        }
+    }
+
+    int subscriberCount() {
+        synchronized (subscribers) {
+            return subscribers.size();
+        }
+    }
+
+    @Nullable Price price(int id) {
+        return aggregatorService.getPrice(id);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(dispatcher);
+        senders.shutdownNow();
+
+        synchronized (subscribers) {
+            subscribers.forEach(subscriber -> subscriber.emitter().complete());
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            signalled.set(false);
+
+            try {
+                sweep(watches);
+            } catch (RuntimeException e) {
+                log.error("Price stream dispatch failed", e);
+            }
+
+            if (!signalled.get()) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+        }
+    }
+
+    private void sweep(WatchTable table) {
+        for (int i = 0; i < table.ids.length; i++) {
+            int id = table.ids[i];
+
+            if (id >= dispatchedVersions.length) {
+                dispatchedVersions = Arrays.copyOf(dispatchedVersions, Math.max(id + 1, dispatchedVersions.length * 2));
+            }
+
+            long version = aggregatorService.version(id);
+            if (version == dispatchedVersions[id]) {
+                continue;
+            }
+            dispatchedVersions[id] = version;
+
+            PriceSubscriber[] followers = table.followers[i];
+            int[] positions = table.positions[i];
+            for (int j = 0; j < followers.length; j++) {
+                followers[j].markChanged(positions[j], senders);
+            }
+        }
+    }
+
+    /**
+     * Immutable index of followed instrument id to its followers, and the instrument's position within each follower.
+     * Rebuilt whenever a subscriber comes or goes
+     */
+    private record WatchTable(int[] ids, PriceSubscriber[][] followers, int[][] positions) {
+
+        private static final WatchTable EMPTY = new WatchTable(new int[0], new PriceSubscriber[0][], new int[0][]);
+
+        private boolean isEmpty() {
+            return ids.length == 0;
+        }
+
+        private static WatchTable of(List<PriceSubscriber> subscribers) {
+            Map<Integer, List<PriceSubscriber>> followersById = new LinkedHashMap<>();
+            Map<Integer, List<Integer>> positionsById = new LinkedHashMap<>();
+
+            for (PriceSubscriber subscriber : subscribers) {
+                int[] ids = subscriber.ids();
+                for (int position = 0; position < ids.length; position++) {
+                    followersById.computeIfAbsent(ids[position], id -> new ArrayList<>()).add(subscriber);
+                    positionsById.computeIfAbsent(ids[position], id -> new ArrayList<>()).add(position);
+                }
+            }
+
+            int[] ids = new int[followersById.size()];
+            PriceSubscriber[][] followers = new PriceSubscriber[ids.length][];
+            int[][] positions = new int[ids.length][];
+
+            int i = 0;
+            for (Map.Entry<Integer, List<PriceSubscriber>> entry : followersById.entrySet()) {
+                ids[i] = entry.getKey();
+                followers[i] = entry.getValue().toArray(new PriceSubscriber[0]);
+                positions[i] = positionsById.get(entry.getKey()).stream().mapToInt(Integer::intValue).toArray();
+                i++;
+            }
+
+            return new WatchTable(ids, followers, positions);
+        }
+    }
+}
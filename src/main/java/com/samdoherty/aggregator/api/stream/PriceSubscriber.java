@@ -0,0 +1,127 @@
+package com.samdoherty.aggregator.api.stream;
+
+import com.samdoherty.aggregator.domain.model.Price;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A single streaming client and the instruments it follows
+ * <p>
+ * Changes are recorded as one pending bit per followed instrument rather than queued, so however slow the client
+ * it is only ever sent the newest price of each instrument. At most one drain runs per subscriber at a time
+ */
+@Slf4j
+class PriceSubscriber {
+
+    private final int[] ids;
+    private final String[] symbols;
+    private final SseEmitter emitter;
+    private final PriceStreamPublisher publisher;
+
+    private final AtomicLongArray pending;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    PriceSubscriber(int @NotNull [] ids, String @NotNull [] symbols, @NotNull SseEmitter emitter, @NotNull PriceStreamPublisher publisher) {
+        this.ids = ids;
+        this.symbols = symbols;
+        this.emitter = emitter;
+        this.publisher = publisher;
+        this.pending = new AtomicLongArray((ids.length + 63) >>> 6);
+    }
+
+    int[] ids() {
+        return ids;
+    }
+
+    SseEmitter emitter() {
+        return emitter;
+    }
+
+    /**
+     * Flag the instrument at a position in {@link #ids()} as changed, supersedes any unsent change
+     */
+    void markChanged(int position, @NotNull Executor executor) {
+        long bit = 1L << position;
+        long previous = pending.getAndAccumulate(position >>> 6, bit, (word, flag) -> word | flag);
+
+        if ((previous & bit) == 0) {
+            schedule(executor);
+        }
+    }
+
+    void markAllChanged(@NotNull Executor executor) {
+        for (int word = 0; word < pending.length(); word++) {
+            pending.set(word, -1L);
+        }
+        schedule(executor);
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    private void schedule(Executor executor) {
+        if (!closed && draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Send the latest price of every flagged instrument. Keeps going until nothing is pending, so a change
+     * flagged while sending is never stranded
+     */
+    private void drain() {
+        do {
+            for (int word = 0; word < pending.length(); word++) {
+                long bits = pending.getAndSet(word, 0);
+
+                while (bits != 0) {
+                    int position = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+
+                    if (position < ids.length && !send(position)) {
+                        return;
+                    }
+                }
+            }
+            draining.set(false);
+        } while (hasPending() && draining.compareAndSet(false, true));
+    }
+
+    private boolean send(int position) {
+        if (closed) {
+            return false;
+        }
+
+        Price price = publisher.price(ids[position]);
+        if (price == null) {
+            return true;
+        }
+
+        try {
+            emitter.send(SseEmitter.event().name("price").data(PriceUpdate.of(symbols[position], price)));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Dropping price stream subscriber: {}", e.getMessage());
+            publisher.unsubscribe(this);
+            return false;
+        }
+    }
+
+    private boolean hasPending() {
+        for (int word = 0; word < pending.length(); word++) {
+            if (pending.get(word) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
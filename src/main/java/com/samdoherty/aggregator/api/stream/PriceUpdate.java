@@ -0,0 +1,19 @@
+package com.samdoherty.aggregator.api.stream;
+
+import com.samdoherty.aggregator.domain.model.Price;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+
+/**
+ * Pushed to stream subscribers when a price changes
+ */
+public record PriceUpdate(
+        String symbol,
+        BigDecimal price,
+        ZonedDateTime time
+) {
+    public static PriceUpdate of(String symbol, Price price) {
+        return new PriceUpdate(symbol, price.price(), price.time());
+    }
+}
@@ -0,0 +1,37 @@
+package com.samdoherty.aggregator.domain.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Open/ high/ low/ close/ volume of the trades within one interval, for the API
+ *
+ * @param time start of the interval
+ */
+public record Candle(
+        ZonedDateTime time,
+        BigDecimal open,
+        BigDecimal high,
+        BigDecimal low,
+        BigDecimal close,
+        BigDecimal volume
+) {
+
+    /**
+     * Build the API representation from the fixed-point form candles are stored in
+     *
+     * @param priceScale  decimal places of the open, high, low and close mantissas
+     * @param volumeScale decimal places of the volume mantissa
+     */
+    public static Candle of(long startNanos, long open, long high, long low, long close, int priceScale,
+                            long volume, int volumeScale) {
+        return new Candle(ZonedDateTime.ofInstant(Instant.ofEpochSecond(0, startNanos), ZoneOffset.UTC),
+                BigDecimal.valueOf(open, priceScale),
+                BigDecimal.valueOf(high, priceScale),
+                BigDecimal.valueOf(low, priceScale),
+                BigDecimal.valueOf(close, priceScale),
+                BigDecimal.valueOf(volume, volumeScale));
+    }
+}
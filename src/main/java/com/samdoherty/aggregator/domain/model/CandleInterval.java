@@ -0,0 +1,47 @@
+package com.samdoherty.aggregator.domain.model;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Candle widths kept for every instrument, and how many of each are retained
+ */
+@Getter
+public enum CandleInterval {
+    ONE_SECOND("1s", TimeUnit.SECONDS.toNanos(1), 3_600),
+    ONE_MINUTE("1m", TimeUnit.MINUTES.toNanos(1), 1_440),
+    FIVE_MINUTES("5m", TimeUnit.MINUTES.toNanos(5), 2_016),
+    ONE_HOUR("1h", TimeUnit.HOURS.toNanos(1), 720);
+
+    /**
+     * As used by the API e.g. '1m'
+     */
+    private final String label;
+    private final long nanos;
+
+    /**
+     * Most recent candles retained, an hour of 1s up to a month of 1h
+     */
+    private final int capacity;
+
+    CandleInterval(@NotNull String label, long nanos, int capacity) {
+        this.label = label;
+        this.nanos = nanos;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the interval with the label, or null if there is none
+     */
+    public static @Nullable CandleInterval fromLabel(@NotNull String label) {
+        for (CandleInterval interval : values()) {
+            if (interval.label.equals(label)) {
+                return interval;
+            }
+        }
+        return null;
+    }
+}
@@ -11,6 +11,11 @@ import lombok.Getter;
 @Builder
 @EqualsAndHashCode
 public class Instrument {
+    /**
+     * Exchange of the cross venue view the aggregator keeps for every base/quote
+     */
+    public static final String CONSOLIDATED = "consolidated";
+
     /**
      * Strictly speaking, this is not yet needed. Is here, for example, purposes of extendability
      */
@@ -3,6 +3,8 @@ package com.samdoherty.aggregator.domain.model;
 import lombok.Builder;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 
 /**
@@ -18,4 +20,16 @@ public record Price(
          */
         ZonedDateTime time
 ) {
+
+    /**
+     * Build the API representation from the fixed-point form prices are stored in
+     *
+     * @param mantissa   unscaled price
+     * @param scale      decimal places of the mantissa
+     * @param epochNanos time of the price
+     */
+    public static Price of(long mantissa, int scale, long epochNanos) {
+        return new Price(BigDecimal.valueOf(mantissa, scale),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), ZoneOffset.UTC));
+    }
 }
@@ -0,0 +1,46 @@
+package com.samdoherty.aggregator.domain.model;
+
+import com.samdoherty.aggregator.domain.store.OrderBook;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Top of an instrument's order book for the API
+ * <p>
+ * A side with no orders has a null price, and then there is no mid or spread
+ *
+ * @param mid    halfway between the best bid and best ask, exact
+ * @param spread best ask less best bid. Negative if a consolidated book is crossed between venues
+ * @param time   of the latest book change
+ */
+public record Quote(
+        @Nullable BigDecimal bid,
+        @Nullable BigDecimal ask,
+        @Nullable BigDecimal mid,
+        @Nullable BigDecimal spread,
+        ZonedDateTime time
+) {
+
+    /**
+     * Build the API representation from the fixed-point form quotes are stored in
+     *
+     * @param bid        best bid mantissa, or {@link OrderBook#NONE}
+     * @param ask        best ask mantissa, or {@link OrderBook#NONE}
+     * @param scale      decimal places of both mantissas
+     * @param epochNanos time of the quote
+     */
+    public static Quote of(long bid, long ask, int scale, long epochNanos) {
+        BigDecimal bidPrice = bid == OrderBook.NONE ? null : BigDecimal.valueOf(bid, scale);
+        BigDecimal askPrice = ask == OrderBook.NONE ? null : BigDecimal.valueOf(ask, scale);
+        boolean both = bidPrice != null && askPrice != null;
+
+        return new Quote(bidPrice, askPrice,
+                both ? bidPrice.add(askPrice).divide(BigDecimal.TWO) : null,
+                both ? askPrice.subtract(bidPrice) : null,
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), ZoneOffset.UTC));
+    }
+}
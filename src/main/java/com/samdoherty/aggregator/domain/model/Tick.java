@@ -0,0 +1,30 @@
+package com.samdoherty.aggregator.domain.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * One historical trade of an instrument, for the API
+ *
+ * @param time exchange time of the trade
+ */
+public record Tick(
+        ZonedDateTime time,
+        BigDecimal price,
+        BigDecimal amount
+) {
+
+    /**
+     * Build the API representation from the fixed-point form ticks are stored in
+     *
+     * @param priceScale  decimal places of the price mantissa
+     * @param amountScale decimal places of the amount mantissa
+     */
+    public static Tick of(long epochNanos, long price, int priceScale, long amount, int amountScale) {
+        return new Tick(ZonedDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), ZoneOffset.UTC),
+                BigDecimal.valueOf(price, priceScale),
+                BigDecimal.valueOf(amount, amountScale));
+    }
+}
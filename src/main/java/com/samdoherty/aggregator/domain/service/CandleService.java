@@ -0,0 +1,78 @@
+package com.samdoherty.aggregator.domain.service;
+
+import com.samdoherty.aggregator.domain.model.Candle;
+import com.samdoherty.aggregator.domain.model.CandleInterval;
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.store.CandleStore;
+import com.samdoherty.aggregator.domain.store.EpochClock;
+import com.samdoherty.aggregator.domain.store.PriceStore;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * OHLCV candles built from every trade exchanges receive
+ * <p>
+ * Unlike latest prices, trades are never conflated before they reach here so volume is complete.
+ * Each trade also feeds the candles of its consolidated instrument, giving cross venue candles per symbol
+ */
+@Service
+public class CandleService {
+
+    /**
+     * Decimal places trade amounts and volumes are held at
+     */
+    public static final int VOLUME_SCALE = 8;
+
+    private final CandleStore store = new CandleStore();
+
+    private final PriceAggregatorService aggregatorService;
+
+    public CandleService(PriceAggregatorService aggregatorService) {
+        this.aggregatorService = aggregatorService;
+    }
+
+    /**
+     * Hot path. No hashing and no allocation
+     *
+     * @param id             as returned by {@link PriceAggregatorService#register(Instrument)}
+     * @param unscaledPrice  trade price mantissa at the instrument's scale
+     * @param unscaledAmount traded quantity mantissa at {@link #VOLUME_SCALE}
+     */
+    public void recordTrade(int id, long unscaledPrice, long unscaledAmount) {
+        long now = EpochClock.nanos();
+        store.record(id, now, unscaledPrice, unscaledAmount);
+
+        int consolidatedId = aggregatorService.consolidatedId(id);
+        if (consolidatedId >= 0) {
+            long price;
+            try {
+                price = PriceStore.rescale(unscaledPrice,
+                        aggregatorService.instrument(id).getScale(),
+                        aggregatorService.instrument(consolidatedId).getScale());
+            } catch (ArithmeticException e) {
+                // Too large to hold at the consolidated scale, only the venue's candles have it
+                return;
+            }
+            store.record(consolidatedId, now, price, unscaledAmount);
+        }
+    }
+
+    public void recordTrade(@NotNull Instrument instrument, @NotNull BigDecimal price, @NotNull BigDecimal amount) {
+        int id = aggregatorService.register(instrument);
+        recordTrade(id,
+                price.setScale(aggregatorService.instrument(id).getScale(), RoundingMode.HALF_EVEN).unscaledValue().longValueExact(),
+                amount.setScale(VOLUME_SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact());
+    }
+
+    /**
+     * @param limit most recent candles wanted, capped at the interval's capacity
+     * @return candles oldest first. Empty if the instrument has never traded
+     */
+    public @NotNull List<Candle> getCandles(int id, @NotNull CandleInterval interval, int limit) {
+        return store.read(id, interval, limit, aggregatorService.instrument(id).getScale(), VOLUME_SCALE);
+    }
+}
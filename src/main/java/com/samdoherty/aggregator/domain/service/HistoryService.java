@@ -0,0 +1,225 @@
+package com.samdoherty.aggregator.domain.service;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Tick;
+import com.samdoherty.aggregator.domain.store.PriceStore;
+import com.samdoherty.aggregator.domain.store.TickHistory;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every trade of every venue instrument, queryable by time
+ * <p>
+ * Each instrument has its own {@link TickHistory} file under 'exchange/BASE-QUOTE.ticks', appended to by a single
+ * writer tailing the trade journals. Histories are keyed by name rather than id so they carry across restarts.
+ * Consolidated instruments have no history of their own
+ * <p>
+ * Progress is checkpointed per journal. An exchange split across connections has a journal per connection, so the
+ * ticks of one instrument may come from different journals over time, e.g. after the number of connections changes
+ */
+@Slf4j
+@Service
+public class HistoryService {
+
+    /**
+     * Receives ticks in time order
+     */
+    @FunctionalInterface
+    public interface TickWriter {
+        void write(@NotNull Tick tick) throws IOException;
+    }
+
+    private static final String SUFFIX = ".ticks";
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final PriceAggregatorService aggregatorService;
+    private final Path path;
+
+    private final Map<String, TickHistory> histories = new ConcurrentHashMap<>();
+
+    public HistoryService(
+            PriceAggregatorService aggregatorService,
+            @Value("${aggregator.history.path:${java.io.tmpdir}/price-aggregator/history}") Path path
+    ) {
+        this.aggregatorService = aggregatorService;
+        this.path = path;
+    }
+
+    /**
+     * Writer only. Buffered, visible to readers after {@link #flush()}
+     *
+     * @param instrument venue instrument, its scale is that of the price mantissa
+     * @param journal    name of the journal the trade was read from
+     * @param sequence   journal sequence of the trade, trades already held from the same journal are skipped
+     * @param amount     traded quantity mantissa at {@link CandleService#VOLUME_SCALE}
+     */
+    public void append(@NotNull Instrument instrument, @NotNull String journal, long sequence, long epochNanos, long price,
+                       long amount) throws IOException {
+        TickHistory history = history(instrument.getExchange(), instrument.getBase(), instrument.getQuote(), instrument.getScale(), true);
+        long rescaled;
+        try {
+            rescaled = PriceStore.rescale(price, instrument.getScale(), history.scale());
+        } catch (ArithmeticException e) {
+            log.warn("Skipping trade {} from {}, price {} at scale {} is too large for the {}/{} history at scale {}",
+                    sequence, journal, price, instrument.getScale(), instrument.getBase(), instrument.getQuote(),
+                    history.scale());
+            return;
+        }
+        history.source(source(journal));
+        history.append(sequence, epochNanos, rescaled, amount);
+    }
+
+    /**
+     * Writer only. Make every appended tick visible to readers
+     */
+    public void flush() throws IOException {
+        for (TickHistory history : histories.values()) {
+            history.flush();
+        }
+    }
+
+    /**
+     * @return journal sequence history has been built up to, 0 if none
+     */
+    public long checkpoint(@NotNull String journal) throws IOException {
+        try {
+            byte[] bytes = Files.readAllBytes(directory(journal).resolve(CHECKPOINT));
+            return bytes.length == 8 ? ByteBuffer.wrap(bytes).getLong() : 0;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Writer only. Record the journal sequence history has been built up to, after {@link #flush()}
+     */
+    public void checkpoint(@NotNull String journal, long sequence) throws IOException {
+        Path directory = directory(journal);
+        Files.createDirectories(directory);
+        Files.write(directory.resolve(CHECKPOINT), ByteBuffer.allocate(8).putLong(0, sequence).array());
+    }
+
+    /**
+     * Writer only. The journal was started afresh, forget the sequences already held from it
+     */
+    public void resetSequences(@NotNull String journal) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return;
+        }
+
+        long source = source(journal);
+        try (var files = Files.find(path, 2, (file, attributes) -> attributes.isRegularFile()
+                && file.getFileName().toString().endsWith(SUFFIX))) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                String[] pair = name.substring(0, name.length() - SUFFIX.length()).split("-");
+                TickHistory history = pair.length == 2
+                        ? history(file.getParent().getFileName().toString(), pair[0], pair[1], 0, true)
+                        : null;
+                if (history != null && history.source() == source) {
+                    history.resetSequence();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id venue instrument
+     * @return the last trade at or before the time, or null if there is none
+     */
+    public @Nullable Tick at(int id, long epochNanos) throws IOException {
+        TickHistory history = history(id);
+        long[] into = new long[3];
+        if (history == null || !history.at(epochNanos, into)) {
+            return null;
+        }
+        return Tick.of(into[0], into[1], history.scale(), into[2], CandleService.VOLUME_SCALE);
+    }
+
+    /**
+     * Stream every trade within a time range, reading a block of ticks at a time
+     *
+     * @param id   venue instrument
+     * @param from epoch nanos, inclusive
+     * @param to   epoch nanos, inclusive
+     */
+    public void ticks(int id, long from, long to, @NotNull TickWriter writer) throws IOException {
+        TickHistory history = history(id);
+        if (history == null) {
+            return;
+        }
+
+        int scale = history.scale();
+        history.range(from, to, (epochNanos, price, amount) ->
+                writer.write(Tick.of(epochNanos, price, scale, amount, CandleService.VOLUME_SCALE)));
+    }
+
+    @PreDestroy
+    public void close() {
+        histories.values().forEach(history -> {
+            try {
+                history.close();
+            } catch (IOException e) {
+                log.warn("Unable to close tick history: {}", e.getMessage());
+            }
+        });
+        histories.clear();
+    }
+
+    private @Nullable TickHistory history(int id) {
+        Instrument instrument = aggregatorService.instrument(id);
+        return history(instrument.getExchange(), instrument.getBase(), instrument.getQuote(), instrument.getScale(), false);
+    }
+
+    /**
+     * @param create create the history if there is none, else only open one already on disk
+     */
+    private @Nullable TickHistory history(String exchange, String base, String quote, int scale, boolean create) {
+        String name = base.toUpperCase(Locale.ROOT) + "-" + quote.toUpperCase(Locale.ROOT) + SUFFIX;
+        Path file = directory(exchange).resolve(name);
+
+        TickHistory history = histories.get(file.toString());
+        if (history != null || (!create && !Files.exists(file))) {
+            return history;
+        }
+
+        return histories.computeIfAbsent(file.toString(), key -> {
+            try {
+                Files.createDirectories(file.getParent());
+                return TickHistory.open(file, scale);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open tick history " + file, e);
+            }
+        });
+    }
+
+    /**
+     * @return stable 64-bit FNV-1a hash of a journal name, to tell journals apart in a history's header
+     */
+    static long source(@NotNull String journal) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : journal.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private Path directory(String exchange) {
+        return path.resolve(exchange.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,229 @@
+package com.samdoherty.aggregator.domain.service;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+
+/**
+ * Resolves API symbols such as 'btc-usd' to the ids of instruments exchanges have registered
+ * <p>
+ * Exchanges register their instruments on startup. Symbols are packed into an int straight from the raw
+ * request String in either case, so a lookup never allocates and an unknown or malformed symbol is rejected
+ * after a handful of char comparisons
+ * <p>
+ * Registering a venue instrument also makes the aggregator's consolidated instrument for the symbol resolvable,
+ * under the {@link Instrument#CONSOLIDATED} exchange
+ */
+@Service
+public class InstrumentRegistry {
+
+    public static final int UNKNOWN = -1;
+
+    private static final int SYMBOL_LENGTH = 7;
+    private static final int CODE_LENGTH = 3;
+    private static final char SEPARATOR = '-';
+
+    private final PriceAggregatorService aggregatorService;
+
+    /**
+     * Copy-on-write open addressed table, registration is rare and only happens on startup
+     */
+    private volatile Entry[] table = new Entry[64];
+
+    private int size;
+
+    /**
+     * Registered ids in registration order, and the canonical 'AAA-BBB' symbol of each indexed by id
+     */
+    private volatile int[] registered = new int[0];
+    private volatile String[] symbols = new String[0];
+
+    public InstrumentRegistry(PriceAggregatorService aggregatorService) {
+        this.aggregatorService = aggregatorService;
+    }
+
+    /**
+     * Register an exchange instrument with the aggregator and make it, and its consolidated view, resolvable by symbol
+     *
+     * @param instrument with 3 letter uppercase base and quote
+     * @return aggregator id for the instrument
+     */
+    public synchronized int register(@NotNull Instrument instrument) {
+        String symbol = instrument.getBase() + SEPARATOR + instrument.getQuote();
+        int key = pack(symbol);
+        if (key == UNKNOWN) {
+            throw new IllegalArgumentException("Instrument %s/%s cannot be resolved by symbol".formatted(instrument.getBase(), instrument.getQuote()));
+        }
+
+        int id = aggregatorService.register(instrument);
+
+        index(key, symbol, instrument.getExchange(), id);
+        index(key, symbol, Instrument.CONSOLIDATED, aggregatorService.consolidatedId(id));
+        return id;
+    }
+
+    private void index(int key, String symbol, String exchange, int id) {
+        Entry[] current = table;
+        if ((size + 1) * 2 > current.length) {
+            current = rehash(current, current.length * 2);
+        } else {
+            current = current.clone();
+        }
+
+        int slot = find(current, key);
+        Entry entry = current[slot];
+        if (entry == null) {
+            current[slot] = new Entry(key, exchange, id);
+            size++;
+        } else {
+            current[slot] = entry.with(exchange, id);
+        }
+
+        table = current;
+
+        if (id >= symbols.length || symbols[id] == null) {
+            String[] grownSymbols = Arrays.copyOf(symbols, Math.max(symbols.length, id + 1));
+            grownSymbols[id] = symbol;
+            symbols = grownSymbols;
+
+            int[] grownRegistered = Arrays.copyOf(registered, registered.length + 1);
+            grownRegistered[registered.length] = id;
+            registered = grownRegistered;
+        }
+    }
+
+    /**
+     * Resolve a raw API symbol without allocating
+     *
+     * @param exchange the instrument is listed on, in any case. {@link Instrument#CONSOLIDATED} for the cross venue view
+     * @param symbol   format 'AAA-BBB' in any case
+     * @return aggregator id, or {@link #UNKNOWN} if the symbol is malformed or not registered for the exchange
+     */
+    public int resolve(@NotNull String exchange, @NotNull CharSequence symbol) {
+        int key = pack(symbol);
+        if (key == UNKNOWN) {
+            return UNKNOWN;
+        }
+
+        Entry[] current = table;
+        Entry entry = current[find(current, key)];
+        return entry == null ? UNKNOWN : entry.idFor(exchange);
+    }
+
+    /**
+     * @return canonical uppercase 'AAA-BBB' symbol of a registered id
+     */
+    public @NotNull String symbol(int id) {
+        return symbols[id];
+    }
+
+    /**
+     * @param exchange in any case
+     * @return ids of every instrument listed on the exchange, in registration order
+     */
+    public int @NotNull [] ids(@NotNull String exchange) {
+        int[] all = registered;
+        int[] matching = new int[all.length];
+        int count = 0;
+
+        for (int id : all) {
+            if (exchange.equalsIgnoreCase(aggregatorService.instrument(id).getExchange())) {
+                matching[count++] = id;
+            }
+        }
+        return Arrays.copyOf(matching, count);
+    }
+
+    /**
+     * Pack 'AAA-BBB' into an int using 5 bits per letter, folding case
+     *
+     * @return packed symbol, or {@link #UNKNOWN} if not in the expected format
+     */
+    static int pack(@NotNull CharSequence symbol) {
+        if (symbol.length() != SYMBOL_LENGTH || symbol.charAt(CODE_LENGTH) != SEPARATOR) {
+            return UNKNOWN;
+        }
+
+        int key = 0;
+        for (int i = 0; i < SYMBOL_LENGTH; i++) {
+            if (i == CODE_LENGTH) {
+                continue;
+            }
+
+            // Folds lower case onto upper case
+            int letter = (symbol.charAt(i) & ~0x20) - 'A';
+            if (letter < 0 || letter >= 26) {
+                return UNKNOWN;
+            }
+            key = (key << 5) | (letter + 1);
+        }
+        return key;
+    }
+
+    private static int find(Entry[] entries, int key) {
+        int mask = entries.length - 1;
+        int slot = mix(key) & mask;
+        while (entries[slot] != null && entries[slot].key != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static Entry[] rehash(Entry[] entries, int capacity) {
+        Entry[] grown = new Entry[capacity];
+        for (Entry entry : entries) {
+            if (entry != null) {
+                grown[find(grown, entry.key)] = entry;
+            }
+        }
+        return grown;
+    }
+
+    /**
+     * All exchange listings of one symbol. Immutable, replaced on registration
+     */
+    private static final class Entry {
+        private final int key;
+        private final String[] exchanges;
+        private final int[] ids;
+
+        private Entry(int key, String exchange, int id) {
+            this(key, new String[]{exchange}, new int[]{id});
+        }
+
+        private Entry(int key, String[] exchanges, int[] ids) {
+            this.key = key;
+            this.exchanges = exchanges;
+            this.ids = ids;
+        }
+
+        private int idFor(@Nullable String exchange) {
+            for (int i = 0; i < exchanges.length; i++) {
+                if (exchanges[i].equalsIgnoreCase(exchange)) {
+                    return ids[i];
+                }
+            }
+            return UNKNOWN;
+        }
+
+        private Entry with(String exchange, int id) {
+            if (idFor(exchange) == id) {
+                return this;
+            }
+
+            String[] grownExchanges = Arrays.copyOf(exchanges, exchanges.length + 1);
+            int[] grownIds = Arrays.copyOf(ids, ids.length + 1);
+            grownExchanges[exchanges.length] = exchange;
+            grownIds[ids.length] = id;
+            return new Entry(key, grownExchanges, grownIds);
+        }
+    }
+}
@@ -2,24 +2,182 @@ package com.samdoherty.aggregator.domain.service;
 
 import com.samdoherty.aggregator.domain.model.Instrument;
 import com.samdoherty.aggregator.domain.model.Price;
+import com.samdoherty.aggregator.domain.store.EpochClock;
+import com.samdoherty.aggregator.domain.store.PriceStore;
+import com.samdoherty.aggregator.infrastructure.metrics.LatencyHistogram;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Core aggregation service that exchange websocket implementations register latest exchange currency pair prices
  * <p>
- * Implementation is threadsafe and built for speed
+ * Implementation is threadsafe and built for speed. Prices are held fixed-point in a {@link PriceStore},
+ * the BigDecimal/ ZonedDateTime Price object is only built when read
+ * <p>
+ * Every base/quote also gets a consolidated instrument on the {@link Instrument#CONSOLIDATED} exchange holding
+ * the median price across the venues that list it. It is updated as part of each venue write, reading only the
+ * latest price of each venue, so the cost per tick is O(venues) and reads are the same as any other instrument
+ * <p>
+ * Publishes update counts, lookup latency and the age of every instrument's price as metrics
  */
 @Service
-public class PriceAggregatorService {
+public class PriceAggregatorService implements MeterBinder {
+
+    /**
+     * Venues without a trade for this long are left out of the consolidated median, unless no venue is fresher
+     */
+    static final long FRESH_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final PriceStore store = new PriceStore();
+
+    /**
+     * Consolidation each venue instrument contributes to, indexed by id. Null for consolidated instruments
+     * <p>
+     * Copy-on-write, grows on registration and read on every write
+     */
+    private volatile Consolidation[] consolidations = new Consolidation[0];
+
+    /**
+     * Guarded by this
+     */
+    private final Map<Instrument, Consolidation> consolidationsByInstrument = new HashMap<>();
+
+    private final LongAdder updates = new LongAdder();
+    private final LatencyHistogram lookupLatency = new LatencyHistogram();
+
+    /**
+     * Guarded by this. Set once bound, instruments registered later get their metrics as they arrive
+     */
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Copy-on-write, listeners are added on startup and read on every price change
+     */
+    private volatile PriceListener[] listeners = new PriceListener[0];
+
+    /**
+     * Register an instrument an exchange will publish prices for
+     *
+     * @param instrument to register
+     * @return id to use with the id based (hot path) methods
+     */
+    public int register(@NotNull Instrument instrument) {
+        if (Instrument.CONSOLIDATED.equals(instrument.getExchange())) {
+            throw new IllegalArgumentException("Exchange name '%s' is reserved".formatted(Instrument.CONSOLIDATED));
+        }
+
+        int id = store.register(instrument);
+
+        Consolidation[] current = consolidations;
+        return id < current.length && current[id] != null ? id : consolidate(id, instrument);
+    }
+
+    /**
+     * @return id of the consolidated instrument a venue instrument contributes to, or -1 if the id is not a venue instrument
+     */
+    public int consolidatedId(int id) {
+        Consolidation[] current = consolidations;
+        return id < current.length && current[id] != null ? current[id].id : -1;
+    }
+
+    private synchronized int consolidate(int id, Instrument instrument) {
+        if (consolidatedId(id) >= 0) {
+            return id;
+        }
+
+        Instrument consolidated = Instrument.builder()
+                .exchange(Instrument.CONSOLIDATED)
+                .base(instrument.getBase())
+                .quote(instrument.getQuote())
+                .scale(instrument.getScale())
+                .build();
+
+        Consolidation consolidation = consolidationsByInstrument.get(consolidated);
+        if (consolidation == null) {
+            consolidation = new Consolidation(store.register(consolidated));
+            consolidationsByInstrument.put(consolidated, consolidation);
+            bindInstrument(consolidation.id);
+        }
+        consolidation.add(id, instrument.getScale());
+
+        Consolidation[] grown = Arrays.copyOf(consolidations, Math.max(consolidations.length, store.size()));
+        grown[id] = consolidation;
+        consolidations = grown;
+
+        bindInstrument(id);
+        return id;
+    }
+
+    @Override
+    public synchronized void bindTo(@NotNull MeterRegistry registry) {
+        meterRegistry = registry;
+
+        FunctionCounter.builder("aggregator.price.updates", updates, LongAdder::sum)
+                .description("Prices written, including consolidated prices")
+                .register(registry);
+
+        lookupLatency.bindTo(registry, "aggregator.lookup.latency", "Latest price lookups by id", Tags.empty());
+
+        for (int id = 0; id < store.size(); id++) {
+            bindInstrument(id);
+        }
+    }
+
+    /**
+     * Guarded by this
+     */
+    private void bindInstrument(int id) {
+        if (meterRegistry == null) {
+            return;
+        }
+
+        Instrument instrument = store.instrument(id);
+        Gauge.builder("aggregator.price.age", store, prices -> {
+                    long time = prices.time(id);
+                    return time == 0 ? Double.NaN : (EpochClock.nanos() - time) / (double) TimeUnit.SECONDS.toNanos(1);
+                })
+                .description("Time since an instrument's price last changed")
+                .baseUnit("seconds")
+                .tags("exchange", instrument.getExchange(), "symbol", instrument.getBase() + "-" + instrument.getQuote())
+                .register(meterRegistry);
+    }
+
+    public @NotNull Instrument instrument(int id) {
+        return store.instrument(id);
+    }
+
+    /**
+     * @return number of registered instruments, venue and consolidated. Ids run from 0 to size - 1
+     */
+    public int size() {
+        return store.size();
+    }
 
-    private final Map<Instrument, Price> prices = new ConcurrentHashMap<>();
+    /**
+     * @return the slot version of an instrument's price, which changes on every update
+     */
+    public long version(int id) {
+        return store.version(id);
+    }
+
+    public synchronized void addListener(@NotNull PriceListener listener) {
+        PriceListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
 
     /**
      * Simple way to add a starting price for a currency pair
@@ -30,14 +188,138 @@ public class PriceAggregatorService {
      * @param price      starting price. is ONLY added if no price yet exists for the instrument
      */
     public void addInitialPrice(@NotNull Instrument instrument, @NotNull BigDecimal price) {
-        prices.computeIfAbsent(instrument, i -> Price.builder().price(price).time(ZonedDateTime.now()).build());
+        int id = register(instrument);
+        long now = EpochClock.nanos();
+        if (store.writeIfAbsent(id, mantissa(price), price.scale(), now)) {
+            updates.increment();
+            notifyListeners(id);
+            updateConsolidated(id, now);
+        }
+    }
+
+    /**
+     * Restore a price persisted by an earlier run. It keeps its original time, so its age shows it is stale
+     * and it is left out of the consolidated median while any venue has a fresher price
+     *
+     * @param id            as returned by {@link #register(Instrument)}
+     * @param unscaledPrice price mantissa at the given scale
+     * @param epochNanos    time the price was originally stored
+     */
+    public void restorePrice(int id, long unscaledPrice, int scale, long epochNanos) {
+        if (store.writeIfAbsent(id, unscaledPrice, scale, epochNanos)) {
+            updates.increment();
+            notifyListeners(id);
+            updateConsolidated(id, EpochClock.nanos());
+        }
     }
 
     public void addPrice(@NotNull Instrument instrument, @NotNull BigDecimal price) {
-        prices.put(instrument, Price.builder().price(price).time(ZonedDateTime.now()).build());
+        int id = register(instrument);
+        long now = EpochClock.nanos();
+        store.write(id, mantissa(price), price.scale(), now);
+        updates.increment();
+        notifyListeners(id);
+        updateConsolidated(id, now);
+    }
+
+    /**
+     * Fixed-point variant used by the exchange hot paths, saves them building a BigDecimal per trade
+     *
+     * @param instrument    we are targeting
+     * @param unscaledPrice price mantissa at the instrument's scale
+     */
+    public void addPrice(@NotNull Instrument instrument, long unscaledPrice) {
+        addPrice(register(instrument), unscaledPrice);
+    }
+
+    /**
+     * Hot path write. No hashing and no allocation
+     *
+     * @param id            as returned by {@link #register(Instrument)}
+     * @param unscaledPrice price mantissa at the instrument's scale
+     */
+    public void addPrice(int id, long unscaledPrice) {
+        long now = EpochClock.nanos();
+        store.write(id, unscaledPrice, store.instrument(id).getScale(), now);
+        updates.increment();
+        notifyListeners(id);
+        updateConsolidated(id, now);
     }
 
     public @Nullable Price getPrice(@NotNull Instrument instrument) {
-        return prices.get(instrument);
+        int id = store.idOf(instrument);
+        return id < 0 ? null : getPrice(id);
+    }
+
+    /**
+     * Fixed-point copy of the latest price, for persisting it. Not recorded as a lookup
+     *
+     * @param into receives the mantissa, scale and epoch nanos in that order
+     * @return false if the instrument has no price yet
+     */
+    public boolean copyPrice(int id, long @NotNull [] into) {
+        return store.read(id, into);
+    }
+
+    public @Nullable Price getPrice(int id) {
+        long start = System.nanoTime();
+        Price price = store.read(id);
+        lookupLatency.record(System.nanoTime() - start);
+        return price;
+    }
+
+    /**
+     * Recompute the median of the venues a venue instrument contributes to, after its own price was written
+     */
+    private void updateConsolidated(int id, long now) {
+        Consolidation consolidation = consolidations[id];
+        Venues venues = consolidation.venues;
+
+        if (store.writeMedian(consolidation.id, venues.ids, venues.scale, now - FRESH_NANOS, venues.scratch)) {
+            updates.increment();
+            notifyListeners(consolidation.id);
+        }
+    }
+
+    private void notifyListeners(int id) {
+        for (PriceListener listener : listeners) {
+            listener.onPrice(id);
+        }
+    }
+
+    /**
+     * @throws ArithmeticException if the price carries more precision than a long mantissa can hold
+     */
+    private static long mantissa(BigDecimal price) {
+        return price.unscaledValue().longValueExact();
+    }
+
+    /**
+     * Consolidated instrument and the venues feeding it
+     */
+    private static final class Consolidation {
+        private final int id;
+        private volatile Venues venues = new Venues(new int[0], 0);
+
+        private Consolidation(int id) {
+            this.id = id;
+        }
+
+        private void add(int venueId, int scale) {
+            int[] ids = Arrays.copyOf(venues.ids, venues.ids.length + 1);
+            ids[venues.ids.length] = venueId;
+            venues = new Venues(ids, Math.max(venues.scale, scale));
+        }
+    }
+
+    /**
+     * Immutable set of venue ids, and the largest of their scales which the median is kept at
+     * <p>
+     * The scratch array is only touched while the consolidated slot is locked, so it is shared by every writer
+     */
+    private record Venues(int[] ids, int scale, long[] scratch) {
+        private Venues(int[] ids, int scale) {
+            this(ids, scale, new long[ids.length * 2]);
+        }
     }
 }
@@ -0,0 +1,16 @@
+package com.samdoherty.aggregator.domain.service;
+
+/**
+ * Notified by the aggregator each time an instrument's price changes
+ * <p>
+ * Called on the writing (exchange) thread, so implementations must be cheap and must not block.
+ * Read the price back from the aggregator rather than expecting it to be handed over
+ */
+@FunctionalInterface
+public interface PriceListener {
+
+    /**
+     * @param id aggregator id of the instrument whose price changed
+     */
+    void onPrice(int id);
+}
@@ -0,0 +1,124 @@
+package com.samdoherty.aggregator.domain.service;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Quote;
+import com.samdoherty.aggregator.domain.store.EpochClock;
+import com.samdoherty.aggregator.domain.store.OrderBook;
+import com.samdoherty.aggregator.domain.store.QuoteStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Best bid and ask of the instruments exchanges keep an order book for, alongside their last trade price
+ * <p>
+ * Exchanges maintain the books themselves and only hand over the top of book when it changes, held fixed-point in a
+ * {@link QuoteStore} under the instrument's price id. The consolidated instrument of each base/quote gets the best bid
+ * and best ask across every venue with a book, updated as part of each venue write
+ */
+@Service
+public class QuoteService implements MeterBinder {
+
+    private final QuoteStore store = new QuoteStore();
+
+    private final PriceAggregatorService aggregatorService;
+
+    /**
+     * Venues with a book for each consolidated instrument, indexed by consolidated id
+     * <p>
+     * Copy-on-write, grows on a venue's first quote and read on every write
+     */
+    private volatile Venues[] venues = new Venues[0];
+
+    private final LongAdder updates = new LongAdder();
+
+    public QuoteService(PriceAggregatorService aggregatorService) {
+        this.aggregatorService = aggregatorService;
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        FunctionCounter.builder("aggregator.quote.updates", updates, LongAdder::sum)
+                .description("Top of book changes written, including consolidated quotes")
+                .register(registry);
+    }
+
+    /**
+     * Hot path write. No hashing and no allocation once the venue has quoted before
+     *
+     * @param id  as returned by {@link PriceAggregatorService#register(Instrument)}
+     * @param bid best bid mantissa at the instrument's scale, or {@link OrderBook#NONE}
+     * @param ask best ask mantissa at the instrument's scale, or {@link OrderBook#NONE}
+     */
+    public void update(int id, long bid, long ask) {
+        store.write(id, bid, ask, EpochClock.nanos());
+        updates.increment();
+
+        int consolidatedId = aggregatorService.consolidatedId(id);
+        if (consolidatedId < 0) {
+            return;
+        }
+
+        Venues current = venues(consolidatedId, id);
+        if (store.writeBest(consolidatedId, current.ids, current.scales, current.scale)) {
+            updates.increment();
+        }
+    }
+
+    /**
+     * @return the latest top of book, or null if the instrument has no book
+     */
+    public @Nullable Quote getQuote(int id) {
+        long[] quote = new long[3];
+        if (!store.read(id, quote)) {
+            return null;
+        }
+        return Quote.of(quote[0], quote[1], aggregatorService.instrument(id).getScale(), quote[2]);
+    }
+
+    private Venues venues(int consolidatedId, int id) {
+        Venues[] current = venues;
+        if (consolidatedId < current.length && current[consolidatedId] != null && current[consolidatedId].contains(id)) {
+            return current[consolidatedId];
+        }
+        return join(consolidatedId, id);
+    }
+
+    private synchronized Venues join(int consolidatedId, int id) {
+        Venues[] grown = Arrays.copyOf(venues, Math.max(venues.length, consolidatedId + 1));
+        Venues existing = grown[consolidatedId];
+        if (existing != null && existing.contains(id)) {
+            return existing;
+        }
+
+        int[] ids = existing == null ? new int[1] : Arrays.copyOf(existing.ids, existing.ids.length + 1);
+        int[] scales = existing == null ? new int[1] : Arrays.copyOf(existing.scales, existing.scales.length + 1);
+        ids[ids.length - 1] = id;
+        scales[scales.length - 1] = aggregatorService.instrument(id).getScale();
+
+        grown[consolidatedId] = new Venues(ids, scales, aggregatorService.instrument(consolidatedId).getScale());
+        venues = grown;
+        return grown[consolidatedId];
+    }
+
+    /**
+     * Immutable set of venue ids with their scales, and the consolidated scale quotes are kept at
+     */
+    private record Venues(int[] ids, int[] scales, int scale) {
+
+        private boolean contains(int id) {
+            for (int venue : ids) {
+                if (venue == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.samdoherty.aggregator.domain.store;
+
+import com.samdoherty.aggregator.domain.model.Candle;
+import com.samdoherty.aggregator.domain.model.CandleInterval;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Most recent candles of one instrument at one interval, in a fixed size ring of primitive arrays
+ * <p>
+ * Intervals without trades have no candle. Writers take a short write lock as the consolidated instrument
+ * is fed by several exchanges, readers copy optimistically and only lock if a write got in the way
+ */
+final class CandleSeries {
+
+    private final long intervalNanos;
+    private final int capacity;
+
+    private final long[] starts;
+    private final long[] opens;
+    private final long[] highs;
+    private final long[] lows;
+    private final long[] closes;
+    private final long[] volumes;
+
+    /**
+     * Candles ever opened, the newest is at (count - 1) % capacity
+     */
+    private long count;
+
+    private final StampedLock lock = new StampedLock();
+
+    CandleSeries(@NotNull CandleInterval interval) {
+        this.intervalNanos = interval.getNanos();
+        this.capacity = interval.getCapacity();
+        this.starts = new long[capacity];
+        this.opens = new long[capacity];
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.closes = new long[capacity];
+        this.volumes = new long[capacity];
+    }
+
+    /**
+     * Fold a trade into its candle, opening a new candle if the trade is past the newest one
+     * <p>
+     * A trade older than the newest candle, which only happens across exchanges or a clock adjustment,
+     * is folded into the newest candle rather than rewriting history
+     */
+    void record(long epochNanos, long price, long amount) {
+        long start = epochNanos - Math.floorMod(epochNanos, intervalNanos);
+
+        long stamp = lock.writeLock();
+        try {
+            if (count > 0) {
+                int slot = (int) ((count - 1) % capacity);
+                if (start <= starts[slot]) {
+                    highs[slot] = Math.max(highs[slot], price);
+                    lows[slot] = Math.min(lows[slot], price);
+                    closes[slot] = price;
+                    volumes[slot] += amount;
+                    return;
+                }
+            }
+
+            int slot = (int) (count % capacity);
+            starts[slot] = start;
+            opens[slot] = price;
+            highs[slot] = price;
+            lows[slot] = price;
+            closes[slot] = price;
+            volumes[slot] = amount;
+            count++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param limit       most recent candles wanted
+     * @param priceScale  decimal places of recorded prices
+     * @param volumeScale decimal places of recorded amounts
+     * @return up to limit candles, oldest first
+     */
+    @NotNull List<Candle> read(int limit, int priceScale, int volumeScale) {
+        long stamp = lock.tryOptimisticRead();
+        long[] copy = copy(limit);
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                copy = copy(limit);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int size = copy.length / 6;
+        List<Candle> candles = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int at = i * 6;
+            candles.add(Candle.of(copy[at], copy[at + 1], copy[at + 2], copy[at + 3], copy[at + 4], priceScale,
+                    copy[at + 5], volumeScale));
+        }
+        return candles;
+    }
+
+    /**
+     * Copy the newest candles, oldest first, as runs of start/ open/ high/ low/ close/ volume
+     */
+    private long[] copy(int limit) {
+        long total = count;
+        int size = (int) Math.min(Math.min(total, capacity), Math.max(limit, 0));
+        long[] copy = new long[size * 6];
+
+        for (int i = 0; i < size; i++) {
+            int slot = (int) ((total - size + i) % capacity);
+            int at = i * 6;
+            copy[at] = starts[slot];
+            copy[at + 1] = opens[slot];
+            copy[at + 2] = highs[slot];
+            copy[at + 3] = lows[slot];
+            copy[at + 4] = closes[slot];
+            copy[at + 5] = volumes[slot];
+        }
+        return copy;
+    }
+}
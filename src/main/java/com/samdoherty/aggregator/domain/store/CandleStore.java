@@ -0,0 +1,70 @@
+package com.samdoherty.aggregator.domain.store;
+
+import com.samdoherty.aggregator.domain.model.Candle;
+import com.samdoherty.aggregator.domain.model.CandleInterval;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * OHLCV candles per instrument id at every {@link CandleInterval}
+ * <p>
+ * An instrument's rings are allocated in full on its first trade, after which memory never grows however
+ * long the service runs. Recording a trade is O(1) per interval and never allocates
+ */
+public class CandleStore {
+
+    private static final CandleInterval[] INTERVALS = CandleInterval.values();
+
+    /**
+     * Indexed by instrument id then interval ordinal. Copy-on-write, only replaced on an instrument's first trade
+     */
+    private volatile CandleSeries[][] series = new CandleSeries[0][];
+
+    /**
+     * @param id         instrument id, as issued by the {@link PriceStore}
+     * @param epochNanos time of the trade
+     * @param price      trade price mantissa, always at the same scale for an instrument
+     * @param amount     traded quantity mantissa, always at the same scale
+     */
+    public void record(int id, long epochNanos, long price, long amount) {
+        CandleSeries[][] current = series;
+        CandleSeries[] intervals = id < current.length ? current[id] : null;
+        if (intervals == null) {
+            intervals = allocate(id);
+        }
+
+        for (CandleSeries candles : intervals) {
+            candles.record(epochNanos, price, amount);
+        }
+    }
+
+    /**
+     * @return up to limit of the instrument's most recent candles, oldest first. Empty if it has never traded
+     */
+    public @NotNull List<Candle> read(int id, @NotNull CandleInterval interval, int limit, int priceScale, int volumeScale) {
+        CandleSeries[][] current = series;
+        if (id >= current.length || current[id] == null) {
+            return List.of();
+        }
+        return current[id][interval.ordinal()].read(limit, priceScale, volumeScale);
+    }
+
+    private synchronized CandleSeries[] allocate(int id) {
+        CandleSeries[][] current = series;
+        if (id < current.length && current[id] != null) {
+            return current[id];
+        }
+
+        CandleSeries[] intervals = new CandleSeries[INTERVALS.length];
+        for (CandleInterval interval : INTERVALS) {
+            intervals[interval.ordinal()] = new CandleSeries(interval);
+        }
+
+        CandleSeries[][] grown = Arrays.copyOf(current, Math.max(current.length, id + 1));
+        grown[id] = intervals;
+        series = grown;
+        return intervals;
+    }
+}
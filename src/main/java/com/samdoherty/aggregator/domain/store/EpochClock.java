@@ -0,0 +1,46 @@
+package com.samdoherty.aggregator.domain.store;
+
+import java.time.Instant;
+
+/**
+ * Allocation free wall clock time in epoch nanoseconds
+ * <p>
+ * Derived from System.nanoTime against a wall clock offset, which is re-taken every second so clock
+ * adjustments (NTP etc.) are picked up without building an Instant per call
+ */
+public final class EpochClock {
+
+    private static final long RECALIBRATE_NANOS = 1_000_000_000L;
+
+    private static volatile long offset;
+    private static volatile long calibratedAt;
+
+    static {
+        calibrate(System.nanoTime());
+    }
+
+    private EpochClock() {
+    }
+
+    /**
+     * @param nanoTime an earlier System.nanoTime reading
+     * @return the reading as epoch nanos, against the last calibrated wall clock offset
+     */
+    public static long at(long nanoTime) {
+        return offset + nanoTime;
+    }
+
+    public static long nanos() {
+        long now = System.nanoTime();
+        if (now - calibratedAt > RECALIBRATE_NANOS) {
+            calibrate(now);
+        }
+        return offset + now;
+    }
+
+    private static void calibrate(long nanoTime) {
+        Instant wall = Instant.now();
+        offset = wall.getEpochSecond() * 1_000_000_000L + wall.getNano() - nanoTime;
+        calibratedAt = nanoTime;
+    }
+}
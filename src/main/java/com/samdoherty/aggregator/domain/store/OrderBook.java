@@ -0,0 +1,184 @@
+package com.samdoherty.aggregator.domain.store;
+
+import java.util.Arrays;
+
+/**
+ * One instrument's order book as two ladders of sorted primitive arrays, fixed-point prices at the instrument's scale
+ * and amounts at whatever scale the feed uses
+ * <p>
+ * Each side is kept worst price first and best price last, so the levels that change most, near the top of the book,
+ * are also the cheapest to insert and remove. A level is found by binary search and updated, inserted or removed in
+ * place, so applying a level never allocates. The arrays only grow, doubling, when a side is deeper than ever before
+ * <p>
+ * Single writer, not threadsafe. The top of the book is published for readers through {@link QuoteStore}
+ */
+public class OrderBook {
+
+    /**
+     * Best price of an empty side
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final int INITIAL_LEVELS = 128;
+
+    private final Side bids = new Side(false);
+    private final Side asks = new Side(true);
+
+    /**
+     * Set a bid level
+     *
+     * @param amount total at the price, 0 removes the level
+     */
+    public void bid(long price, long amount) {
+        bids.set(price, amount);
+    }
+
+    /**
+     * Set an ask level
+     *
+     * @param amount total at the price, 0 removes the level
+     */
+    public void ask(long price, long amount) {
+        asks.set(price, amount);
+    }
+
+    /**
+     * Remove every level, keeping the arrays for reuse
+     */
+    public void clear() {
+        bids.size = 0;
+        asks.size = 0;
+    }
+
+    /**
+     * @return highest bid, or {@link #NONE}
+     */
+    public long bestBid() {
+        return bids.best();
+    }
+
+    /**
+     * @return lowest ask, or {@link #NONE}
+     */
+    public long bestAsk() {
+        return asks.best();
+    }
+
+    public int bidLevels() {
+        return bids.size;
+    }
+
+    public int askLevels() {
+        return asks.size;
+    }
+
+    /**
+     * @param level 0 for the best
+     */
+    public long bidPrice(int level) {
+        return bids.prices[bids.size - 1 - level];
+    }
+
+    /**
+     * @param level 0 for the best
+     */
+    public long bidAmount(int level) {
+        return bids.amounts[bids.size - 1 - level];
+    }
+
+    /**
+     * @param level 0 for the best
+     */
+    public long askPrice(int level) {
+        return asks.prices[asks.size - 1 - level];
+    }
+
+    /**
+     * @param level 0 for the best
+     */
+    public long askAmount(int level) {
+        return asks.amounts[asks.size - 1 - level];
+    }
+
+    /**
+     * One side of the book, best price last
+     */
+    private static final class Side {
+
+        /**
+         * True for asks, whose best price is the lowest, so the ladder runs high to low
+         */
+        private final boolean descending;
+
+        private long[] prices = new long[INITIAL_LEVELS];
+        private long[] amounts = new long[INITIAL_LEVELS];
+        private int size;
+
+        private Side(boolean descending) {
+            this.descending = descending;
+        }
+
+        private long best() {
+            return size == 0 ? NONE : prices[size - 1];
+        }
+
+        private void set(long price, long amount) {
+            int index = search(price);
+
+            if (index >= 0) {
+                if (amount == 0) {
+                    System.arraycopy(prices, index + 1, prices, index, size - index - 1);
+                    System.arraycopy(amounts, index + 1, amounts, index, size - index - 1);
+                    size--;
+                } else {
+                    amounts[index] = amount;
+                }
+                return;
+            }
+
+            if (amount == 0) {
+                return;
+            }
+
+            int insert = -index - 1;
+            if (size == prices.length) {
+                prices = Arrays.copyOf(prices, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+            }
+            System.arraycopy(prices, insert, prices, insert + 1, size - insert);
+            System.arraycopy(amounts, insert, amounts, insert + 1, size - insert);
+            prices[insert] = price;
+            amounts[insert] = amount;
+            size++;
+        }
+
+        /**
+         * Binary search, checking the best level first
+         *
+         * @return index of the price, or -(insertion point) - 1 as with {@link Arrays#binarySearch(long[], long)}
+         */
+        private int search(long price) {
+            int low = 0;
+            int high = size - 1;
+
+            // Most updates are at or near the top of the book
+            if (size > 0 && prices[high] == price) {
+                return high;
+            }
+
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long value = prices[middle];
+                if (value == price) {
+                    return middle;
+                }
+                if (descending ? value > price : value < price) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return -low - 1;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.samdoherty.aggregator.domain.store;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Price;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest price per instrument held in primitive arrays
+ * <p>
+ * Each instrument is given a dense int id on registration, which indexes a slot holding a fixed-point mantissa,
+ * its scale and the update time in epoch nanos. Slots live in fixed size pages so growing to tens of thousands of
+ * instruments never copies existing data, and updates never allocate
+ * <p>
+ * Every slot is guarded by a sequence lock. Writers take the slot by moving its sequence from even to odd and
+ * release it by moving it to the next even value. Readers never block, they retry if the sequence was odd or
+ * changed underneath them
+ */
+public class PriceStore {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+
+    private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Map<Instrument, Integer> ids = new ConcurrentHashMap<>();
+
+    private volatile Page[] pages = new Page[0];
+
+    private volatile int size;
+
+    /**
+     * Register an instrument, or look up its id if it is already registered
+     * <p>
+     * Not intended for the hot path, callers should hold on to the returned id
+     *
+     * @param instrument to register. Instruments equal by exchange, base and quote share an id
+     * @return dense id of the instrument's slot
+     */
+    public int register(@NotNull Instrument instrument) {
+        Integer id = ids.get(instrument);
+        return id != null ? id : registerSlot(instrument);
+    }
+
+    private synchronized int registerSlot(@NotNull Instrument instrument) {
+        Integer existing = ids.get(instrument);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = size;
+        int pageIndex = id >>> PAGE_BITS;
+
+        if (pageIndex == pages.length) {
+            Page[] grown = Arrays.copyOf(pages, pageIndex + 1);
+            grown[pageIndex] = new Page();
+            pages = grown;
+        }
+
+        Page page = pages[pageIndex];
+        page.instruments[id & PAGE_MASK] = instrument;
+        page.scales[id & PAGE_MASK] = instrument.getScale();
+
+        size++;
+        ids.put(instrument, id);
+        return id;
+    }
+
+    /**
+     * @return id of a registered instrument, or -1 if it has never been registered
+     */
+    public int idOf(@NotNull Instrument instrument) {
+        Integer id = ids.get(instrument);
+        return id == null ? -1 : id;
+    }
+
+    public @NotNull Instrument instrument(int id) {
+        return page(id).instruments[id & PAGE_MASK];
+    }
+
+    /**
+     * @return number of registered instruments, ids run from 0 to size - 1
+     */
+    public int size() {
+        return size;
+    }
+
+    public void write(int id, long mantissa, int scale, long epochNanos) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+
+        long sequence = lock(page.sequences, slot);
+        page.mantissas[slot] = mantissa;
+        page.scales[slot] = scale;
+        page.times[slot] = epochNanos;
+        SEQUENCES.setRelease(page.sequences, slot, sequence + 2);
+    }
+
+    /**
+     * Write only if the slot has never held a price
+     *
+     * @return true if the price was written
+     */
+    public boolean writeIfAbsent(int id, long mantissa, int scale, long epochNanos) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+
+        long sequence = lock(page.sequences, slot);
+        if (page.times[slot] != 0) {
+            // Nothing changed so hand back the original sequence, readers need not retry
+            SEQUENCES.setRelease(page.sequences, slot, sequence);
+            return false;
+        }
+
+        page.mantissas[slot] = mantissa;
+        page.scales[slot] = scale;
+        page.times[slot] = epochNanos;
+        SEQUENCES.setRelease(page.sequences, slot, sequence + 2);
+        return true;
+    }
+
+    /**
+     * Consistent read of a slot, building the API facing Price object
+     *
+     * @return the latest price, or null if none has been written yet
+     */
+    public @Nullable Price read(int id) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+
+        while (true) {
+            long sequence = (long) SEQUENCES.getAcquire(page.sequences, slot);
+            if ((sequence & 1) == 1) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            long mantissa = page.mantissas[slot];
+            int scale = page.scales[slot];
+            long time = page.times[slot];
+
+            VarHandle.loadLoadFence();
+            if ((long) SEQUENCES.getAcquire(page.sequences, slot) != sequence) {
+                continue;
+            }
+
+            return time == 0 ? null : Price.of(mantissa, scale, time);
+        }
+    }
+
+    /**
+     * Consistent fixed-point read of a slot, without building a Price
+     *
+     * @param into receives the mantissa, scale and epoch nanos in that order
+     * @return false if no price has been written yet
+     */
+    public boolean read(int id, long @NotNull [] into) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+
+        while (true) {
+            long sequence = (long) SEQUENCES.getAcquire(page.sequences, slot);
+            if ((sequence & 1) == 1) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            long mantissa = page.mantissas[slot];
+            int scale = page.scales[slot];
+            long time = page.times[slot];
+
+            VarHandle.loadLoadFence();
+            if ((long) SEQUENCES.getAcquire(page.sequences, slot) != sequence) {
+                continue;
+            }
+
+            into[0] = mantissa;
+            into[1] = scale;
+            into[2] = time;
+            return time != 0;
+        }
+    }
+
+    /**
+     * @return epoch nanos of the slot's latest price, 0 if none has been written yet
+     */
+    public long time(int id) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+
+        while (true) {
+            long sequence = (long) SEQUENCES.getAcquire(page.sequences, slot);
+            if ((sequence & 1) == 1) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            long time = page.times[slot];
+
+            VarHandle.loadLoadFence();
+            if ((long) SEQUENCES.getAcquire(page.sequences, slot) == sequence) {
+                return time;
+            }
+        }
+    }
+
+    /**
+     * Write the median of other slots' prices into a slot
+     * <p>
+     * The target slot stays locked while the sources are read, so concurrent consolidations of the same slot
+     * are serialised and the last to finish always saw the newest source prices
+     *
+     * @param id         slot to write
+     * @param sources    slots to take the median of
+     * @param scale      every source price is rescaled to this before comparing, rounding HALF_EVEN
+     * @param freshAfter epoch nanos. Sources last updated before this are ignored, unless every source is that old
+     * @param scratch    working space of at least twice the number of sources. Only used while the slot is locked
+     *                   so callers can share one per target slot
+     * @return true if any source held a price and the slot was written
+     */
+    public boolean writeMedian(int id, int @NotNull [] sources, int scale, long freshAfter, long @NotNull [] scratch) {
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+
+        long sequence = lock(page.sequences, slot);
+
+        // Prices in the front half of scratch, their times in the back half
+        int timesOffset = sources.length;
+        int count = 0;
+        int fresh = 0;
+
+        for (int source : sources) {
+            Page sourcePage = page(source);
+            int sourceSlot = source & PAGE_MASK;
+
+            while (true) {
+                long sourceSequence = (long) SEQUENCES.getAcquire(sourcePage.sequences, sourceSlot);
+                if ((sourceSequence & 1) == 1) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                long mantissa = sourcePage.mantissas[sourceSlot];
+                int sourceScale = sourcePage.scales[sourceSlot];
+                long time = sourcePage.times[sourceSlot];
+
+                VarHandle.loadLoadFence();
+                if ((long) SEQUENCES.getAcquire(sourcePage.sequences, sourceSlot) != sourceSequence) {
+                    continue;
+                }
+
+                if (time != 0) {
+                    try {
+                        scratch[count] = rescale(mantissa, sourceScale, scale);
+                    } catch (ArithmeticException e) {
+                        // Too large to hold at the median's scale, left out as if it had no price
+                        break;
+                    }
+                    scratch[timesOffset + count] = time;
+                    count++;
+                    if (time >= freshAfter) {
+                        fresh++;
+                    }
+                }
+                break;
+            }
+        }
+
+        if (count == 0) {
+            SEQUENCES.setRelease(page.sequences, slot, sequence);
+            return false;
+        }
+
+        if (fresh > 0 && fresh < count) {
+            // Drop the stale venues, keeping the fresh ones at the front
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (scratch[timesOffset + i] >= freshAfter) {
+                    scratch[kept] = scratch[i];
+                    scratch[timesOffset + kept] = scratch[timesOffset + i];
+                    kept++;
+                }
+            }
+            count = kept;
+        }
+
+        long latest = 0;
+        for (int i = 0; i < count; i++) {
+            latest = Math.max(latest, scratch[timesOffset + i]);
+        }
+
+        page.mantissas[slot] = median(scratch, count);
+        page.scales[slot] = scale;
+        page.times[slot] = latest;
+        SEQUENCES.setRelease(page.sequences, slot, sequence + 2);
+        return true;
+    }
+
+    /**
+     * Median of the first count values, sorting them in place. Even counts take the mean of the middle pair
+     * rounded HALF_EVEN
+     */
+    static long median(long[] values, int count) {
+        // Insertion sort, there are only ever a handful of venues
+        for (int i = 1; i < count; i++) {
+            long value = values[i];
+            int j = i - 1;
+            while (j >= 0 && values[j] > value) {
+                values[j + 1] = values[j];
+                j--;
+            }
+            values[j + 1] = value;
+        }
+
+        int middle = count >>> 1;
+        if ((count & 1) == 1) {
+            return values[middle];
+        }
+
+        long sum = values[middle - 1] + values[middle];
+        long half = Math.floorDiv(sum, 2);
+        // Exactly .5 left over, round to even
+        return (sum & 1) == 1 && (half & 1) == 1 ? half + 1 : half;
+    }
+
+    /**
+     * Change the scale of a mantissa, rounding HALF_EVEN when precision is lost
+     *
+     * @throws ArithmeticException if the mantissa is too large to hold at the new scale
+     */
+    public static long rescale(long mantissa, int from, int to) {
+        if (from == to) {
+            return mantissa;
+        }
+
+        if (from < to) {
+            return Math.multiplyExact(mantissa, POWERS_OF_TEN[to - from]);
+        }
+
+        long divisor = POWERS_OF_TEN[from - to];
+        long quotient = Math.floorDiv(mantissa, divisor);
+        long remainder = mantissa - quotient * divisor;
+        long twice = remainder * 2;
+
+        if (twice > divisor || (twice == divisor && (quotient & 1) == 1)) {
+            quotient++;
+        }
+        return quotient;
+    }
+
+    /**
+     * @return the slot's sequence, which changes on every write. Even values are stable
+     */
+    public long version(int id) {
+        return (long) SEQUENCES.getAcquire(page(id).sequences, id & PAGE_MASK);
+    }
+
+    private Page page(int id) {
+        return pages[id >>> PAGE_BITS];
+    }
+
+    private static long lock(long[] sequences, int slot) {
+        while (true) {
+            long sequence = (long) SEQUENCES.getVolatile(sequences, slot);
+            if ((sequence & 1) == 0 && SEQUENCES.compareAndSet(sequences, slot, sequence, sequence + 1)) {
+                // Data stores must not become visible before the odd sequence
+                VarHandle.storeStoreFence();
+                return sequence;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static final class Page {
+        private final long[] sequences = new long[PAGE_SIZE];
+        private final long[] mantissas = new long[PAGE_SIZE];
+        private final int[] scales = new int[PAGE_SIZE];
+        private final long[] times = new long[PAGE_SIZE];
+        private final Instrument[] instruments = new Instrument[PAGE_SIZE];
+    }
+}
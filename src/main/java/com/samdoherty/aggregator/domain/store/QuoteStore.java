@@ -0,0 +1,198 @@
+package com.samdoherty.aggregator.domain.store;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Top of book per instrument held in primitive arrays, the best bid and ask of each {@link OrderBook}
+ * <p>
+ * Slots are indexed by the same dense ids as {@link PriceStore}, hold fixed-point prices at the instrument's scale and
+ * are guarded by a sequence lock in the same way. Pages are only created once an instrument's first quote arrives, as
+ * most instruments never have a book
+ */
+public class QuoteStore {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private volatile Page[] pages = new Page[0];
+
+    /**
+     * @param bid        best bid mantissa, or {@link OrderBook#NONE} if the side is empty
+     * @param ask        best ask mantissa, or {@link OrderBook#NONE} if the side is empty
+     * @param epochNanos time of the quote
+     */
+    public void write(int id, long bid, long ask, long epochNanos) {
+        Page page = writablePage(id);
+        int slot = id & PAGE_MASK;
+
+        long sequence = lock(page.sequences, slot);
+        page.bids[slot] = bid;
+        page.asks[slot] = ask;
+        page.times[slot] = epochNanos;
+        SEQUENCES.setRelease(page.sequences, slot, sequence + 2);
+    }
+
+    /**
+     * Consistent read of a slot
+     *
+     * @param into receives the bid, ask and epoch nanos in that order
+     * @return false if no quote has been written yet
+     */
+    public boolean read(int id, long @NotNull [] into) {
+        Page page = page(id);
+        if (page == null) {
+            return false;
+        }
+        int slot = id & PAGE_MASK;
+
+        while (true) {
+            long sequence = (long) SEQUENCES.getAcquire(page.sequences, slot);
+            if ((sequence & 1) == 1) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            long bid = page.bids[slot];
+            long ask = page.asks[slot];
+            long time = page.times[slot];
+
+            VarHandle.loadLoadFence();
+            if ((long) SEQUENCES.getAcquire(page.sequences, slot) != sequence) {
+                continue;
+            }
+
+            into[0] = bid;
+            into[1] = ask;
+            into[2] = time;
+            return time != 0;
+        }
+    }
+
+    /**
+     * Write the best bid and best ask across other slots' quotes into a slot, the cross venue top of book
+     * <p>
+     * The target slot stays locked while the sources are read, as with {@link PriceStore#writeMedian}, so the last
+     * writer to finish always saw the newest source quotes
+     *
+     * @param id      slot to write
+     * @param sources slots to take the best of
+     * @param scales  scale of each source, in the same order
+     * @param scale   every source price is rescaled to this before comparing, rounding HALF_EVEN
+     * @return true if any source held a quote and the slot was written
+     */
+    public boolean writeBest(int id, int @NotNull [] sources, int @NotNull [] scales, int scale) {
+        Page page = writablePage(id);
+        int slot = id & PAGE_MASK;
+
+        long sequence = lock(page.sequences, slot);
+
+        long bestBid = OrderBook.NONE;
+        long bestAsk = OrderBook.NONE;
+        long latest = 0;
+
+        for (int i = 0; i < sources.length; i++) {
+            Page sourcePage = page(sources[i]);
+            if (sourcePage == null) {
+                continue;
+            }
+            int sourceSlot = sources[i] & PAGE_MASK;
+
+            while (true) {
+                long sourceSequence = (long) SEQUENCES.getAcquire(sourcePage.sequences, sourceSlot);
+                if ((sourceSequence & 1) == 1) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                long bid = sourcePage.bids[sourceSlot];
+                long ask = sourcePage.asks[sourceSlot];
+                long time = sourcePage.times[sourceSlot];
+
+                VarHandle.loadLoadFence();
+                if ((long) SEQUENCES.getAcquire(sourcePage.sequences, sourceSlot) != sourceSequence) {
+                    continue;
+                }
+
+                if (time != 0) {
+                    long rescaledBid;
+                    long rescaledAsk;
+                    try {
+                        rescaledBid = bid == OrderBook.NONE ? OrderBook.NONE : PriceStore.rescale(bid, scales[i], scale);
+                        rescaledAsk = ask == OrderBook.NONE ? OrderBook.NONE : PriceStore.rescale(ask, scales[i], scale);
+                    } catch (ArithmeticException e) {
+                        // Too large to hold at the consolidated scale, left out as if it had no quote
+                        break;
+                    }
+                    if (rescaledBid != OrderBook.NONE) {
+                        bestBid = Math.max(bestBid, rescaledBid);
+                    }
+                    if (rescaledAsk != OrderBook.NONE) {
+                        bestAsk = bestAsk == OrderBook.NONE ? rescaledAsk : Math.min(bestAsk, rescaledAsk);
+                    }
+                    latest = Math.max(latest, time);
+                }
+                break;
+            }
+        }
+
+        if (latest == 0) {
+            SEQUENCES.setRelease(page.sequences, slot, sequence);
+            return false;
+        }
+
+        page.bids[slot] = bestBid;
+        page.asks[slot] = bestAsk;
+        page.times[slot] = latest;
+        SEQUENCES.setRelease(page.sequences, slot, sequence + 2);
+        return true;
+    }
+
+    private Page page(int id) {
+        Page[] current = pages;
+        int pageIndex = id >>> PAGE_BITS;
+        return pageIndex < current.length ? current[pageIndex] : null;
+    }
+
+    private Page writablePage(int id) {
+        Page page = page(id);
+        return page != null ? page : addPage(id >>> PAGE_BITS);
+    }
+
+    private synchronized Page addPage(int pageIndex) {
+        Page[] current = pages;
+        if (pageIndex < current.length && current[pageIndex] != null) {
+            return current[pageIndex];
+        }
+
+        Page[] grown = Arrays.copyOf(current, Math.max(current.length, pageIndex + 1));
+        grown[pageIndex] = new Page();
+        pages = grown;
+        return grown[pageIndex];
+    }
+
+    private static long lock(long[] sequences, int slot) {
+        while (true) {
+            long sequence = (long) SEQUENCES.getVolatile(sequences, slot);
+            if ((sequence & 1) == 0 && SEQUENCES.compareAndSet(sequences, slot, sequence, sequence + 1)) {
+                // Data stores must not become visible before the odd sequence
+                VarHandle.storeStoreFence();
+                return sequence;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static final class Page {
+        private final long[] sequences = new long[PAGE_SIZE];
+        private final long[] bids = new long[PAGE_SIZE];
+        private final long[] asks = new long[PAGE_SIZE];
+        private final long[] times = new long[PAGE_SIZE];
+    }
+}
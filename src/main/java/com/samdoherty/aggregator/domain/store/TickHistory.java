@@ -0,0 +1,382 @@
+package com.samdoherty.aggregator.domain.store;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Every tick of one instrument on disk in time order, with a sparse time index for logarithmic lookups
+ * <p>
+ * Ticks are fixed size records (epoch nanos, price mantissa, amount mantissa, journal sequence) after a small header.
+ * The time of every {@value #INDEX_INTERVAL}th record is kept in a sparse index, persisted alongside and held in
+ * memory. A lookup binary searches the index for its block, then reads that one block and binary searches within it,
+ * so it touches the disk once however many ticks are held
+ * <p>
+ * One writer appends, buffering a block at a time. Records only become visible to readers, which may be any number
+ * of threads, once flushed and counted in the header
+ */
+public class TickHistory implements Closeable {
+
+    static final int MAGIC = 0x54484953; // THIS
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 64;
+    static final int RECORD_BYTES = 32;
+    static final int INDEX_INTERVAL = 256;
+
+    private static final int SCALE = 8;
+    private static final int COUNT = 16;
+    private static final int LAST_SEQUENCE = 24;
+    private static final int SOURCE = 32;
+
+    private static final int TIME = 0;
+    private static final int PRICE = 8;
+    private static final int AMOUNT = 16;
+    private static final int SEQUENCE = 24;
+
+    /**
+     * Receives ticks in time order
+     */
+    @FunctionalInterface
+    public interface TickConsumer {
+        void accept(long epochNanos, long price, long amount) throws IOException;
+    }
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private final int scale;
+
+    /**
+     * Records readers may see, published after the records and their index entries are written
+     */
+    private volatile long count;
+    private volatile long[] sparse;
+
+    /**
+     * Writer only
+     */
+    private final ByteBuffer pending = ByteBuffer.allocate(INDEX_INTERVAL * RECORD_BYTES);
+    private final ByteBuffer header = ByteBuffer.allocate(24);
+    private long lastTime;
+    private long lastSequence;
+    private long source;
+
+    private TickHistory(FileChannel data, FileChannel index, int scale, long count, long[] sparse, long lastTime,
+                        long lastSequence, long source) {
+        this.data = data;
+        this.index = index;
+        this.scale = scale;
+        this.count = count;
+        this.sparse = sparse;
+        this.lastTime = lastTime;
+        this.lastSequence = lastSequence;
+        this.source = source;
+    }
+
+    /**
+     * Open or create the history held in a file, and its index in the same file with '.idx' appended
+     *
+     * @param scale price scale of a new history. An existing history keeps its own
+     */
+    public static @NotNull TickHistory open(@NotNull Path file, int scale) throws IOException {
+        FileChannel data = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel index = FileChannel.open(file.resolveSibling(file.getFileName() + ".idx"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(data, header, 0);
+
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                header.clear();
+                header.putInt(0, MAGIC).putInt(4, VERSION).putInt(SCALE, scale).putLong(COUNT, 0).putLong(LAST_SEQUENCE, -1);
+                writeFully(data, header, 0);
+                data.truncate(HEADER_BYTES);
+                index.truncate(0);
+                return new TickHistory(data, index, scale, 0, new long[16], Long.MIN_VALUE, -1, 0);
+            }
+
+            long count = header.getLong(COUNT);
+            long[] sparse = loadIndex(data, index, count);
+            long lastTime = Long.MIN_VALUE;
+            if (count > 0) {
+                ByteBuffer last = ByteBuffer.allocate(8);
+                readFully(data, last, offset(count - 1) + TIME);
+                lastTime = last.getLong(0);
+            }
+            return new TickHistory(data, index, header.getInt(SCALE), count, sparse, lastTime,
+                    header.getLong(LAST_SEQUENCE), header.getLong(SOURCE));
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            index.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return price scale of every record
+     */
+    public int scale() {
+        return scale;
+    }
+
+    /**
+     * @return records readers can see
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return journal sequence of the last record appended, -1 if none
+     */
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return journal the last record was appended from, 0 if none was named
+     */
+    public long source() {
+        return source;
+    }
+
+    /**
+     * Forget which journal sequences were appended, e.g. the journal was started afresh
+     */
+    public void resetSequence() {
+        lastSequence = -1;
+    }
+
+    /**
+     * Writer only. Name the journal the following ticks are appended from. Sequences only compare within one journal,
+     * so switching journal, e.g. the instrument moved to another connection's journal, forgets the sequences appended
+     */
+    public void source(long source) {
+        if (source != this.source) {
+            this.source = source;
+            lastSequence = -1;
+        }
+    }
+
+    /**
+     * Writer only. Buffered, flushed a block at a time or by {@link #flush()}
+     * <p>
+     * Times are kept in order for the index, a tick older than the last is stored at the last tick's time
+     *
+     * @param sequence journal sequence, ticks at or before the last appended are already held and are skipped
+     * @return false if skipped
+     */
+    public boolean append(long sequence, long epochNanos, long price, long amount) throws IOException {
+        if (sequence <= lastSequence) {
+            return false;
+        }
+
+        lastTime = Math.max(lastTime, epochNanos);
+        lastSequence = sequence;
+
+        pending.putLong(lastTime).putLong(price).putLong(amount).putLong(sequence);
+        if (!pending.hasRemaining()) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Writer only. Write buffered ticks and make them visible to readers
+     */
+    public void flush() throws IOException {
+        int added = pending.position() / RECORD_BYTES;
+        if (added == 0) {
+            return;
+        }
+
+        long from = count;
+        pending.flip();
+        writeFully(data, pending, offset(from));
+
+        long[] current = sparse;
+        long blocks = blocks(from + added);
+        if (blocks > current.length) {
+            current = Arrays.copyOf(current, (int) Math.max(blocks, current.length * 2L));
+        }
+
+        ByteBuffer entries = ByteBuffer.allocate((int) (blocks - blocks(from)) * 8);
+        for (long block = blocks(from); block < blocks; block++) {
+            long time = pending.getLong((int) (block * INDEX_INTERVAL - from) * RECORD_BYTES + TIME);
+            current[(int) block] = time;
+            entries.putLong(time);
+        }
+        entries.flip();
+        writeFully(index, entries, blocks(from) * 8);
+        pending.clear();
+
+        header.clear();
+        header.putLong(0, from + added).putLong(8, lastSequence).putLong(16, source);
+        writeFully(data, header, COUNT);
+
+        sparse = current;
+        count = from + added;
+    }
+
+    /**
+     * @param into receives the time, price and amount of the last tick at or before the time
+     * @return false if there is no tick at or before the time
+     */
+    public boolean at(long epochNanos, long @NotNull [] into) throws IOException {
+        long n = count;
+        long[] times = sparse;
+
+        int block = lastBlockAtOrBefore(times, (int) blocks(n), epochNanos);
+        if (block < 0) {
+            return false;
+        }
+
+        long first = (long) block * INDEX_INTERVAL;
+        ByteBuffer records = readBlock(first, n);
+        int low = 0;
+        int high = records.limit() / RECORD_BYTES - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (records.getLong(mid * RECORD_BYTES + TIME) <= epochNanos) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        into[0] = records.getLong(low * RECORD_BYTES + TIME);
+        into[1] = records.getLong(low * RECORD_BYTES + PRICE);
+        into[2] = records.getLong(low * RECORD_BYTES + AMOUNT);
+        return true;
+    }
+
+    /**
+     * Stream every tick within a time range, a block at a time
+     *
+     * @param from epoch nanos, inclusive
+     * @param to   epoch nanos, inclusive
+     */
+    public void range(long from, long to, @NotNull TickConsumer consumer) throws IOException {
+        long n = count;
+        long[] times = sparse;
+
+        // Ticks at the start of the range may share a block with earlier ones
+        int block = Math.max(0, lastBlockBefore(times, (int) blocks(n), from));
+
+        for (long first = (long) block * INDEX_INTERVAL; first < n; first += INDEX_INTERVAL) {
+            ByteBuffer records = readBlock(first, n);
+            for (int at = 0; at < records.limit(); at += RECORD_BYTES) {
+                long time = records.getLong(at + TIME);
+                if (time > to) {
+                    return;
+                }
+                if (time >= from) {
+                    consumer.accept(time, records.getLong(at + PRICE), records.getLong(at + AMOUNT));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            data.close();
+            index.close();
+        }
+    }
+
+    private ByteBuffer readBlock(long first, long n) throws IOException {
+        int records = (int) Math.min(INDEX_INTERVAL, n - first);
+        ByteBuffer buffer = ByteBuffer.allocate(records * RECORD_BYTES);
+        readFully(data, buffer, offset(first));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return the last block starting at or before the time, -1 if none
+     */
+    private static int lastBlockAtOrBefore(long[] times, int blocks, long epochNanos) {
+        int low = 0;
+        int high = blocks - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= epochNanos) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the last block starting strictly before the time, -1 if none
+     */
+    private static int lastBlockBefore(long[] times, int blocks, long epochNanos) {
+        return epochNanos == Long.MIN_VALUE ? -1 : lastBlockAtOrBefore(times, blocks, epochNanos - 1);
+    }
+
+    /**
+     * Load the persisted index, rebuilding it from the records if it does not match them e.g. after a crash
+     */
+    private static long[] loadIndex(FileChannel data, FileChannel index, long count) throws IOException {
+        int blocks = (int) blocks(count);
+        long[] sparse = new long[Math.max(16, blocks)];
+
+        if (index.size() == blocks * 8L) {
+            ByteBuffer entries = ByteBuffer.allocate(blocks * 8);
+            readFully(index, entries, 0);
+            entries.flip();
+            entries.asLongBuffer().get(sparse, 0, blocks);
+            return sparse;
+        }
+
+        ByteBuffer entries = ByteBuffer.allocate(blocks * 8);
+        ByteBuffer time = ByteBuffer.allocate(8);
+        for (int block = 0; block < blocks; block++) {
+            time.clear();
+            readFully(data, time, offset((long) block * INDEX_INTERVAL) + TIME);
+            sparse[block] = time.getLong(0);
+            entries.putLong(sparse[block]);
+        }
+        entries.flip();
+        index.truncate(0);
+        writeFully(index, entries, 0);
+        return sparse;
+    }
+
+    private static long blocks(long records) {
+        return (records + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+    }
+
+    private static long offset(long record) {
+        return HEADER_BYTES + record * RECORD_BYTES;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+}
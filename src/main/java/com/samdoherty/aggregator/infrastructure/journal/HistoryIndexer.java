@@ -0,0 +1,161 @@
+package com.samdoherty.aggregator.infrastructure.journal;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.service.HistoryService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the {@link HistoryService} tick histories by tailing every exchange's {@link TickJournal}
+ * <p>
+ * Nothing is added to the ingest path. A pass every 100ms on the indexer's own thread reads what each journal committed since the last pass,
+ * appends it to the instruments' histories and checkpoints the journal sequence it reached, so a restart carries on
+ * where it left off. Trades are stamped with their exchange time, or the time they were received if the exchange
+ * did not give one
+ * <p>
+ * Passes are mapped file IO of up to {@link #MAX_PER_PASS} records a journal, so they are kept off Spring's shared
+ * scheduler thread, which runs the heartbeats, channel watchdogs and snapshot flushes
+ */
+@Slf4j
+@Service
+public class HistoryIndexer {
+
+    /**
+     * Records read from one journal per pass, so one busy exchange does not hold up the others
+     */
+    static final int MAX_PER_PASS = 1 << 16;
+
+    private final TickJournals journals;
+    private final HistoryService historyService;
+
+    private final Map<TickJournal, Tail> tails = new IdentityHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("history-indexer").daemon().factory());
+
+    public HistoryIndexer(TickJournals journals, HistoryService historyService) {
+        this.journals = journals;
+        this.historyService = historyService;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::index, 100, 100, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for a pass in flight, so the histories are not closed under it
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+            log.warn("History indexing pass still running at shutdown");
+        }
+    }
+
+    public synchronized void index() {
+        for (TickJournal journal : journals.journals()) {
+            try {
+                Tail tail = tails.get(journal);
+                if (tail == null) {
+                    tail = start(journal);
+                    tails.put(journal, tail);
+                }
+                index(tail);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to index journal {}: {}", journal.directory(), e.getMessage());
+            }
+        }
+    }
+
+    private Tail start(TickJournal journal) throws IOException {
+        String name = journal.directory().getFileName().toString();
+        long from = historyService.checkpoint(name);
+
+        if (from > journal.nextSequence()) {
+            log.warn("Journal {} restarted from sequence {}, history was built up to {}. Indexing it afresh",
+                    journal.directory(), journal.nextSequence(), from);
+            historyService.resetSequences(name);
+            from = 0;
+        }
+        return new Tail(name, journal.reader(from));
+    }
+
+    private void index(Tail tail) throws IOException {
+        TickJournalReader reader = tail.reader;
+        int read = 0;
+
+        while (read < MAX_PER_PASS && reader.next()) {
+            // The record's sequence, next() has moved past it
+            long sequence = reader.sequence() - 1;
+            Instrument instrument = tail.instrument(reader.instrumentId(), reader.priceScale());
+            if (instrument != null) {
+                long exchangeMicros = reader.exchangeMicros();
+                long epochNanos = exchangeMicros > 0 ? exchangeMicros * 1000 : reader.receivedNanos();
+                historyService.append(instrument, tail.journal, sequence, epochNanos, reader.price(), reader.amount());
+            }
+            read++;
+        }
+
+        if (read > 0) {
+            historyService.flush();
+            historyService.checkpoint(tail.journal, reader.sequence());
+        }
+    }
+
+    /**
+     * Progress through one journal
+     */
+    private static final class Tail {
+        private final String journal;
+        private final TickJournalReader reader;
+
+        /**
+         * Instruments of the current segment by id, ids are only meaningful within a segment
+         */
+        private final Map<Integer, Instrument> instruments = new HashMap<>();
+        private long segment = -1;
+
+        private Tail(String journal, TickJournalReader reader) {
+            this.journal = journal;
+            this.reader = reader;
+        }
+
+        private @Nullable Instrument instrument(int id, int scale) {
+            if (reader.segment() != segment) {
+                segment = reader.segment();
+                instruments.clear();
+            }
+
+            Instrument instrument = instruments.get(id);
+            if (instrument == null || instrument.getScale() != scale) {
+                instrument = parse(reader.instrument(id), scale);
+                if (instrument == null) {
+                    return null;
+                }
+                instruments.put(id, instrument);
+            }
+            return instrument;
+        }
+    }
+
+    private static @Nullable Instrument parse(@Nullable String key, int scale) {
+        String[] parts = key == null ? new String[0] : key.split("/");
+        if (parts.length != 3) {
+            return null;
+        }
+        return Instrument.builder().exchange(parts[0]).base(parts[1]).quote(parts[2]).scale(scale).build();
+    }
+}
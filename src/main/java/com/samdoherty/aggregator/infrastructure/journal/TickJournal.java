@@ -0,0 +1,274 @@
+package com.samdoherty.aggregator.infrastructure.journal;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of every trade an exchange ingested, in fixed size records across rolling memory-mapped
+ * segment files
+ * <p>
+ * There is one writer, the exchange's ingest worker. Appending is a handful of stores into the mapped segment, no
+ * syscall and no allocation. Records become visible to readers when the writer commits, once per ingest batch,
+ * by publishing the segment's committed count. Mapping the next segment is the only syscall, once per
+ * {@code capacity} records. There is no fsync, the page cache survives a crash of the process, just not of the host
+ * <p>
+ * Instrument ids are only meaningful within a run, so each run starts a new segment and every segment's header
+ * lists the instruments its records use
+ * <p>
+ * Segment layout: a {@value #HEADER_BYTES} byte header (magic, version, record size, capacity, sequence of the
+ * first record, committed count, instrument table) then capacity records of {@value #RECORD_BYTES} bytes
+ * (instrument id, price scale, exchange epoch micros, receipt epoch nanos, price mantissa, amount mantissa)
+ */
+@Slf4j
+public class TickJournal implements AutoCloseable {
+
+    static final int MAGIC = 0x544A4E4C; // TJNL
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 1 << 16;
+    static final int RECORD_BYTES = 40;
+
+    static final int FIRST_SEQUENCE = 16;
+    static final int COMMITTED = 64;
+    static final int INSTRUMENT_COUNT = 72;
+    static final int INSTRUMENTS = 128;
+    static final int INSTRUMENT_BYTES = 48;
+    static final int MAX_INSTRUMENTS = (HEADER_BYTES - INSTRUMENTS) / INSTRUMENT_BYTES;
+    private static final int MAX_KEY_BYTES = INSTRUMENT_BYTES - 16;
+
+    static final int ID = 0;
+    static final int SCALE = 4;
+    static final int EXCHANGE_MICROS = 8;
+    static final int RECEIVED_NANOS = 16;
+    static final int PRICE = 24;
+    static final int AMOUNT = 32;
+
+    private static final String SUFFIX = ".journal";
+
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path directory;
+    private final int capacity;
+    private final int retainSegments;
+    private final IntFunction<Instrument> instruments;
+
+    /**
+     * Writer only
+     */
+    private MappedByteBuffer segment;
+    private long firstSequence;
+    private int position;
+    private int instrumentCount;
+    private boolean[] defined = new boolean[0];
+
+    private volatile boolean closed;
+
+    /**
+     * @param directory      segments of one exchange
+     * @param capacity       records per segment
+     * @param retainSegments segments kept on disk, the oldest are deleted as new ones are started. 0 keeps every segment
+     * @param instruments    id to instrument, for segment headers
+     */
+    public TickJournal(@NotNull Path directory, int capacity, int retainSegments, @NotNull IntFunction<Instrument> instruments) throws IOException {
+        this.directory = directory;
+        this.capacity = capacity;
+        this.retainSegments = retainSegments;
+        this.instruments = instruments;
+
+        Files.createDirectories(directory);
+        long next = 0;
+        Path last = lastSegment(directory);
+        if (last != null) {
+            next = end(last);
+            if (next == first(last)) {
+                // Nothing was committed to it, this run takes its place
+                Files.delete(last);
+            }
+        }
+        roll(next);
+    }
+
+    /**
+     * Writer only. Not visible to readers until {@link #commit()}
+     *
+     * @param id             aggregator instrument id
+     * @param priceScale     scale of the price mantissa
+     * @param exchangeMicros exchange trade time in epoch micros, 0 if unknown
+     * @param receivedNanos  epoch nanos the frame was received
+     * @param price          price mantissa
+     * @param amount         amount mantissa at the candle volume scale
+     */
+    public void append(int id, int priceScale, long exchangeMicros, long receivedNanos, long price, long amount) {
+        if (position == capacity) {
+            roll(firstSequence + capacity);
+        }
+        if (id >= defined.length || !defined[id]) {
+            define(id);
+        }
+
+        int at = HEADER_BYTES + position * RECORD_BYTES;
+        segment.putInt(at + ID, id);
+        segment.putInt(at + SCALE, priceScale);
+        segment.putLong(at + EXCHANGE_MICROS, exchangeMicros);
+        segment.putLong(at + RECEIVED_NANOS, receivedNanos);
+        segment.putLong(at + PRICE, price);
+        segment.putLong(at + AMOUNT, amount);
+        position++;
+    }
+
+    /**
+     * Writer only. Publish every record appended so far to readers
+     */
+    public void commit() {
+        LONGS.setRelease(segment, COMMITTED, (long) position);
+    }
+
+    /**
+     * @return sequence the next appended record will get
+     */
+    public long nextSequence() {
+        return firstSequence + position;
+    }
+
+    /**
+     * @return a reader of this journal, starting at the given sequence or the oldest record still on disk
+     */
+    public @NotNull TickJournalReader reader(long fromSequence) {
+        return new TickJournalReader(directory, fromSequence);
+    }
+
+    public @NotNull Path directory() {
+        return directory;
+    }
+
+    /**
+     * Force committed records to disk. Called on shutdown only
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            segment.force();
+        }
+    }
+
+    private void define(int id) {
+        if (id >= defined.length) {
+            defined = Arrays.copyOf(defined, Math.max(id + 1, defined.length * 2));
+        }
+        defined[id] = true;
+
+        if (instrumentCount == MAX_INSTRUMENTS) {
+            log.warn("Journal segment in {} is out of room for instrument {}", directory, id);
+            return;
+        }
+
+        Instrument instrument = instruments.apply(id);
+        byte[] key = (instrument.getExchange() + "/" + instrument.getBase() + "/" + instrument.getQuote()).getBytes(StandardCharsets.UTF_8);
+        int at = INSTRUMENTS + instrumentCount * INSTRUMENT_BYTES;
+        segment.putInt(at, id);
+        segment.putInt(at + 4, instrument.getScale());
+        segment.putInt(at + 8, Math.min(key.length, MAX_KEY_BYTES));
+        segment.put(at + 16, key, 0, Math.min(key.length, MAX_KEY_BYTES));
+        instrumentCount++;
+        // Published before any record using it is committed
+        INTS.setRelease(segment, INSTRUMENT_COUNT, instrumentCount);
+    }
+
+    private void roll(long first) {
+        if (segment != null) {
+            commit();
+        }
+
+        Path path = directory.resolve(name(first));
+        long size = (long) HEADER_BYTES + (long) capacity * RECORD_BYTES;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapped.putInt(4, VERSION);
+            mapped.putInt(8, RECORD_BYTES);
+            mapped.putInt(12, capacity);
+            mapped.putLong(FIRST_SEQUENCE, first);
+            // Last, readers ignore the segment until the header is complete
+            INTS.setRelease(mapped, 0, MAGIC);
+            segment = mapped;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create journal segment " + path, e);
+        }
+
+        firstSequence = first;
+        position = 0;
+        instrumentCount = 0;
+        Arrays.fill(defined, false);
+
+        if (retainSegments > 0) {
+            prune();
+        }
+    }
+
+    private void prune() {
+        try {
+            List<Path> segments = segments(directory);
+            for (int i = 0; i < segments.size() - retainSegments; i++) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        } catch (IOException e) {
+            log.warn("Unable to delete old journal segments in {}: {}", directory, e.getMessage());
+        }
+    }
+
+    static String name(long firstSequence) {
+        return "%020d%s".formatted(firstSequence, SUFFIX);
+    }
+
+    /**
+     * @return segments in sequence order
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+    private static @Nullable Path lastSegment(Path directory) throws IOException {
+        List<Path> segments = segments(directory);
+        return segments.isEmpty() ? null : segments.getLast();
+    }
+
+    /**
+     * @return sequence of the segment's first record, from its name
+     */
+    static long first(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * @return sequence after the segment's last committed record
+     */
+    private static long end(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, COMMITTED + 8);
+            return header.getLong(FIRST_SEQUENCE) + header.getLong(COMMITTED);
+        }
+    }
+}
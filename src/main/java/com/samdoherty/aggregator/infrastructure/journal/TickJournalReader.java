@@ -0,0 +1,223 @@
+package com.samdoherty.aggregator.infrastructure.journal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static com.samdoherty.aggregator.infrastructure.journal.TickJournal.*;
+
+/**
+ * Tails a {@link TickJournal}, safe to use while the journal is being written
+ * <p>
+ * A flyweight over the mapped segment: {@link #next()} moves to the next committed record, whose fields are then
+ * read through the accessors without allocating. Segments are followed across rolls and restarts
+ * <p>
+ * Used by a single thread, NOT threadsafe
+ */
+public class TickJournalReader {
+
+    /**
+     * How often a reader caught up on a part filled segment looks for a later one, e.g. after a restart
+     */
+    private static final long RESCAN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Path directory;
+    private long sequence;
+
+    private @Nullable MappedByteBuffer segment;
+    private long segmentFirst;
+    private int segmentCapacity;
+    private long rescanAt;
+
+    /**
+     * Offset of the current record, valid after {@link #next()} returned true
+     */
+    private int at;
+
+    TickJournalReader(@NotNull Path directory, long fromSequence) {
+        this.directory = directory;
+        this.sequence = fromSequence;
+    }
+
+    /**
+     * @return true if moved to the next committed record, false if caught up with the writer
+     */
+    public boolean next() {
+        if (segment == null && !open(false)) {
+            return false;
+        }
+
+        while (true) {
+            long index = sequence - segmentFirst;
+            if (index < committed()) {
+                at = HEADER_BYTES + (int) index * RECORD_BYTES;
+                sequence++;
+                return true;
+            }
+
+            // Caught up. Look for a later segment when this one is full, or every so often in case the writer restarted
+            long now = System.nanoTime();
+            if (index < segmentCapacity && now - rescanAt < RESCAN_NANOS) {
+                return false;
+            }
+            rescanAt = now;
+
+            // A later segment means this one is final, but it may have been committed to since we last looked
+            if (!open(true)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return sequence of the record after the current one, or the next one to be read
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * @return sequence of the first record of the current segment, whose instrument table {@link #instrument(int)} reads
+     */
+    public long segment() {
+        return segmentFirst;
+    }
+
+    public int instrumentId() {
+        return segment.getInt(at + ID);
+    }
+
+    public int priceScale() {
+        return segment.getInt(at + SCALE);
+    }
+
+    /**
+     * @return exchange trade time in epoch micros, 0 if unknown
+     */
+    public long exchangeMicros() {
+        return segment.getLong(at + EXCHANGE_MICROS);
+    }
+
+    /**
+     * @return epoch nanos the trade was received
+     */
+    public long receivedNanos() {
+        return segment.getLong(at + RECEIVED_NANOS);
+    }
+
+    public long price() {
+        return segment.getLong(at + PRICE);
+    }
+
+    /**
+     * @return amount mantissa at the candle volume scale
+     */
+    public long amount() {
+        return segment.getLong(at + AMOUNT);
+    }
+
+    /**
+     * @return 'exchange/BASE/QUOTE' the current segment lists for an id, or null if it does not list it
+     */
+    public @Nullable String instrument(int id) {
+        if (segment == null) {
+            return null;
+        }
+
+        int count = (int) INTS.getAcquire(segment, INSTRUMENT_COUNT);
+        for (int i = 0; i < count; i++) {
+            int entry = INSTRUMENTS + i * INSTRUMENT_BYTES;
+            if (segment.getInt(entry) == id) {
+                byte[] key = new byte[segment.getInt(entry + 8)];
+                segment.get(entry + 16, key);
+                return new String(key, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private long committed() {
+        return (long) LONGS.getAcquire(segment, COMMITTED);
+    }
+
+    /**
+     * Map the segment holding the next sequence
+     *
+     * @param later only move to a segment after the current one, after which the current one is final
+     * @return false if there is no segment to move to yet
+     */
+    private boolean open(boolean later) {
+        try {
+            Path target = null;
+            long targetFirst = 0;
+
+            for (Path candidate : TickJournal.segments(directory)) {
+                long first = TickJournal.first(candidate);
+                if (later) {
+                    if (first > segmentFirst) {
+                        target = candidate;
+                        targetFirst = first;
+                        break;
+                    }
+                } else if (target == null || first <= sequence) {
+                    // The last segment starting at or before the sequence, else the oldest
+                    target = candidate;
+                    targetFirst = first;
+                } else {
+                    break;
+                }
+            }
+
+            if (target == null) {
+                return false;
+            }
+
+            if (later && sequence - segmentFirst < committed()) {
+                // Committed to before the writer moved on, finish this one first
+                return true;
+            }
+
+            MappedByteBuffer mapped = map(target);
+            if (mapped == null) {
+                return false;
+            }
+
+            segment = mapped;
+            segmentFirst = targetFirst;
+            segmentCapacity = mapped.getInt(12);
+            // Records before the oldest segment on disk, or lost to a crash before commit, are skipped
+            sequence = Math.max(sequence, targetFirst);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read journal " + directory, e);
+        }
+    }
+
+    /**
+     * @return the mapped segment, or null if the writer has not finished creating it
+     */
+    private static @Nullable MappedByteBuffer map(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size < HEADER_BYTES) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if ((int) INTS.getAcquire(mapped, 0) != MAGIC || mapped.getInt(4) != VERSION
+                    || size != (long) HEADER_BYTES + (long) mapped.getInt(12) * RECORD_BYTES) {
+                return null;
+            }
+            return mapped;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.samdoherty.aggregator.infrastructure.journal;
+
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Opens a {@link TickJournal} per exchange, each in its own directory so each has a single writer
+ */
+@Slf4j
+@Service
+public class TickJournals {
+
+    private final PriceAggregatorService aggregatorService;
+    private final boolean enabled;
+    private final Path path;
+    private final int segmentRecords;
+    private final int retainSegments;
+
+    /**
+     * Guarded by this
+     */
+    private final List<TickJournal> open = new ArrayList<>();
+
+    public TickJournals(
+            PriceAggregatorService aggregatorService,
+            @Value("${aggregator.journal.enabled:true}") boolean enabled,
+            @Value("${aggregator.journal.path:${java.io.tmpdir}/price-aggregator/journal}") Path path,
+            @Value("${aggregator.journal.segmentRecords:1048576}") int segmentRecords,
+            @Value("${aggregator.journal.retainSegments:8}") int retainSegments
+    ) {
+        this.aggregatorService = aggregatorService;
+        this.enabled = enabled;
+        this.path = path;
+        this.segmentRecords = segmentRecords;
+        this.retainSegments = retainSegments;
+    }
+
+    /**
+     * @param exchange name, each exchange must only open its journal once
+     * @return the exchange's journal, or null if journaling is disabled
+     */
+    public synchronized @Nullable TickJournal open(@NotNull String exchange) {
+        if (!enabled) {
+            return null;
+        }
+
+        try {
+            TickJournal journal = new TickJournal(path.resolve(exchange.toLowerCase(Locale.ROOT)), segmentRecords, retainSegments, aggregatorService::instrument);
+            open.add(journal);
+            log.info("Journaling {} trades to {} from sequence {}", exchange, journal.directory(), journal.nextSequence());
+            return journal;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open %s trade journal".formatted(exchange), e);
+        }
+    }
+
+    /**
+     * @return journals opened so far
+     */
+    public synchronized @NotNull List<TickJournal> journals() {
+        return List.copyOf(open);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        open.forEach(TickJournal::close);
+        open.clear();
+    }
+}
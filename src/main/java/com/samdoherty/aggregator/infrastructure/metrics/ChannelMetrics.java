@@ -0,0 +1,131 @@
+package com.samdoherty.aggregator.infrastructure.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message and trade counts of one exchange channel, with its usual message rate and recoveries once it went quiet
+ * <p>
+ * Counts are only ever written by the exchange's ingest worker, so plain counters with ordered writes are enough
+ * and recording never contends. The rate and recoveries are written by whichever single thread watches the channel.
+ * Micrometer reads them at scrape time
+ */
+public class ChannelMetrics {
+
+    private final String channel;
+
+    private volatile long messages;
+    private volatile long trades;
+    private volatile double rate;
+    private volatile long resubscribes;
+
+    /**
+     * System.nanoTime of the last message, 0 if none yet
+     */
+    private volatile long lastMessageAt;
+
+    public ChannelMetrics(@NotNull String channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Ingest worker only
+     */
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    public void message(long receivedNanos) {
+        messages++;
+        lastMessageAt = receivedNanos;
+    }
+
+    /**
+     * Ingest worker only
+     */
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    public void trade() {
+        trades++;
+    }
+
+    public long messages() {
+        return messages;
+    }
+
+    public long trades() {
+        return trades;
+    }
+
+    /**
+     * @return System.nanoTime of the last message, 0 if none yet
+     */
+    public long lastMessageAt() {
+        return lastMessageAt;
+    }
+
+    /**
+     * @return moving average of messages per second, 0 until measured
+     */
+    public double rate() {
+        return rate;
+    }
+
+    /**
+     * Watcher only
+     */
+    public void rate(double messagesPerSecond) {
+        rate = messagesPerSecond;
+    }
+
+    public long resubscribes() {
+        return resubscribes;
+    }
+
+    /**
+     * Watcher only. The channel went quiet and was resubscribed
+     */
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    public void resubscribed() {
+        resubscribes++;
+    }
+
+    /**
+     * @return seconds since the channel last received a message, NaN if it never has
+     */
+    public double secondsSinceLastMessage() {
+        long at = lastMessageAt;
+        return at == 0 ? Double.NaN : (System.nanoTime() - at) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    public void bindTo(@NotNull MeterRegistry registry, @NotNull Tags exchangeTags) {
+        Tags tags = exchangeTags.and("channel", channel);
+
+        FunctionCounter.builder("exchange.channel.messages", this, ChannelMetrics::messages)
+                .description("Messages received on an exchange channel")
+                .tags(tags)
+                .register(registry);
+
+        FunctionCounter.builder("exchange.channel.trades", this, ChannelMetrics::trades)
+                .description("Trades received on an exchange channel")
+                .tags(tags)
+                .register(registry);
+
+        Gauge.builder("exchange.channel.silence", this, ChannelMetrics::secondsSinceLastMessage)
+                .description("Time since an exchange channel last received a message")
+                .baseUnit("seconds")
+                .tags(tags)
+                .register(registry);
+
+        Gauge.builder("exchange.channel.rate", this, ChannelMetrics::rate)
+                .description("Usual messages per second on an exchange channel, a moving average")
+                .tags(tags)
+                .register(registry);
+
+        FunctionCounter.builder("exchange.channel.resubscribes", this, ChannelMetrics::resubscribes)
+                .description("Times an exchange channel went quiet and was resubscribed")
+                .tags(tags)
+                .register(registry);
+    }
+}
@@ -0,0 +1,127 @@
+package com.samdoherty.aggregator.infrastructure.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free, allocation free histogram of durations in power of two nanosecond buckets
+ * <p>
+ * Recording is a handful of atomic adds, cheap enough for every frame. Once bound, each duration is also recorded
+ * into a Micrometer Timer with the same bucket bounds as service level objectives, published as a real histogram
+ * (e.g. Prometheus '_bucket' series), so quantiles over any window are left to the monitoring system
+ */
+public class LatencyHistogram {
+
+    /**
+     * Bucket i counts durations below 2^i nanos. Buckets under ~1us and over ~34s are merged into their neighbours
+     */
+    private static final int MIN_BUCKET = 10;
+    private static final int MAX_BUCKET = 35;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_BUCKET + 2);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * One per registry bound to, replaced whole when another is bound
+     */
+    private volatile Timer[] timers = new Timer[0];
+
+    /**
+     * @param nanos duration, negative values (e.g. clock skew) count as zero
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(bucket(value));
+        total.add(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+
+        for (Timer timer : timers) {
+            timer.record(value, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = MIN_BUCKET; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return durations recorded below 2^bucket nanos
+     */
+    long countBelow(int bucket) {
+        long count = 0;
+        for (int i = MIN_BUCKET; i <= bucket; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Resolution is the bucket width, so this is an upper bound within a factor of two
+     *
+     * @param quantile e.g. 0.99
+     * @return upper bound of the bucket holding the quantile, the max if it falls in the top bucket, 0 if empty
+     */
+    public long quantileNanos(double quantile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * count);
+        for (int bucket = MIN_BUCKET; bucket <= MAX_BUCKET; bucket++) {
+            if (countBelow(bucket) >= rank) {
+                return Math.min(1L << bucket, maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    /**
+     * Register as a Timer '{name}' with power of two bucket bounds from ~1us to ~34s. Durations recorded before this
+     * are not in it
+     */
+    public synchronized void bindTo(@NotNull MeterRegistry registry, @NotNull String name, @NotNull String description,
+                                    @NotNull Tags tags) {
+        Duration[] bounds = new Duration[MAX_BUCKET - MIN_BUCKET + 1];
+        for (int bucket = MIN_BUCKET; bucket <= MAX_BUCKET; bucket++) {
+            bounds[bucket - MIN_BUCKET] = Duration.ofNanos(1L << bucket);
+        }
+
+        Timer timer = Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .serviceLevelObjectives(bounds)
+                .register(registry);
+
+        Timer[] bound = Arrays.copyOf(timers, timers.length + 1);
+        bound[bound.length - 1] = timer;
+        timers = bound;
+    }
+
+    private static int bucket(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+        return Math.min(Math.max(bucket, MIN_BUCKET), MAX_BUCKET + 1);
+    }
+}
@@ -0,0 +1,95 @@
+package com.samdoherty.aggregator.infrastructure.recording;
+
+import com.samdoherty.aggregator.domain.store.EpochClock;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves raw inbound websocket frames with their receipt time, for {@link FrameReplayer} to feed back later
+ * <p>
+ * Written on the exchange's ingest worker, never the websocket read thread. Frames are buffered and flushed once
+ * per ingest batch. A write failure stops the recording rather than the ingest
+ * <p>
+ * Layout: magic and version, then per frame the epoch nanos it was received, its UTF-8 length and its bytes
+ */
+@Slf4j
+public class FrameRecorder implements AutoCloseable {
+
+    static final int MAGIC = 0x46524D53; // FRMS
+    static final int VERSION = 1;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Path file;
+    private final DataOutputStream out;
+    private boolean failed;
+
+    public FrameRecorder(@NotNull Path file) throws IOException {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), BUFFER_BYTES));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Ingest worker only
+     *
+     * @param receivedNanos System.nanoTime the frame was received on the websocket thread
+     */
+    public void record(@NotNull String frame, long receivedNanos) {
+        if (failed) {
+            return;
+        }
+
+        try {
+            byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+            out.writeLong(EpochClock.at(receivedNanos));
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Ingest worker only, at the end of each batch
+     */
+    public void flush() {
+        if (failed) {
+            return;
+        }
+
+        try {
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public @NotNull Path file() {
+        return file;
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("Unable to close frame recording {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        log.error("Stopped recording frames to {}: {}", file, e.getMessage());
+    }
+}
@@ -0,0 +1,73 @@
+package com.samdoherty.aggregator.infrastructure.recording;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Opens a {@link FrameRecorder} per exchange when recording is enabled, a new file each run
+ */
+@Slf4j
+@Service
+public class FrameRecorders {
+
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final boolean enabled;
+    private final Path path;
+
+    /**
+     * Guarded by this
+     */
+    private final List<FrameRecorder> open = new ArrayList<>();
+
+    public FrameRecorders(
+            @Value("${aggregator.recorder.enabled:false}") boolean enabled,
+            @Value("${aggregator.recorder.path:${java.io.tmpdir}/price-aggregator/frames}") Path path
+    ) {
+        this.enabled = enabled;
+        this.path = path;
+    }
+
+    /**
+     * @param exchange name
+     * @return a recorder for the exchange's frames, or null if recording is disabled
+     */
+    public synchronized @Nullable FrameRecorder open(@NotNull String exchange) {
+        if (!enabled) {
+            return null;
+        }
+
+        Path file = path.resolve("%s-%s.frames".formatted(exchange.toLowerCase(Locale.ROOT),
+                STAMP.format(ZonedDateTime.now(ZoneOffset.UTC))));
+        try {
+            Files.createDirectories(path);
+            FrameRecorder recorder = new FrameRecorder(file);
+            open.add(recorder);
+            log.info("Recording {} frames to {}", exchange, file);
+            return recorder;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to record %s frames".formatted(exchange), e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        open.forEach(FrameRecorder::close);
+        open.clear();
+    }
+}
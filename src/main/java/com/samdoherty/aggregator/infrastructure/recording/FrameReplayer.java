@@ -0,0 +1,155 @@
+package com.samdoherty.aggregator.infrastructure.recording;
+
+import com.samdoherty.aggregator.infrastructure.metrics.LatencyHistogram;
+import com.samdoherty.aggregator.infrastructure.websocket.AbstractExchangeWebsocket;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a {@link FrameRecorder} recording back through a websocket's {@link AbstractExchangeWebsocket#onMessage(String)},
+ * exactly as the websocket read thread would, to load test the ingest path offline
+ * <p>
+ * Frames keep their recorded spacing divided by the speed, or are fed as fast as possible. The calling thread plays
+ * the websocket read thread, so frames the ingest worker cannot keep up with are dropped and reported as in production
+ */
+public class FrameReplayer {
+
+    /**
+     * Speed to feed frames as fast as possible, ignoring their recorded spacing
+     */
+    public static final double FLAT_OUT = 0;
+
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    /**
+     * @param frames         fed to the websocket
+     * @param dropped        of those, dropped because the ingest worker fell behind
+     * @param elapsedNanos   first frame fed to the last frame stored
+     * @param allocatedBytes by every thread while replaying, including decoding the recording
+     * @param p50Nanos       frame receipt to its price being stored, to within the histogram's power of two buckets
+     */
+    public record Report(long frames, long dropped, long elapsedNanos, long allocatedBytes,
+                         long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+
+        /**
+         * @return frames stored per second, dropped frames do not count
+         */
+        public double framesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (frames - dropped) * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return ("%d frames in %.3fs, %.0f frames/s stored, %d dropped%n"
+                    + "latency p50 <= %.1fus, p99 <= %.1fus, p99.9 <= %.1fus, max %.1fus%n"
+                    + "allocated %d bytes, %.0f bytes/frame")
+                    .formatted(frames, elapsedNanos / 1e9, framesPerSecond(), dropped,
+                            p50Nanos / 1e3, p99Nanos / 1e3, p999Nanos / 1e3, maxNanos / 1e3,
+                            allocatedBytes, frames == 0 ? 0.0 : (double) allocatedBytes / frames);
+        }
+    }
+
+    private final Path file;
+
+    public FrameReplayer(@NotNull Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Latency percentiles are read from the websocket's ingest histogram, so use a websocket nothing else has fed
+     *
+     * @param speed multiple of the recorded rate e.g. 1 or 10, or {@link #FLAT_OUT}
+     */
+    public @NotNull Report replay(@NotNull AbstractExchangeWebsocket target, double speed) throws IOException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Replay speed must not be negative");
+        }
+
+        LatencyHistogram latency = target.ingestLatency();
+        long droppedBefore = target.droppedFrames();
+        long storedBefore = latency.count();
+        long allocatedBefore = allocatedBytes();
+
+        long frames = 0;
+        long start = System.nanoTime();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != FrameRecorder.MAGIC || in.readInt() != FrameRecorder.VERSION) {
+                throw new IOException("Not a frame recording: " + file);
+            }
+
+            long firstReceived = 0;
+            while (true) {
+                long received;
+                String frame;
+                try {
+                    received = in.readLong();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    frame = new String(bytes, StandardCharsets.UTF_8);
+                } catch (EOFException e) {
+                    // End of the recording, or a frame cut short when it stopped
+                    break;
+                }
+
+                if (frames == 0) {
+                    firstReceived = received;
+                    start = System.nanoTime();
+                } else if (speed != FLAT_OUT) {
+                    awaitNanoTime(start + (long) ((received - firstReceived) / speed));
+                }
+
+                target.onMessage(frame);
+                frames++;
+            }
+        }
+
+        long dropped = target.droppedFrames() - droppedBefore;
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        while (latency.count() - storedBefore < frames - dropped && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        long elapsed = System.nanoTime() - start;
+        return new Report(frames, dropped, elapsed, allocatedBytes() - allocatedBefore,
+                latency.quantileNanos(0.5), latency.quantileNanos(0.99), latency.quantileNanos(0.999), latency.maxNanos());
+    }
+
+    private static void awaitNanoTime(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * @return bytes allocated so far by every live thread, -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+}
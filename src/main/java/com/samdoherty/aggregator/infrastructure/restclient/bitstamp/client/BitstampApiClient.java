@@ -35,6 +35,19 @@ public class BitstampApiClient {
                 });
     }
 
+    /**
+     * Get the latest ticker of every market in one call
+     *
+     * @return the latest tick data, each with the pair it is for
+     */
+    public List<Ticker> getLatestPrices() {
+        return restClient.get()
+                .uri("/api/v2/ticker/")
+                .retrieve()
+                .body(new ParameterizedTypeReference<>() {
+                });
+    }
+
     /**
      * Get the latest ticket containing the latest price
      *
@@ -47,4 +60,17 @@ public class BitstampApiClient {
                 .retrieve()
                 .body(Ticker.class);
     }
+
+    /**
+     * Get a market's full order book, left as the raw body so it can be scanned straight into a book
+     *
+     * @param symbol market e.g. 'btcusd'
+     * @return JSON object with the book's microtimestamp, bids and asks
+     */
+    public String getOrderBook(@NotNull String symbol) {
+        return restClient.get()
+                .uri("/api/v2/order_book/" + symbol + "/")
+                .retrieve()
+                .body(String.class);
+    }
 }
@@ -0,0 +1,176 @@
+package com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Market;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bitstamp market metadata, cached on disk and indexed by market symbol in memory
+ * <p>
+ * Markets rarely change, so within the TTL a restart reads the local copy rather than downloading the full list.
+ * Once stale the list is revalidated against the API, but if the API is slow or down we start from the stale copy
+ * and let the download finish in the background. Only with no local copy at all do we have to wait on the API
+ */
+@Slf4j
+@Service
+public class BitstampMarketCache {
+
+    private final BitstampApiClient apiClient;
+    private final Path path;
+    private final Duration ttl;
+    private final Duration revalidateTimeout;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Latest markets we know of, reused until stale so reconnects do not touch disk or network
+     */
+    private volatile @Nullable Snapshot current;
+
+    /**
+     * Download still running from an earlier revalidation, shared rather than starting another
+     */
+    private @Nullable CompletableFuture<Snapshot> revalidating;
+
+    public BitstampMarketCache(
+            BitstampApiClient apiClient,
+            @Value("${exchange.bitstamp.marketCache.path:${java.io.tmpdir}/price-aggregator/bitstamp-markets.json}") Path path,
+            @Value("${exchange.bitstamp.marketCache.ttl:PT24H}") Duration ttl,
+            @Value("${exchange.bitstamp.marketCache.revalidateTimeout:PT2S}") Duration revalidateTimeout
+    ) {
+        this.apiClient = apiClient;
+        this.path = path;
+        this.ttl = ttl;
+        this.revalidateTimeout = revalidateTimeout;
+    }
+
+    /**
+     * @return every Bitstamp market by symbol e.g. 'btcusd'
+     * @throws RuntimeException if there is no local copy and the API could not be reached
+     */
+    public synchronized @NotNull Map<String, Market> getMarkets() {
+        Snapshot snapshot = current;
+        if (snapshot == null) {
+            snapshot = read();
+            if (snapshot == null) {
+                snapshot = download();
+            }
+            current = snapshot;
+        }
+
+        if (isStale(snapshot)) {
+            snapshot = revalidate(snapshot);
+        }
+        return snapshot.bySymbol();
+    }
+
+    private boolean isStale(@NotNull Snapshot snapshot) {
+        return System.currentTimeMillis() - snapshot.fetchedAt() >= ttl.toMillis();
+    }
+
+    /**
+     * Download, but fall back to the stale copy if the API fails or takes longer than the revalidate timeout
+     */
+    private @NotNull Snapshot revalidate(@NotNull Snapshot stale) {
+        if (revalidating == null || revalidating.isDone()) {
+            revalidating = CompletableFuture.supplyAsync(this::download,
+                    runnable -> Thread.ofVirtual().name("bitstamp-market-revalidate").start(runnable));
+            // Also picked up by later calls if we stop waiting on it
+            revalidating.thenAccept(fresh -> current = fresh);
+        }
+
+        try {
+            return revalidating.get(revalidateTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Bitstamp markets took over {}ms to download, starting from the cached copy", revalidateTimeout.toMillis());
+        } catch (ExecutionException e) {
+            log.warn("Unable to revalidate bitstamp markets, starting from the cached copy: {}", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return stale;
+    }
+
+    private @NotNull Snapshot download() {
+        List<Market> markets = apiClient.getMarkets();
+        if (markets == null) {
+            throw new IllegalStateException("Bitstamp returned no markets");
+        }
+
+        Snapshot snapshot = Snapshot.of(System.currentTimeMillis(), markets);
+        write(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @return the local copy, or null if there is none or it cannot be read
+     */
+    private @Nullable Snapshot read() {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try {
+            CacheFile file = objectMapper.readValue(path.toFile(), CacheFile.class);
+            return file.markets() == null ? null : Snapshot.of(file.fetchedAt(), file.markets());
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable bitstamp market cache {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Written to a temporary file and moved into place, so a crash never leaves a half written cache
+     */
+    private void write(@NotNull Snapshot snapshot) {
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            objectMapper.writeValue(temp.toFile(), new CacheFile(snapshot.fetchedAt(), snapshot.markets()));
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Only costs us a download next start
+            log.warn("Unable to write bitstamp market cache {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * On disk format
+     *
+     * @param fetchedAt epoch millis the markets were downloaded
+     */
+    record CacheFile(long fetchedAt, List<Market> markets) {
+    }
+
+    private record Snapshot(long fetchedAt, List<Market> markets, Map<String, Market> bySymbol) {
+
+        static Snapshot of(long fetchedAt, List<Market> markets) {
+            Map<String, Market> bySymbol = new HashMap<>();
+            for (Market market : markets) {
+                if (market.symbol() != null) {
+                    bySymbol.put(market.symbol(), market);
+                }
+            }
+            return new Snapshot(fetchedAt, List.copyOf(markets), Map.copyOf(bySymbol));
+        }
+    }
+}
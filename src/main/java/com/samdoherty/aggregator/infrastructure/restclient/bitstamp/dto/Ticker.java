@@ -1,14 +1,31 @@
 package com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.math.BigDecimal;
+import java.util.Locale;
 
 /**
  * Bitstamp ticker data for a particular instrument
  * <p>
- * NOTE: We only parse last (price) as this is all we currently need
+ * NOTE: We only parse last (price), when it was taken and the pair it is for as this is all we currently need
  */
 public record Ticker(
-        // All we need
-        BigDecimal last
+        BigDecimal last,
+        /*
+         * Epoch seconds the ticker was taken
+         */
+        @Nullable Long timestamp,
+        /*
+         * e.g. 'BTC/USD'. Only sent by the all tickers endpoint
+         */
+        @Nullable String pair
 ) {
+
+    /**
+     * @return market symbol the ticker is for e.g. 'btcusd', or null if the pair was not sent
+     */
+    public @Nullable String marketSymbol() {
+        return pair == null ? null : pair.replace("/", "").toLowerCase(Locale.ROOT);
+    }
 }
@@ -0,0 +1,323 @@
+package com.samdoherty.aggregator.infrastructure.snapshot;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.store.EpochClock;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latest venue prices mirrored to a fixed layout memory-mapped file, so a restart serves the last known prices
+ * straight away rather than 404s until exchanges catch up
+ * <p>
+ * Nothing is added to the write path. A scheduled pass compares each instrument's store version with the one it
+ * last copied and copies only what changed. There is no fsync, the page cache survives a crash of the process,
+ * just not of the host
+ * <p>
+ * Prices restored on startup keep their original time, so they read as stale by age until a fresh price arrives.
+ * Consolidated prices are not persisted, they are rebuilt from the restored venue prices
+ * <p>
+ * Only instruments registered by this run are restored, each as it is mirrored for the first time. A price saved for
+ * a pair no longer configured is dropped rather than registered, so it never serves a price no feed updates
+ * <p>
+ * Layout: a {@value #HEADER_BYTES} byte header (magic, version, capacity) then capacity records of
+ * {@value #RECORD_BYTES} bytes. Each record holds a sequence, mantissa, epoch nanos, scale and a
+ * 'exchange/BASE/QUOTE' key. The sequence is odd while a record is being written, so a record torn by a crash
+ * is skipped on restore
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "aggregator.snapshot", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class MappedPriceSnapshot {
+
+    static final int MAGIC = 0x50534E50; // PSNP
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int RECORD_BYTES = 64;
+
+    static final int SEQUENCE = 0;
+    static final int MANTISSA = 8;
+    static final int TIME = 16;
+    static final int SCALE = 24;
+    static final int KEY_LENGTH = 28;
+    static final int KEY = 32;
+    static final int MAX_KEY_BYTES = RECORD_BYTES - KEY;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int UNASSIGNED = -2;
+    private static final int SKIPPED = -1;
+
+    private final PriceAggregatorService aggregatorService;
+    private final Path path;
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Records already holding a key, by key
+     */
+    private final Map<String, Integer> recordsByKey = new HashMap<>();
+    private int nextRecord;
+
+    /**
+     * Records found holding a price on startup, those since claimed by a registered instrument, and the prices
+     * restored from them
+     */
+    private int found;
+    private int claimed;
+    private int restored;
+    private long oldest = Long.MAX_VALUE;
+
+    /**
+     * Indexed by aggregator id. Record the instrument is mirrored to, and the store version last copied there
+     */
+    private int[] records = new int[0];
+    private long[] copiedVersions = new long[0];
+
+    private final long[] scratch = new long[3];
+
+    public MappedPriceSnapshot(
+            PriceAggregatorService aggregatorService,
+            @Value("${aggregator.snapshot.path:${java.io.tmpdir}/price-aggregator/prices.snapshot}") Path path,
+            @Value("${aggregator.snapshot.capacity:4096}") int capacity
+    ) throws IOException {
+        this.aggregatorService = aggregatorService;
+        this.path = path;
+        this.capacity = capacity;
+        this.buffer = map(path, capacity);
+        index();
+        // Restores whatever is registered already, the rest as it is registered
+        flush();
+    }
+
+    /**
+     * Copy every price that changed since the last pass. Never blocks writers, prices are read under the store's
+     * sequence lock and a price changing mid copy is picked up by the next pass
+     */
+    @Scheduled(initialDelay = 250, fixedDelay = 250)
+    public synchronized void flush() {
+        int size = aggregatorService.size();
+        if (size > records.length) {
+            grow(size);
+        }
+
+        for (int id = 0; id < size; id++) {
+            long version = aggregatorService.version(id);
+            if (version == copiedVersions[id] || (version & 1) == 1) {
+                continue;
+            }
+
+            int record = record(id);
+            if (record != SKIPPED && aggregatorService.copyPrice(id, scratch)) {
+                write(record, scratch[0], (int) scratch[1], scratch[2]);
+            }
+            copiedVersions[id] = version;
+        }
+    }
+
+    /**
+     * Once every exchange has registered its instruments, report what was restored and what was dropped
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void ready() {
+        flush();
+        if (restored > 0) {
+            log.info("Restored {} prices from {}, the oldest {}s old", restored, path,
+                    TimeUnit.NANOSECONDS.toSeconds(EpochClock.nanos() - oldest));
+        }
+        if (dropped() > 0) {
+            log.info("Dropped {} prices from {} for instruments no longer configured", dropped(), path);
+        }
+    }
+
+    /**
+     * @return prices found on startup for instruments not registered
+     */
+    synchronized int dropped() {
+        return found - claimed;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        flush();
+        // Only on shutdown, never per update
+        buffer.force();
+    }
+
+    /**
+     * Index the records already holding a key, nothing is restored until an instrument claims one
+     */
+    private void index() {
+        for (int record = 0; record < capacity; record++) {
+            int at = offset(record);
+            String key = key(at);
+            if (key == null) {
+                continue;
+            }
+
+            recordsByKey.put(key, record);
+            nextRecord = record + 1;
+            if (buffer.getLong(at + TIME) != 0) {
+                found++;
+            }
+        }
+    }
+
+    /**
+     * Restore the price saved in a record, unless it was torn by a crash or never written
+     */
+    private void restore(int id, int record, @NotNull String key) {
+        int at = offset(record);
+        long sequence = (long) LONGS.getAcquire(buffer, at + SEQUENCE);
+        long time = buffer.getLong(at + TIME);
+        if (time == 0) {
+            return;
+        }
+        claimed++;
+        if ((sequence & 1) == 1) {
+            // Even again, so the next write marks it as being written
+            LONGS.setRelease(buffer, at + SEQUENCE, sequence + 1);
+            return;
+        }
+
+        try {
+            aggregatorService.restorePrice(id, buffer.getLong(at + MANTISSA), buffer.getInt(at + SCALE), time);
+            oldest = Math.min(oldest, time);
+            restored++;
+        } catch (RuntimeException e) {
+            log.warn("Unable to restore snapshot price for {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * @return record the instrument is mirrored to, assigning one on first use, or SKIPPED if it is not mirrored
+     */
+    private int record(int id) {
+        int record = records[id];
+        if (record != UNASSIGNED) {
+            return record;
+        }
+
+        Instrument instrument = aggregatorService.instrument(id);
+        String key = instrument.getExchange() + "/" + instrument.getBase() + "/" + instrument.getQuote();
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+
+        Integer existing = recordsByKey.get(key);
+        if (Instrument.CONSOLIDATED.equals(instrument.getExchange())) {
+            record = SKIPPED;
+        } else if (existing != null) {
+            record = existing;
+            restore(id, record, key);
+        } else if (bytes.length > MAX_KEY_BYTES) {
+            record = SKIPPED;
+        } else if (nextRecord == capacity) {
+            log.warn("Price snapshot {} is full at {} instruments, {} will not survive a restart", path, capacity, key);
+            record = SKIPPED;
+        } else {
+            record = nextRecord++;
+            int at = offset(record);
+            buffer.put(at + KEY, bytes);
+            // Length last, a record without one is free
+            buffer.putInt(at + KEY_LENGTH, bytes.length);
+            recordsByKey.put(key, record);
+        }
+
+        records[id] = record;
+        return record;
+    }
+
+    private void write(int record, long mantissa, int scale, long epochNanos) {
+        int at = offset(record);
+        long sequence = (long) LONGS.get(buffer, at + SEQUENCE);
+
+        LONGS.setRelease(buffer, at + SEQUENCE, sequence + 1);
+        VarHandle.storeStoreFence();
+        buffer.putLong(at + MANTISSA, mantissa);
+        buffer.putLong(at + TIME, epochNanos);
+        buffer.putInt(at + SCALE, scale);
+        LONGS.setRelease(buffer, at + SEQUENCE, sequence + 2);
+    }
+
+    private @Nullable String key(int at) {
+        int length = buffer.getInt(at + KEY_LENGTH);
+        if (length <= 0 || length > MAX_KEY_BYTES) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(at + KEY, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void grow(int size) {
+        int from = records.length;
+        records = Arrays.copyOf(records, size);
+        copiedVersions = Arrays.copyOf(copiedVersions, size);
+        Arrays.fill(records, from, size, UNASSIGNED);
+        Arrays.fill(copiedVersions, from, size, -1);
+    }
+
+    private static int offset(int record) {
+        return HEADER_BYTES + record * RECORD_BYTES;
+    }
+
+    /**
+     * Map the file, starting it afresh if it is missing or was written with a different layout
+     */
+    private static MappedByteBuffer map(Path path, int capacity) throws IOException {
+        long size = (long) HEADER_BYTES + (long) capacity * RECORD_BYTES;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        boolean existing = Files.exists(path) && Files.size(path) == size;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (!existing) {
+                channel.truncate(0);
+            }
+
+            // Mapping outlives the channel
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            if (existing && (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != capacity)) {
+                log.warn("Ignoring price snapshot {} written with a different layout", path);
+                existing = false;
+            }
+
+            if (!existing) {
+                for (int i = 0; i < size; i += 8) {
+                    buffer.putLong(i, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, capacity);
+            }
+            return buffer;
+        }
+    }
+}
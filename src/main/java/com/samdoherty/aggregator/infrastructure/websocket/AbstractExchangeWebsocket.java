@@ -3,35 +3,73 @@ package com.samdoherty.aggregator.infrastructure.websocket;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import com.samdoherty.aggregator.infrastructure.metrics.LatencyHistogram;
+import com.samdoherty.aggregator.infrastructure.recording.FrameRecorder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
 import jakarta.websocket.*;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.scheduling.annotation.Scheduled;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
  * Extendable websocket implementation to generalize re-connect and websocket domain logic
+ * <p>
+ * Can hold several independent connections subscribed to the same channels, all feeding the one ingest worker, so a
+ * lost connection or a slow route leaves no gap while the others carry on. Trades the implementation can key via
+ * {@link #tradeKey(String)} are deduplicated on the read threads, the first copy to arrive wins. Every other frame
+ * reaches the ingest worker once per connection, so its handling must be idempotent and must not count the copies
+ * <p>
+ * Also publishes the exchange's ingest metrics, tagged with the exchange name and shard. Subclasses add their own
+ * through {@link #bindExchangeMetrics(MeterRegistry, Tags)}
  */
 @Slf4j
-public abstract class AbstractExchangeWebsocket {
+public abstract class AbstractExchangeWebsocket implements MeterBinder {
 
+    /**
+     * Subscribe to the exchange's channels. Messages sent from here go to the connection being subscribed alone
+     */
     public abstract void subscribe();
 
+    /**
+     * Handle a frame. Called on the exchange's ingest worker thread, never on the websocket read thread
+     */
     public abstract void readMessage(@NotNull String message);
 
     public abstract @NotNull String getName();
 
     public abstract @NotNull List<Pair> getPairs();
 
+    /**
+     * @return which of the exchange's connections this is, when its channels are split across several
+     */
+    public @NotNull Shard getShard() {
+        return Shard.ONLY;
+    }
+
+    /**
+     * @return exchange name, with the shard number when its channels are split across connections
+     */
+    public @NotNull String getConnectionName() {
+        return getShard().name(getName());
+    }
+
     /**
      * Ensure connection is still active and not stale
      * <p>
@@ -39,142 +77,532 @@ public abstract class AbstractExchangeWebsocket {
      */
     public abstract void healthCheck();
 
-    private Session session;
+    /**
+     * Called on the ingest worker once it has read a batch of frames, e.g. to apply conflated ticks
+     */
+    protected void endOfBatch() {
+    }
+
+    /**
+     * Register metrics only the exchange implementation can record e.g. per channel rates
+     *
+     * @param tags identifying the exchange
+     */
+    protected void bindExchangeMetrics(@NotNull MeterRegistry registry, @NotNull Tags tags) {
+    }
+
+    /**
+     * Only called with more than one connection, on every connection's read thread so must be thread safe and cheap
+     *
+     * @return key identifying the trade in a frame across connections, e.g. from the exchange's trade id, or
+     * {@link RecentIds#NONE} if the frame should never be deduplicated
+     */
+    protected long tradeKey(@NotNull String frame) {
+        return RecentIds.NONE;
+    }
 
     /**
-     * Async rather than basic to allow for timeouts
+     * Frames that can wait between the read threads and the ingest worker
      */
-    private RemoteEndpoint.Async asyncWebsocketRemote;
+    private static final int INGEST_CAPACITY = 1 << 16;
+
+    /**
+     * Trades remembered across connections, far more than arrive while a late copy is still on its way
+     */
+    private static final int RECENT_TRADES = 1 << 14;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private final String websocketUri;
 
+    /**
+     * Independent sessions subscribed to the same channels, usually just the one
+     */
+    private final List<Connection> connections;
+
+    /**
+     * Trades already handed to the ingest worker, null with a single connection as there is nothing to deduplicate
+     */
+    private final @Nullable RecentIds recentTrades;
+
+    /**
+     * Connection {@link #subscribe()} is running for on this thread
+     */
+    private final ThreadLocal<Connection> subscribing = new ThreadLocal<>();
+
+    /**
+     * Decouples reading the socket from parsing and storing what was read
+     */
+    private final IngestRing ingest = new IngestRing(INGEST_CAPACITY, new IngestRing.Handler() {
+        @Override
+        public void onFrame(@NotNull String frame, long receivedNanos, int source) {
+            FrameRecorder frameRecorder = recorder;
+            if (frameRecorder != null) {
+                frameRecorder.record(frame, receivedNanos);
+            }
+            frameReceivedAt = receivedNanos;
+            frameConnection = source;
+            readMessage(frame);
+            batchReceivedAt[batchSize++] = receivedNanos;
+        }
+
+        @Override
+        public void endOfBatch() {
+            try {
+                AbstractExchangeWebsocket.this.endOfBatch();
+            } finally {
+                FrameRecorder frameRecorder = recorder;
+                if (frameRecorder != null) {
+                    frameRecorder.flush();
+                }
+                // Conflated ticks are only stored now, so every frame in the batch is timed to here
+                long now = System.nanoTime();
+                for (int i = 0; i < batchSize; i++) {
+                    ingestLatency.record(now - batchReceivedAt[i]);
+                }
+                batchSize = 0;
+            }
+        }
+    });
+
+    /**
+     * Ingest worker only. Receipt times of the current batch, and receipt time and connection of the frame being read
+     */
+    private final long[] batchReceivedAt = new long[IngestRing.MAX_BATCH];
+    private int batchSize;
+    private long frameReceivedAt;
+    private int frameConnection;
+
+    private final LatencyHistogram ingestLatency = new LatencyHistogram();
+    private final LatencyHistogram reconnectDuration = new LatencyHistogram();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder reconnectAttempts = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    private volatile boolean ingestStarted;
+
+    /**
+     * Saves every inbound frame for replay, null unless recording is enabled
+     */
+    private volatile @Nullable FrameRecorder recorder;
+
+    /**
+     * Connect attempts run here so they can be timed out, one cheap virtual thread each
+     */
+    private static final ExecutorService CONNECTS = Executors.newVirtualThreadPerTaskExecutor();
+
     public AbstractExchangeWebsocket(@NotNull String websocketUri) {
+        this(websocketUri, 1);
+    }
+
+    /**
+     * @param connections independent sessions to subscribe to the same channels, more than one keeps hot standbys
+     */
+    public AbstractExchangeWebsocket(@NotNull String websocketUri, int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("An exchange needs at least 1 connection");
+        }
+
         this.websocketUri = websocketUri;
+        List<Connection> all = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            all.add(new Connection(i));
+        }
+        this.connections = List.copyOf(all);
+        this.recentTrades = connections > 1 ? new RecentIds(RECENT_TRADES) : null;
         // Preempt time serialisation issues
         objectMapper.registerModule(new JavaTimeModule());
     }
 
+    /**
+     * @return every connection, open or not
+     */
+    public @NotNull List<Connection> getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return frames dropped because the ingest worker fell too far behind
+     */
+    public long droppedFrames() {
+        return ingest.dropped();
+    }
+
+    /**
+     * @return trades dropped because another connection delivered them first
+     */
+    public long duplicateTrades() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return frame receipt on the websocket thread to the price being stored, since startup
+     */
+    public @NotNull LatencyHistogram ingestLatency() {
+        return ingestLatency;
+    }
+
+    /**
+     * Save every inbound frame from now on, on the ingest worker
+     *
+     * @param recorder null to stop recording
+     */
+    protected void recordFrames(@Nullable FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Ingest worker only
+     *
+     * @return System.nanoTime the frame being read was received on the websocket thread, or now if it was not
+     * read via the ingest ring
+     */
+    protected long frameReceivedAt() {
+        return frameReceivedAt != 0 ? frameReceivedAt : System.nanoTime();
+    }
+
+    /**
+     * Ingest worker only. Close the connection the frame being read arrived on, e.g. when the exchange asks it to
+     * reconnect, while any others carry on
+     */
+    protected void closeFrameConnection() {
+        connections.get(frameConnection).close();
+    }
+
+    /**
+     * Count a frame the implementation could not make sense of
+     */
+    protected void parseFailed() {
+        parseFailures.increment();
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Tags tags = Tags.of("exchange", getName(), "shard", Integer.toString(getShard().number()));
+
+        FunctionCounter.builder("exchange.frames", ingest, ring -> ring.accepted() + ring.dropped())
+                .description("Frames received from the exchange")
+                .tags(tags)
+                .register(registry);
+
+        FunctionCounter.builder("exchange.frames.dropped", ingest, IngestRing::dropped)
+                .description("Frames dropped because the ingest worker fell behind")
+                .tags(tags)
+                .register(registry);
+
+        Gauge.builder("exchange.ingest.backlog", ingest, IngestRing::backlog)
+                .description("Frames waiting for the ingest worker")
+                .tags(tags)
+                .register(registry);
+
+        FunctionCounter.builder("exchange.parse.failures", parseFailures, LongAdder::sum)
+                .description("Frames that could not be parsed")
+                .tags(tags)
+                .register(registry);
+
+        FunctionCounter.builder("exchange.disconnects", disconnects, LongAdder::sum)
+                .description("Times the exchange connection was lost")
+                .tags(tags)
+                .register(registry);
+
+        FunctionCounter.builder("exchange.reconnect.attempts", reconnectAttempts, LongAdder::sum)
+                .description("Attempts to reconnect to the exchange")
+                .tags(tags)
+                .register(registry);
+
+        Gauge.builder("exchange.connections.open", this, AbstractExchangeWebsocket::openConnections)
+                .description("Connections open to the exchange")
+                .tags(tags)
+                .register(registry);
+
+        FunctionCounter.builder("exchange.trades.duplicates", duplicates, LongAdder::sum)
+                .description("Trades dropped because another connection delivered them first")
+                .tags(tags)
+                .register(registry);
+
+        ingestLatency.bindTo(registry, "exchange.ingest.latency", "Frame receipt on the websocket thread to the price being stored", tags);
+        reconnectDuration.bindTo(registry, "exchange.reconnect.duration", "Connection lost to connection restored", tags);
+
+        bindExchangeMetrics(registry, tags);
+    }
+
     /**
      * Sneaky throws as we want the application to shut down if cannot initially start.
      * We don't want the upstream orchestration to worry about this
      */
     @SneakyThrows({URISyntaxException.class, DeploymentException.class, IOException.class})
     protected void connect() {
-        connectToServer();
+        for (Connection connection : connections) {
+            connectToServer(connection);
+        }
     }
 
-    private void connectToServer() throws URISyntaxException, DeploymentException, IOException {
+    private void connectToServer(@NotNull Connection connection) throws URISyntaxException, DeploymentException, IOException {
 
         WebSocketContainer container = ContainerProvider.getWebSocketContainer();
 
         container.setAsyncSendTimeout(3000);
 
-        Future<Session> future = null;
+        URI uri = new URI(websocketUri);
+        Future<Session> future = CONNECTS.submit(() -> container.connectToServer(connection, uri));
 
-        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
-            future = executor.submit(() -> container.connectToServer(this, new URI(websocketUri)));
-            session = future.get(2, TimeUnit.SECONDS); // 2s timeout
-            subscribe();
+        try {
+            connection.session = future.get(2, TimeUnit.SECONDS); // 2s timeout
         } catch (TimeoutException | InterruptedException | ExecutionException e) {
             future.cancel(true); // Cancel the hanging connection attempt
             throw new DeploymentException("Connection attempt timed out", e);
         }
-    }
 
-    protected void reconnectToServer(int attempt) {
+        subscribing.set(connection);
         try {
-            log.info("Reconnecting to {} server", getName());
-            connectToServer();
-            // Indicative of network issues
-        } catch (UnresolvedAddressException | DeploymentException e) {
-            try {
-                Thread.sleep(getSleepTimer(attempt));
-            } catch (InterruptedException ignored) {
-                return;
-            }
-            reconnectToServer(attempt + 1);
-        } catch (URISyntaxException | IOException e) {
-            log.error("Reconnection failed: {}", e.getMessage(), e);
+            subscribe();
+        } finally {
+            subscribing.remove();
         }
     }
 
     /**
-     * Minor backoff implementation to a max of 5 seconds
-     *
-     * @param attempt number. Sleeps between retries scales by attempt
-     * @return sleep time in ms
+     * Hand a lost connection to the reconnect scheduler. Returns immediately, so it is safe on container threads
      */
-    private int getSleepTimer(int attempt) {
-        return Math.min(attempt * 500, 5000);
+    protected void reconnectToServer(@NotNull Connection connection) {
+        connection.reconnector.connectionLost();
     }
 
+    /**
+     * @return true while any connection is open to send on
+     */
+    protected boolean isConnected() {
+        return openConnections() > 0;
+    }
+
+    /**
+     * @return connections open to send on, including one being subscribed
+     */
+    protected int openConnections() {
+        int open = 0;
+        for (Connection connection : connections) {
+            if (connection.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Send to every open connection, or only the one being subscribed when called from {@link #subscribe()}
+     */
     public <M> void sendMessage(@NotNull M message) throws IOException {
-        if (asyncWebsocketRemote == null) {
+        Connection target = subscribing.get();
+        if (target == null && !isConnected()) {
             return;
         }
 
-        asyncWebsocketRemote.sendText(objectMapper.writeValueAsString(message), result -> {
-            if (!result.isOK()) {
-                log.error("Failed to send message to {}: {}. Resetting connection.", getName(), result);
-                close();
-            }
-        });
-    }
+        String text = objectMapper.writeValueAsString(message);
+        if (target != null) {
+            target.send(text);
+            return;
+        }
 
-    @OnOpen
-    public void onOpen(Session userSession) {
-        log.info("Listening to {} currency pairs {}", getName(), StringUtils.join(getPairs(), ", "));
-        asyncWebsocketRemote = userSession.getAsyncRemote();
-        asyncWebsocketRemote.setSendTimeout(2000);
+        for (Connection connection : connections) {
+            connection.send(text);
+        }
     }
 
-    @OnMessage
+    /**
+     * Hand a frame to the ingest worker as if read by the first connection, e.g. when replaying recorded frames
+     */
     public void onMessage(String message) {
-        readMessage(message);
+        received(message, 0);
     }
 
-    @OnClose
-    public void onClose(Session ignored, CloseReason reason) {
-        log.error("{} websocket close: {}", getName(), reason.getReasonPhrase());
-        ensureClosed();
-        reconnectToServer(1);
+    /**
+     * Kept as short as possible, the frame is handed to the ingest worker and the read thread goes back to the socket
+     */
+    private void received(@NotNull String message, int connection) {
+        if (!ingestStarted) {
+            ingest.start(getConnectionName() + "-ingest");
+            ingestStarted = true;
+        }
+
+        long receivedAt = System.nanoTime();
+        boolean offered;
+        if (recentTrades == null) {
+            offered = ingest.offer(message, receivedAt, connection);
+        } else {
+            if (!recentTrades.firstSeen(tradeKey(message))) {
+                duplicates.increment();
+                return;
+            }
+            // The ring takes one producer at a time
+            synchronized (ingest) {
+                offered = ingest.offer(message, receivedAt, connection);
+            }
+        }
+
+        if (!offered && Long.bitCount(ingest.dropped()) == 1) {
+            // Logged on the 1st, 2nd, 4th, 8th... drop so a stalled worker cannot also swamp the read thread with logging
+            log.warn("{} ingest is full, {} frames dropped so far", getConnectionName(), ingest.dropped());
+        }
     }
 
-    @OnError
-    public void onError(Session ignored, Throwable error) {
-        log.error("{} websocket error: {}", getName(), error.getMessage(), error);
-        ensureClosed();
-        reconnectToServer(1);
+    /**
+     * Close every connection for good, without reconnecting, and stop the ingest worker
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (Connection connection : connections) {
+            connection.reconnector.stop();
+            connection.close();
+        }
+        ingest.stop();
     }
 
+    /**
+     * Close every connection, each is reconnected
+     */
     public void close() {
-        try {
-            if (session != null) {
-                session.close();
-            }
-        } catch (IOException e) {
-            log.error("Failed to manually close", e);
-        }
+        connections.forEach(Connection::close);
+    }
+
+    @Scheduled(initialDelay = 2000, fixedRate = 3000)
+    public void scheduledHealthCheck() {
+        healthCheck();
     }
 
-    private void ensureClosed() {
-        if (session != null && session.isOpen()) {
+    /**
+     * One session to the exchange, reconnected on its own when lost
+     */
+    @ClientEndpoint
+    public class Connection {
+
+        private final int index;
+
+        /**
+         * Re-establishes this connection off the websocket container's threads. Stopped on shutdown
+         */
+        private final ReconnectScheduler.Reconnector reconnector;
+
+        private volatile Session session;
+
+        /**
+         * Async rather than basic to allow for timeouts
+         */
+        private volatile RemoteEndpoint.Async asyncWebsocketRemote;
+
+        /**
+         * System.nanoTime the connection was lost, 0 while connected
+         */
+        private volatile long disconnectedAt;
+
+        private Connection(int index) {
+            this.index = index;
+            this.reconnector = ReconnectScheduler.shared().register(this::getName, this::reconnect);
+        }
+
+        /**
+         * @return connection name, numbered when the exchange has more than one
+         */
+        public @NotNull String getName() {
+            return connections.size() == 1 ? getConnectionName() : getConnectionName() + "#" + (index + 1);
+        }
+
+        /**
+         * @return true while open to send on
+         */
+        public boolean isOpen() {
+            return asyncWebsocketRemote != null;
+        }
+
+        @OnOpen
+        public void onOpen(Session userSession) {
+            log.info("Listening to {} currency pairs {}", getName(), StringUtils.join(getPairs(), ", "));
+            session = userSession;
+            asyncWebsocketRemote = userSession.getAsyncRemote();
+            asyncWebsocketRemote.setSendTimeout(2000);
+        }
+
+        @OnMessage
+        public void onMessage(String message) {
+            received(message, index);
+        }
+
+        @OnClose
+        public void onClose(Session ignored, CloseReason reason) {
+            log.error("{} websocket close: {}", getName(), reason.getReasonPhrase());
+            disconnected();
+            ensureClosed();
+            reconnectToServer(this);
+        }
+
+        @OnError
+        public void onError(Session ignored, Throwable error) {
+            log.error("{} websocket error: {}", getName(), error.getMessage(), error);
+            disconnected();
+            ensureClosed();
+            reconnectToServer(this);
+        }
+
+        /**
+         * Close this connection, it is reconnected
+         */
+        public void close() {
             try {
-                session.close();
-                session = null;
-            } catch (IOException ignored) {
+                if (session != null) {
+                    session.close();
+                }
+            } catch (IOException e) {
+                log.error("Failed to manually close", e);
             }
         }
 
-        if (asyncWebsocketRemote != null) {
-            asyncWebsocketRemote = null;
+        /**
+         * One reconnect attempt, on a reconnect scheduler thread
+         */
+        private void reconnect() throws URISyntaxException, DeploymentException, IOException {
+            log.info("Reconnecting to {} server", getName());
+            reconnectAttempts.increment();
+            connectToServer(this);
+
+            long lostAt = disconnectedAt;
+            if (lostAt != 0) {
+                reconnectDuration.record(System.nanoTime() - lostAt);
+                disconnectedAt = 0;
+            }
         }
-    }
 
-    @Scheduled(initialDelay = 2000, fixedRate = 3000)
-    public void scheduledHealthCheck() {
-        healthCheck();
+        private void send(@NotNull String text) {
+            RemoteEndpoint.Async remote = asyncWebsocketRemote;
+            if (remote == null) {
+                return;
+            }
+
+            remote.sendText(text, result -> {
+                if (!result.isOK()) {
+                    log.error("Failed to send message to {}: {}. Resetting connection.", getName(), result);
+                    close();
+                }
+            });
+        }
+
+        private void disconnected() {
+            disconnects.increment();
+            if (disconnectedAt == 0) {
+                disconnectedAt = System.nanoTime();
+            }
+        }
+
+        private void ensureClosed() {
+            Session open = session;
+            if (open != null && open.isOpen()) {
+                try {
+                    open.close();
+                    session = null;
+                } catch (IOException ignored) {
+                }
+            }
+
+            asyncWebsocketRemote = null;
+        }
     }
 }
@@ -0,0 +1,105 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Open addressed lookup from exchange channel name to a value
+ * <p>
+ * Unlike a HashMap this can be queried with a region of a larger String (e.g. a raw websocket frame),
+ * so resolving a channel on the hot path never allocates a substring
+ * <p>
+ * Built once on startup, reads are threadsafe so long as no puts happen concurrently
+ */
+public class ChannelIndex<T> {
+
+    private String[] keys;
+    private Object[] values;
+    private int size;
+
+    public ChannelIndex() {
+        keys = new String[16];
+        values = new Object[16];
+    }
+
+    public void put(@NotNull String channel, @NotNull T value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+
+        int mask = keys.length - 1;
+        int slot = channel.hashCode() & mask;
+
+        while (keys[slot] != null && !keys[slot].equals(channel)) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (keys[slot] == null) {
+            size++;
+        }
+
+        keys[slot] = channel;
+        values[slot] = value;
+    }
+
+    /**
+     * Resolve a channel embedded in a larger char sequence
+     *
+     * @param source containing the channel name
+     * @param start  inclusive index of the first channel char
+     * @param end    exclusive index of the last channel char
+     * @return the mapped value, or null if the channel is unknown
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable T get(@NotNull CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = keys.length - 1;
+        int length = end - start;
+
+        for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            String key = keys[slot];
+            if (key.length() == length && regionEquals(key, source, start)) {
+                return (T) values[slot];
+            }
+        }
+
+        return null;
+    }
+
+    public @Nullable T get(@NotNull String channel) {
+        return get(channel, 0, channel.length());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static boolean regionEquals(String key, CharSequence source, int start) {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        String[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        keys = new String[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], (T) oldValues[i]);
+            }
+        }
+    }
+}
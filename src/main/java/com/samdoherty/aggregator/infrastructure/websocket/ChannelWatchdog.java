@@ -0,0 +1,153 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import com.samdoherty.aggregator.infrastructure.metrics.ChannelMetrics;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spots channels that have gone quiet while their connection stays up, judged against each channel's own usual rate
+ * <p>
+ * A pair trading once a minute being silent for two minutes is normal, BTC/USD being silent for one is not. Each
+ * channel's message rate is kept as a moving average, sampled whenever {@link #check(long, long)} runs, and a channel
+ * is stale once it has been silent for {@value #GAPS} of its usual gaps between messages, within bounds. Silence counts
+ * from the later of its last message, the connection subscribing and its last recovery, so a recovered channel is
+ * given as long again before it is flagged again
+ * <p>
+ * Trades come in bursts, so no silence shorter than {@link #MIN_SILENCE_NANOS} is stale. A channel with no measured
+ * rate is never stale, there is nothing to judge its silence against. Nor is any channel while its connection has not
+ * been heard from, by heartbeat or on any other channel, recovering a dead connection is the reconnect's job
+ * <p>
+ * Checked from one thread at a time, reading the counts the ingest worker publishes through {@link ChannelMetrics}
+ */
+public class ChannelWatchdog {
+
+    /**
+     * Usual gaps between messages a channel may be silent for before it is stale
+     */
+    static final double GAPS = 10;
+
+    /**
+     * Shortest silence that is stale, however busy the channel usually is
+     */
+    public static final long MIN_SILENCE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Longest silence that is not stale, however quiet the channel usually is
+     */
+    static final long MAX_SILENCE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /**
+     * Connection must have been heard from this recently for any of its channels to be stale, a few heartbeats
+     */
+    static final long ALIVE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Rates average over roughly this long, so a short burst or lull does not swing a channel's threshold
+     */
+    private static final double RATE_WINDOW_SECONDS = 300;
+
+    /**
+     * Sampling state of one channel
+     */
+    private static final class Watch {
+        private final ChannelMetrics metrics;
+        private long sampledMessages;
+        private long sampledAt;
+        private long silentFrom;
+
+        /**
+         * Flagged without a message since
+         */
+        private boolean flagged;
+
+        private Watch(ChannelMetrics metrics, long now) {
+            this.metrics = metrics;
+            this.sampledMessages = metrics.messages();
+            this.sampledAt = now;
+            this.silentFrom = now;
+        }
+    }
+
+    private final Map<String, Watch> watches = new LinkedHashMap<>();
+
+    /**
+     * @param channel name, as returned by {@link #check(long, long)}
+     */
+    public synchronized void watch(@NotNull String channel, @NotNull ChannelMetrics metrics) {
+        watches.put(channel, new Watch(metrics, System.nanoTime()));
+    }
+
+    /**
+     * Every channel was just (re)subscribed, time disconnected neither counts as silence nor lowers a rate
+     */
+    public synchronized void subscribed(long nowNanos) {
+        for (Watch watch : watches.values()) {
+            watch.sampledMessages = watch.metrics.messages();
+            watch.sampledAt = nowNanos;
+            watch.silentFrom = nowNanos;
+            watch.flagged = false;
+        }
+    }
+
+    /**
+     * Update each channel's rate, and flag those silent for too long. Flagged channels are counted as resubscribed,
+     * the caller is expected to resubscribe them
+     *
+     * @param aliveAt System.nanoTime the connection was last heard from, by any frame
+     * @return stale channels, empty if none
+     */
+    public synchronized @NotNull List<Stale> check(long nowNanos, long aliveAt) {
+        List<Stale> stale = new ArrayList<>(0);
+        boolean alive = nowNanos - aliveAt <= ALIVE_NANOS;
+
+        for (Map.Entry<String, Watch> entry : watches.entrySet()) {
+            Watch watch = entry.getValue();
+            ChannelMetrics metrics = watch.metrics;
+
+            long messages = metrics.messages();
+            if (messages > watch.sampledMessages) {
+                // Only sampled once messages arrive, so an ongoing silence does not talk the rate down
+                double seconds = Math.max(nowNanos - watch.sampledAt, 1) / 1e9;
+                double measured = (messages - watch.sampledMessages) / seconds;
+                double rate = metrics.rate();
+                metrics.rate(rate == 0 ? measured : rate + (measured - rate) * (1 - Math.exp(-seconds / RATE_WINDOW_SECONDS)));
+                watch.sampledMessages = messages;
+                watch.sampledAt = nowNanos;
+                watch.flagged = false;
+            }
+
+            long silentFrom = Math.max(metrics.lastMessageAt(), watch.silentFrom);
+            if (alive && nowNanos - silentFrom > threshold(metrics.rate())) {
+                stale.add(new Stale(entry.getKey(), watch.flagged));
+                watch.silentFrom = nowNanos;
+                watch.flagged = true;
+                metrics.resubscribed();
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * @param rate usual messages per second, 0 if unknown
+     * @return silence in ns after which a channel is stale, Long.MAX_VALUE if the rate is unknown
+     */
+    static long threshold(double rate) {
+        if (rate <= 0) {
+            return Long.MAX_VALUE;
+        }
+        long gaps = (long) (GAPS / rate * 1e9);
+        return Math.max(MIN_SILENCE_NANOS, Math.min(gaps, MAX_SILENCE_NANOS));
+    }
+
+    /**
+     * @param channel name, as watched
+     * @param again   true if it was already flagged, with no message since
+     */
+    public record Stale(@NotNull String channel, boolean again) {
+    }
+}
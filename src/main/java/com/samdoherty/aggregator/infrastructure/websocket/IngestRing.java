@@ -0,0 +1,208 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single producer/ single consumer hand off between the websocket read thread and a parsing worker
+ * <p>
+ * The read thread only copies a frame reference into a slot, so it goes straight back to reading the socket
+ * however slow parsing and storage are. The worker drains frames in batches and tells the handler where each
+ * batch ends, which lets it conflate superseded ticks before applying them
+ * <p>
+ * If the worker falls so far behind that the ring fills, new frames are dropped and counted rather than
+ * blocking the read thread
+ */
+@Slf4j
+public class IngestRing {
+
+    /**
+     * Receives frames on the worker thread
+     */
+    public interface Handler {
+        /**
+         * @param source as offered, e.g. which connection the frame arrived on
+         */
+        void onFrame(@NotNull String frame, long receivedNanos, int source);
+
+        /**
+         * Called once the worker has caught up with the producer, or after a maximum size batch
+         */
+        void endOfBatch();
+    }
+
+    /**
+     * Most frames handed to the handler between calls to {@link Handler#endOfBatch()}
+     */
+    public static final int MAX_BATCH = 256;
+    private static final int IDLE_SPINS = 1_000;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String[] frames;
+    private final long[] receivedAt;
+    private final int[] sources;
+    private final int mask;
+
+    private final Handler handler;
+
+    /**
+     * Next slot the producer writes, next slot the consumer reads
+     */
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Producer's last view of head, saves reading the shared counter on every offer
+     */
+    private long headCache;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean parked;
+    private volatile boolean running;
+    private Thread worker;
+
+    /**
+     * @param capacity power of two number of frames that can be waiting
+     * @param handler  called on the worker thread
+     */
+    public IngestRing(int capacity, @NotNull Handler handler) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ingest ring capacity must be a power of two");
+        }
+
+        this.frames = new String[capacity];
+        this.receivedAt = new long[capacity];
+        this.sources = new int[capacity];
+        this.mask = capacity - 1;
+        this.handler = handler;
+    }
+
+    public synchronized void start(@NotNull String name) {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        worker = new Thread(this::drain, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Producer side. Must only be called from one thread at a time
+     *
+     * @return false if the ring was full and the frame was dropped
+     */
+    public boolean offer(@NotNull String frame, long receivedNanos) {
+        return offer(frame, receivedNanos, 0);
+    }
+
+    /**
+     * Producer side. Must only be called from one thread at a time
+     *
+     * @param source handed back with the frame
+     * @return false if the ring was full and the frame was dropped
+     */
+    public boolean offer(@NotNull String frame, long receivedNanos, int source) {
+        long position = tail.get();
+
+        if (position - headCache >= frames.length) {
+            headCache = head.get();
+            if (position - headCache >= frames.length) {
+                dropped.increment();
+                return false;
+            }
+        }
+
+        int slot = (int) (position & mask);
+        frames[slot] = frame;
+        receivedAt[slot] = receivedNanos;
+        sources[slot] = source;
+
+        // Full volatile write so it cannot be reordered with the read of parked below
+        tail.set(position + 1);
+
+        if (parked) {
+            LockSupport.unpark(worker);
+        }
+        return true;
+    }
+
+    /**
+     * @return frames dropped because the ring was full
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return frames accepted into the ring since it was created
+     */
+    public long accepted() {
+        return tail.get();
+    }
+
+    /**
+     * @return frames offered but not yet handled
+     */
+    public long backlog() {
+        return tail.get() - head.get();
+    }
+
+    private void drain() {
+        int idle = 0;
+
+        while (running) {
+            long position = head.get();
+            long available = tail.get();
+
+            if (position == available) {
+                if (++idle < IDLE_SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                parked = true;
+                if (tail.get() == position) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                parked = false;
+                continue;
+            }
+            idle = 0;
+
+            long end = Math.min(available, position + MAX_BATCH);
+            for (; position < end; position++) {
+                int slot = (int) (position & mask);
+                String frame = frames[slot];
+                frames[slot] = null;
+
+                try {
+                    handler.onFrame(frame, receivedAt[slot], sources[slot]);
+                } catch (RuntimeException e) {
+                    log.error("Failed to handle frame: {}", frame, e);
+                }
+            }
+            head.set(end);
+
+            try {
+                handler.endOfBatch();
+            } catch (RuntimeException e) {
+                log.error("Failed to complete frame batch", e);
+            }
+        }
+    }
+}
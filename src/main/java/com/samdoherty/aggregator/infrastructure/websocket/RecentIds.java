@@ -0,0 +1,64 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free window of recently seen ids, shared by the read threads of an exchange's redundant connections so
+ * the first copy of a trade to arrive wins and later copies are dropped
+ * <p>
+ * Direct mapped: each id has exactly one slot, so when two connections deliver the same trade at the same moment one
+ * compare-and-set wins and the other sees the id. A newer id landing in the same slot evicts the older one, after
+ * which a late copy of the older id would get through again, never the other way round, so a trade is never dropped
+ * that was not seen
+ * <p>
+ * Consecutive ids take consecutive slots, so a run of up to capacity sequential ids never evicts itself. The high 32
+ * bits, e.g. which instrument an id belongs to, scatter each run to its own part of the window
+ */
+public class RecentIds {
+
+    /**
+     * Not an id, never recorded
+     */
+    public static final long NONE = 0;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    /**
+     * @param capacity power of two number of ids remembered, at best
+     */
+    public RecentIds(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Recent id capacity must be a power of two");
+        }
+
+        this.slots = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Thread safe
+     *
+     * @return true if the id was not in the window, and is now. Always true for {@link #NONE}
+     */
+    public boolean firstSeen(long id) {
+        if (id == NONE) {
+            return true;
+        }
+
+        int slot = slot(id);
+        while (true) {
+            long current = slots.get(slot);
+            if (current == id) {
+                return false;
+            }
+            if (slots.compareAndSet(slot, current, id)) {
+                return true;
+            }
+        }
+    }
+
+    private int slot(long id) {
+        return (int) (id + (id >>> 32) * 0x9E3779B97F4A7C15L) & mask;
+    }
+}
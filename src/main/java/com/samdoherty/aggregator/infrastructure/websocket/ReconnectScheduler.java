@@ -0,0 +1,191 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Re-establishes lost exchange connections without blocking the websocket container's threads
+ * <p>
+ * Each attempt runs on its own virtual thread, which sleeps through its backoff and blocks on the connect without
+ * tying up a platform thread. Backoff doubles per failed attempt up to a cap, with jitter so connections lost together
+ * do not retry together. At most a fixed number of connects run at once across every connection sharing the scheduler,
+ * so a network blip cannot turn into a reconnect storm
+ */
+@Slf4j
+public class ReconnectScheduler {
+
+    private static final ReconnectScheduler SHARED = new ReconnectScheduler(4, Duration.ofMillis(200), Duration.ofSeconds(30));
+
+    /**
+     * Establishes a connection, throwing if it could not
+     */
+    @FunctionalInterface
+    public interface Connector {
+        void connect() throws Exception;
+    }
+
+    public enum State {
+        /**
+         * Connected, or never lost a connection
+         */
+        CONNECTED,
+        /**
+         * Lost, an attempt is waiting out its backoff or for a connect permit
+         */
+        WAITING,
+        CONNECTING,
+        STOPPED
+    }
+
+    private final Semaphore connectPermits;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxConcurrentConnects across every connection registered
+     * @param baseDelay             before the first attempt, doubling for each after
+     * @param maxDelay              cap on the delay between attempts
+     */
+    public ReconnectScheduler(int maxConcurrentConnects, @NotNull Duration baseDelay, @NotNull Duration maxDelay) {
+        if (maxConcurrentConnects < 1) {
+            throw new IllegalArgumentException("At least one concurrent connect is required");
+        }
+        this.connectPermits = new Semaphore(maxConcurrentConnects, true);
+        this.baseDelayMillis = Math.max(1, baseDelay.toMillis());
+        this.maxDelayMillis = Math.max(baseDelayMillis, maxDelay.toMillis());
+    }
+
+    /**
+     * @return the scheduler every exchange connection shares by default
+     */
+    public static @NotNull ReconnectScheduler shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param name      for logging and thread names, read per attempt so it may be supplied before it is known
+     * @param connector called on a virtual thread for each attempt
+     */
+    public @NotNull Reconnector register(@NotNull Supplier<String> name, @NotNull Connector connector) {
+        return new Reconnector(name, connector);
+    }
+
+    /**
+     * Exponential backoff with equal jitter, a random delay between half and all of the capped exponential
+     *
+     * @param attempt from 1
+     * @return ms to wait before the attempt
+     */
+    long delayMillis(int attempt) {
+        long ceiling = baseDelayMillis << Math.min(attempt - 1, 20);
+        ceiling = Math.min(ceiling, maxDelayMillis);
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Reconnect state machine for one connection. Losing the connection again while waiting or connecting does not
+     * start a second attempt
+     */
+    public final class Reconnector {
+
+        private final Supplier<String> name;
+        private final Connector connector;
+        private final AtomicReference<State> state = new AtomicReference<>(State.CONNECTED);
+
+        /**
+         * Set if the connection is lost while an attempt is connecting, e.g. the new session closes before the attempt
+         * returns, so the attempt schedules another rather than reporting connected
+         */
+        private final AtomicBoolean lostWhileConnecting = new AtomicBoolean();
+
+        private Reconnector(Supplier<String> name, Connector connector) {
+            this.name = name;
+            this.connector = connector;
+        }
+
+        public @NotNull State state() {
+            return state.get();
+        }
+
+        /**
+         * Schedule reconnection unless it is already underway. Returns immediately
+         */
+        public void connectionLost() {
+            while (true) {
+                State current = state.get();
+                switch (current) {
+                    case CONNECTED -> {
+                        if (state.compareAndSet(State.CONNECTED, State.WAITING)) {
+                            schedule(1, delayMillis(1));
+                            return;
+                        }
+                    }
+                    case CONNECTING -> {
+                        lostWhileConnecting.set(true);
+                        return;
+                    }
+                    case WAITING, STOPPED -> {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * No further attempts. One already connecting is left to finish
+         */
+        public void stop() {
+            state.set(State.STOPPED);
+        }
+
+        private void schedule(int attempt, long delayMillis) {
+            Thread.ofVirtual()
+                    .name(name.get() + "-reconnect-" + attempt)
+                    .start(() -> attempt(attempt, delayMillis));
+        }
+
+        private void attempt(int attempt, long delayMillis) {
+            try {
+                Thread.sleep(delayMillis);
+                connectPermits.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                if (!state.compareAndSet(State.WAITING, State.CONNECTING)) {
+                    return;
+                }
+
+                lostWhileConnecting.set(false);
+                try {
+                    connector.connect();
+                } catch (Exception e) {
+                    long next = delayMillis(attempt + 1);
+                    log.warn("{} reconnect attempt {} failed, retrying in {}ms: {}", name.get(), attempt, next, e.getMessage());
+                    if (state.compareAndSet(State.CONNECTING, State.WAITING)) {
+                        schedule(attempt + 1, next);
+                    }
+                    return;
+                }
+
+                if (lostWhileConnecting.getAndSet(false)) {
+                    if (state.compareAndSet(State.CONNECTING, State.WAITING)) {
+                        schedule(1, delayMillis(1));
+                    }
+                } else {
+                    state.compareAndSet(State.CONNECTING, State.CONNECTED);
+                }
+            } finally {
+                connectPermits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of the connections an exchange's channels are split across, so each has its own socket, read thread and ingest
+ * worker, and losing one connection only affects its own instruments
+ *
+ * @param number from 1
+ * @param count  connections the exchange's channels are split across
+ */
+public record Shard(int number, int count) {
+
+    /**
+     * Every channel over a single connection
+     */
+    public static final Shard ONLY = new Shard(1, 1);
+
+    public Shard {
+        if (count < 1 || number < 1 || number > count) {
+            throw new IllegalArgumentException("Shard %d of %d does not exist".formatted(number, count));
+        }
+    }
+
+    /**
+     * @return shards of an exchange, at most one per item so none is empty
+     */
+    public static @NotNull List<Shard> of(int count, int items) {
+        int shards = Math.max(1, Math.min(count, items));
+        List<Shard> all = new ArrayList<>(shards);
+        for (int number = 1; number <= shards; number++) {
+            all.add(new Shard(number, shards));
+        }
+        return all;
+    }
+
+    /**
+     * Dealt round robin in order, so every shard's share is within one of the others and a configuration's items stay
+     * on the same shard while the shard count is unchanged
+     *
+     * @return this shard's share of the items
+     */
+    public <T> @NotNull List<T> select(@NotNull List<T> items) {
+        List<T> selected = new ArrayList<>();
+        for (int i = number - 1; i < items.size(); i += count) {
+            selected.add(items.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * @return name of the exchange's connection for this shard, e.g. for its journal, recordings and threads.
+     * Just the exchange's name when it is not split
+     */
+    public @NotNull String name(@NotNull String exchange) {
+        return count == 1 ? exchange : exchange + "-" + number;
+    }
+}
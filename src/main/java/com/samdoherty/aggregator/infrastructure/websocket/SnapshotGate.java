@@ -0,0 +1,106 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reconciles one channel's live trades with a REST snapshot of its price
+ * <p>
+ * While the snapshot is in flight, live trades are held here rather than written. When the snapshot lands,
+ * whichever of it and the newest held trade is newer by exchange time is written, and the channel is released.
+ * From then on trades pass straight through, so each channel is correct as soon as its own snapshot lands
+ * rather than after the slowest one
+ * <p>
+ * Trades are held by the ingest worker, the snapshot lands on whichever thread fetched it. The lock is only taken
+ * while a snapshot is pending, an open gate costs a volatile read
+ */
+public class SnapshotGate {
+
+    /**
+     * Exchange time for a trade that did not carry one. Live trades are assumed newer than any snapshot
+     */
+    public static final long UNKNOWN_TIME = Long.MAX_VALUE;
+
+    private final PriceAggregatorService aggregatorService;
+    private final int id;
+
+    private volatile boolean pending;
+
+    private boolean held;
+    private long heldPrice;
+    private long heldMicros;
+
+    /**
+     * @param id aggregator instrument id the channel feeds
+     */
+    public SnapshotGate(@NotNull PriceAggregatorService aggregatorService, int id) {
+        this.aggregatorService = aggregatorService;
+        this.id = id;
+    }
+
+    /**
+     * Start holding trades, call before the snapshot is requested
+     */
+    public synchronized void arm() {
+        pending = true;
+        held = false;
+    }
+
+    /**
+     * @param unscaledPrice price mantissa at the instrument's scale
+     * @param exchangeMicros exchange trade time in epoch micros, or {@link #UNKNOWN_TIME}
+     * @return true if the trade was held, false if the gate is open and the caller should write it
+     */
+    public boolean hold(long unscaledPrice, long exchangeMicros) {
+        if (!pending) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (!pending) {
+                return false;
+            }
+
+            // Ties go to the later arrival, trades in the same microsecond arrive in exchange order
+            if (!held || exchangeMicros >= heldMicros) {
+                heldPrice = unscaledPrice;
+                heldMicros = exchangeMicros;
+                held = true;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Write the newer of the snapshot and the newest held trade, then open the gate. Does nothing if already open
+     * <p>
+     * A trade at the same time as the snapshot wins, it is at least as fresh and carries the exact price
+     *
+     * @param unscaledPrice  snapshot price mantissa at the instrument's scale
+     * @param exchangeMicros snapshot time in epoch micros
+     */
+    public synchronized void release(long unscaledPrice, long exchangeMicros) {
+        if (!pending) {
+            return;
+        }
+
+        aggregatorService.addPrice(id, held && heldMicros >= exchangeMicros ? heldPrice : unscaledPrice);
+        pending = false;
+        held = false;
+    }
+
+    /**
+     * Open without a snapshot, e.g. the snapshot could not be fetched. Any held trade is written
+     */
+    public synchronized void open() {
+        if (pending && held) {
+            aggregatorService.addPrice(id, heldPrice);
+        }
+        pending = false;
+        held = false;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+}
@@ -0,0 +1,77 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the latest price per instrument for the current ingest batch
+ * <p>
+ * When a backlog builds up, a batch can contain several trades for the same instrument. Only the last one
+ * matters for the latest price, so earlier ones are replaced here and counted rather than written through
+ * <p>
+ * Used by a single ingest worker thread, NOT threadsafe
+ */
+public class TickConflator {
+
+    private final PriceAggregatorService aggregatorService;
+
+    private long[] prices = new long[16];
+    private boolean[] staged = new boolean[16];
+
+    private int[] stagedIds = new int[16];
+    private int stagedCount;
+
+    private final LongAdder conflated = new LongAdder();
+
+    public TickConflator(@NotNull PriceAggregatorService aggregatorService) {
+        this.aggregatorService = aggregatorService;
+    }
+
+    /**
+     * @param id            aggregator instrument id
+     * @param unscaledPrice price mantissa at the instrument's scale
+     */
+    public void stage(int id, long unscaledPrice) {
+        if (id >= staged.length) {
+            grow(id);
+        }
+
+        if (staged[id]) {
+            conflated.increment();
+        } else {
+            staged[id] = true;
+            stagedIds[stagedCount++] = id;
+        }
+
+        prices[id] = unscaledPrice;
+    }
+
+    /**
+     * Write every staged price to the aggregator
+     */
+    public void flush() {
+        for (int i = 0; i < stagedCount; i++) {
+            int id = stagedIds[i];
+            staged[id] = false;
+            aggregatorService.addPrice(id, prices[id]);
+        }
+        stagedCount = 0;
+    }
+
+    /**
+     * @return ticks superseded by a later tick for the same instrument before being written
+     */
+    public long conflated() {
+        return conflated.sum();
+    }
+
+    private void grow(int id) {
+        int capacity = Math.max(id + 1, staged.length * 2);
+        prices = Arrays.copyOf(prices, capacity);
+        staged = Arrays.copyOf(staged, capacity);
+        stagedIds = Arrays.copyOf(stagedIds, capacity);
+    }
+}
@@ -0,0 +1,307 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import com.samdoherty.aggregator.domain.store.OrderBook;
+import com.samdoherty.aggregator.infrastructure.metrics.ChannelMetrics;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampApiClient;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A subscribed Bitstamp order book channel and the book it maintains
+ * <p>
+ * Snapshot frames replace the whole book. Diff frames are applied in place, once the book has been seeded from the
+ * REST order book: until that lands they are held, then those newer than it are replayed, as Bitstamp documents.
+ * A REST order book older than the first diff received is refetched, the diffs between the two were never seen.
+ * Frames older than the book, e.g. the later copy from a redundant connection, are dropped. A diff sets the absolute
+ * amount at a price, so a copy with the same time does no harm. Only a frame newer than any before it counts as a
+ * channel message, so copies from redundant connections do not inflate the channel's rate
+ * <p>
+ * Frames are applied on the ingest worker only. The REST order book is fetched on a virtual thread and handed over
+ */
+@Slf4j
+class BitstampBook {
+
+    /**
+     * Most diff frames held while the REST order book is fetched. Older frames are dropped past this, and a book
+     * older than any dropped frame is fetched again
+     */
+    static final int MAX_HELD = 4096;
+
+    /**
+     * A REST order book is asked for again after this many frames are held without one landing
+     */
+    private static final int REFETCH_EVERY = 256;
+
+    private final String name;
+    private final String market;
+    private final int instrumentId;
+    private final int scale;
+    private final ChannelMetrics metrics;
+    private final BitstampApiClient apiClient;
+    private final OrderBook book = new OrderBook();
+
+    /**
+     * True for diff frames, false for snapshot frames
+     */
+    private final boolean diff;
+
+    private final ArrayDeque<String> held = new ArrayDeque<>();
+    private long droppedMicros = Long.MIN_VALUE;
+
+    /**
+     * Time of the first diff frame received since the book was last in sync. A REST order book must be at least this
+     * new to leave no gap before the diffs
+     */
+    private long firstMicros = Long.MIN_VALUE;
+    private long lastMicros = Long.MIN_VALUE;
+
+    /**
+     * Time of the newest frame received, applied or not
+     */
+    private long newestMicros = Long.MIN_VALUE;
+    private boolean synced;
+    private boolean changed;
+    private long publishedBid = OrderBook.NONE;
+    private long publishedAsk = OrderBook.NONE;
+
+    /**
+     * Set from the connecting thread when the book must be seeded again, seen by the ingest worker
+     */
+    private volatile boolean resync;
+
+    /**
+     * REST order book body awaiting the ingest worker
+     */
+    private volatile String snapshot;
+
+    private final AtomicBoolean fetching = new AtomicBoolean();
+
+    /**
+     * @param name         Bitstamp channel name e.g. diff_order_book_btcusd
+     * @param market       Bitstamp market symbol e.g. btcusd
+     * @param instrumentId id the aggregator issued for the instrument
+     * @param scale        decimal places of the instrument's prices
+     */
+    BitstampBook(@NotNull String name, @NotNull String market, int instrumentId, int scale, @NotNull BitstampBookFeed feed,
+                 @NotNull BitstampApiClient apiClient) {
+        this.name = name;
+        this.market = market;
+        this.instrumentId = instrumentId;
+        this.scale = scale;
+        this.metrics = new ChannelMetrics(name);
+        this.apiClient = apiClient;
+        this.diff = feed == BitstampBookFeed.DIFF;
+        this.synced = !diff;
+    }
+
+    String name() {
+        return name;
+    }
+
+    ChannelMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Ingest worker only
+     */
+    OrderBook book() {
+        return book;
+    }
+
+    /**
+     * Hot path. Apply a book frame the parser has just scanned
+     *
+     * @param receivedNanos System.nanoTime the frame was received
+     * @return false if a level could not be read, the book is then seeded again
+     */
+    boolean apply(@NotNull BitstampFrameParser parser, @NotNull String frame, long receivedNanos) {
+        long micros = parser.microtimestamp();
+        if (micros == BitstampFrameParser.INVALID) {
+            metrics.message(receivedNanos);
+        } else if (micros > newestMicros) {
+            newestMicros = micros;
+            metrics.message(receivedNanos);
+        }
+
+        if (!diff) {
+            if (micros != BitstampFrameParser.INVALID && micros < lastMicros) {
+                return true;
+            }
+            book.clear();
+            lastMicros = micros;
+            return applyLevels(parser);
+        }
+
+        if (resync) {
+            resync = false;
+            synced = false;
+            held.clear();
+            droppedMicros = Long.MIN_VALUE;
+            firstMicros = Long.MIN_VALUE;
+        }
+
+        if (!synced) {
+            if (firstMicros == Long.MIN_VALUE) {
+                firstMicros = micros;
+            }
+            String body = snapshot;
+            if (body == null) {
+                hold(frame, micros);
+                return true;
+            }
+            snapshot = null;
+            if (!seed(parser, body)) {
+                hold(frame, micros);
+                return true;
+            }
+            // Seeding scanned other text, this frame is applied last
+            parser.parse(frame);
+        }
+
+        return applyDiff(parser);
+    }
+
+    /**
+     * Publish the top of book if it moved since it was last published. Called once per ingest batch
+     */
+    void publish(@NotNull QuoteService quoteService) {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+
+        long bid = book.bestBid();
+        long ask = book.bestAsk();
+        if (bid != publishedBid || ask != publishedAsk) {
+            publishedBid = bid;
+            publishedAsk = ask;
+            quoteService.update(instrumentId, bid, ask);
+        }
+    }
+
+    /**
+     * Seed the book again from the REST order book, thread safe. Diff frames are held from here until it lands.
+     * Call once the channel is subscribed, so the order book is no older than the first diff.
+     * Does nothing for snapshot frames, each of which is the whole book
+     */
+    void resync() {
+        if (!diff) {
+            return;
+        }
+        snapshot = null;
+        resync = true;
+        fetch();
+    }
+
+    private void fetch() {
+        if (!fetching.compareAndSet(false, true)) {
+            return;
+        }
+
+        Thread.ofVirtual().name("bitstamp-order-book-" + market).start(() -> {
+            try {
+                snapshot = apiClient.getOrderBook(market);
+            } catch (RuntimeException e) {
+                log.warn("Unable to fetch bitstamp order book for {}: {}", market, e.getMessage());
+            } finally {
+                fetching.set(false);
+            }
+        });
+    }
+
+    private void hold(String frame, long micros) {
+        if (held.size() == MAX_HELD) {
+            held.removeFirst();
+            // The frame dropped is no newer than this one
+            droppedMicros = Math.max(droppedMicros, micros);
+        }
+        held.addLast(frame);
+
+        if (held.size() % REFETCH_EVERY == 0 && snapshot == null) {
+            fetch();
+        }
+    }
+
+    /**
+     * Replace the book with the REST order book, then replay the held frames newer than it
+     *
+     * @return false if the order book could not be used, another is fetched
+     */
+    private boolean seed(BitstampFrameParser parser, String body) {
+        if (!parser.parseBook(body) || !parser.hasLevels()) {
+            log.warn("Unable to read bitstamp order book for {}", market);
+            fetch();
+            return false;
+        }
+
+        long micros = parser.microtimestamp();
+        if (micros == BitstampFrameParser.INVALID) {
+            log.warn("Bitstamp order book for {} has no microtimestamp", market);
+            fetch();
+            return false;
+        }
+        if (micros < droppedMicros) {
+            // Diffs between the book and the oldest frame still held were dropped
+            fetch();
+            return false;
+        }
+        if (micros < firstMicros) {
+            // Diffs between the book and the first frame received were never seen
+            fetch();
+            return false;
+        }
+
+        book.clear();
+        lastMicros = micros;
+        if (!applyLevels(parser)) {
+            fetch();
+            return false;
+        }
+        synced = true;
+
+        for (String frame : held) {
+            if (parser.parse(frame) && parser.microtimestamp() > micros && !applyDiff(parser)) {
+                return false;
+            }
+        }
+        held.clear();
+        droppedMicros = Long.MIN_VALUE;
+        firstMicros = Long.MIN_VALUE;
+        return true;
+    }
+
+    private boolean applyDiff(BitstampFrameParser parser) {
+        long micros = parser.microtimestamp();
+        if (micros != BitstampFrameParser.INVALID && micros < lastMicros) {
+            return true;
+        }
+        if (micros != BitstampFrameParser.INVALID) {
+            lastMicros = micros;
+        }
+
+        if (applyLevels(parser)) {
+            return true;
+        }
+
+        // Part of the frame was applied, the book can no longer be trusted
+        synced = false;
+        held.clear();
+        droppedMicros = Long.MIN_VALUE;
+        firstMicros = Long.MIN_VALUE;
+        fetch();
+        return false;
+    }
+
+    private boolean applyLevels(BitstampFrameParser parser) {
+        changed = true;
+        int bids = parser.applyLevels(true, book, scale, CandleService.VOLUME_SCALE);
+        int asks = parser.applyLevels(false, book, scale, CandleService.VOLUME_SCALE);
+        return bids >= 0 && asks >= 0;
+    }
+}
@@ -0,0 +1,49 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Which of Bitstamp's order book channels to keep books from, set by 'exchange.bitstamp.orderBook'
+ */
+public enum BitstampBookFeed {
+
+    /**
+     * Trades only
+     */
+    NONE(""),
+
+    /**
+     * Top 100 levels a side, the whole of it in every frame
+     */
+    SNAPSHOT("order_book_"),
+
+    /**
+     * Every change to the full book, seeded from the REST order book
+     */
+    DIFF("diff_order_book_");
+
+    private final String channelPrefix;
+
+    BitstampBookFeed(String channelPrefix) {
+        this.channelPrefix = channelPrefix;
+    }
+
+    public @NotNull String channelPrefix() {
+        return channelPrefix;
+    }
+
+    /**
+     * @param value 'none', or the channel prefix without its trailing underscore, 'order_book' or 'diff_order_book'
+     */
+    public static @NotNull BitstampBookFeed of(@NotNull String value) {
+        for (BitstampBookFeed feed : values()) {
+            if (feed != NONE && feed.channelPrefix.equalsIgnoreCase(value + "_")) {
+                return feed;
+            }
+        }
+        if (NONE.name().equalsIgnoreCase(value)) {
+            return NONE;
+        }
+        throw new IllegalArgumentException("exchange.bitstamp.orderBook must be one of none, order_book, diff_order_book");
+    }
+}
@@ -0,0 +1,23 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.infrastructure.metrics.ChannelMetrics;
+import com.samdoherty.aggregator.infrastructure.websocket.SnapshotGate;
+
+/**
+ * A subscribed Bitstamp channel and the normalized instrument it feeds
+ *
+ * @param name         Bitstamp channel name e.g. live_trades_btcusd
+ * @param instrument   normalized instrument
+ * @param instrumentId id the aggregator issued for the instrument, used on the hot path
+ * @param metrics      message and trade counts of the channel
+ * @param gate         holds live trades while the channel's starting price is fetched
+ */
+record BitstampChannel(
+        String name,
+        Instrument instrument,
+        int instrumentId,
+        ChannelMetrics metrics,
+        SnapshotGate gate
+) {
+}
@@ -0,0 +1,553 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.store.OrderBook;
+import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.dto.Event;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Single pass scanner for Bitstamp websocket frames
+ * <p>
+ * Records where the event, channel and trade price/ amount/ time sit inside the raw frame rather than building
+ * Strings, BigDecimals or DTOs. Field order within the frame does not matter (Bitstamp sends data first)
+ * <p>
+ * Order book frames have their bids and asks arrays recorded the same way, and the levels are only read when applied
+ * straight to an {@link OrderBook}
+ * <p>
+ * Holds per-frame state so instances are NOT threadsafe, use one per reading thread
+ */
+class BitstampFrameParser {
+
+    /**
+     * Returned by {@link #toFixedPoint} when a number cannot be represented exactly as a scaled long,
+     * e.g. exponent notation or overflow. Callers should fall back to BigDecimal parsing
+     */
+    static final long INVALID = Long.MIN_VALUE;
+
+    private static final String EVENT = "event";
+    private static final String CHANNEL = "channel";
+    private static final String DATA = "data";
+    private static final String PRICE = "price";
+    private static final String AMOUNT = "amount";
+    private static final String MICROTIMESTAMP = "microtimestamp";
+    private static final String BIDS = "bids";
+    private static final String ASKS = "asks";
+
+    static final String QUOTED_ID = "\"id\"";
+    static final String QUOTED_CHANNEL = "\"channel\"";
+
+    private String frame;
+    private int pos;
+
+    private int eventStart;
+    private int eventEnd;
+    private int channelStart;
+    private int channelEnd;
+    private int priceStart;
+    private int priceEnd;
+    private int amountStart;
+    private int amountEnd;
+    private int microtimestampStart;
+    private int microtimestampEnd;
+    private int bidsStart;
+    private int asksStart;
+
+    /**
+     * Scan a frame, replacing any state from the previous frame
+     *
+     * @param message raw websocket frame
+     * @return false if the frame is not a JSON object we can scan
+     */
+    boolean parse(@NotNull String message) {
+        return scan(message, true);
+    }
+
+    /**
+     * Scan an order book as the REST API returns it, the same object a book frame carries as its data
+     *
+     * @param body raw response body
+     * @return false if the body is not a JSON object we can scan
+     */
+    boolean parseBook(@NotNull String body) {
+        return scan(body, false);
+    }
+
+    private boolean scan(String text, boolean frameLevel) {
+        frame = text;
+        pos = 0;
+        eventStart = eventEnd = -1;
+        channelStart = channelEnd = -1;
+        priceStart = priceEnd = -1;
+        amountStart = amountEnd = -1;
+        microtimestampStart = microtimestampEnd = -1;
+        bidsStart = asksStart = -1;
+
+        try {
+            skipWhitespace();
+            if (!consume('{')) {
+                return false;
+            }
+            return scanObject(frameLevel);
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated frame
+            return false;
+        }
+    }
+
+    boolean isEvent(@NotNull Event event) {
+        String value = event.toString();
+        return eventStart >= 0
+                && eventEnd - eventStart == value.length()
+                && frame.regionMatches(eventStart, value, 0, value.length());
+    }
+
+    boolean hasChannel() {
+        return channelStart >= 0;
+    }
+
+    int channelStart() {
+        return channelStart;
+    }
+
+    int channelEnd() {
+        return channelEnd;
+    }
+
+    /**
+     * @param scale number of decimal places of the returned mantissa
+     * @return trade price as an unscaled long, or {@link #INVALID} if absent or not representable
+     */
+    long price(int scale) {
+        if (priceStart < 0) {
+            return INVALID;
+        }
+        return toFixedPoint(frame, priceStart, priceEnd, scale);
+    }
+
+    /**
+     * @param scale number of decimal places of the returned mantissa
+     * @return traded amount as an unscaled long, 0 if the frame has no amount, or {@link #INVALID} if not representable
+     */
+    long amount(int scale) {
+        if (amountStart < 0) {
+            return 0;
+        }
+        return toFixedPoint(frame, amountStart, amountEnd, scale);
+    }
+
+    /**
+     * @return true if the frame carried a bids or asks array
+     */
+    boolean hasLevels() {
+        return bidsStart >= 0 || asksStart >= 0;
+    }
+
+    /**
+     * Apply the bids or asks of the scanned book to an order book, parsing each ["price", "amount"] level straight
+     * from the frame. Any values after the amount, e.g. an order id, are skipped
+     *
+     * @param bids        true for the bids array, false for the asks
+     * @param priceScale  decimal places of the price mantissas
+     * @param amountScale decimal places of the amount mantissas, an amount of 0 removes the level
+     * @return levels applied, or -1 if a level is not a plain decimal pair. Levels before it have been applied
+     */
+    int applyLevels(boolean bids, @NotNull OrderBook book, int priceScale, int amountScale) {
+        int start = bids ? bidsStart : asksStart;
+        if (start < 0) {
+            return 0;
+        }
+
+        // The array was matched bracket for bracket by the scan, so this cannot run past its end
+        pos = start + 1;
+        skipWhitespace();
+        if (consume(']')) {
+            return 0;
+        }
+
+        int levels = 0;
+        while (true) {
+            skipWhitespace();
+            if (!consume('[')) {
+                return -1;
+            }
+
+            long price = nextNumber(priceScale);
+            skipWhitespace();
+            if (price == INVALID || !consume(',')) {
+                return -1;
+            }
+            long amount = nextNumber(amountScale);
+            if (amount == INVALID) {
+                return -1;
+            }
+
+            skipWhitespace();
+            while (consume(',')) {
+                skipWhitespace();
+                if (!skipScalar()) {
+                    return -1;
+                }
+                skipWhitespace();
+            }
+            if (!consume(']')) {
+                return -1;
+            }
+
+            if (bids) {
+                book.bid(price, amount);
+            } else {
+                book.ask(price, amount);
+            }
+            levels++;
+
+            skipWhitespace();
+            if (!consume(',')) {
+                return consume(']') ? levels : -1;
+            }
+        }
+    }
+
+    /**
+     * Read a number, quoted or not, at the current position
+     */
+    private long nextNumber(int scale) {
+        skipWhitespace();
+        int start;
+        int end;
+
+        if (consume('"')) {
+            start = pos;
+            if (!skipStringBody()) {
+                return INVALID;
+            }
+            end = pos - 1;
+        } else {
+            start = pos;
+            while (pos < frame.length() && isScalarChar(frame.charAt(pos))) {
+                pos++;
+            }
+            end = pos;
+        }
+        return toFixedPoint(frame, start, end, scale);
+    }
+
+    /**
+     * Skip a string or plain value at the current position
+     */
+    private boolean skipScalar() {
+        if (consume('"')) {
+            return skipStringBody();
+        }
+
+        int start = pos;
+        while (pos < frame.length() && isScalarChar(frame.charAt(pos))) {
+            pos++;
+        }
+        return pos > start;
+    }
+
+    /**
+     * @return exchange time of the trade in epoch micros, or {@link #INVALID} if absent
+     */
+    long microtimestamp() {
+        if (microtimestampStart < 0) {
+            return INVALID;
+        }
+        return toFixedPoint(frame, microtimestampStart, microtimestampEnd, 0);
+    }
+
+    /**
+     * Thread safe, finds a trade's id without scanning the whole frame
+     *
+     * @return the trade id, or {@link #INVALID} if the frame has none
+     */
+    static long tradeId(@NotNull String frame) {
+        int start = valueStart(frame, QUOTED_ID);
+        if (start < 0) {
+            return INVALID;
+        }
+
+        int end = start;
+        while (end < frame.length() && frame.charAt(end) >= '0' && frame.charAt(end) <= '9') {
+            end++;
+        }
+        return end == start ? INVALID : toFixedPoint(frame, start, end, 0);
+    }
+
+    /**
+     * Thread safe, finds a value without scanning the rest of the frame. Takes the first occurrence of the key, so
+     * only suits keys that appear once
+     *
+     * @param quotedKey key including its quotes, e.g. {@link #QUOTED_CHANNEL}
+     * @return index of the value's first character, past any opening quote, or -1 if absent
+     */
+    static int valueStart(@NotNull String frame, @NotNull String quotedKey) {
+        int at = frame.indexOf(quotedKey);
+        if (at < 0) {
+            return -1;
+        }
+
+        int pos = skipWhitespace(frame, at + quotedKey.length());
+        if (pos >= frame.length() || frame.charAt(pos) != ':') {
+            return -1;
+        }
+
+        pos = skipWhitespace(frame, pos + 1);
+        if (pos < frame.length() && frame.charAt(pos) == '"') {
+            pos++;
+        }
+        return pos < frame.length() ? pos : -1;
+    }
+
+    private static int skipWhitespace(String frame, int pos) {
+        while (pos < frame.length()) {
+            char c = frame.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return pos;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Parse a plain decimal number into an unscaled long, rounding HALF_EVEN to match BigDecimal.setScale
+     *
+     * @return the mantissa, or {@link #INVALID} if the text is not a plain decimal or would overflow
+     */
+    static long toFixedPoint(@NotNull CharSequence text, int start, int end, int scale) {
+        int i = start;
+        boolean negative = false;
+
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        int roundingDigit = -1;
+        boolean remainderNonZero = false;
+
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+
+            if (c == '.') {
+                if (seenPoint) {
+                    return INVALID;
+                }
+                seenPoint = true;
+                continue;
+            }
+
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            seenDigit = true;
+
+            int digit = c - '0';
+
+            if (seenPoint && fractionDigits >= scale) {
+                // Beyond the requested scale, only needed for rounding
+                if (roundingDigit < 0) {
+                    roundingDigit = digit;
+                } else if (digit != 0) {
+                    remainderNonZero = true;
+                }
+                continue;
+            }
+
+            if (mantissa > (Long.MAX_VALUE - digit) / 10) {
+                return INVALID;
+            }
+            mantissa = mantissa * 10 + digit;
+
+            if (seenPoint) {
+                fractionDigits++;
+            }
+        }
+
+        if (!seenDigit) {
+            return INVALID;
+        }
+
+        for (; fractionDigits < scale; fractionDigits++) {
+            if (mantissa > Long.MAX_VALUE / 10) {
+                return INVALID;
+            }
+            mantissa *= 10;
+        }
+
+        if (roundingDigit > 5 || (roundingDigit == 5 && (remainderNonZero || (mantissa & 1) == 1))) {
+            mantissa++;
+        }
+
+        return negative ? -mantissa : mantissa;
+    }
+
+    /**
+     * Scan key/value pairs until the closing brace of the current object
+     *
+     * @param topLevel true for the frame itself, false for the trade or book data object
+     */
+    private boolean scanObject(boolean topLevel) {
+        skipWhitespace();
+        if (consume('}')) {
+            return true;
+        }
+
+        while (true) {
+            skipWhitespace();
+            if (!consume('"')) {
+                return false;
+            }
+
+            int keyStart = pos;
+            if (!skipStringBody()) {
+                return false;
+            }
+            int keyEnd = pos - 1;
+
+            skipWhitespace();
+            if (!consume(':')) {
+                return false;
+            }
+            skipWhitespace();
+
+            if (!scanValue(topLevel, keyStart, keyEnd)) {
+                return false;
+            }
+
+            skipWhitespace();
+            if (consume(',')) {
+                continue;
+            }
+            return consume('}');
+        }
+    }
+
+    private boolean scanValue(boolean topLevel, int keyStart, int keyEnd) {
+        char c = frame.charAt(pos);
+
+        if (topLevel && c == '{' && keyIs(DATA, keyStart, keyEnd)) {
+            pos++;
+            return scanObject(false);
+        }
+
+        if (c == '"') {
+            pos++;
+            int valueStart = pos;
+            if (!skipStringBody()) {
+                return false;
+            }
+            recordValue(topLevel, keyStart, keyEnd, valueStart, pos - 1);
+            return true;
+        }
+
+        if (!topLevel && c == '[' && (keyIs(BIDS, keyStart, keyEnd) || keyIs(ASKS, keyStart, keyEnd))) {
+            if (keyIs(BIDS, keyStart, keyEnd)) {
+                bidsStart = pos;
+            } else {
+                asksStart = pos;
+            }
+            return skipContainer();
+        }
+
+        if (c == '{' || c == '[') {
+            return skipContainer();
+        }
+
+        int valueStart = pos;
+        while (pos < frame.length() && isScalarChar(frame.charAt(pos))) {
+            pos++;
+        }
+        if (valueStart == pos) {
+            return false;
+        }
+        recordValue(topLevel, keyStart, keyEnd, valueStart, pos);
+        return true;
+    }
+
+    private void recordValue(boolean topLevel, int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        if (topLevel) {
+            if (keyIs(EVENT, keyStart, keyEnd)) {
+                eventStart = valueStart;
+                eventEnd = valueEnd;
+            } else if (keyIs(CHANNEL, keyStart, keyEnd)) {
+                channelStart = valueStart;
+                channelEnd = valueEnd;
+            }
+        } else if (keyIs(PRICE, keyStart, keyEnd)) {
+            priceStart = valueStart;
+            priceEnd = valueEnd;
+        } else if (keyIs(AMOUNT, keyStart, keyEnd)) {
+            amountStart = valueStart;
+            amountEnd = valueEnd;
+        } else if (keyIs(MICROTIMESTAMP, keyStart, keyEnd)) {
+            microtimestampStart = valueStart;
+            microtimestampEnd = valueEnd;
+        }
+    }
+
+    private boolean keyIs(String key, int keyStart, int keyEnd) {
+        return keyEnd - keyStart == key.length() && frame.regionMatches(keyStart, key, 0, key.length());
+    }
+
+    /**
+     * Skip a nested object or array we have no interest in, respecting strings
+     */
+    private boolean skipContainer() {
+        int depth = 0;
+        do {
+            char c = frame.charAt(pos++);
+            if (c == '"') {
+                if (!skipStringBody()) {
+                    return false;
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+        return true;
+    }
+
+    /**
+     * Advance past the closing quote of a string whose opening quote has already been consumed
+     */
+    private boolean skipStringBody() {
+        while (pos < frame.length()) {
+            char c = frame.charAt(pos++);
+            if (c == '\\') {
+                pos++;
+            } else if (c == '"') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < frame.length()) {
+            char c = frame.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private boolean consume(char expected) {
+        if (pos < frame.length() && frame.charAt(pos) == expected) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isScalarChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.' || c == 'E';
+    }
+}
@@ -0,0 +1,206 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampApiClient;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Ticker;
+import com.samdoherty.aggregator.infrastructure.websocket.SnapshotGate;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A little sugar beyond the spec. Rather than wait for a first trade via the websocket,
+ * we proactively retrieve the latest price of every market and apply to the aggregator service
+ * <p>
+ * Each channel's live trades are held by its {@link SnapshotGate} until its ticker lands, then the newer of the two
+ * by exchange time is written. A channel whose ticker cannot be fetched is released with whatever trades it holds
+ * <p>
+ * Every ticker is fetched in one call. Any market that call misses falls back to a call of its own, on virtual
+ * threads with a bounded number in flight, so time to ready stays flat however many pairs are configured
+ */
+@Slf4j
+class BitstampPriceBootstrap {
+
+    /**
+     * Most single ticker requests in flight at once, keeps us well inside Bitstamp's rate limits
+     */
+    static final int MAX_IN_FLIGHT = 16;
+
+    private final BitstampApiClient apiClient;
+
+    /**
+     * Markets asked for while a bootstrap is running, bootstrapped by the same thread once it finishes. Guarded by this
+     */
+    private final Map<String, BitstampChannel> queued = new HashMap<>();
+
+    /**
+     * Guarded by this
+     */
+    private boolean running;
+
+    BitstampPriceBootstrap(@NotNull BitstampApiClient apiClient) {
+        this.apiClient = apiClient;
+    }
+
+    /**
+     * Arm every channel's gate, then bootstrap on a virtual thread, returning straight away.
+     * Markets asked for while a bootstrap is running are queued and bootstrapped together once it finishes
+     *
+     * @param markets Bitstamp market symbol e.g. 'btcusd' to the channel it feeds
+     */
+    void startAsync(@NotNull Map<String, BitstampChannel> markets) {
+        if (markets.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            for (BitstampChannel channel : markets.values()) {
+                channel.gate().arm();
+            }
+            queued.putAll(markets);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+
+        Thread.ofVirtual().name("bitstamp-price-bootstrap").start(this::drain);
+    }
+
+    private void drain() {
+        while (true) {
+            Map<String, BitstampChannel> markets;
+            synchronized (this) {
+                if (queued.isEmpty()) {
+                    running = false;
+                    return;
+                }
+                markets = new HashMap<>(queued);
+                queued.clear();
+
+                // Queued while a run that also had them was in flight, which opened their gates when it finished
+                for (BitstampChannel channel : markets.values()) {
+                    if (!channel.gate().isPending()) {
+                        channel.gate().arm();
+                    }
+                }
+            }
+
+            try {
+                run(markets);
+            } catch (RuntimeException e) {
+                log.warn("Bitstamp price bootstrap failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Every gate is open once this returns, whether or not its ticker could be fetched
+     *
+     * @param markets Bitstamp market symbol e.g. 'btcusd' to the channel it feeds
+     * @return markets a starting price was found for
+     */
+    int run(@NotNull Map<String, BitstampChannel> markets) {
+        long start = System.nanoTime();
+        int priced = 0;
+
+        try {
+            Map<String, Ticker> tickers = fetchAll();
+            List<String> missing = new ArrayList<>();
+
+            for (Map.Entry<String, BitstampChannel> market : markets.entrySet()) {
+                if (apply(market.getValue(), tickers.get(market.getKey()))) {
+                    priced++;
+                } else {
+                    missing.add(market.getKey());
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                priced += fetchEach(missing, markets);
+            }
+        } finally {
+            for (BitstampChannel channel : markets.values()) {
+                channel.gate().open();
+            }
+        }
+
+        log.info("Bootstrapped {} of {} bitstamp prices in {}ms", priced, markets.size(), (System.nanoTime() - start) / 1_000_000);
+        return priced;
+    }
+
+    /**
+     * @return latest tickers by market symbol, empty if the bulk endpoint failed
+     */
+    private Map<String, Ticker> fetchAll() {
+        Map<String, Ticker> bySymbol = new HashMap<>();
+        try {
+            List<Ticker> tickers = apiClient.getLatestPrices();
+            if (tickers != null) {
+                for (Ticker ticker : tickers) {
+                    String symbol = ticker.marketSymbol();
+                    if (symbol != null) {
+                        bySymbol.put(symbol, ticker);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to fetch all bitstamp tickers, falling back to one request per market: {}", e.getMessage());
+        }
+        return bySymbol;
+    }
+
+    private int fetchEach(List<String> symbols, Map<String, BitstampChannel> markets) {
+        Semaphore permits = new Semaphore(MAX_IN_FLIGHT);
+        AtomicInteger priced = new AtomicInteger();
+
+        // Closing the executor waits for every request to finish
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String symbol : symbols) {
+                executor.submit(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        if (apply(markets.get(symbol), apiClient.getLatestPrice(symbol))) {
+                            priced.incrementAndGet();
+                        }
+                    } catch (RuntimeException e) {
+                        log.warn("Unable to fetch bitstamp ticker for {}: {}", symbol, e.getMessage());
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+
+        return priced.get();
+    }
+
+    /**
+     * Release the channel's gate with the ticker, falling back to now if the ticker did not say when it was taken
+     * <p>
+     * Tickers are only timed to the second, so a trade within the ticker's second is taken as the newer
+     */
+    private boolean apply(@NotNull BitstampChannel channel, @Nullable Ticker ticker) {
+        if (ticker == null || ticker.last() == null) {
+            return false;
+        }
+
+        long price = ticker.last().setScale(channel.instrument().getScale(), RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+        long micros = ticker.timestamp() != null
+                ? TimeUnit.SECONDS.toMicros(ticker.timestamp())
+                : TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+        channel.gate().release(price, micros);
+        return true;
+    }
+}
@@ -0,0 +1,120 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import com.samdoherty.aggregator.infrastructure.configuration.PairsConfiguration;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournals;
+import com.samdoherty.aggregator.infrastructure.recording.FrameRecorders;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampApiClient;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampMarketCache;
+import com.samdoherty.aggregator.infrastructure.websocket.Shard;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the configured pairs across a number of {@link BitstampWebsocket} connections
+ * <p>
+ * Each shard has its own socket, read thread, ingest worker, journal, reconnects and metrics (tagged by shard), so
+ * ingestion spreads across cores and a lost connection only interrupts its own pairs. Pairs are dealt round robin in
+ * configured order, one shard at least per pair
+ * <p>
+ * Each shard can also keep redundant connections subscribed to the same pairs, taking each trade from whichever
+ * delivers it first, and keep an order book per pair from one of Bitstamp's book channels
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "exchange.bitstamp", name = "websocketUrl", matchIfMissing = false)
+public class BitstampShards implements MeterBinder {
+
+    @Getter
+    private final List<BitstampWebsocket> shards;
+
+    public BitstampShards(
+            @Value("${exchange.bitstamp.name}") String name,
+            @Value("${exchange.bitstamp.websocketUrl}") String websocketURL,
+            @Value("${exchange.bitstamp.shards:1}") int shards,
+            @Value("${exchange.bitstamp.connections:1}") int connections,
+            @Value("${exchange.bitstamp.orderBook:none}") String orderBook,
+            PairsConfiguration pairsConfiguration,
+            PriceAggregatorService aggregatorService,
+            QuoteService quoteService,
+            InstrumentRegistry instrumentRegistry,
+            CandleService candleService,
+            BitstampApiClient apiClient,
+            BitstampMarketCache marketCache,
+            TickJournals journals,
+            FrameRecorders recorders
+    ) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("exchange.bitstamp.shards must be at least 1");
+        }
+        if (connections < 1) {
+            throw new IllegalArgumentException("exchange.bitstamp.connections must be at least 1");
+        }
+
+        BitstampBookFeed bookFeed = BitstampBookFeed.of(orderBook);
+
+        List<BitstampWebsocket> connected = new ArrayList<>();
+        for (Shard shard : Shard.of(shards, pairsConfiguration.pairs().size())) {
+            connected.add(new BitstampWebsocket(name, websocketURL, shard, connections, bookFeed, pairsConfiguration,
+                    aggregatorService, quoteService, instrumentRegistry, candleService, apiClient, marketCache, journals,
+                    recorders));
+        }
+        this.shards = List.copyOf(connected);
+
+        if (this.shards.size() > 1) {
+            log.info("{} pairs split across {} connections", name, this.shards.size());
+        }
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        shards.forEach(shard -> shard.bindTo(registry));
+    }
+
+    /**
+     * Each shard checks its own connection, one failing does not hold up the rest
+     */
+    @Scheduled(initialDelay = 2000, fixedRate = 3000)
+    public void healthCheck() {
+        for (BitstampWebsocket shard : shards) {
+            try {
+                shard.scheduledHealthCheck();
+            } catch (RuntimeException e) {
+                log.warn("{} health check failed: {}", shard.getConnectionName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resubscribe channels gone quiet on each shard's live session, within seconds for busy channels
+     */
+    @Scheduled(initialDelay = 1000, fixedDelay = 1000)
+    public void checkChannels() {
+        for (BitstampWebsocket shard : shards) {
+            try {
+                shard.checkChannels();
+            } catch (RuntimeException e) {
+                log.warn("{} channel check failed: {}", shard.getConnectionName(), e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shards.forEach(BitstampWebsocket::shutdown);
+    }
+}
@@ -4,44 +4,65 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
 import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import com.samdoherty.aggregator.domain.store.EpochClock;
 import com.samdoherty.aggregator.infrastructure.configuration.Pair;
 import com.samdoherty.aggregator.infrastructure.configuration.PairsConfiguration;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournal;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournals;
+import com.samdoherty.aggregator.infrastructure.metrics.ChannelMetrics;
+import com.samdoherty.aggregator.infrastructure.metrics.LatencyHistogram;
+import com.samdoherty.aggregator.infrastructure.recording.FrameRecorders;
 import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampApiClient;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampMarketCache;
 import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Market;
-import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Ticker;
 import com.samdoherty.aggregator.infrastructure.websocket.AbstractExchangeWebsocket;
+import com.samdoherty.aggregator.infrastructure.websocket.ChannelIndex;
+import com.samdoherty.aggregator.infrastructure.websocket.ChannelWatchdog;
+import com.samdoherty.aggregator.infrastructure.websocket.RecentIds;
+import com.samdoherty.aggregator.infrastructure.websocket.Shard;
+import com.samdoherty.aggregator.infrastructure.websocket.SnapshotGate;
+import com.samdoherty.aggregator.infrastructure.websocket.TickConflator;
 import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.dto.Event;
 import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.dto.SubscribeMessage;
 import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.dto.TradeData;
 import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.dto.WebsocketMessage;
-import jakarta.websocket.ClientEndpoint;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.stereotype.Service;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
 /**
  * Core websocket logic for consuming market data from bitstamp
+ * <p>
+ * Subscribed to its shard's share of the configured pairs, over one connection or several redundant ones.
+ * {@link BitstampShards} opens one per shard
+ * <p>
+ * Optionally keeps an order book per pair from one of Bitstamp's book channels, publishing its best bid and ask
  */
 @Slf4j
-@Service
-@ClientEndpoint
-@ConditionalOnProperty(prefix = "exchange.bitstamp", name = "websocketUrl", matchIfMissing = false)
 public class BitstampWebsocket extends AbstractExchangeWebsocket {
 
     @Getter
     private final String name;
 
+    @Getter
+    private final Shard shard;
+
     @Getter
     private final List<Pair> pairs;
 
@@ -52,8 +73,31 @@ public class BitstampWebsocket extends AbstractExchangeWebsocket {
      */
     private final Map<String, Instrument> channelToInstrumentMap = new HashMap<>();
 
+    /**
+     * Bitstamp market symbol e.g. 'btcusd' to its channel, for REST lookups
+     */
+    private final Map<String, BitstampChannel> marketToChannelMap = new HashMap<>();
+
+    /**
+     * Same mappings as above, but resolvable straight from a region of a raw frame
+     */
+    private final ChannelIndex<BitstampChannel> channelIndex = new ChannelIndex<>();
+
+    /**
+     * Order book channels, empty unless a book feed is configured
+     */
+    private final ChannelIndex<BitstampBook> bookIndex = new ChannelIndex<>();
+    private final List<BitstampBook> books = new ArrayList<>();
+
+    @Getter
+    private final BitstampBookFeed bookFeed;
+
     private final PriceAggregatorService aggregatorService;
+    private final QuoteService quoteService;
+    private final InstrumentRegistry instrumentRegistry;
+    private final CandleService candleService;
     private final BitstampApiClient apiClient;
+    private final BitstampMarketCache marketCache;
 
     private static final String CHANNEL_PREFIX = "live_trades_";
 
@@ -64,50 +108,130 @@ public class BitstampWebsocket extends AbstractExchangeWebsocket {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    /**
+     * Frames are read on a single ingest worker thread, so one scanner is reused for every frame
+     */
+    private final BitstampFrameParser frameParser = new BitstampFrameParser();
+
+    /**
+     * Trades are staged here and applied to the aggregator at the end of each ingest batch
+     */
+    private final TickConflator conflator;
+
+    /**
+     * Starting prices, fetched whenever we (re)subscribe
+     */
+    private final BitstampPriceBootstrap bootstrap;
+
+    /**
+     * Every trade ingested, null if journaling is disabled. Written and committed on the ingest worker
+     */
+    private final @Nullable TickJournal journal;
+
+    /**
+     * Spots channels gone quiet on a live session, so each can be resubscribed alone
+     */
+    private final ChannelWatchdog watchdog = new ChannelWatchdog();
+
+    /**
+     * System.nanoTime the last frame of any kind was received, heartbeats included. Written by the ingest worker
+     */
+    private volatile long lastFrameAt = System.nanoTime();
+
+    /**
+     * Bitstamp trade time (microtimestamp) to the frame arriving on our websocket thread
+     */
+    private final LatencyHistogram exchangeLag = new LatencyHistogram();
+
+    /**
+     * @param connections        redundant connections subscribed to the same channels, trades are taken from
+     *                           whichever delivers them first
+     * @param bookFeed           order book channel to keep a book per pair from, if any
+     * @param pairsConfiguration every pair configured, this connection subscribes to its shard's share
+     */
     public BitstampWebsocket(
-            @Value("${exchange.bitstamp.name}") String name,
-            @Value("${exchange.bitstamp.websocketUrl}") String websocketURL,
+            String name,
+            String websocketURL,
+            Shard shard,
+            int connections,
+            BitstampBookFeed bookFeed,
             PairsConfiguration pairsConfiguration,
             PriceAggregatorService aggregatorService,
-            BitstampApiClient apiClient
+            QuoteService quoteService,
+            InstrumentRegistry instrumentRegistry,
+            CandleService candleService,
+            BitstampApiClient apiClient,
+            BitstampMarketCache marketCache,
+            TickJournals journals,
+            FrameRecorders recorders
     ) {
-        super(websocketURL);
+        super(websocketURL, connections);
         this.name = name;
-        this.pairs = pairsConfiguration.pairs();
+        this.shard = shard;
+        this.pairs = shard.select(pairsConfiguration.pairs());
+        this.bookFeed = bookFeed;
         this.aggregatorService = aggregatorService;
+        this.quoteService = quoteService;
+        this.instrumentRegistry = instrumentRegistry;
+        this.candleService = candleService;
         this.apiClient = apiClient;
+        this.marketCache = marketCache;
+        this.conflator = new TickConflator(aggregatorService);
+        this.bootstrap = new BitstampPriceBootstrap(apiClient);
 
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
         // Added these here as an easy way to ensure the application fails to start upon error
         // As opposed to a zombie service
         mapSymbolsToInstruments();
+        this.journal = journals.open(shard.name(name));
+        recordFrames(recorders.open(shard.name(name)));
         connect();
     }
 
     /**
      * Inplace of an adaptor layer, we simply generate mappings for currency pairs
      * <p>
-     * This method compares configured currency pairs with Bitstamp markets
+     * This method looks up configured currency pairs in the (cached) Bitstamp markets
      * <p>
-     * This allows us to map websocket channels to normalized Instrument objects by which we store and retrieve pricing
+     * This allows us to map websocket channels to normalized Instrument objects by which we store and retrieve pricing.
+     * Instruments are registered so the API can resolve them by symbol
      */
     private void mapSymbolsToInstruments() {
-        List<Market> allMarkets = apiClient.getMarkets();
+        Map<String, Market> allMarkets = marketCache.getMarkets();
 
         for (Pair pair : pairs) {
 
             String pairSymbol = pairToSymbol(pair);
 
-            Market market = allMarkets.stream()
-                    .filter(m -> Objects.equals(pairSymbol, m.symbol())).findFirst()
-                    .orElseThrow(() -> new RuntimeException("Base '%s' - Quote '%s' does not appear to be an available bitstamp market".formatted(pair.base(), pair.quote())));
+            Market market = allMarkets.get(pairSymbol);
+            if (market == null) {
+                throw new RuntimeException("Base '%s' - Quote '%s' does not appear to be an available bitstamp market".formatted(pair.base(), pair.quote()));
+            }
 
-            channelToInstrumentMap.put(CHANNEL_PREFIX + pairSymbol, Instrument.builder()
+            Instrument instrument = Instrument.builder()
                     .exchange("bitstamp")
                     .base(pair.base())
                     .quote(pair.quote())
-                    .scale(market.quotePriceDecimals()).build());
+                    .scale(market.quotePriceDecimals()).build();
+
+            String channel = CHANNEL_PREFIX + pairSymbol;
+            int id = instrumentRegistry.register(instrument);
+            BitstampChannel mapped = new BitstampChannel(channel, instrument, id, new ChannelMetrics(channel),
+                    new SnapshotGate(aggregatorService, id));
+
+            channelToInstrumentMap.put(channel, instrument);
+            marketToChannelMap.put(pairSymbol, mapped);
+            channelIndex.put(channel, mapped);
+            watchdog.watch(channel, mapped.metrics());
+
+            if (bookFeed != BitstampBookFeed.NONE) {
+                BitstampBook book = new BitstampBook(bookFeed.channelPrefix() + pairSymbol, pairSymbol, id,
+                        instrument.getScale(), bookFeed, apiClient);
+                bookIndex.put(book.name(), book);
+                books.add(book);
+                watchdog.watch(book.name(), book.metrics());
+            }
         }
     }
 
@@ -123,17 +247,91 @@ public class BitstampWebsocket extends AbstractExchangeWebsocket {
 
     @Override
     public void subscribe() {
+        // Nothing was missed while another connection is live
+        boolean first = openConnections() <= 1;
+        if (first) {
+            // Off the connect path. Trades are held per channel from here until that channel's starting price lands
+            bootstrap.startAsync(marketToChannelMap);
+            watchdog.subscribed(System.nanoTime());
+        }
+
         for (String channel : channelToInstrumentMap.keySet()) {
-            try {
-                sendMessage(WebsocketMessage.builder()
-                        .event(Event.SUBSCRIBE)
-                        .data(SubscribeMessage.builder()
-                                .channel(channel).build()).build());
-
-                prePopulatePrices(channel);
-            } catch (IOException e) {
-                throw new RuntimeException("Unable to subscribe to bitstamp channel %s".formatted(channel), e);
+            send(Event.SUBSCRIBE, channel);
+        }
+        for (BitstampBook book : books) {
+            send(Event.SUBSCRIBE, book.name());
+        }
+
+        if (first) {
+            // After subscribing, so the REST order book is no older than the first diff
+            books.forEach(BitstampBook::resync);
+        }
+    }
+
+    /**
+     * Resubscribe any channel that has gone quiet for longer than its usual rate allows while the session is still
+     * heard from, and re-fetch its price in case trades were missed. Healthy channels are left alone
+     */
+    public void checkChannels() {
+        checkChannels(System.nanoTime(), lastFrameAt);
+    }
+
+    /**
+     * @param aliveAt System.nanoTime the session was last heard from
+     */
+    void checkChannels(long nowNanos, long aliveAt) {
+        if (!isConnected()) {
+            return;
+        }
+
+        Map<String, BitstampChannel> quiet = new HashMap<>();
+        for (ChannelWatchdog.Stale stale : watchdog.check(nowNanos, aliveAt)) {
+            String channel = stale.channel();
+            BitstampBook book = bookIndex.get(channel, 0, channel.length());
+            if (book != null) {
+                logQuiet(stale, "order book channel", book.metrics().rate());
+                send(Event.UNSUBSCRIBE, channel);
+                send(Event.SUBSCRIBE, channel);
+                book.resync();
+                continue;
+            }
+
+            BitstampChannel mapped = channelIndex.get(channel, 0, channel.length());
+            if (mapped == null) {
+                continue;
             }
+
+            logQuiet(stale, "channel", mapped.metrics().rate());
+            send(Event.UNSUBSCRIBE, channel);
+            send(Event.SUBSCRIBE, channel);
+            quiet.put(channel.substring(CHANNEL_PREFIX.length()), mapped);
+        }
+
+        // One bootstrap for every channel found quiet in this pass
+        bootstrap.startAsync(quiet);
+    }
+
+    /**
+     * Warn the first time a channel is found quiet, a channel still quiet after resubscribing only at debug
+     */
+    private void logQuiet(@NotNull ChannelWatchdog.Stale stale, @NotNull String kind, double rate) {
+        if (!stale.again()) {
+            log.warn("{} {} {} has gone quiet, usually {} messages/s. Resubscribing", getConnectionName(), kind,
+                    stale.channel(), "%.3f".formatted(rate));
+        } else if (log.isDebugEnabled()) {
+            log.debug("{} {} {} is still quiet, usually {} messages/s. Resubscribing", getConnectionName(), kind,
+                    stale.channel(), "%.3f".formatted(rate));
+        }
+    }
+
+    private void send(@NotNull Event event, @NotNull String channel) {
+        try {
+            sendMessage(WebsocketMessage.builder()
+                    .event(event)
+                    .data(SubscribeMessage.builder()
+                            .channel(channel).build()).build());
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to send %s for bitstamp channel %s".formatted(event, channel), e);
         }
     }
 
@@ -147,33 +345,173 @@ public class BitstampWebsocket extends AbstractExchangeWebsocket {
     }
 
     /**
-     * A little sugar beyond the spec. Rather than wait for a first trade via the websocket,
-     * we proactively retrieve the latest price and apply to the aggregator service (write if not null)
-     * <p>
-     * To guarantee the avoidance of race conditions, we would ideally hold websocket messages until this has completed
+     * Hot path. Frames are scanned once without building any intermediate objects,
+     * anything the scanner does not recognise is handed to the original DTO based handling
      */
-    private void prePopulatePrices(String channel) {
-        Instrument instrument = channelToInstrumentMap.get(channel);
+    @Override
+    public void readMessage(@NotNull String message) {
+        lastFrameAt = frameReceivedAt();
+
+        if (frameParser.parse(message)) {
+            BitstampChannel channel = frameParser.hasChannel()
+                    ? channelIndex.get(message, frameParser.channelStart(), frameParser.channelEnd())
+                    : null;
+
+            if (channel != null && frameParser.isEvent(Event.TRADE)) {
+                // Trades arrive here once however many connections deliver them, confirmations once per connection
+                channel.metrics().message(frameReceivedAt());
+            }
+
+            if (channel != null && frameParser.isEvent(Event.TRADE) && applyTrade(channel, message)) {
+                return;
+            }
+
+            if (channel == null && frameParser.hasChannel() && frameParser.isEvent(Event.DATA) && applyBook(message)) {
+                return;
+            }
+
+            if (frameParser.isEvent(Event.SUBSCRIBE_SUCCESS) || frameParser.isEvent(Event.UNSUBSCRIBE_SUCCESS)
+                    || frameParser.isEvent(Event.HEARTBEAT)) {
+                return;
+            }
 
-        Ticker ticker = apiClient.getLatestPrice(channel.replace(CHANNEL_PREFIX, ""));
+            if (frameParser.isEvent(Event.RECONNECT_REQUEST)) {
+                closeFrameConnection(); // Close and allow the restart mechanism to take over
+                return;
+            }
+        } else {
+            parseFailed();
+        }
 
-        aggregatorService.addInitialPrice(instrument, ticker.last().setScale(instrument.getScale(), RoundingMode.HALF_EVEN));
+        readUnrecognisedMessage(message);
     }
 
+    /**
+     * Trade ids are only unique within a market, so the key is the trade id under the channel's instrument id
+     */
     @Override
-    public void readMessage(@NotNull String message) {
+    protected long tradeKey(@NotNull String frame) {
+        long id = BitstampFrameParser.tradeId(frame);
+        int channelStart = BitstampFrameParser.valueStart(frame, BitstampFrameParser.QUOTED_CHANNEL);
+        if (id < 0 || id >= 1L << 48 || channelStart < 0) {
+            return RecentIds.NONE;
+        }
+
+        int channelEnd = frame.indexOf('"', channelStart);
+        BitstampChannel channel = channelEnd < 0 ? null : channelIndex.get(frame, channelStart, channelEnd);
+        if (channel == null) {
+            return RecentIds.NONE;
+        }
+        return (long) (channel.instrumentId() + 1) << 48 | id;
+    }
+
+    @Override
+    protected void endOfBatch() {
+        conflator.flush();
+        for (int i = 0; i < books.size(); i++) {
+            books.get(i).publish(quoteService);
+        }
+        if (journal != null) {
+            journal.commit();
+        }
+    }
+
+    /**
+     * @return trades superseded by a later trade for the same instrument within an ingest batch
+     */
+    public long conflatedTrades() {
+        return conflator.conflated();
+    }
+
+    @Override
+    protected void bindExchangeMetrics(@NotNull MeterRegistry registry, @NotNull Tags tags) {
+        for (String channel : channelToInstrumentMap.keySet()) {
+            BitstampChannel mapped = channelIndex.get(channel, 0, channel.length());
+            if (mapped != null) {
+                mapped.metrics().bindTo(registry, tags);
+            }
+        }
+        for (BitstampBook book : books) {
+            book.metrics().bindTo(registry, tags);
+        }
+
+        FunctionCounter.builder("exchange.trades.conflated", conflator, TickConflator::conflated)
+                .description("Trades superseded by a later trade for the same instrument before being stored")
+                .tags(tags)
+                .register(registry);
+
+        exchangeLag.bindTo(registry, "exchange.lag", "Exchange trade time to local receipt", tags);
+    }
+
+    /**
+     * Record a scanned trade in the candles straight away, and stage it as a fixed-point price
+     * which is applied to the aggregator at the end of the batch. Held instead while the channel's starting price
+     * is in flight
+     *
+     * @return false if the trade could not be handled without the DTO fallback
+     */
+    private boolean applyTrade(@NotNull BitstampChannel channel, @NotNull String message) {
+        long price = frameParser.price(channel.instrument().getScale());
+        long amount = frameParser.amount(CandleService.VOLUME_SCALE);
+        if (price == BitstampFrameParser.INVALID || amount == BitstampFrameParser.INVALID) {
+            return false;
+        }
+
+        long micros = frameParser.microtimestamp();
+        long receivedAt = EpochClock.at(frameReceivedAt());
+        if (micros != BitstampFrameParser.INVALID) {
+            exchangeLag.record(receivedAt - micros * 1_000);
+        }
+
+        if (journal != null) {
+            journal.append(channel.instrumentId(), channel.instrument().getScale(),
+                    micros != BitstampFrameParser.INVALID ? micros : 0, receivedAt, price, amount);
+        }
+        candleService.recordTrade(channel.instrumentId(), price, amount);
+        if (!channel.gate().hold(price, micros != BitstampFrameParser.INVALID ? micros : SnapshotGate.UNKNOWN_TIME)) {
+            conflator.stage(channel.instrumentId(), price);
+        }
+        channel.metrics().trade();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Received trade data: {}", message);
+        }
+        return true;
+    }
+
+    /**
+     * Apply a scanned order book frame straight to its book, without building any objects per level
+     *
+     * @return false if the frame is not for a book we keep
+     */
+    private boolean applyBook(@NotNull String message) {
+        BitstampBook book = bookIndex.get(message, frameParser.channelStart(), frameParser.channelEnd());
+        if (book == null) {
+            return false;
+        }
+
+        if (!book.apply(frameParser, message, frameReceivedAt())) {
+            log.warn("Unable to read bitstamp order book frame for {}: {}", book.name(), message);
+        }
+        return true;
+    }
+
+    /**
+     * Original String matching and DTO based handling, kept as a fallback for frames the scanner does not recognise
+     */
+    private void readUnrecognisedMessage(@NotNull String message) {
 
         if (message.contains(MESSAGE_TRADE_STRING)) {
             processTradeMessage(message);
             return;
         }
 
-        if (message.contains(Event.SUBSCRIBE_SUCCESS.toString())) {
+        if (message.contains(Event.SUBSCRIBE_SUCCESS.toString()) || message.contains(Event.UNSUBSCRIBE_SUCCESS.toString())) {
             return;
         }
 
         if (message.contains(Event.RECONNECT_REQUEST.toString())) {
-            close(); // Close and allow the restart mechanism to take over
+            closeFrameConnection(); // Close and allow the restart mechanism to take over
             return;
         }
 
@@ -189,10 +527,41 @@ public class BitstampWebsocket extends AbstractExchangeWebsocket {
             WebsocketMessage<TradeData> trade = objectMapper.readValue(message, new TypeReference<>() {
             });
             Instrument instrument = channelToInstrumentMap.get(trade.channel());
-            aggregatorService.addPrice(instrument, trade.data().price().setScale(instrument.getScale(), RoundingMode.HALF_EVEN));
+            if (instrument == null) {
+                log.warn("Received trade for unmapped bitstamp channel {}", trade.channel());
+                return;
+            }
+
+            TradeData data = trade.data();
+            BigDecimal amount = data.amount() == null ? BigDecimal.ZERO : data.amount();
+            BigDecimal price = data.price().setScale(instrument.getScale(), RoundingMode.HALF_EVEN);
+            // Both fixed-point before anything is recorded, a trade too large to hold is dropped whole
+            long unscaledPrice = price.unscaledValue().longValueExact();
+            long unscaledAmount = amount.setScale(CandleService.VOLUME_SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+
+            BitstampChannel channel = channelIndex.get(trade.channel(), 0, trade.channel().length());
+            if (channel != null) {
+                channel.metrics().trade();
+            }
+            candleService.recordTrade(instrument, data.price(), amount);
+
+            if (channel != null && journal != null) {
+                journal.append(channel.instrumentId(), instrument.getScale(),
+                        data.microtimestamp() == null ? 0 : data.microtimestamp(), EpochClock.at(frameReceivedAt()),
+                        unscaledPrice, unscaledAmount);
+            }
+            if (channel != null && channel.gate().hold(unscaledPrice,
+                    data.microtimestamp() == null ? SnapshotGate.UNKNOWN_TIME : data.microtimestamp())) {
+                return;
+            }
+
+            // Staged trades in this batch are older, they must not overwrite this one
+            conflator.flush();
+            aggregatorService.addPrice(instrument, price);
 
             log.debug("Received trade data: {}", trade);
-        } catch (IOException e) {
+        } catch (IOException | ArithmeticException e) {
+            parseFailed();
             log.error("Unable to parse message from bitstamp channel {}", message, e);
         }
     }
@@ -8,7 +8,10 @@ import com.fasterxml.jackson.annotation.JsonValue;
 public enum Event {
     SUBSCRIBE("bts:subscribe"),
     SUBSCRIBE_SUCCESS("bts:subscription_succeeded"),
+    UNSUBSCRIBE("bts:unsubscribe"),
+    UNSUBSCRIBE_SUCCESS("bts:unsubscription_succeeded"),
     TRADE("trade"),
+    DATA("data"),
     RECONNECT_REQUEST("bts:request_reconnect"),
     HEARTBEAT("bts:heartbeat");
 
@@ -1,13 +1,21 @@
 package com.samdoherty.aggregator.infrastructure.websocket.bitstamp.dto;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.math.BigDecimal;
 
 public record TradeData(
         /*
-         * Literally all we need...
-         *
          * Timestamp we use system time to ensure any drift between other exchanges does not skew data
          */
-        BigDecimal price
+        BigDecimal price,
+        /*
+         * Traded quantity in the base currency, feeds candle volume
+         */
+        BigDecimal amount,
+        /*
+         * Exchange trade time in epoch micros
+         */
+        @Nullable Long microtimestamp
 ) {
 }
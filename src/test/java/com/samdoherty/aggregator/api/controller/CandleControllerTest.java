@@ -0,0 +1,84 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.domain.model.Candle;
+import com.samdoherty.aggregator.domain.model.CandleInterval;
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.BitstampWebsocket;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = CandleController.class)
+class CandleControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private CandleService candleService;
+
+    @MockitoBean
+    private InstrumentRegistry instrumentRegistry;
+
+    @MockitoBean
+    private BitstampWebsocket bitStampWebsocket;
+
+    @Test
+    void testGetCandles_ValidRequest_ReturnsCandles() throws Exception {
+        Candle candle = Candle.of(60_000_000_000L, 10000, 10100, 9900, 10050, 2, 150000000, 8);
+        when(instrumentRegistry.resolve("consolidated", "BTC-USD")).thenReturn(3);
+        when(candleService.getCandles(3, CandleInterval.FIVE_MINUTES, 10)).thenReturn(List.of(candle));
+
+        mockMvc.perform(get("/prices/BTC-USD/candles").param("interval", "5m").param("limit", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].open").value(100.00))
+                .andExpect(jsonPath("$[0].high").value(101.00))
+                .andExpect(jsonPath("$[0].low").value(99.00))
+                .andExpect(jsonPath("$[0].close").value(100.50))
+                .andExpect(jsonPath("$[0].volume").value(1.5))
+                .andExpect(jsonPath("$[0].time").value("1970-01-01T00:01:00Z"));
+    }
+
+    @Test
+    void testGetCandles_Defaults_OneMinuteSixty() throws Exception {
+        when(instrumentRegistry.resolve("bitstamp", "BTC-USD")).thenReturn(4);
+        when(candleService.getCandles(4, CandleInterval.ONE_MINUTE, 60)).thenReturn(List.of());
+
+        mockMvc.perform(get("/prices/BTC-USD/candles").param("exchange", "bitstamp"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").isEmpty());
+    }
+
+    @Test
+    void testGetCandles_UnknownInterval_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/prices/BTC-USD/candles").param("interval", "2m"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Request parameter 'interval' must be one of 1s, 1m, 5m, 1h"));
+    }
+
+    @Test
+    void testGetCandles_ZeroLimit_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/prices/BTC-USD/candles").param("limit", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Request parameter 'limit' must be at least 1"));
+    }
+
+    @Test
+    void testGetCandles_UnknownSymbol_ReturnsNotFound() throws Exception {
+        when(instrumentRegistry.resolve(eq("consolidated"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
+        mockMvc.perform(get("/prices/ABC-XYZ/candles"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,28 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.samdoherty.aggregator.Application;
+import com.samdoherty.aggregator.domain.model.Price;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactPricesTest {
+
+    @Test
+    void encode_shouldBeAnArrayOfMantissaScaleAndEpochNanos() throws Exception {
+        byte[] bytes = CompactPrices.encode(new long[]{12210750L, 2, 1752485434749389600L});
+
+        assertArrayEquals(new long[]{12210750L, 2, 1752485434749389600L}, new CBORMapper().readValue(bytes, long[].class));
+    }
+
+    @Test
+    void encode_shouldBeUnderHalfTheJson() throws Exception {
+        byte[] compact = CompactPrices.encode(new long[]{12210750L, 2, 1752485434749389600L});
+        byte[] json = new Application().objectMapper().writeValueAsBytes(Price.of(12210750L, 2, 1752485434749389600L));
+
+        // 0x83, a 5 byte mantissa, a 1 byte scale and a 9 byte time
+        assertEquals(16, compact.length);
+        assertTrue(compact.length * 2 < json.length);
+    }
+}
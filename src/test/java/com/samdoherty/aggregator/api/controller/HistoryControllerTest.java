@@ -0,0 +1,122 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.domain.model.Tick;
+import com.samdoherty.aggregator.domain.service.HistoryService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.BitstampWebsocket;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(controllers = HistoryController.class)
+class HistoryControllerTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private HistoryService historyService;
+
+    @MockitoBean
+    private InstrumentRegistry instrumentRegistry;
+
+    @MockitoBean
+    private BitstampWebsocket bitStampWebsocket;
+
+    @Test
+    void testGetPriceAt_ValidRequest_ReturnsTick() throws Exception {
+        when(instrumentRegistry.resolve("bitstamp", "BTC-USD")).thenReturn(4);
+        when(historyService.at(4, 90 * SECOND)).thenReturn(Tick.of(60 * SECOND, 3012400, 2, 125000000, 8));
+
+        mockMvc.perform(get("/prices/BTC-USD/at").param("time", "1970-01-01T00:01:30Z").param("exchange", "bitstamp"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.price").value(30124.00))
+                .andExpect(jsonPath("$.amount").value(1.25))
+                .andExpect(jsonPath("$.time").value("1970-01-01T00:01:00Z"));
+    }
+
+    @Test
+    void testGetPriceAt_NoTickBefore_ReturnsNotFound() throws Exception {
+        when(instrumentRegistry.resolve("bitstamp", "BTC-USD")).thenReturn(4);
+
+        mockMvc.perform(get("/prices/BTC-USD/at").param("time", "1970-01-01T01:00:00+01:00").param("exchange", "bitstamp"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.message").value("No price found for BTC-USD at 1970-01-01T01:00:00+01:00"));
+    }
+
+    @Test
+    void testGetPriceAt_MalformedTime_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/prices/BTC-USD/at").param("time", "yesterday").param("exchange", "bitstamp"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Request parameter 'time' must be an ISO 8601 time with an offset e.g. '2025-07-14T09:30:34Z'"));
+    }
+
+    @Test
+    void testGetPriceAt_NoExchange_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/prices/BTC-USD/at").param("time", "1970-01-01T00:01:30Z"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Request parameter 'exchange' must name a venue, history is kept per venue"));
+    }
+
+    @Test
+    void testGetPriceAt_UnknownSymbol_ReturnsNotFound() throws Exception {
+        when(instrumentRegistry.resolve(eq("bitstamp"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
+
+        mockMvc.perform(get("/prices/XYZ-ABC/at").param("time", "1970-01-01T00:01:30Z").param("exchange", "bitstamp"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.message").value("No symbol found for XYZ-ABC"));
+    }
+
+    @Test
+    void testGetHistory_ValidRequest_StreamsTicks() throws Exception {
+        when(instrumentRegistry.resolve("bitstamp", "BTC-USD")).thenReturn(4);
+        doAnswer(invocation -> {
+            HistoryService.TickWriter writer = invocation.getArgument(3);
+            writer.write(Tick.of(60 * SECOND, 3012400, 2, 125000000, 8));
+            writer.write(Tick.of(61 * SECOND, 3012500, 2, 50000000, 8));
+            return null;
+        }).when(historyService).ticks(eq(4), eq(60 * SECOND), eq(120 * SECOND), any());
+
+        MvcResult result = mockMvc.perform(get("/prices/BTC-USD/history")
+                        .param("from", "1970-01-01T00:01:00Z").param("to", "1970-01-01T00:02:00Z").param("exchange", "bitstamp"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].price").value(30124.00))
+                .andExpect(jsonPath("$[1].amount").value(0.5))
+                .andExpect(jsonPath("$[1].time").value("1970-01-01T00:01:01Z"));
+    }
+
+    @Test
+    void testGetHistory_FromAfterTo_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/prices/BTC-USD/history")
+                        .param("from", "1970-01-01T00:02:00Z").param("to", "1970-01-01T00:01:00Z").param("exchange", "bitstamp"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Request parameter 'from' must not be after 'to'"));
+    }
+
+    @Test
+    void testGetHistory_Consolidated_ReturnsBadRequest() throws Exception {
+        mockMvc.perform(get("/prices/BTC-USD/history")
+                        .param("from", "1970-01-01T00:01:00Z").param("exchange", "consolidated"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Request parameter 'exchange' must name a venue, history is kept per venue"));
+    }
+}
@@ -1,19 +1,32 @@
 package com.samdoherty.aggregator.api.controller;
 
-import com.samdoherty.aggregator.domain.model.Instrument;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.samdoherty.aggregator.domain.model.Price;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
 import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
 import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.BitstampWebsocket;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
 
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -26,34 +39,210 @@ class PriceControllerTest {
     @MockitoBean
     private PriceAggregatorService priceAggregatorService;
 
+    @MockitoBean
+    private InstrumentRegistry instrumentRegistry;
+
     @MockitoBean
     private BitstampWebsocket bitStampWebsocket;
 
     @Test
     void testGetPrices_ValidSymbol_ReturnsPrice() throws Exception {
         Price price = Price.builder().price(new BigDecimal("100.43")).build();
-        when(priceAggregatorService.getPrice(any(Instrument.class))).thenReturn(price);
+        when(instrumentRegistry.resolve("consolidated", "BTC-USD")).thenReturn(3);
+        when(priceAggregatorService.getPrice(3)).thenReturn(price);
         mockMvc.perform(get("/prices/BTC-USD"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.price").value(100.43));
     }
 
+    @Test
+    void testGetPrices_WithExchange_ReturnsVenuePrice() throws Exception {
+        Price price = Price.builder().price(new BigDecimal("100.45")).build();
+        when(instrumentRegistry.resolve("bitstamp", "BTC-USD")).thenReturn(5);
+        when(priceAggregatorService.getPrice(5)).thenReturn(price);
+        mockMvc.perform(get("/prices/BTC-USD").param("exchange", "bitstamp"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.price").value(100.45));
+    }
+
+    @Test
+    void testGetPrices_WrittenPrice_ReturnsETagOfItsVersion() throws Exception {
+        when(instrumentRegistry.resolve("consolidated", "SOL-USD")).thenReturn(11);
+        when(priceAggregatorService.version(11)).thenReturn(2L);
+        when(priceAggregatorService.getPrice(11)).thenReturn(Price.builder().price(new BigDecimal("150.25")).build());
+
+        String etag = mockMvc.perform(get("/prices/SOL-USD"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andExpect(jsonPath("$.price").value(150.25))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/prices/SOL-USD").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().bytes(new byte[0]));
+
+        // Served from the cached bytes, the price was read once
+        verify(priceAggregatorService, times(1)).getPrice(11);
+    }
+
+    @Test
+    void testGetPrices_ChangedPrice_ReturnsNewBodyAndETag() throws Exception {
+        when(instrumentRegistry.resolve("consolidated", "ADA-USD")).thenReturn(12);
+        when(priceAggregatorService.version(12)).thenReturn(2L);
+        when(priceAggregatorService.getPrice(12)).thenReturn(Price.builder().price(new BigDecimal("0.71")).build());
+
+        String etag = mockMvc.perform(get("/prices/ADA-USD"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        when(priceAggregatorService.version(12)).thenReturn(4L);
+        when(priceAggregatorService.getPrice(12)).thenReturn(Price.builder().price(new BigDecimal("0.72")).build());
+
+        mockMvc.perform(get("/prices/ADA-USD").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(etag)))
+                .andExpect(jsonPath("$.price").value(0.72));
+    }
+
+    @Test
+    void testGetPrices_AcceptAnything_ReturnsJson() throws Exception {
+        when(instrumentRegistry.resolve("consolidated", "BTC-USD")).thenReturn(3);
+        when(priceAggregatorService.getPrice(3)).thenReturn(Price.builder().price(new BigDecimal("100.43")).build());
+        mockMvc.perform(get("/prices/BTC-USD").accept(MediaType.ALL))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.price").value(100.43));
+    }
+
+    @Test
+    void testGetPrices_AcceptCbor_ReturnsCompactPrice() throws Exception {
+        when(instrumentRegistry.resolve("bitstamp", "BTC-USD")).thenReturn(5);
+        stubCopyPrice(5, 10043L, 2, 1752485434749389600L);
+
+        byte[] body = mockMvc.perform(get("/prices/BTC-USD").param("exchange", "bitstamp")
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string("Vary", "Accept"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertArrayEquals(new long[]{10043L, 2, 1752485434749389600L}, new CBORMapper().readValue(body, long[].class));
+        verify(priceAggregatorService, never()).getPrice(anyInt());
+    }
+
+    @Test
+    void testGetPrices_AcceptCbor_SymbolNotFound_ReturnsNotFound() throws Exception {
+        when(instrumentRegistry.resolve("consolidated", "ETH-USD")).thenReturn(4);
+        mockMvc.perform(get("/prices/ETH-USD").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void testGetPrices_SymbolNotFound_ThrowsException() throws Exception {
-        when(priceAggregatorService.getPrice(any(Instrument.class))).thenReturn(null);
+        when(instrumentRegistry.resolve("consolidated", "ETH-USD")).thenReturn(4);
+        when(priceAggregatorService.getPrice(4)).thenReturn(null);
         mockMvc.perform(get("/prices/ETH-USD"))
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void testGetPrices_UnknownSymbol_ReturnsNotFound() throws Exception {
+        when(instrumentRegistry.resolve(eq("consolidated"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
+        mockMvc.perform(get("/prices/ABC-XYZ"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.message").value("No symbol found for ABC-XYZ"));
+        verifyNoInteractions(priceAggregatorService);
+    }
+
     @Test
     void testGetPrices_BlankSymbol_ReturnsNotFound() throws Exception {
+        when(instrumentRegistry.resolve(eq("consolidated"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
         mockMvc.perform(get("/prices/ "))
                 .andExpect(status().isBadRequest());
     }
 
     @Test
     void testGetPrices_InvalidSymbolFormat_ReturnsBadRequest() throws Exception {
+        when(instrumentRegistry.resolve(eq("consolidated"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
         mockMvc.perform(get("/prices/INVALID"))
-                .andExpect(status().isBadRequest());
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Validation Failed"));
+    }
+
+    @Test
+    void testGetAllPrices_Symbols_ReturnsKnownPricesKeyedBySymbol() throws Exception {
+        when(instrumentRegistry.resolve("consolidated", "btc-usd")).thenReturn(1);
+        when(instrumentRegistry.resolve("consolidated", "ETH-USD")).thenReturn(2);
+        when(instrumentRegistry.resolve("consolidated", "ABC-XYZ")).thenReturn(InstrumentRegistry.UNKNOWN);
+        when(instrumentRegistry.symbol(1)).thenReturn("BTC-USD");
+        when(priceAggregatorService.getPrice(1)).thenReturn(Price.builder().price(new BigDecimal("100.43")).build());
+        when(priceAggregatorService.getPrice(2)).thenReturn(null);
+
+        MvcResult result = mockMvc.perform(get("/prices").param("symbols", "btc-usd,ETH-USD,ABC-XYZ"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['BTC-USD'].price").value(100.43))
+                .andExpect(jsonPath("$['ETH-USD']").doesNotExist())
+                .andExpect(jsonPath("$['ABC-XYZ']").doesNotExist());
+    }
+
+    @Test
+    void testGetAllPrices_NoSymbols_ReturnsEveryTrackedInstrument() throws Exception {
+        when(instrumentRegistry.ids("consolidated")).thenReturn(new int[]{1, 2});
+        when(instrumentRegistry.symbol(1)).thenReturn("BTC-USD");
+        when(instrumentRegistry.symbol(2)).thenReturn("ETH-USD");
+        when(priceAggregatorService.getPrice(1)).thenReturn(Price.builder().price(new BigDecimal("100.43")).build());
+        when(priceAggregatorService.getPrice(2)).thenReturn(Price.builder().price(new BigDecimal("3000.1")).build());
+
+        MvcResult result = mockMvc.perform(get("/prices"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['BTC-USD'].price").value(100.43))
+                .andExpect(jsonPath("$['ETH-USD'].price").value(3000.1));
+    }
+
+    @Test
+    void testGetAllPrices_AcceptCbor_ReturnsCompactPricesKeyedBySymbol() throws Exception {
+        when(instrumentRegistry.ids("consolidated")).thenReturn(new int[]{1, 2});
+        when(instrumentRegistry.symbol(1)).thenReturn("BTC-USD");
+        stubCopyPrice(1, 10043L, 2, 1752485434749389600L);
+
+        MvcResult result = mockMvc.perform(get("/prices").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        Map<String, long[]> prices = new CBORMapper().readValue(body, new TypeReference<>() {
+        });
+        assertEquals(Set.of("BTC-USD"), prices.keySet());
+        assertArrayEquals(new long[]{10043L, 2, 1752485434749389600L}, prices.get("BTC-USD"));
+    }
+
+    @Test
+    void testGetAllPrices_MalformedSymbol_ReturnsBadRequest() throws Exception {
+        when(instrumentRegistry.resolve(eq("consolidated"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
+        mockMvc.perform(get("/prices").param("symbols", "BTC-USD,NOPE"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Request parameter 'symbols' must be in the format 'AAA-BBB' using uppercase or lowercase letters."));
+    }
+
+    private void stubCopyPrice(int id, long mantissa, int scale, long epochNanos) {
+        when(priceAggregatorService.copyPrice(eq(id), any())).thenAnswer(invocation -> {
+            long[] into = invocation.getArgument(1);
+            into[0] = mantissa;
+            into[1] = scale;
+            into[2] = epochNanos;
+            return true;
+        });
     }
 }
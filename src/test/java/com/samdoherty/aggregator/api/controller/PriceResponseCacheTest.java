@@ -0,0 +1,101 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.samdoherty.aggregator.Application;
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Price;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceResponseCacheTest {
+
+    private final ObjectMapper objectMapper = new Application().objectMapper();
+    private PriceAggregatorService aggregatorService;
+    private PriceResponseCache cache;
+    private int encoded;
+    private int id;
+
+    @BeforeEach
+    void setUp() {
+        aggregatorService = new PriceAggregatorService();
+        cache = new PriceResponseCache(aggregatorService, this::encode);
+        id = aggregatorService.register(Instrument.builder().exchange("bitstamp").base("BTC").quote("USD").scale(2).build());
+    }
+
+    @Test
+    void get_withoutAPrice_shouldBeNull() {
+        assertNull(cache.get(id));
+    }
+
+    @Test
+    void get_shouldServeTheSameBytesUntilThePriceChanges() throws Exception {
+        aggregatorService.addPrice(id, 12210750L);
+
+        PriceResponseCache.Entry first = cache.get(id);
+        assertNotNull(first);
+        assertNotNull(first.etag());
+        assertArrayEquals(objectMapper.writeValueAsBytes(aggregatorService.getPrice(id)), first.body());
+        assertSame(first, cache.get(id));
+        assertEquals(1, encoded);
+
+        aggregatorService.addPrice(id, 12210800L);
+
+        PriceResponseCache.Entry second = cache.get(id);
+        assertNotNull(second);
+        assertNotEquals(first.etag(), second.etag());
+        assertArrayEquals(objectMapper.writeValueAsBytes(aggregatorService.getPrice(id)), second.body());
+        assertEquals(2, encoded);
+    }
+
+    @Test
+    void get_shouldGrowForInstrumentsRegisteredLater() {
+        aggregatorService.addPrice(id, 12210750L);
+        assertNotNull(cache.get(id));
+
+        int later = aggregatorService.register(Instrument.builder().exchange("bitstamp").base("ETH").quote("USD").scale(2).build());
+        aggregatorService.addPrice(later, 300010L);
+
+        PriceResponseCache.Entry entry = cache.get(later);
+        assertNotNull(entry);
+        assertSame(entry, cache.get(later));
+    }
+
+    @Test
+    void get_shouldTagEachCacheDifferently() {
+        aggregatorService.addPrice(id, 12210750L);
+        PriceResponseCache other = new PriceResponseCache(aggregatorService, this::encode);
+
+        assertNotEquals(cache.get(id).etag(), other.get(id).etag());
+    }
+
+    @Test
+    void matches_shouldCompareEachTagWeakly() {
+        PriceResponseCache.Entry entry = new PriceResponseCache.Entry(2, new byte[0], "\"ab-2\"");
+
+        assertTrue(entry.matches("\"ab-2\""));
+        assertTrue(entry.matches("\"ab-0\", W/\"ab-2\""));
+        assertTrue(entry.matches("*"));
+        assertFalse(entry.matches("\"ab-4\""));
+        assertFalse(entry.matches(null));
+        assertFalse(new PriceResponseCache.Entry(0, new byte[0], null).matches("*"));
+    }
+
+    private byte[] encode(int id) {
+        Price price = aggregatorService.getPrice(id);
+        if (price == null) {
+            return null;
+        }
+        encoded++;
+        try {
+            return objectMapper.writeValueAsBytes(price);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.api.stream.PriceStreamPublisher;
+import com.samdoherty.aggregator.domain.model.Price;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.BitstampWebsocket;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(controllers = PriceStreamController.class)
+@Import(PriceStreamPublisher.class)
+class PriceStreamControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private PriceStreamPublisher priceStreamPublisher;
+
+    @MockitoBean
+    private PriceAggregatorService priceAggregatorService;
+
+    @MockitoBean
+    private InstrumentRegistry instrumentRegistry;
+
+    @MockitoBean
+    private BitstampWebsocket bitStampWebsocket;
+
+    @Test
+    void testStreamPrices_SendsCurrentThenChangedPrices() throws Exception {
+        when(instrumentRegistry.resolve("consolidated", "BTC-USD")).thenReturn(1);
+        when(instrumentRegistry.symbol(1)).thenReturn("BTC-USD");
+        when(priceAggregatorService.getPrice(1)).thenReturn(Price.builder().price(new BigDecimal("100.43")).build());
+        when(priceAggregatorService.version(1)).thenReturn(2L);
+
+        MvcResult result = mockMvc.perform(get("/prices/stream").param("symbols", "BTC-USD"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        awaitContent(result, "\"price\":100.43");
+
+        // When: the price changes and the aggregator notifies its listeners
+        when(priceAggregatorService.getPrice(1)).thenReturn(Price.builder().price(new BigDecimal("101.50")).build());
+        when(priceAggregatorService.version(1)).thenReturn(4L);
+        priceStreamPublisher.onPrice(1);
+
+        // Then
+        awaitContent(result, "\"price\":101.50");
+        assertTrue(result.getResponse().getContentAsString().contains("event:price"));
+        assertTrue(result.getResponse().getContentAsString().contains("\"symbol\":\"BTC-USD\""));
+    }
+
+    @Test
+    void testStreamPrices_MalformedSymbol_ReturnsBadRequest() throws Exception {
+        when(instrumentRegistry.resolve(eq("consolidated"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
+        mockMvc.perform(get("/prices/stream").param("symbols", "NOPE"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static void awaitContent(MvcResult result, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!result.getResponse().getContentAsString().contains(expected)) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + expected);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.samdoherty.aggregator.api.controller;
+
+import com.samdoherty.aggregator.domain.model.Quote;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import com.samdoherty.aggregator.domain.store.OrderBook;
+import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.BitstampWebsocket;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = QuoteController.class)
+class QuoteControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private QuoteService quoteService;
+
+    @MockitoBean
+    private InstrumentRegistry instrumentRegistry;
+
+    @MockitoBean
+    private BitstampWebsocket bitStampWebsocket;
+
+    @Test
+    void testGetQuote_ValidRequest_ReturnsTopOfBook() throws Exception {
+        when(instrumentRegistry.resolve("consolidated", "ETH-BTC")).thenReturn(3);
+        when(quoteService.getQuote(3)).thenReturn(Quote.of(2_467_000L, 2_467_500L, 8, 60_000_000_000L));
+
+        mockMvc.perform(get("/prices/ETH-BTC/quote"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.bid").value(0.02467))
+                .andExpect(jsonPath("$.ask").value(0.024675))
+                .andExpect(jsonPath("$.mid").value(0.0246725))
+                .andExpect(jsonPath("$.spread").value(0.000005))
+                .andExpect(jsonPath("$.time").value("1970-01-01T00:01:00Z"));
+    }
+
+    @Test
+    void testGetQuote_OneSidedBook_HasNoMid() throws Exception {
+        when(instrumentRegistry.resolve("bitstamp", "ETH-BTC")).thenReturn(4);
+        when(quoteService.getQuote(4)).thenReturn(Quote.of(2_467_000L, OrderBook.NONE, 8, 60_000_000_000L));
+
+        mockMvc.perform(get("/prices/ETH-BTC/quote").param("exchange", "bitstamp"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.bid").value(0.02467))
+                .andExpect(jsonPath("$.ask").isEmpty())
+                .andExpect(jsonPath("$.mid").isEmpty());
+    }
+
+    @Test
+    void testGetQuote_NoBook_ReturnsNotFound() throws Exception {
+        when(instrumentRegistry.resolve("consolidated", "BTC-USD")).thenReturn(3);
+
+        mockMvc.perform(get("/prices/BTC-USD/quote"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.message").value("No order book for BTC-USD"));
+    }
+
+    @Test
+    void testGetQuote_UnknownSymbol_ReturnsNotFound() throws Exception {
+        when(instrumentRegistry.resolve(eq("consolidated"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
+        mockMvc.perform(get("/prices/ABC-XYZ/quote"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testGetQuote_InvalidSymbol_ReturnsBadRequest() throws Exception {
+        when(instrumentRegistry.resolve(eq("consolidated"), anyString())).thenReturn(InstrumentRegistry.UNKNOWN);
+        mockMvc.perform(get("/prices/BTCUSD/quote"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,57 @@
+package com.samdoherty.aggregator.domain.service;
+
+import com.samdoherty.aggregator.domain.model.Candle;
+import com.samdoherty.aggregator.domain.model.CandleInterval;
+import com.samdoherty.aggregator.domain.model.Instrument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandleServiceTest {
+    private PriceAggregatorService aggregatorService;
+    private CandleService service;
+
+    @BeforeEach
+    void setUp() {
+        aggregatorService = new PriceAggregatorService();
+        service = new CandleService(aggregatorService);
+    }
+
+    @Test
+    void recordTrade_shouldFeedVenueAndConsolidatedCandles() {
+        int bitstamp = aggregatorService.register(instrument("bitstamp", 2));
+        int other = aggregatorService.register(instrument("other", 1));
+        int consolidated = aggregatorService.consolidatedId(bitstamp);
+
+        service.recordTrade(bitstamp, 10050, 100_000_000);
+        service.recordTrade(other, 1010, 50_000_000);
+
+        List<Candle> venue = service.getCandles(bitstamp, CandleInterval.ONE_HOUR, 1);
+        assertEquals(new BigDecimal("100.50"), venue.getFirst().close());
+        assertEquals(new BigDecimal("1.00000000"), venue.getFirst().volume());
+
+        // Lower scale venue is rescaled to the consolidated instrument's scale
+        List<Candle> all = service.getCandles(consolidated, CandleInterval.ONE_HOUR, 1);
+        assertEquals(new BigDecimal("100.50"), all.getFirst().open());
+        assertEquals(new BigDecimal("101.00"), all.getFirst().close());
+        assertEquals(new BigDecimal("1.50000000"), all.getFirst().volume());
+    }
+
+    @Test
+    void recordTrade_byInstrument_shouldRoundToInstrumentScale() {
+        Instrument instrument = instrument("bitstamp", 2);
+        service.recordTrade(instrument, new BigDecimal("100.125"), new BigDecimal("0.000000015"));
+
+        Candle candle = service.getCandles(aggregatorService.register(instrument), CandleInterval.ONE_SECOND, 5).getFirst();
+        assertEquals(new BigDecimal("100.12"), candle.close());
+        assertEquals(new BigDecimal("0.00000002"), candle.volume());
+    }
+
+    private static Instrument instrument(String exchange, int scale) {
+        return Instrument.builder().exchange(exchange).base("BTC").quote("USD").scale(scale).build();
+    }
+}
@@ -0,0 +1,78 @@
+package com.samdoherty.aggregator.domain.service;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstrumentRegistryTest {
+    private PriceAggregatorService aggregatorService;
+    private InstrumentRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        aggregatorService = new PriceAggregatorService();
+        registry = new InstrumentRegistry(aggregatorService);
+    }
+
+    @Test
+    void resolve_shouldFindRegisteredSymbolInEitherCase() {
+        int id = registry.register(instrument("bitstamp", "BTC", "USD"));
+
+        assertEquals(id, registry.resolve("bitstamp", "BTC-USD"));
+        assertEquals(id, registry.resolve("bitstamp", "btc-usd"));
+        assertEquals(id, registry.resolve("bitstamp", "bTc-UsD"));
+    }
+
+    @Test
+    void resolve_shouldSeparateExchanges() {
+        int bitstamp = registry.register(instrument("bitstamp", "ETH", "USD"));
+        int other = registry.register(instrument("other", "ETH", "USD"));
+
+        assertNotEquals(bitstamp, other);
+        assertEquals(bitstamp, registry.resolve("bitstamp", "ETH-USD"));
+        assertEquals(other, registry.resolve("other", "ETH-USD"));
+        assertEquals(InstrumentRegistry.UNKNOWN, registry.resolve("missing", "ETH-USD"));
+    }
+
+    @Test
+    void resolve_shouldFindConsolidatedViewSharedByVenues() {
+        int bitstamp = registry.register(instrument("bitstamp", "ETH", "USD"));
+        int other = registry.register(instrument("other", "ETH", "USD"));
+
+        int consolidated = registry.resolve(Instrument.CONSOLIDATED, "eth-usd");
+        assertEquals(aggregatorService.consolidatedId(bitstamp), consolidated);
+        assertEquals(aggregatorService.consolidatedId(other), consolidated);
+        assertEquals(bitstamp, registry.resolve("BITSTAMP", "ETH-USD"));
+        assertEquals("ETH-USD", registry.symbol(consolidated));
+        assertArrayEquals(new int[]{consolidated}, registry.ids(Instrument.CONSOLIDATED));
+    }
+
+    @Test
+    void resolve_shouldRejectUnknownAndMalformedSymbols() {
+        registry.register(instrument("bitstamp", "BTC", "USD"));
+
+        assertEquals(InstrumentRegistry.UNKNOWN, registry.resolve("bitstamp", "BTC-EUR"));
+        assertEquals(InstrumentRegistry.UNKNOWN, registry.resolve("bitstamp", "BTCUSD"));
+        assertEquals(InstrumentRegistry.UNKNOWN, registry.resolve("bitstamp", "BT1-USD"));
+        assertEquals(InstrumentRegistry.UNKNOWN, registry.resolve("bitstamp", " "));
+    }
+
+    @Test
+    void register_shouldGrowBeyondInitialCapacity() {
+        for (char base = 'A'; base <= 'Z'; base++) {
+            for (char quote = 'A'; quote <= 'E'; quote++) {
+                registry.register(instrument("bitstamp", "" + base + base + base, "" + quote + quote + quote));
+            }
+        }
+
+        int id = registry.resolve("bitstamp", "zzz-eee");
+        assertNotEquals(InstrumentRegistry.UNKNOWN, id);
+        assertEquals("ZZZ", aggregatorService.instrument(id).getBase());
+    }
+
+    private static Instrument instrument(String exchange, String base, String quote) {
+        return Instrument.builder().exchange(exchange).base(base).quote(quote).scale(2).build();
+    }
+}
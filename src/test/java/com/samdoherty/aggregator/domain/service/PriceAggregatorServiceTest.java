@@ -2,10 +2,13 @@ package com.samdoherty.aggregator.domain.service;
 
 import com.samdoherty.aggregator.domain.model.Instrument;
 import com.samdoherty.aggregator.domain.model.Price;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -84,4 +87,107 @@ class PriceAggregatorServiceTest {
         Price price = service.getPrice(instrument);
         assertNull(price);
     }
-} 
\ No newline at end of file
+
+    @Test
+    void addPrice_byId_shouldScaleToInstrument() {
+        int id = service.register(instrument);
+        service.addPrice(id, 12210750L);
+        Price price = service.getPrice(instrument);
+        assertNotNull(price);
+        assertEquals(new BigDecimal("122107.50"), price.price());
+        assertNotNull(price.time());
+    }
+
+    @Test
+    void register_shouldReturnSameIdForEqualInstruments() {
+        int id = service.register(instrument);
+        assertEquals(id, service.register(Instrument.builder()
+                .exchange("bitstamp")
+                .base("BTC")
+                .quote("USD")
+                .build()));
+        assertNull(service.getPrice(id));
+    }
+
+    @Test
+    void addPrice_shouldKeepMedianAcrossVenues() {
+        int bitstamp = service.register(instrument);
+        int coinbase = service.register(venue("coinbase", 2));
+        int kraken = service.register(venue("kraken", 1));
+        int consolidated = service.consolidatedId(bitstamp);
+
+        assertEquals(consolidated, service.consolidatedId(coinbase));
+        assertEquals(Instrument.CONSOLIDATED, service.instrument(consolidated).getExchange());
+
+        service.addPrice(bitstamp, 10000L);
+        assertEquals(new BigDecimal("100.00"), service.getPrice(consolidated).price());
+
+        service.addPrice(coinbase, 10100L);
+        assertEquals(new BigDecimal("100.50"), service.getPrice(consolidated).price());
+
+        // Lower scale venue is rescaled to the group's scale
+        service.addPrice(kraken, 1020L);
+        assertEquals(new BigDecimal("101.00"), service.getPrice(consolidated).price());
+    }
+
+    @Test
+    void addPrice_shouldNotifyConsolidatedListeners() {
+        int bitstamp = service.register(instrument);
+        int consolidated = service.consolidatedId(bitstamp);
+        List<Integer> notified = new ArrayList<>();
+        service.addListener(notified::add);
+
+        service.addPrice(bitstamp, 10000L);
+
+        assertEquals(List.of(bitstamp, consolidated), notified);
+    }
+
+    @Test
+    void bindTo_shouldPublishPriceAgeForEveryInstrument() {
+        int bitstamp = service.register(instrument);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service.bindTo(registry);
+        // Registered after binding
+        service.register(venue("coinbase", 2));
+
+        assertTrue(Double.isNaN(registry.get("aggregator.price.age").tags("exchange", "bitstamp", "symbol", "BTC-USD").gauge().value()));
+
+        service.addPrice(bitstamp, 10000L);
+        service.getPrice(bitstamp);
+
+        assertTrue(registry.get("aggregator.price.age").tags("exchange", "bitstamp", "symbol", "BTC-USD").gauge().value() >= 0);
+        assertTrue(registry.get("aggregator.price.age").tags("exchange", Instrument.CONSOLIDATED).gauge().value() >= 0);
+        assertTrue(Double.isNaN(registry.get("aggregator.price.age").tags("exchange", "coinbase").gauge().value()));
+        assertEquals(2, registry.get("aggregator.price.updates").functionCounter().count());
+        assertEquals(1, registry.get("aggregator.lookup.latency").timer().count());
+    }
+
+    @Test
+    void restorePrice_shouldKeepOriginalTimeAndNotOverwrite() {
+        int id = service.register(instrument);
+
+        service.restorePrice(id, 1234, 2, 1_000_000_000L);
+        Price price = service.getPrice(id);
+        assertEquals(new BigDecimal("12.34"), price.price());
+        assertEquals(1, price.time().toEpochSecond());
+        // Consolidated view is rebuilt from the restored venue price
+        assertEquals(new BigDecimal("12.34"), service.getPrice(service.consolidatedId(id)).price());
+
+        service.restorePrice(id, 9999, 2, 2_000_000_000L);
+        assertEquals(new BigDecimal("12.34"), service.getPrice(id).price());
+    }
+
+    @Test
+    void register_shouldRejectConsolidatedExchange() {
+        assertThrows(IllegalArgumentException.class, () -> service.register(venue(Instrument.CONSOLIDATED, 2)));
+    }
+
+    private static Instrument venue(String exchange, int scale) {
+        return Instrument.builder()
+                .exchange(exchange)
+                .base("BTC")
+                .quote("USD")
+                .scale(scale)
+                .build();
+    }
+}
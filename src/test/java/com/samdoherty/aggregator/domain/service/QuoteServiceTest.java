@@ -0,0 +1,96 @@
+package com.samdoherty.aggregator.domain.service;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Quote;
+import com.samdoherty.aggregator.domain.store.OrderBook;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuoteServiceTest {
+
+    private PriceAggregatorService aggregatorService;
+    private QuoteService service;
+
+    @BeforeEach
+    void setUp() {
+        aggregatorService = new PriceAggregatorService();
+        service = new QuoteService(aggregatorService);
+    }
+
+    @Test
+    void getQuote_shouldBeNullWithoutABook() {
+        int id = aggregatorService.register(instrument("bitstamp", "ETH", "BTC", 8));
+        assertNull(service.getQuote(id));
+    }
+
+    @Test
+    void update_shouldGiveBidAskMidAndSpread() {
+        int id = aggregatorService.register(instrument("bitstamp", "BTC", "USD", 2));
+
+        service.update(id, 5000012L, 5000015L);
+
+        Quote quote = service.getQuote(id);
+        assertNotNull(quote);
+        assertEquals(new BigDecimal("50000.12"), quote.bid());
+        assertEquals(new BigDecimal("50000.15"), quote.ask());
+        // Exact, no rounding to the instrument's scale
+        assertEquals(new BigDecimal("50000.135"), quote.mid());
+        assertEquals(new BigDecimal("0.03"), quote.spread());
+        assertNotNull(quote.time());
+    }
+
+    @Test
+    void update_withAnEmptySide_shouldHaveNoMidOrSpread() {
+        int id = aggregatorService.register(instrument("bitstamp", "BTC", "USD", 2));
+
+        service.update(id, 5000012L, OrderBook.NONE);
+
+        Quote quote = service.getQuote(id);
+        assertNotNull(quote);
+        assertEquals(new BigDecimal("50000.12"), quote.bid());
+        assertNull(quote.ask());
+        assertNull(quote.mid());
+        assertNull(quote.spread());
+    }
+
+    @Test
+    void update_shouldKeepTheBestBidAndAskAcrossVenues() {
+        int bitstamp = aggregatorService.register(instrument("bitstamp", "BTC", "USD", 2));
+        int coinbase = aggregatorService.register(instrument("coinbase", "BTC", "USD", 3));
+        int consolidated = aggregatorService.consolidatedId(bitstamp);
+
+        service.update(bitstamp, 5000010L, 5000020L);
+        service.update(coinbase, 50000125L, 50000250L);
+
+        Quote quote = service.getQuote(consolidated);
+        assertNotNull(quote);
+        // Coinbase's higher bid rounded HALF_EVEN to the consolidated scale, Bitstamp's lower ask
+        assertEquals(new BigDecimal("50000.12"), quote.bid());
+        assertEquals(new BigDecimal("50000.20"), quote.ask());
+
+        // Bitstamp's ask lifted, coinbase's is now best
+        service.update(bitstamp, 5000010L, 5000030L);
+        assertEquals(new BigDecimal("50000.25"), service.getQuote(consolidated).ask());
+    }
+
+    @Test
+    void update_shouldCountTopOfBookChanges() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service.bindTo(registry);
+        int id = aggregatorService.register(instrument("bitstamp", "BTC", "USD", 2));
+
+        service.update(id, 1, 2);
+
+        // The venue and its consolidated instrument
+        assertEquals(2, registry.get("aggregator.quote.updates").functionCounter().count());
+    }
+
+    private static Instrument instrument(String exchange, String base, String quote, int scale) {
+        return Instrument.builder().exchange(exchange).base(base).quote(quote).scale(scale).build();
+    }
+}
@@ -0,0 +1,84 @@
+package com.samdoherty.aggregator.domain.store;
+
+import com.samdoherty.aggregator.domain.model.Candle;
+import com.samdoherty.aggregator.domain.model.CandleInterval;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandleStoreTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private CandleStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new CandleStore();
+    }
+
+    @Test
+    void record_shouldBuildOhlcvPerInterval() {
+        store.record(0, 10 * SECOND, 100, 1);
+        store.record(0, 20 * SECOND, 120, 2);
+        store.record(0, 30 * SECOND, 90, 3);
+        store.record(0, 40 * SECOND, 110, 4);
+        store.record(0, MINUTE + SECOND, 130, 5);
+
+        List<Candle> minutes = store.read(0, CandleInterval.ONE_MINUTE, 10, 0, 0);
+        assertEquals(2, minutes.size());
+        assertCandle(minutes.get(0), 100, 120, 90, 110, 10);
+        assertCandle(minutes.get(1), 130, 130, 130, 130, 5);
+        assertEquals(60, minutes.get(1).time().toEpochSecond());
+
+        assertEquals(5, store.read(0, CandleInterval.ONE_SECOND, 10, 0, 0).size());
+        assertEquals(1, store.read(0, CandleInterval.ONE_HOUR, 10, 0, 0).size());
+    }
+
+    @Test
+    void record_shouldFoldLateTradesIntoNewestCandle() {
+        store.record(0, MINUTE, 100, 1);
+        store.record(0, MINUTE - SECOND, 80, 1);
+
+        List<Candle> minutes = store.read(0, CandleInterval.ONE_MINUTE, 10, 0, 0);
+        assertEquals(1, minutes.size());
+        assertCandle(minutes.get(0), 100, 100, 80, 80, 2);
+    }
+
+    @Test
+    void read_shouldReturnNewestCandlesOldestFirstOnceWrapped() {
+        int capacity = CandleInterval.ONE_HOUR.getCapacity();
+        long hour = TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < capacity + 5; i++) {
+            store.record(0, i * hour, i, 1);
+        }
+
+        List<Candle> all = store.read(0, CandleInterval.ONE_HOUR, Integer.MAX_VALUE, 0, 0);
+        assertEquals(capacity, all.size());
+        assertEquals(BigDecimal.valueOf(5), all.get(0).open());
+
+        List<Candle> latest = store.read(0, CandleInterval.ONE_HOUR, 2, 0, 0);
+        assertEquals(BigDecimal.valueOf(capacity + 3), latest.get(0).open());
+        assertEquals(BigDecimal.valueOf(capacity + 4), latest.get(1).open());
+    }
+
+    @Test
+    void read_shouldBeEmptyForInstrumentsWithoutTrades() {
+        store.record(3, SECOND, 1, 1);
+        assertTrue(store.read(0, CandleInterval.ONE_MINUTE, 10, 0, 0).isEmpty());
+        assertTrue(store.read(9, CandleInterval.ONE_MINUTE, 10, 0, 0).isEmpty());
+    }
+
+    private static void assertCandle(Candle candle, long open, long high, long low, long close, long volume) {
+        assertEquals(BigDecimal.valueOf(open), candle.open());
+        assertEquals(BigDecimal.valueOf(high), candle.high());
+        assertEquals(BigDecimal.valueOf(low), candle.low());
+        assertEquals(BigDecimal.valueOf(close), candle.close());
+        assertEquals(BigDecimal.valueOf(volume), candle.volume());
+    }
+}
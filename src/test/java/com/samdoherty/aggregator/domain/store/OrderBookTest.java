@@ -0,0 +1,146 @@
+package com.samdoherty.aggregator.domain.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderBookTest {
+
+    private final OrderBook book = new OrderBook();
+
+    @Test
+    void emptyBook_shouldHaveNoBestPrices() {
+        assertEquals(OrderBook.NONE, book.bestBid());
+        assertEquals(OrderBook.NONE, book.bestAsk());
+        assertEquals(0, book.bidLevels());
+        assertEquals(0, book.askLevels());
+    }
+
+    @Test
+    void bid_shouldKeepHighestFirst() {
+        book.bid(100, 1);
+        book.bid(102, 2);
+        book.bid(101, 3);
+
+        assertEquals(102, book.bestBid());
+        assertEquals(3, book.bidLevels());
+        assertEquals(102, book.bidPrice(0));
+        assertEquals(2, book.bidAmount(0));
+        assertEquals(101, book.bidPrice(1));
+        assertEquals(100, book.bidPrice(2));
+    }
+
+    @Test
+    void ask_shouldKeepLowestFirst() {
+        book.ask(105, 1);
+        book.ask(103, 2);
+        book.ask(104, 3);
+
+        assertEquals(103, book.bestAsk());
+        assertEquals(103, book.askPrice(0));
+        assertEquals(104, book.askPrice(1));
+        assertEquals(105, book.askPrice(2));
+        assertEquals(1, book.askAmount(2));
+    }
+
+    @Test
+    void set_shouldReplaceTheAmountAtAnExistingPrice() {
+        book.bid(100, 1);
+        book.bid(100, 5);
+
+        assertEquals(1, book.bidLevels());
+        assertEquals(5, book.bidAmount(0));
+    }
+
+    @Test
+    void zeroAmount_shouldRemoveTheLevel() {
+        book.ask(103, 1);
+        book.ask(104, 1);
+        book.ask(105, 1);
+
+        book.ask(103, 0);
+        assertEquals(104, book.bestAsk());
+
+        book.ask(105, 0);
+        assertEquals(1, book.askLevels());
+
+        // Removing a price that is not in the book does nothing
+        book.ask(110, 0);
+        assertEquals(1, book.askLevels());
+        assertEquals(104, book.bestAsk());
+
+        book.ask(104, 0);
+        assertEquals(OrderBook.NONE, book.bestAsk());
+    }
+
+    @Test
+    void clear_shouldEmptyBothSides() {
+        book.bid(100, 1);
+        book.ask(101, 1);
+
+        book.clear();
+
+        assertEquals(OrderBook.NONE, book.bestBid());
+        assertEquals(OrderBook.NONE, book.bestAsk());
+        book.bid(99, 1);
+        assertEquals(99, book.bestBid());
+    }
+
+    @Test
+    void set_shouldGrowBeyondTheInitialDepth() {
+        for (int i = 0; i < 1000; i++) {
+            book.bid(10_000 - i, i + 1);
+        }
+
+        assertEquals(1000, book.bidLevels());
+        assertEquals(10_000, book.bestBid());
+        assertEquals(9_001, book.bidPrice(999));
+        assertEquals(1000, book.bidAmount(999));
+    }
+
+    @Test
+    void randomUpdates_shouldMatchASortedMap() {
+        Random random = new Random(42);
+        TreeMap<Long, Long> bids = new TreeMap<>();
+        TreeMap<Long, Long> asks = new TreeMap<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            long price = 1_000 + random.nextInt(400);
+            long amount = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(1_000);
+            if (random.nextBoolean()) {
+                book.bid(price, amount);
+                apply(bids, price, amount);
+            } else {
+                book.ask(price, amount);
+                apply(asks, price, amount);
+            }
+        }
+
+        assertEquals(bids.size(), book.bidLevels());
+        assertEquals(asks.size(), book.askLevels());
+
+        int level = 0;
+        for (var entry : bids.descendingMap().entrySet()) {
+            assertEquals(entry.getKey(), book.bidPrice(level));
+            assertEquals(entry.getValue(), book.bidAmount(level));
+            level++;
+        }
+        level = 0;
+        for (var entry : asks.entrySet()) {
+            assertEquals(entry.getKey(), book.askPrice(level));
+            assertEquals(entry.getValue(), book.askAmount(level));
+            level++;
+        }
+    }
+
+    private static void apply(TreeMap<Long, Long> side, long price, long amount) {
+        if (amount == 0) {
+            side.remove(price);
+        } else {
+            side.put(price, amount);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.samdoherty.aggregator.domain.store;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Price;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceStoreTest {
+    private PriceStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new PriceStore();
+    }
+
+    @Test
+    void register_shouldIssueDenseIdsAcrossPages() {
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(i, store.register(instrument("A" + i)));
+        }
+        assertEquals(3000, store.size());
+        assertEquals("A2999", store.instrument(2999).getBase());
+        assertEquals(-1, store.idOf(instrument("missing")));
+    }
+
+    @Test
+    void writeIfAbsent_shouldOnlyWriteOnce() {
+        int id = store.register(instrument("BTC"));
+        assertTrue(store.writeIfAbsent(id, 100, 2, 1));
+        assertFalse(store.writeIfAbsent(id, 200, 2, 2));
+        Price price = store.read(id);
+        assertNotNull(price);
+        assertEquals(100, price.price().unscaledValue().longValue());
+    }
+
+    @Test
+    void version_shouldChangeOnEveryWrite() {
+        int id = store.register(instrument("BTC"));
+        long before = store.version(id);
+        store.write(id, 1, 2, 1);
+        assertEquals(before + 2, store.version(id));
+    }
+
+    @Test
+    void writeMedian_shouldPreferFreshSources() {
+        int target = store.register(instrument("ALL"));
+        int a = store.register(instrument("A"));
+        int b = store.register(instrument("B"));
+        int c = store.register(instrument("C"));
+        int[] sources = {a, b, c};
+        long[] scratch = new long[sources.length * 2];
+
+        assertFalse(store.writeMedian(target, sources, 2, 0, scratch));
+        assertNull(store.read(target));
+
+        store.write(a, 100, 2, 10);
+        store.write(b, 300, 2, 20);
+        store.write(c, 5, 0, 30);
+        assertTrue(store.writeMedian(target, sources, 2, 0, scratch));
+        Price price = store.read(target);
+        assertNotNull(price);
+        assertEquals(300, price.price().unscaledValue().longValue());
+
+        // Only b and c are fresh
+        assertTrue(store.writeMedian(target, sources, 2, 15, scratch));
+        price = store.read(target);
+        assertNotNull(price);
+        assertEquals(400, price.price().unscaledValue().longValue());
+
+        // Nothing is fresh, so everything counts
+        assertTrue(store.writeMedian(target, sources, 2, 100, scratch));
+        assertEquals(300, store.read(target).price().unscaledValue().longValue());
+    }
+
+    @Test
+    void median_shouldRoundHalfEven() {
+        assertEquals(2, PriceStore.median(new long[]{1, 3}, 2));
+        assertEquals(2, PriceStore.median(new long[]{2, 3}, 2));
+        assertEquals(4, PriceStore.median(new long[]{4, 3}, 2));
+        assertEquals(-2, PriceStore.median(new long[]{-3, -2}, 2));
+        assertEquals(5, PriceStore.median(new long[]{9, 5, 1}, 3));
+    }
+
+    @Test
+    void rescale_shouldRoundHalfEven() {
+        assertEquals(12300, PriceStore.rescale(123, 0, 2));
+        assertEquals(12, PriceStore.rescale(125, 1, 0));
+        assertEquals(14, PriceStore.rescale(135, 1, 0));
+        assertEquals(13, PriceStore.rescale(1251, 2, 0));
+        assertEquals(-12, PriceStore.rescale(-125, 1, 0));
+    }
+
+    @Test
+    void rescale_shouldRejectAMantissaTooLargeForTheNewScale() {
+        long largest = Long.MAX_VALUE / 100;
+        assertEquals(largest * 100, PriceStore.rescale(largest, 2, 4));
+        assertEquals(-largest * 100, PriceStore.rescale(-largest, 2, 4));
+        assertThrows(ArithmeticException.class, () -> PriceStore.rescale(largest + 1, 2, 4));
+        assertThrows(ArithmeticException.class, () -> PriceStore.rescale(-largest - 1, 2, 4));
+    }
+
+    @Test
+    void writeMedian_shouldLeaveOutASourceTooLargeForTheMediansScale() {
+        int target = store.register(instrument("ALL"));
+        int a = store.register(instrument("A"));
+        int b = store.register(instrument("B"));
+        int[] sources = {a, b};
+        long[] scratch = new long[sources.length * 2];
+
+        store.write(a, 100, 2, 10);
+        store.write(b, Long.MAX_VALUE / 10, 0, 10);
+        assertTrue(store.writeMedian(target, sources, 2, 0, scratch));
+        assertEquals(100, store.read(target).price().unscaledValue().longValue());
+
+        // Nor is the target left locked
+        store.write(b, 2, 0, 20);
+        assertTrue(store.writeMedian(target, sources, 2, 0, scratch));
+        assertEquals(150, store.read(target).price().unscaledValue().longValue());
+    }
+
+    @Test
+    void read_shouldNeverSeeTornWrites() throws InterruptedException {
+        int id = store.register(instrument("BTC"));
+        store.write(id, 1, 0, 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        // Mantissa and time are always written as the same value, a torn read would see them differ
+        Thread writer = new Thread(() -> {
+            for (long i = 2; running.get(); i++) {
+                store.write(id, i, 0, i);
+            }
+        });
+        writer.start();
+
+        try {
+            for (int i = 0; i < 200_000; i++) {
+                Price price = store.read(id);
+                assertNotNull(price);
+                long time = price.time().toInstant().getNano() + price.time().toEpochSecond() * 1_000_000_000L;
+                assertEquals(price.price().longValueExact(), time);
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    void readInto_shouldCopyFixedPointPrice() {
+        int id = store.register(instrument("BTC"));
+        long[] into = new long[3];
+
+        assertFalse(store.read(id, into));
+
+        store.write(id, 12345, 2, 99);
+        assertTrue(store.read(id, into));
+        assertArrayEquals(new long[]{12345, 2, 99}, into);
+    }
+
+    private static Instrument instrument(String base) {
+        return Instrument.builder().exchange("test").base(base).quote("USD").scale(2).build();
+    }
+}
@@ -0,0 +1,142 @@
+package com.samdoherty.aggregator.domain.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TickHistoryTest {
+
+    @TempDir
+    private Path dir;
+
+    @Test
+    void at_shouldFindLastTickAtOrBefore() throws IOException {
+        try (TickHistory history = TickHistory.open(dir.resolve("BTC-USD.ticks"), 2)) {
+            // Several blocks, ticks every 10ns
+            for (int i = 0; i < 1000; i++) {
+                history.append(i, i * 10L, 1000 + i, i);
+            }
+            history.flush();
+
+            long[] into = new long[3];
+            assertFalse(history.at(-1, into));
+
+            assertTrue(history.at(0, into));
+            assertArrayEquals(new long[]{0, 1000, 0}, into);
+
+            assertTrue(history.at(2565, into));
+            assertArrayEquals(new long[]{2560, 1256, 256}, into);
+
+            assertTrue(history.at(2559, into));
+            assertArrayEquals(new long[]{2550, 1255, 255}, into);
+
+            assertTrue(history.at(Long.MAX_VALUE, into));
+            assertArrayEquals(new long[]{9990, 1999, 999}, into);
+        }
+    }
+
+    @Test
+    void range_shouldStreamTicksWithinRangeInOrder() throws IOException {
+        try (TickHistory history = TickHistory.open(dir.resolve("BTC-USD.ticks"), 2)) {
+            for (int i = 0; i < 1000; i++) {
+                history.append(i, i * 10L, i, i);
+            }
+            history.flush();
+
+            List<Long> times = new ArrayList<>();
+            history.range(2555, 5120, (epochNanos, price, amount) -> times.add(epochNanos));
+
+            assertEquals(2560L, times.getFirst());
+            assertEquals(5120L, times.getLast());
+            assertEquals(257, times.size());
+
+            times.clear();
+            history.range(10_000, 20_000, (epochNanos, price, amount) -> times.add(epochNanos));
+            assertTrue(times.isEmpty());
+        }
+    }
+
+    @Test
+    void append_shouldOnlyBeVisibleOnceFlushed() throws IOException {
+        try (TickHistory history = TickHistory.open(dir.resolve("BTC-USD.ticks"), 2)) {
+            history.append(0, 100, 1, 1);
+            assertEquals(0, history.count());
+            assertFalse(history.at(100, new long[3]));
+
+            history.flush();
+            assertEquals(1, history.count());
+            assertTrue(history.at(100, new long[3]));
+        }
+    }
+
+    @Test
+    void append_shouldSkipSequencesAlreadyHeldAndKeepTimesOrdered() throws IOException {
+        try (TickHistory history = TickHistory.open(dir.resolve("BTC-USD.ticks"), 2)) {
+            assertTrue(history.append(5, 200, 1, 1));
+            assertFalse(history.append(5, 300, 2, 1));
+            assertFalse(history.append(4, 300, 2, 1));
+            // Older than the last tick, held at the last tick's time
+            assertTrue(history.append(6, 100, 3, 1));
+            history.flush();
+
+            long[] into = new long[3];
+            assertTrue(history.at(200, into));
+            assertArrayEquals(new long[]{200, 3, 1}, into);
+            assertEquals(6, history.lastSequence());
+        }
+    }
+
+    @Test
+    void source_shouldOnlyCompareSequencesWithinOneJournal() throws IOException {
+        Path file = dir.resolve("BTC-USD.ticks");
+        try (TickHistory history = TickHistory.open(file, 2)) {
+            history.source(1);
+            assertTrue(history.append(100, 100, 1, 1));
+
+            // Same instrument now read from another journal, with its own sequences
+            history.source(2);
+            assertTrue(history.append(3, 200, 2, 1));
+            assertFalse(history.append(3, 300, 3, 1));
+        }
+
+        try (TickHistory history = TickHistory.open(file, 2)) {
+            assertEquals(2, history.source());
+            history.source(2);
+            assertFalse(history.append(3, 300, 3, 1));
+            assertTrue(history.append(4, 300, 3, 1));
+        }
+    }
+
+    @Test
+    void open_shouldReloadHistoryAndRebuildMissingIndex() throws IOException {
+        Path file = dir.resolve("BTC-USD.ticks");
+        try (TickHistory history = TickHistory.open(file, 2)) {
+            for (int i = 0; i < 600; i++) {
+                history.append(i, i * 10L, i, i);
+            }
+        }
+
+        try (TickHistory history = TickHistory.open(file, 8)) {
+            assertEquals(2, history.scale());
+            assertEquals(600, history.count());
+            assertEquals(599, history.lastSequence());
+            assertFalse(history.append(599, 6000, 0, 0));
+        }
+
+        Files.delete(dir.resolve("BTC-USD.ticks.idx"));
+
+        try (TickHistory history = TickHistory.open(file, 2)) {
+            long[] into = new long[3];
+            assertTrue(history.at(5125, into));
+            assertArrayEquals(new long[]{5120, 512, 512}, into);
+            assertEquals(3 * 8, Files.size(dir.resolve("BTC-USD.ticks.idx")));
+        }
+    }
+}
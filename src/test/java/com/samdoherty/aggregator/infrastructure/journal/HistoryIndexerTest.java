@@ -0,0 +1,152 @@
+package com.samdoherty.aggregator.infrastructure.journal;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Tick;
+import com.samdoherty.aggregator.domain.service.HistoryService;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryIndexerTest {
+
+    private static final Instrument BTC_USD = Instrument.builder().exchange("bitstamp").base("BTC").quote("USD").scale(2).build();
+
+    @TempDir
+    private Path dir;
+
+    private PriceAggregatorService aggregatorService;
+    private TickJournals journals;
+    private HistoryService historyService;
+    private int id;
+
+    @BeforeEach
+    void setUp() {
+        aggregatorService = new PriceAggregatorService();
+        id = aggregatorService.register(BTC_USD);
+        journals = new TickJournals(aggregatorService, true, dir.resolve("journal"), 16, 0);
+        historyService = new HistoryService(aggregatorService, dir.resolve("history"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        journals.close();
+        historyService.close();
+    }
+
+    @Test
+    void start_shouldIndexOnItsOwnThreadUntilStopped() throws Exception {
+        TickJournal journal = journals.open("Bitstamp");
+        HistoryIndexer indexer = new HistoryIndexer(journals, historyService);
+
+        journal.append(id, 2, 1_000_000, 1, 3012400, 125000000);
+        journal.commit();
+        indexer.start();
+        try {
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (historyService.checkpoint("bitstamp") == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            indexer.stop();
+        }
+
+        assertEquals(1, historyService.checkpoint("bitstamp"));
+
+        // No passes once stopped
+        journal.append(id, 2, 2_000_000, 2, 3012500, 125000000);
+        journal.commit();
+        Thread.sleep(300);
+        assertEquals(1, historyService.checkpoint("bitstamp"));
+    }
+
+    @Test
+    void index_shouldBuildHistoryFromJournal() throws IOException {
+        TickJournal journal = journals.open("Bitstamp");
+        HistoryIndexer indexer = new HistoryIndexer(journals, historyService);
+
+        journal.append(id, 2, 1_000_000, 1, 3012400, 125000000);
+        // No exchange time, stamped when received
+        journal.append(id, 2, 0, 2_500_000_000L, 3012500, 50000000);
+        journal.commit();
+        indexer.index();
+
+        Tick tick = historyService.at(id, 2_000_000_000L);
+        assertNotNull(tick);
+        assertEquals(new BigDecimal("30124.00"), tick.price());
+        assertEquals(new BigDecimal("1.25000000"), tick.amount());
+        assertEquals("1970-01-01T00:00:01Z", tick.time().toString());
+
+        List<Tick> ticks = new ArrayList<>();
+        historyService.ticks(id, 0, Long.MAX_VALUE, ticks::add);
+        assertEquals(2, ticks.size());
+        assertEquals(new BigDecimal("30125.00"), ticks.get(1).price());
+        assertEquals(2, historyService.checkpoint("bitstamp"));
+    }
+
+    @Test
+    void index_shouldCarryOnFromCheckpointAfterRestart() throws IOException {
+        TickJournal journal = journals.open("Bitstamp");
+        new HistoryIndexer(journals, historyService).index();
+        journal.append(id, 2, 1_000_000, 1, 100, 1);
+        journal.commit();
+        new HistoryIndexer(journals, historyService).index();
+
+        // Restart, a new indexer re-reading the same journal must not duplicate ticks
+        journals.close();
+        historyService.close();
+        journals = new TickJournals(aggregatorService, true, dir.resolve("journal"), 16, 0);
+        historyService = new HistoryService(aggregatorService, dir.resolve("history"));
+
+        journal = journals.open("Bitstamp");
+        journal.append(id, 2, 2_000_000, 2, 200, 1);
+        journal.commit();
+        new HistoryIndexer(journals, historyService).index();
+
+        List<Tick> ticks = new ArrayList<>();
+        historyService.ticks(id, 0, Long.MAX_VALUE, ticks::add);
+        assertEquals(List.of(new BigDecimal("1.00"), new BigDecimal("2.00")), ticks.stream().map(Tick::price).toList());
+    }
+
+    @Test
+    void index_shouldKeepTicksOfAnInstrumentThatMovedJournal() throws IOException {
+        // e.g. the exchange was re-sharded and the pair now trades through another connection's journal
+        TickJournal before = journals.open("Bitstamp-1");
+        for (int i = 1; i <= 5; i++) {
+            before.append(id, 2, i * 1_000_000L, i, i * 100, 1);
+        }
+        before.commit();
+        HistoryIndexer indexer = new HistoryIndexer(journals, historyService);
+        indexer.index();
+
+        TickJournal after = journals.open("Bitstamp-2");
+        after.append(id, 2, 6_000_000, 6, 600, 1);
+        after.commit();
+        indexer.index();
+
+        List<Tick> ticks = new ArrayList<>();
+        historyService.ticks(id, 0, Long.MAX_VALUE, ticks::add);
+        assertEquals(6, ticks.size());
+        assertEquals(new BigDecimal("6.00"), ticks.get(5).price());
+        assertEquals(5, historyService.checkpoint("bitstamp-1"));
+        assertEquals(1, historyService.checkpoint("bitstamp-2"));
+    }
+
+    @Test
+    void at_shouldBeNullWithoutHistory() throws IOException {
+        assertNull(historyService.at(id, Long.MAX_VALUE));
+
+        List<Tick> ticks = new ArrayList<>();
+        historyService.ticks(id, 0, Long.MAX_VALUE, ticks::add);
+        assertTrue(ticks.isEmpty());
+    }
+}
@@ -0,0 +1,150 @@
+package com.samdoherty.aggregator.infrastructure.journal;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TickJournalTest {
+
+    private static final IntFunction<Instrument> INSTRUMENTS = id -> Instrument.builder()
+            .exchange("bitstamp").base(id == 0 ? "BTC" : "ETH").quote("USD").scale(2).build();
+
+    @TempDir
+    private Path dir;
+
+    @Test
+    void reader_shouldSeeOnlyCommittedRecords() throws IOException {
+        TickJournal journal = new TickJournal(dir, 16, 0, INSTRUMENTS);
+        TickJournalReader reader = journal.reader(0);
+
+        journal.append(1, 2, 1752485434749389L, 1752485434800000000L, 301240L, 1250000L);
+        assertFalse(reader.next());
+
+        journal.commit();
+        assertTrue(reader.next());
+        assertEquals(1, reader.instrumentId());
+        assertEquals(2, reader.priceScale());
+        assertEquals(1752485434749389L, reader.exchangeMicros());
+        assertEquals(1752485434800000000L, reader.receivedNanos());
+        assertEquals(301240L, reader.price());
+        assertEquals(1250000L, reader.amount());
+        assertEquals("bitstamp/ETH/USD", reader.instrument(1));
+        assertNull(reader.instrument(0));
+        assertEquals(1, reader.sequence());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void reader_shouldFollowSegmentRolls() throws IOException {
+        TickJournal journal = new TickJournal(dir, 4, 0, INSTRUMENTS);
+        TickJournalReader reader = journal.reader(0);
+
+        for (int i = 0; i < 10; i++) {
+            journal.append(i & 1, 2, i, i, i, i);
+        }
+        journal.commit();
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(reader.next(), "record " + i);
+            assertEquals(i, reader.price());
+            // Every segment lists its own instruments
+            assertEquals(i % 2 == 0 ? "bitstamp/BTC/USD" : "bitstamp/ETH/USD", reader.instrument(reader.instrumentId()));
+        }
+        assertFalse(reader.next());
+        assertEquals(3, TickJournal.segments(dir).size());
+    }
+
+    @Test
+    void restart_shouldContinueSequenceInNewSegment() throws IOException {
+        TickJournal first = new TickJournal(dir, 16, 0, INSTRUMENTS);
+        first.append(0, 2, 1, 1, 100, 1);
+        first.append(0, 2, 2, 2, 101, 1);
+        first.commit();
+        // Never committed, lost with the crash
+        first.append(0, 2, 3, 3, 102, 1);
+        first.close();
+
+        TickJournal second = new TickJournal(dir, 16, 0, INSTRUMENTS);
+        assertEquals(2, second.nextSequence());
+        second.append(1, 2, 4, 4, 200, 1);
+        second.commit();
+
+        TickJournalReader reader = second.reader(0);
+        assertTrue(reader.next());
+        assertEquals(100, reader.price());
+        assertTrue(reader.next());
+        assertEquals(101, reader.price());
+        assertTrue(reader.next());
+        assertEquals(200, reader.price());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void restart_shouldReplaceEmptySegment() throws IOException {
+        new TickJournal(dir, 16, 0, INSTRUMENTS).close();
+        new TickJournal(dir, 16, 0, INSTRUMENTS).close();
+
+        assertEquals(1, TickJournal.segments(dir).size());
+    }
+
+    @Test
+    void roll_shouldDeleteSegmentsBeyondRetention() throws IOException {
+        TickJournal journal = new TickJournal(dir, 2, 2, INSTRUMENTS);
+        for (int i = 0; i < 9; i++) {
+            journal.append(0, 2, i, i, i, i);
+        }
+        journal.commit();
+
+        assertEquals(2, TickJournal.segments(dir).size());
+
+        // Readers start from the oldest record still on disk
+        TickJournalReader reader = journal.reader(0);
+        assertTrue(reader.next());
+        assertEquals(6, reader.price());
+    }
+
+    @Test
+    void reader_shouldTailConcurrentWriter() throws Exception {
+        int records = 100_000;
+        TickJournal journal = new TickJournal(dir, 4096, 0, INSTRUMENTS);
+        TickJournalReader reader = journal.reader(0);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < records; i++) {
+                    // Price and amount always match, a torn record would show them differ
+                    journal.append(0, 2, i, i, i, i);
+                    if ((i & 63) == 63) {
+                        journal.commit();
+                    }
+                }
+                journal.commit();
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+
+        long expected = 0;
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (expected < records && System.nanoTime() < deadline) {
+            while (reader.next()) {
+                assertEquals(expected, reader.price());
+                assertEquals(expected, reader.amount());
+                expected++;
+            }
+        }
+        writer.join();
+
+        assertNull(failure.get());
+        assertEquals(records, expected);
+    }
+}
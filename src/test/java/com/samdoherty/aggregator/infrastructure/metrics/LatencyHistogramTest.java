@@ -0,0 +1,93 @@
+package com.samdoherty.aggregator.infrastructure.metrics;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    /**
+     * 2^10 to 2^35 nanos
+     */
+    private static final int MAX_BUCKETS = 26;
+
+    private LatencyHistogram histogram;
+
+    @BeforeEach
+    void setUp() {
+        histogram = new LatencyHistogram();
+    }
+
+    @Test
+    void record_shouldCountIntoPowerOfTwoBuckets() {
+        histogram.record(-5);
+        histogram.record(500);
+        histogram.record(1_500);
+        histogram.record(3_000);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(5, histogram.count());
+        // Anything under 2^10 nanos shares the lowest bucket
+        assertEquals(2, histogram.countBelow(10));
+        assertEquals(3, histogram.countBelow(11));
+        assertEquals(4, histogram.countBelow(12));
+        assertEquals(4, histogram.countBelow(35));
+        assertEquals(Long.MAX_VALUE, histogram.maxNanos());
+    }
+
+    @Test
+    void quantileNanos_shouldBeBucketUpperBound() {
+        assertEquals(0, histogram.quantileNanos(0.5));
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1_500);
+        }
+        histogram.record(3_000);
+        histogram.record(100_000);
+
+        assertEquals(2_048, histogram.quantileNanos(0.5));
+        assertEquals(4_096, histogram.quantileNanos(0.99));
+        // Top bucket reports the max rather than its bound
+        assertEquals(100_000, histogram.quantileNanos(1.0));
+    }
+
+    @Test
+    void bindTo_shouldPublishATimerWithPowerOfTwoBuckets() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        histogram.bindTo(registry, "test.latency", "Test", Tags.of("exchange", "test"));
+
+        histogram.record(1_500);
+        histogram.record(2_000_000_000L);
+
+        Timer timer = registry.get("test.latency").tag("exchange", "test").timer();
+        assertEquals(2, timer.count());
+        assertEquals(2.0000015, timer.totalTime(TimeUnit.SECONDS), 1e-9);
+        assertEquals(2.0, timer.max(TimeUnit.SECONDS), 1e-9);
+
+        CountAtBucket[] buckets = timer.takeSnapshot().histogramCounts();
+        assertEquals(MAX_BUCKETS, buckets.length);
+        assertEquals(2_048, buckets[1].bucket(TimeUnit.NANOSECONDS), 1e-9);
+        assertEquals(1, buckets[1].count());
+        assertEquals(2, buckets[buckets.length - 1].count());
+    }
+
+    @Test
+    void bindTo_shouldRecordIntoEveryRegistry() {
+        SimpleMeterRegistry first = new SimpleMeterRegistry();
+        SimpleMeterRegistry second = new SimpleMeterRegistry();
+        histogram.bindTo(first, "test.latency", "Test", Tags.empty());
+        histogram.bindTo(second, "test.latency", "Test", Tags.empty());
+
+        histogram.record(1_500);
+
+        assertEquals(1, first.get("test.latency").timer().count());
+        assertEquals(1, second.get("test.latency").timer().count());
+    }
+}
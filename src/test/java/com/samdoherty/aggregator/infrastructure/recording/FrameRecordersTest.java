@@ -0,0 +1,31 @@
+package com.samdoherty.aggregator.infrastructure.recording;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameRecordersTest {
+
+    @TempDir
+    private Path dir;
+
+    @Test
+    void open_shouldBeNullWhenDisabled() {
+        assertNull(new FrameRecorders(false, dir).open("Bitstamp"));
+    }
+
+    @Test
+    void open_shouldStartRecordingFileWhenEnabled() {
+        FrameRecorders recorders = new FrameRecorders(true, dir.resolve("frames"));
+
+        FrameRecorder recorder = recorders.open("Bitstamp");
+        assertNotNull(recorder);
+        assertTrue(Files.exists(recorder.file()));
+        assertTrue(recorder.file().getFileName().toString().matches("bitstamp-\\d{8}-\\d{6}\\.frames"));
+        recorders.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.samdoherty.aggregator.infrastructure.recording;
+
+import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import com.samdoherty.aggregator.infrastructure.websocket.AbstractExchangeWebsocket;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameReplayerTest {
+
+    @TempDir
+    private Path dir;
+
+    static class RecordingWebsocket extends AbstractExchangeWebsocket {
+        final List<String> read = new CopyOnWriteArrayList<>();
+
+        RecordingWebsocket(FrameRecorder recorder) {
+            super("ws://localhost");
+            recordFrames(recorder);
+        }
+
+        @Override
+        public void subscribe() {
+        }
+
+        @Override
+        public void readMessage(@NotNull String message) {
+            read.add(message);
+        }
+
+        @Override
+        public @NotNull String getName() {
+            return "Test";
+        }
+
+        @Override
+        public @NotNull List<Pair> getPairs() {
+            return List.of();
+        }
+
+        @Override
+        public void healthCheck() {
+        }
+    }
+
+    @Test
+    void replay_shouldFeedRecordedFramesInOrder() throws IOException {
+        Path file = record(List.of("{\"event\":\"trade\"}", "{\"event\":\"bts:heartbeat\"}", "£ not ascii"), 0);
+
+        RecordingWebsocket target = new RecordingWebsocket(null);
+        FrameReplayer.Report report = new FrameReplayer(file).replay(target, FrameReplayer.FLAT_OUT);
+
+        assertEquals(List.of("{\"event\":\"trade\"}", "{\"event\":\"bts:heartbeat\"}", "£ not ascii"), target.read);
+        assertEquals(3, report.frames());
+        assertEquals(0, report.dropped());
+        assertTrue(report.framesPerSecond() > 0);
+        assertTrue(report.p50Nanos() > 0);
+        assertTrue(report.maxNanos() >= report.p99Nanos());
+    }
+
+    @Test
+    void replay_shouldKeepRecordedSpacingDividedBySpeed() throws IOException {
+        // Frames 50ms apart
+        Path file = record(List.of("a", "b", "c"), TimeUnit.MILLISECONDS.toNanos(50));
+
+        long start = System.nanoTime();
+        new FrameReplayer(file).replay(new RecordingWebsocket(null), 1);
+        long realTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        new FrameReplayer(file).replay(new RecordingWebsocket(null), 10);
+        long tenTimes = System.nanoTime() - start;
+
+        assertTrue(realTime >= TimeUnit.MILLISECONDS.toNanos(100), "took " + realTime);
+        assertTrue(tenTimes < realTime, "took " + tenTimes);
+    }
+
+    @Test
+    void replay_shouldStopAtFrameCutShort() throws IOException {
+        Path file = record(List.of("first", "second"), 0);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+
+        RecordingWebsocket target = new RecordingWebsocket(null);
+        assertEquals(1, new FrameReplayer(file).replay(target, FrameReplayer.FLAT_OUT).frames());
+        assertEquals(List.of("first"), target.read);
+    }
+
+    @Test
+    void replay_shouldRejectOtherFiles() throws IOException {
+        Path file = Files.writeString(dir.resolve("other.frames"), "not a recording");
+
+        assertThrows(IOException.class, () -> new FrameReplayer(file).replay(new RecordingWebsocket(null), 1));
+    }
+
+    /**
+     * Record frames through a websocket's ingest path, as received
+     */
+    private Path record(List<String> frames, long spacingNanos) throws IOException {
+        Path file = dir.resolve("recording-" + System.nanoTime() + ".frames");
+        FrameRecorder recorder = new FrameRecorder(file);
+        RecordingWebsocket websocket = new RecordingWebsocket(recorder);
+
+        for (String frame : frames) {
+            long due = System.nanoTime() + spacingNanos;
+            while (System.nanoTime() < due) {
+                Thread.onSpinWait();
+            }
+            websocket.onMessage(frame);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (websocket.read.size() < frames.size() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        // Flushed at the end of each batch, closing only once the worker is done with it
+        while (websocket.ingestLatency().count() < frames.size() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        recorder.close();
+        return file;
+    }
+}
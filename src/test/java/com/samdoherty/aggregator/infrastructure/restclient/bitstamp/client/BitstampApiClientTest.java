@@ -63,7 +63,7 @@ class BitstampApiClientTest {
         RequestHeadersUriSpec uriSpec = mock(RequestHeadersUriSpec.class);
         RequestHeadersSpec headersSpec = mock(RequestHeadersSpec.class);
         ResponseSpec responseSpec = mock(ResponseSpec.class);
-        Ticker mockTicker = new Ticker(BigDecimal.TEN);
+        Ticker mockTicker = new Ticker(BigDecimal.TEN, 1752485434L, null);
 
         when(restClient.get()).thenReturn(uriSpec);
         when(uriSpec.uri("/api/v2/ticker/" + symbol)).thenReturn(headersSpec);
@@ -73,4 +73,36 @@ class BitstampApiClientTest {
         Ticker result = apiClient.getLatestPrice(symbol);
         assertNotNull(result);
     }
-} 
\ No newline at end of file
+
+    @Test
+    void testGetLatestPrices() {
+        RequestHeadersUriSpec uriSpec = mock(RequestHeadersUriSpec.class);
+        RequestHeadersSpec headersSpec = mock(RequestHeadersSpec.class);
+        ResponseSpec responseSpec = mock(ResponseSpec.class);
+        List<Ticker> mockTickers = List.of(new Ticker(BigDecimal.TEN, 1752485434L, "BTC/USD"));
+
+        when(restClient.get()).thenReturn(uriSpec);
+        when(uriSpec.uri("/api/v2/ticker/")).thenReturn(headersSpec);
+        when(headersSpec.retrieve()).thenReturn(responseSpec);
+        when(responseSpec.body(any(ParameterizedTypeReference.class))).thenReturn(mockTickers);
+
+        List<Ticker> result = apiClient.getLatestPrices();
+        assertEquals(1, result.size());
+        assertEquals("btcusd", result.getFirst().marketSymbol());
+    }
+
+    @Test
+    void testGetOrderBook() {
+        RequestHeadersUriSpec uriSpec = mock(RequestHeadersUriSpec.class);
+        RequestHeadersSpec headersSpec = mock(RequestHeadersSpec.class);
+        ResponseSpec responseSpec = mock(ResponseSpec.class);
+        String body = "{\"microtimestamp\": \"1752485434749389\", \"bids\": [], \"asks\": []}";
+
+        when(restClient.get()).thenReturn(uriSpec);
+        when(uriSpec.uri("/api/v2/order_book/btcusd/")).thenReturn(headersSpec);
+        when(headersSpec.retrieve()).thenReturn(responseSpec);
+        when(responseSpec.body(String.class)).thenReturn(body);
+
+        assertEquals(body, apiClient.getOrderBook("btcusd"));
+    }
+}
@@ -0,0 +1,124 @@
+package com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client;
+
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Market;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BitstampMarketCacheTest {
+
+    private static final Market BTC_USD = new Market("btcusd", "BTC", "USD", 2);
+    private static final Market ETH_USD = new Market("ethusd", "ETH", "USD", 2);
+
+    @TempDir
+    private Path dir;
+
+    private final BitstampApiClient apiClient = mock(BitstampApiClient.class);
+
+    @Test
+    void getMarkets_shouldDownloadIndexAndWriteWhenNoLocalCopy() {
+        when(apiClient.getMarkets()).thenReturn(List.of(BTC_USD, ETH_USD));
+        BitstampMarketCache cache = cache(Duration.ofHours(1));
+
+        Map<String, Market> markets = cache.getMarkets();
+
+        assertEquals(BTC_USD, markets.get("btcusd"));
+        assertEquals(ETH_USD, markets.get("ethusd"));
+        assertTrue(Files.exists(file()));
+
+        // Reconnects reuse what is in memory
+        cache.getMarkets();
+        verify(apiClient, times(1)).getMarkets();
+    }
+
+    @Test
+    void getMarkets_shouldStartFromFreshLocalCopyWithoutDownloading() {
+        when(apiClient.getMarkets()).thenReturn(List.of(BTC_USD));
+        cache(Duration.ofHours(1)).getMarkets();
+
+        // A restart
+        Map<String, Market> markets = cache(Duration.ofHours(1)).getMarkets();
+
+        assertEquals(BTC_USD, markets.get("btcusd"));
+        verify(apiClient, times(1)).getMarkets();
+    }
+
+    @Test
+    void getMarkets_shouldRevalidateStaleLocalCopy() {
+        when(apiClient.getMarkets()).thenReturn(List.of(BTC_USD)).thenReturn(List.of(BTC_USD, ETH_USD));
+        cache(Duration.ofHours(1)).getMarkets();
+
+        Map<String, Market> markets = cache(Duration.ZERO).getMarkets();
+
+        assertEquals(ETH_USD, markets.get("ethusd"));
+        // And the revalidated copy was written back
+        assertEquals(ETH_USD, cache(Duration.ofHours(1)).getMarkets().get("ethusd"));
+        verify(apiClient, times(2)).getMarkets();
+    }
+
+    @Test
+    void getMarkets_shouldFallBackToStaleCopyWhenApiFails() {
+        when(apiClient.getMarkets()).thenReturn(List.of(BTC_USD)).thenThrow(new IllegalStateException("Unavailable"));
+        cache(Duration.ofHours(1)).getMarkets();
+
+        Map<String, Market> markets = cache(Duration.ZERO).getMarkets();
+
+        assertEquals(BTC_USD, markets.get("btcusd"));
+    }
+
+    @Test
+    void getMarkets_shouldNotWaitOnSlowApiWhenStaleCopyExists() throws InterruptedException {
+        CountDownLatch slow = new CountDownLatch(1);
+        when(apiClient.getMarkets()).thenReturn(List.of(BTC_USD)).thenAnswer(invocation -> {
+            slow.await();
+            return List.of(BTC_USD, ETH_USD);
+        });
+        cache(Duration.ofHours(1)).getMarkets();
+        BitstampMarketCache cache = new BitstampMarketCache(apiClient, file(), Duration.ofMillis(1), Duration.ofMillis(50));
+        Thread.sleep(5);
+
+        // Starts from the stale copy rather than waiting
+        assertNull(cache.getMarkets().get("ethusd"));
+
+        // The download finishes in the background and is picked up
+        slow.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getMarkets().get("ethusd") == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(ETH_USD, cache.getMarkets().get("ethusd"));
+    }
+
+    @Test
+    void getMarkets_shouldIgnoreUnreadableLocalCopy() throws Exception {
+        Files.writeString(file(), "{not json");
+        when(apiClient.getMarkets()).thenReturn(List.of(BTC_USD));
+
+        assertEquals(BTC_USD, cache(Duration.ofHours(1)).getMarkets().get("btcusd"));
+    }
+
+    @Test
+    void getMarkets_shouldThrowWithNoLocalCopyAndNoApi() {
+        when(apiClient.getMarkets()).thenThrow(new IllegalStateException("Unavailable"));
+
+        assertThrows(IllegalStateException.class, () -> cache(Duration.ofHours(1)).getMarkets());
+    }
+
+    private BitstampMarketCache cache(Duration ttl) {
+        return new BitstampMarketCache(apiClient, file(), ttl, Duration.ofSeconds(2));
+    }
+
+    private Path file() {
+        return dir.resolve("markets.json");
+    }
+}
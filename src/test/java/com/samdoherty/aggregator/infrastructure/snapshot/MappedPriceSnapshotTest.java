@@ -0,0 +1,189 @@
+package com.samdoherty.aggregator.infrastructure.snapshot;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.model.Price;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedPriceSnapshotTest {
+
+    private static final Instrument BTC_USD = instrument("bitstamp", "BTC");
+    private static final Instrument ETH_USD = instrument("bitstamp", "ETH");
+
+    @TempDir
+    private Path dir;
+
+    private PriceAggregatorService aggregatorService;
+    private InstrumentRegistry instrumentRegistry;
+
+    @BeforeEach
+    void setUp() {
+        restart(BTC_USD, ETH_USD);
+    }
+
+    @Test
+    void restore_shouldServeLastPricesWithTheirOriginalTime() throws IOException {
+        MappedPriceSnapshot snapshot = snapshot(16);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("122107.12"));
+        aggregatorService.addPrice(ETH_USD, new BigDecimal("3012.40"));
+        Price btc = aggregatorService.getPrice(BTC_USD);
+        snapshot.close();
+
+        restart(BTC_USD, ETH_USD);
+        snapshot(16);
+
+        int id = instrumentRegistry.resolve("bitstamp", "btc-usd");
+        assertEquals(btc, aggregatorService.getPrice(id));
+        assertEquals(new BigDecimal("3012.40"), aggregatorService.getPrice(ETH_USD).price());
+        // Consolidated view is rebuilt rather than persisted
+        assertEquals(btc.price(), aggregatorService.getPrice(instrumentRegistry.resolve(Instrument.CONSOLIDATED, "BTC-USD")).price());
+    }
+
+    @Test
+    void restore_shouldDropPricesOfInstrumentsNoLongerConfigured() throws IOException {
+        MappedPriceSnapshot snapshot = snapshot(16);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("1.00"));
+        aggregatorService.addPrice(ETH_USD, new BigDecimal("2.00"));
+        snapshot.close();
+
+        restart(BTC_USD);
+        snapshot = snapshot(16);
+        snapshot.ready();
+
+        assertEquals(new BigDecimal("1.00"), aggregatorService.getPrice(BTC_USD).price());
+        assertEquals(InstrumentRegistry.UNKNOWN, instrumentRegistry.resolve("bitstamp", "ETH-USD"));
+        assertEquals(InstrumentRegistry.UNKNOWN, instrumentRegistry.resolve(Instrument.CONSOLIDATED, "ETH-USD"));
+        assertEquals(1, snapshot.dropped());
+    }
+
+    @Test
+    void flush_shouldRestoreInstrumentsRegisteredAfterStartup() throws IOException {
+        MappedPriceSnapshot snapshot = snapshot(16);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("1.00"));
+        snapshot.close();
+
+        restart();
+        snapshot = snapshot(16);
+        assertEquals(1, snapshot.dropped());
+
+        int id = instrumentRegistry.register(BTC_USD);
+        snapshot.flush();
+
+        assertEquals(new BigDecimal("1.00"), aggregatorService.getPrice(id).price());
+        assertEquals(0, snapshot.dropped());
+    }
+
+    @Test
+    void flush_shouldCopyOnlyLatestPrice() throws IOException {
+        MappedPriceSnapshot snapshot = snapshot(16);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("1.00"));
+        snapshot.flush();
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("2.00"));
+        snapshot.flush();
+        // Without a final close, as after a crash
+        snapshot.flush();
+
+        restart(BTC_USD, ETH_USD);
+        snapshot(16);
+
+        assertEquals(new BigDecimal("2.00"), aggregatorService.getPrice(BTC_USD).price());
+    }
+
+    @Test
+    void restore_shouldNotOverwriteNewerPrice() throws IOException {
+        MappedPriceSnapshot snapshot = snapshot(16);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("1.00"));
+        snapshot.close();
+
+        restart(BTC_USD, ETH_USD);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("2.00"));
+        snapshot(16);
+
+        assertEquals(new BigDecimal("2.00"), aggregatorService.getPrice(BTC_USD).price());
+    }
+
+    @Test
+    void flush_shouldSkipInstrumentsOnceFull() throws IOException {
+        MappedPriceSnapshot snapshot = snapshot(1);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("1.00"));
+        aggregatorService.addPrice(ETH_USD, new BigDecimal("2.00"));
+        snapshot.close();
+
+        restart(BTC_USD, ETH_USD);
+        snapshot(1);
+
+        assertNotNull(aggregatorService.getPrice(BTC_USD));
+        assertNull(aggregatorService.getPrice(ETH_USD));
+    }
+
+    @Test
+    void restore_shouldSkipTornRecord() throws IOException {
+        MappedPriceSnapshot snapshot = snapshot(16);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("1.00"));
+        aggregatorService.addPrice(ETH_USD, new BigDecimal("2.00"));
+        snapshot.close();
+
+        // Crashed part way through rewriting the first record, leaving its sequence odd
+        try (RandomAccessFile file = new RandomAccessFile(file().toFile(), "rw")) {
+            long at = MappedPriceSnapshot.HEADER_BYTES + MappedPriceSnapshot.SEQUENCE;
+            file.seek(at);
+            long sequence = file.readLong();
+            file.seek(at);
+            file.writeLong(sequence + 1);
+        }
+
+        restart(BTC_USD, ETH_USD);
+        snapshot(16);
+
+        assertNull(aggregatorService.getPrice(BTC_USD));
+        assertEquals(new BigDecimal("2.00"), aggregatorService.getPrice(ETH_USD).price());
+    }
+
+    @Test
+    void map_shouldStartAfreshOnDifferentLayout() throws IOException {
+        Files.write(file(), new byte[MappedPriceSnapshot.HEADER_BYTES + 16 * MappedPriceSnapshot.RECORD_BYTES]);
+
+        MappedPriceSnapshot snapshot = snapshot(16);
+        aggregatorService.addPrice(BTC_USD, new BigDecimal("1.00"));
+        snapshot.close();
+
+        restart(BTC_USD, ETH_USD);
+        snapshot(16);
+
+        assertEquals(new BigDecimal("1.00"), aggregatorService.getPrice(BTC_USD).price());
+    }
+
+    /**
+     * @param configured instruments registered on startup, as exchanges do for their configured pairs
+     */
+    private void restart(Instrument... configured) {
+        aggregatorService = new PriceAggregatorService();
+        instrumentRegistry = new InstrumentRegistry(aggregatorService);
+        for (Instrument instrument : configured) {
+            instrumentRegistry.register(instrument);
+        }
+    }
+
+    private MappedPriceSnapshot snapshot(int capacity) throws IOException {
+        return new MappedPriceSnapshot(aggregatorService, file(), capacity);
+    }
+
+    private Path file() {
+        return dir.resolve("prices.snapshot");
+    }
+
+    private static Instrument instrument(String exchange, String base) {
+        return Instrument.builder().exchange(exchange).base(base).quote("USD").scale(2).build();
+    }
+}
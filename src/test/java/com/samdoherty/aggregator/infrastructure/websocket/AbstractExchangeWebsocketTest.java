@@ -1,6 +1,7 @@
 package com.samdoherty.aggregator.infrastructure.websocket;
 
 import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.websocket.CloseReason;
 import jakarta.websocket.RemoteEndpoint;
 import jakarta.websocket.SendHandler;
@@ -9,7 +10,6 @@ import jakarta.websocket.Session;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.Mockito;
 
 import java.io.IOException;
 import java.util.List;
@@ -22,13 +22,17 @@ class AbstractExchangeWebsocketTest {
     static class TestWebsocket extends AbstractExchangeWebsocket {
         boolean healthChecked = false;
         boolean subscribed = false;
-        boolean messageRead = false;
+        volatile boolean messageRead = false;
         int reconnectCalled = 0;
 
         public TestWebsocket(String uri) {
             super(uri);
         }
 
+        public TestWebsocket(String uri, int connections) {
+            super(uri, connections);
+        }
+
         @Override
         public void subscribe() {
             subscribed = true;
@@ -55,7 +59,12 @@ class AbstractExchangeWebsocketTest {
         }
 
         @Override
-        protected void reconnectToServer(int attempt) {
+        protected long tradeKey(@NotNull String frame) {
+            return frame.startsWith("trade ") ? Long.parseLong(frame.substring(6)) : RecentIds.NONE;
+        }
+
+        @Override
+        protected void reconnectToServer(@NotNull Connection connection) {
             reconnectCalled++;
         }
     }
@@ -82,15 +91,21 @@ class AbstractExchangeWebsocketTest {
         Session session = mock(Session.class);
         RemoteEndpoint.Async async = mock(RemoteEndpoint.Async.class);
         when(session.getAsyncRemote()).thenReturn(async);
-        websocket.onOpen(session);
+        websocket.getConnections().getFirst().onOpen(session);
         verify(session).getAsyncRemote();
         verify(async).setSendTimeout(2000L);
     }
 
     @Test
-    void testOnMessageDelegatesToReadMessage() {
+    void testOnMessageDelegatesToReadMessage() throws InterruptedException {
         websocket.messageRead = false;
         websocket.onMessage("test");
+
+        // Read on the ingest worker rather than the calling thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!websocket.messageRead && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
         assertTrue(websocket.messageRead);
     }
 
@@ -99,7 +114,7 @@ class AbstractExchangeWebsocketTest {
         Session session = mock(Session.class);
         CloseReason reason = mock(CloseReason.class);
         when(reason.getReasonPhrase()).thenReturn("Closed");
-        websocket.onClose(session, reason);
+        websocket.getConnections().getFirst().onClose(session, reason);
         assertEquals(1, websocket.reconnectCalled);
     }
 
@@ -107,21 +122,38 @@ class AbstractExchangeWebsocketTest {
     void testOnErrorEnsuresClosedAndReconnects() {
         Session session = mock(Session.class);
         Throwable error = new RuntimeException("fail");
-        websocket.onError(session, error);
+        websocket.getConnections().getFirst().onError(session, error);
         assertEquals(1, websocket.reconnectCalled);
     }
 
+    @Test
+    void testBindTo_countsFramesAndDisconnects() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        websocket.bindTo(registry);
+
+        websocket.onMessage("test");
+        websocket.getConnections().getFirst().onError(mock(Session.class), new RuntimeException("fail"));
+
+        assertEquals(1, registry.get("exchange.frames").tag("exchange", "Test").functionCounter().count());
+        assertEquals(1, registry.get("exchange.disconnects").functionCounter().count());
+
+        // Timed once the ingest worker finishes the batch
+        long deadline = System.currentTimeMillis() + 5000;
+        while (registry.get("exchange.ingest.latency").timer().count() == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, registry.get("exchange.ingest.latency").timer().count());
+    }
+
     @Test
     void testSendMessageWithNullAsyncRemoteDoesNothing() throws IOException {
         websocket.sendMessage("test");
     }
 
     @Test
-    void testSendMessageWithAsyncRemoteSendsText() throws IOException, NoSuchFieldException, IllegalAccessException {
-        var async = mock(RemoteEndpoint.Async.class);
-        var field = AbstractExchangeWebsocket.class.getDeclaredField("asyncWebsocketRemote");
-        field.setAccessible(true);
-        field.set(websocket, async);
+    void testSendMessageWithAsyncRemoteSendsText() throws IOException {
+        var async = open(websocket.getConnections().getFirst());
         doAnswer(invocation -> {
             SendHandler handler = invocation.getArgument(1);
             handler.onResult(new SendResult()); // success
@@ -132,38 +164,89 @@ class AbstractExchangeWebsocketTest {
     }
 
     @Test
-    void testSendMessageFailureTriggersClose() throws Exception {
+    void testSendMessageFailureClosesTheConnection() throws Exception {
+        var session = mock(Session.class);
         var async = mock(RemoteEndpoint.Async.class);
-        var field = AbstractExchangeWebsocket.class.getDeclaredField("asyncWebsocketRemote");
-        field.setAccessible(true);
-        field.set(websocket, async);
+        when(session.getAsyncRemote()).thenReturn(async);
+        websocket.getConnections().getFirst().onOpen(session);
         doAnswer(invocation -> {
             SendHandler handler = invocation.getArgument(1);
             handler.onResult(new SendResult(new Throwable("fail"))); // failure
             return null;
         }).when(async).sendText(anyString(), any(SendHandler.class));
-        var spy = Mockito.spy(websocket);
-        field.set(spy, async);
-        spy.sendMessage("fail");
+        websocket.sendMessage("fail");
         verify(async).sendText(contains("fail"), any(SendHandler.class));
-        verify(spy).close();
+        verify(session).close();
     }
 
     @Test
     void testCloseHandlesIOException() throws Exception {
         var session = mock(Session.class);
+        when(session.getAsyncRemote()).thenReturn(mock(RemoteEndpoint.Async.class));
         doThrow(new IOException("fail")).when(session).close();
-        var field = AbstractExchangeWebsocket.class.getDeclaredField("session");
-        field.setAccessible(true);
-        field.set(websocket, session);
+        websocket.getConnections().getFirst().onOpen(session);
         websocket.close();
         verify(session).close();
     }
 
+    @Test
+    void testSendMessageGoesToEveryOpenConnection() throws IOException {
+        websocket = new TestWebsocket("ws://localhost", 3);
+        var first = open(websocket.getConnections().get(0));
+        var third = open(websocket.getConnections().get(2));
+
+        websocket.sendMessage("test");
+
+        verify(first).sendText(contains("test"), any(SendHandler.class));
+        verify(third).sendText(contains("test"), any(SendHandler.class));
+        assertTrue(websocket.isConnected());
+        assertEquals(2, websocket.openConnections());
+    }
+
+    @Test
+    void testOnMessage_shouldTakeTheFirstCopyOfATradeFromAnyConnection() throws InterruptedException {
+        websocket = new TestWebsocket("ws://localhost", 2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        websocket.bindTo(registry);
+
+        websocket.getConnections().get(0).onMessage("trade 1");
+        websocket.getConnections().get(1).onMessage("trade 1");
+        websocket.getConnections().get(1).onMessage("trade 2");
+        websocket.getConnections().get(0).onMessage("trade 2");
+        websocket.getConnections().get(1).onMessage("heartbeat");
+        websocket.getConnections().get(0).onMessage("heartbeat");
+
+        assertEquals(2, websocket.duplicateTrades());
+        assertEquals(2, registry.get("exchange.trades.duplicates").functionCounter().count());
+        assertEquals(4, registry.get("exchange.frames").functionCounter().count());
+    }
+
+    @Test
+    void testOnClose_shouldOnlyReconnectTheLostConnection() {
+        websocket = new TestWebsocket("ws://localhost", 2);
+        var lost = mock(Session.class);
+        open(websocket.getConnections().get(0));
+        open(websocket.getConnections().get(1));
+
+        websocket.getConnections().get(1).onClose(lost, new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "Dropped"));
+
+        assertEquals(1, websocket.reconnectCalled);
+        assertTrue(websocket.getConnections().get(0).isOpen());
+        assertFalse(websocket.getConnections().get(1).isOpen());
+    }
+
     @Test
     void testScheduledHealthCheckCallsHealthCheck() {
         websocket.healthChecked = false;
         websocket.scheduledHealthCheck();
         assertTrue(websocket.healthChecked);
     }
-} 
\ No newline at end of file
+
+    private static RemoteEndpoint.Async open(AbstractExchangeWebsocket.Connection connection) {
+        Session session = mock(Session.class);
+        RemoteEndpoint.Async async = mock(RemoteEndpoint.Async.class);
+        when(session.getAsyncRemote()).thenReturn(async);
+        connection.onOpen(session);
+        return async;
+    }
+}
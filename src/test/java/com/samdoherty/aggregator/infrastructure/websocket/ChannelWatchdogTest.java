@@ -0,0 +1,146 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import com.samdoherty.aggregator.infrastructure.metrics.ChannelMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelWatchdogTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ChannelWatchdog watchdog = new ChannelWatchdog();
+    private final ChannelMetrics busy = new ChannelMetrics("live_trades_btcusd");
+    private final ChannelMetrics quiet = new ChannelMetrics("live_trades_ethbtc");
+
+    private long now;
+
+    @BeforeEach
+    void setUp() {
+        watchdog.watch("live_trades_btcusd", busy);
+        watchdog.watch("live_trades_ethbtc", quiet);
+        now = System.nanoTime();
+        watchdog.subscribed(now);
+    }
+
+    @Test
+    void check_shouldLearnEachChannelsUsualRate() {
+        // Busy: 10 a second for a minute, quiet: one every 20 seconds
+        for (int second = 1; second <= 60; second++) {
+            second(10, second % 20 == 0 ? 1 : 0);
+            assertTrue(watchdog.check(now, now).isEmpty());
+        }
+
+        assertEquals(10, busy.rate(), 0.5);
+        assertEquals(0.05, quiet.rate(), 0.01);
+    }
+
+    @Test
+    void check_shouldFlagABusyChannelWithinSecondsAndLeaveAQuietOneAlone() {
+        for (int second = 1; second <= 60; second++) {
+            second(10, second % 20 == 0 ? 1 : 0);
+            watchdog.check(now, now);
+        }
+
+        // Both silent from here, a busy channel is stale after 10 usual gaps (1s) floored at 30s, as trades are bursty
+        now += TimeUnit.SECONDS.toNanos(29);
+        assertTrue(watchdog.check(now, now).isEmpty());
+        now += 2 * SECOND;
+        assertEquals(List.of(new ChannelWatchdog.Stale("live_trades_btcusd", false)), watchdog.check(now, now));
+        assertEquals(1, busy.resubscribes());
+
+        // Given as long again before it is flagged again, as still quiet
+        now += TimeUnit.SECONDS.toNanos(29);
+        assertTrue(watchdog.check(now, now).isEmpty());
+        now += 2 * SECOND;
+        assertEquals(List.of(new ChannelWatchdog.Stale("live_trades_btcusd", true)), watchdog.check(now, now));
+
+        // The quiet channel is only stale after 10 of its usual gaps, 200s
+        now += TimeUnit.SECONDS.toNanos(140);
+        assertTrue(watchdog.check(now, now).contains(new ChannelWatchdog.Stale("live_trades_ethbtc", false)));
+        assertEquals(1, quiet.resubscribes());
+
+        // A message since being flagged makes the next time the first again
+        busy.message(now);
+        now += TimeUnit.SECONDS.toNanos(31);
+        assertEquals(List.of(new ChannelWatchdog.Stale("live_trades_btcusd", false)), watchdog.check(now, now));
+    }
+
+    @Test
+    void check_shouldNotFlagAnyChannelWhileTheConnectionIsNotHeardFrom() {
+        for (int second = 1; second <= 60; second++) {
+            second(10, 0);
+            watchdog.check(now, now);
+        }
+
+        // Nothing at all for a minute, not even heartbeats
+        long aliveAt = now;
+        now += TimeUnit.MINUTES.toNanos(1);
+        assertTrue(watchdog.check(now, aliveAt).isEmpty());
+
+        // Heard from again, on a heartbeat or another channel, while this one stays silent
+        assertEquals(List.of(new ChannelWatchdog.Stale("live_trades_btcusd", false)), watchdog.check(now, now));
+    }
+
+    @Test
+    void check_shouldNotLowerTheRateWhileSilent() {
+        for (int second = 1; second <= 60; second++) {
+            second(10, 0);
+            watchdog.check(now, now);
+        }
+        double rate = busy.rate();
+
+        for (int second = 1; second <= 30; second++) {
+            now += SECOND;
+            watchdog.check(now, now);
+        }
+
+        assertEquals(rate, busy.rate());
+    }
+
+    @Test
+    void check_shouldNeverFlagAChannelWithoutAUsualRate() {
+        now += TimeUnit.HOURS.toNanos(1);
+        assertTrue(watchdog.check(now, now).isEmpty());
+    }
+
+    @Test
+    void subscribed_shouldRestartTheSilence() {
+        for (int second = 1; second <= 60; second++) {
+            second(10, 0);
+            watchdog.check(now, now);
+        }
+
+        // Disconnected for a minute, then subscribed again
+        now += TimeUnit.MINUTES.toNanos(1);
+        watchdog.subscribed(now);
+
+        now += SECOND;
+        assertTrue(watchdog.check(now, now).isEmpty());
+    }
+
+    @Test
+    void threshold_shouldBeTenUsualGapsWithinBounds() {
+        assertEquals(ChannelWatchdog.MIN_SILENCE_NANOS, ChannelWatchdog.threshold(100));
+        assertEquals(TimeUnit.SECONDS.toNanos(100), ChannelWatchdog.threshold(0.1));
+        assertEquals(ChannelWatchdog.MAX_SILENCE_NANOS, ChannelWatchdog.threshold(0.001));
+        assertEquals(Long.MAX_VALUE, ChannelWatchdog.threshold(0));
+    }
+
+    /**
+     * A second passes, with each channel's messages spread through it
+     */
+    private void second(int busyMessages, int quietMessages) {
+        for (int i = 1; i <= busyMessages; i++) {
+            busy.message(now + i * SECOND / busyMessages);
+        }
+        for (int i = 1; i <= quietMessages; i++) {
+            quiet.message(now + i * SECOND / quietMessages);
+        }
+        now += SECOND;
+    }
+}
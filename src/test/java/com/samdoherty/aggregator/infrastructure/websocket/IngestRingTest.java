@@ -0,0 +1,109 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestRingTest {
+
+    private IngestRing ring;
+
+    @AfterEach
+    void tearDown() {
+        if (ring != null) {
+            ring.stop();
+        }
+    }
+
+    @Test
+    void offer_shouldDeliverFramesInOrderOnWorker() throws InterruptedException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        AtomicInteger batches = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1000);
+
+        ring = new IngestRing(64, new IngestRing.Handler() {
+            @Override
+            public void onFrame(@NotNull String frame, long receivedNanos, int source) {
+                received.add(frame);
+                done.countDown();
+            }
+
+            @Override
+            public void endOfBatch() {
+                batches.incrementAndGet();
+            }
+        });
+        ring.start("test-ingest");
+
+        for (int i = 0; i < 1000; i++) {
+            while (!ring.offer(Integer.toString(i), i)) {
+                Thread.onSpinWait();
+            }
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.toString(i), received.get(i));
+        }
+        assertTrue(batches.get() > 0);
+    }
+
+    @Test
+    void offer_shouldDropWhenFull() {
+        ring = new IngestRing(4, new IngestRing.Handler() {
+            @Override
+            public void onFrame(@NotNull String frame, long receivedNanos, int source) {
+            }
+
+            @Override
+            public void endOfBatch() {
+            }
+        });
+
+        // Worker never started, so nothing drains
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer("frame", i));
+        }
+        assertFalse(ring.offer("frame", 5));
+        assertEquals(1, ring.dropped());
+        assertEquals(4, ring.backlog());
+    }
+
+    @Test
+    void offer_shouldHandBackTheSource() throws InterruptedException {
+        List<Integer> sources = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+
+        ring = new IngestRing(4, new IngestRing.Handler() {
+            @Override
+            public void onFrame(@NotNull String frame, long receivedNanos, int source) {
+                sources.add(source);
+                done.countDown();
+            }
+
+            @Override
+            public void endOfBatch() {
+            }
+        });
+        ring.start("test-ingest");
+
+        assertTrue(ring.offer("frame", 1, 2));
+        assertTrue(ring.offer("frame", 2));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(2, 0), sources);
+    }
+
+    @Test
+    void constructor_shouldRejectNonPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new IngestRing(3, null));
+    }
+}
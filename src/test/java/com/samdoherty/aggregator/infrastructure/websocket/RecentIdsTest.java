@@ -0,0 +1,90 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecentIdsTest {
+
+    @Test
+    void firstSeen_shouldOnlyBeTrueForTheFirstCopy() {
+        RecentIds ids = new RecentIds(64);
+
+        assertTrue(ids.firstSeen(1));
+        assertTrue(ids.firstSeen(2));
+        assertFalse(ids.firstSeen(1));
+        assertFalse(ids.firstSeen(2));
+    }
+
+    @Test
+    void firstSeen_shouldRememberAWholeWindowOfSequentialIds() {
+        RecentIds ids = new RecentIds(1024);
+        long instrument = 3L << 48;
+
+        for (long id = 1; id <= 1024; id++) {
+            assertTrue(ids.firstSeen(instrument | id));
+        }
+        for (long id = 1; id <= 1024; id++) {
+            assertFalse(ids.firstSeen(instrument | id));
+        }
+    }
+
+    @Test
+    void firstSeen_shouldForgetTheOldestOnceTheWindowMovesOn() {
+        RecentIds ids = new RecentIds(1024);
+
+        assertTrue(ids.firstSeen(1));
+        assertTrue(ids.firstSeen(1 + 1024));
+
+        assertTrue(ids.firstSeen(1));
+    }
+
+    @Test
+    void firstSeen_shouldNeverRecordNone() {
+        RecentIds ids = new RecentIds(16);
+
+        assertTrue(ids.firstSeen(RecentIds.NONE));
+        assertTrue(ids.firstSeen(RecentIds.NONE));
+    }
+
+    @Test
+    void firstSeen_shouldHaveOneWinnerWhenCopiesRace() throws InterruptedException {
+        RecentIds ids = new RecentIds(1024);
+        int copies = 4;
+        int trades = 2_000;
+        AtomicInteger winners = new AtomicInteger();
+        // Every copy of a trade is offered at the same moment, as when connections deliver it together
+        CyclicBarrier together = new CyclicBarrier(copies);
+
+        Thread[] readers = new Thread[copies];
+        for (int i = 0; i < copies; i++) {
+            readers[i] = new Thread(() -> {
+                try {
+                    for (long id = 1; id <= trades; id++) {
+                        together.await();
+                        if (ids.firstSeen(id)) {
+                            winners.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(trades, winners.get());
+    }
+
+    @Test
+    void constructor_shouldRejectNonPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new RecentIds(1000));
+    }
+}
@@ -0,0 +1,163 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReconnectSchedulerTest {
+
+    private final ReconnectScheduler scheduler = new ReconnectScheduler(2, Duration.ofMillis(1), Duration.ofMillis(10));
+
+    @Test
+    void delayMillis_shouldDoubleWithJitterUpToTheCap() {
+        ReconnectScheduler backoff = new ReconnectScheduler(1, Duration.ofMillis(100), Duration.ofSeconds(1));
+
+        for (int i = 0; i < 1000; i++) {
+            assertBetween(50, 100, backoff.delayMillis(1));
+            assertBetween(100, 200, backoff.delayMillis(2));
+            assertBetween(200, 400, backoff.delayMillis(3));
+            assertBetween(500, 1000, backoff.delayMillis(5));
+            assertBetween(500, 1000, backoff.delayMillis(Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    void delayMillis_shouldSpreadConnectionsLostTogether() {
+        ReconnectScheduler backoff = new ReconnectScheduler(1, Duration.ofMillis(1000), Duration.ofSeconds(30));
+
+        assertTrue(IntStream.range(0, 100).mapToLong(i -> backoff.delayMillis(1)).distinct().count() > 10);
+    }
+
+    @Test
+    void connectionLost_shouldStartOneAttemptForRepeatedLosses() throws InterruptedException {
+        // Long enough that the attempt cannot finish, and the connection be lost again, between calls
+        ReconnectScheduler slower = new ReconnectScheduler(1, Duration.ofMillis(50), Duration.ofMillis(50));
+        AtomicInteger connects = new AtomicInteger();
+        ReconnectScheduler.Reconnector reconnector = slower.register(() -> "test", connects::incrementAndGet);
+
+        // e.g. onError and onClose both firing for one lost connection
+        reconnector.connectionLost();
+        reconnector.connectionLost();
+        reconnector.connectionLost();
+
+        awaitTrue(() -> reconnector.state() == ReconnectScheduler.State.CONNECTED && connects.get() > 0);
+        Thread.sleep(50);
+        assertEquals(1, connects.get());
+    }
+
+    @Test
+    void connectionLost_shouldReturnWithoutWaitingForTheConnect() {
+        ReconnectScheduler slow = new ReconnectScheduler(1, Duration.ofSeconds(10), Duration.ofSeconds(10));
+        ReconnectScheduler.Reconnector reconnector = slow.register(() -> "test", () -> fail("Not yet due"));
+
+        long start = System.nanoTime();
+        reconnector.connectionLost();
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(ReconnectScheduler.State.WAITING, reconnector.state());
+        reconnector.stop();
+    }
+
+    @Test
+    void failedAttempts_shouldRetryUntilConnected() throws InterruptedException {
+        AtomicInteger connects = new AtomicInteger();
+        ReconnectScheduler.Reconnector reconnector = scheduler.register(() -> "test", () -> {
+            if (connects.incrementAndGet() < 4) {
+                throw new IOException("Exchange down");
+            }
+        });
+
+        reconnector.connectionLost();
+
+        awaitTrue(() -> reconnector.state() == ReconnectScheduler.State.CONNECTED && connects.get() == 4);
+    }
+
+    @Test
+    void stop_shouldEndRetries() throws InterruptedException {
+        AtomicInteger connects = new AtomicInteger();
+        ReconnectScheduler.Reconnector reconnector = scheduler.register(() -> "test", () -> {
+            connects.incrementAndGet();
+            throw new IOException("Exchange down");
+        });
+
+        reconnector.connectionLost();
+        awaitTrue(() -> connects.get() >= 2);
+        reconnector.stop();
+        Thread.sleep(30);
+        int stoppedAt = connects.get();
+
+        Thread.sleep(50);
+        assertEquals(stoppedAt, connects.get());
+        assertEquals(ReconnectScheduler.State.STOPPED, reconnector.state());
+
+        reconnector.connectionLost();
+        Thread.sleep(30);
+        assertEquals(stoppedAt, connects.get());
+    }
+
+    @Test
+    void lossWhileConnecting_shouldReconnectAgain() throws InterruptedException {
+        AtomicInteger connects = new AtomicInteger();
+        AtomicReference<ReconnectScheduler.Reconnector> self = new AtomicReference<>();
+        ReconnectScheduler.Reconnector reconnector = scheduler.register(() -> "test", () -> {
+            if (connects.incrementAndGet() == 1) {
+                // The new session closes before the attempt returns
+                self.get().connectionLost();
+            }
+        });
+        self.set(reconnector);
+
+        reconnector.connectionLost();
+
+        awaitTrue(() -> reconnector.state() == ReconnectScheduler.State.CONNECTED && connects.get() == 2);
+    }
+
+    @Test
+    void connects_shouldBeCappedAcrossConnections() throws InterruptedException {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        List<ReconnectScheduler.Reconnector> reconnectors = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            reconnectors.add(scheduler.register(() -> "test", () -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                active.decrementAndGet();
+            }));
+        }
+
+        reconnectors.forEach(ReconnectScheduler.Reconnector::connectionLost);
+
+        awaitTrue(() -> reconnectors.stream().allMatch(reconnector -> reconnector.state() == ReconnectScheduler.State.CONNECTED));
+        assertEquals(2, maxActive.get());
+    }
+
+    @Test
+    void constructor_shouldRejectNoConcurrentConnects() {
+        assertThrows(IllegalArgumentException.class, () -> new ReconnectScheduler(0, Duration.ofMillis(1), Duration.ofMillis(1)));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " not in [" + min + ", " + max + "]");
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out");
+            }
+            Thread.sleep(2);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardTest {
+
+    private static final List<String> PAIRS = List.of("BTC-USD", "ETH-USD", "ETH-BTC", "XRP-USD", "LTC-USD");
+
+    @Test
+    void select_shouldDealItemsRoundRobin() {
+        List<Shard> shards = Shard.of(2, PAIRS.size());
+
+        assertEquals(List.of("BTC-USD", "ETH-BTC", "LTC-USD"), shards.get(0).select(PAIRS));
+        assertEquals(List.of("ETH-USD", "XRP-USD"), shards.get(1).select(PAIRS));
+    }
+
+    @Test
+    void select_shouldCoverEveryItemOnce() {
+        List<Shard> shards = Shard.of(3, PAIRS.size());
+
+        List<String> all = shards.stream().flatMap(shard -> shard.select(PAIRS).stream()).sorted().toList();
+        assertEquals(PAIRS.stream().sorted().toList(), all);
+    }
+
+    @Test
+    void of_shouldNotCreateEmptyShards() {
+        assertEquals(List.of(new Shard(1, 2), new Shard(2, 2)), Shard.of(8, 2));
+        assertEquals(List.of(Shard.ONLY), Shard.of(1, 0));
+    }
+
+    @Test
+    void name_shouldOnlyNumberSplitExchanges() {
+        assertEquals("Bitstamp", Shard.ONLY.name("Bitstamp"));
+        assertEquals("Bitstamp-2", new Shard(2, 3).name("Bitstamp"));
+    }
+
+    @Test
+    void constructor_shouldRejectShardsThatDoNotExist() {
+        assertThrows(IllegalArgumentException.class, () -> new Shard(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Shard(3, 2));
+        assertThrows(IllegalArgumentException.class, () -> new Shard(1, 0));
+    }
+}
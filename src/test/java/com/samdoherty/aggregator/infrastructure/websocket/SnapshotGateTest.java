@@ -0,0 +1,101 @@
+package com.samdoherty.aggregator.infrastructure.websocket;
+
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotGateTest {
+
+    private static final int ID = 3;
+
+    @Mock
+    private PriceAggregatorService aggregatorService;
+
+    private SnapshotGate gate;
+
+    @BeforeEach
+    void setUp() {
+        gate = new SnapshotGate(aggregatorService, ID);
+    }
+
+    @Test
+    void hold_shouldPassTradesThroughUntilArmed() {
+        assertFalse(gate.isPending());
+        assertFalse(gate.hold(100L, 1_000L));
+    }
+
+    @Test
+    void release_shouldWriteSnapshotWhenNothingHeld() {
+        gate.arm();
+
+        gate.release(100L, 1_000L);
+
+        verify(aggregatorService).addPrice(ID, 100L);
+        assertFalse(gate.isPending());
+        assertFalse(gate.hold(101L, 2_000L));
+    }
+
+    @Test
+    void release_shouldKeepNewestHeldTradeOverOlderSnapshot() {
+        gate.arm();
+        assertTrue(gate.hold(101L, 2_000L));
+        assertTrue(gate.hold(103L, 3_000L));
+        // Arrived late but traded earlier
+        assertTrue(gate.hold(102L, 2_500L));
+
+        gate.release(100L, 1_000L);
+
+        verify(aggregatorService).addPrice(ID, 103L);
+        verifyNoMoreInteractions(aggregatorService);
+    }
+
+    @Test
+    void release_shouldPreferSnapshotNewerThanHeldTrades() {
+        gate.arm();
+        gate.hold(101L, 1_000L);
+
+        gate.release(100L, 2_000L);
+
+        verify(aggregatorService).addPrice(ID, 100L);
+        verifyNoMoreInteractions(aggregatorService);
+    }
+
+    @Test
+    void release_shouldGiveTiesToTheTrade() {
+        gate.arm();
+        gate.hold(101L, 2_000L);
+
+        gate.release(100L, 2_000L);
+
+        verify(aggregatorService).addPrice(ID, 101L);
+    }
+
+    @Test
+    void release_shouldDoNothingOnceOpen() {
+        gate.arm();
+        gate.open();
+
+        gate.release(100L, 1_000L);
+
+        verifyNoInteractions(aggregatorService);
+    }
+
+    @Test
+    void open_shouldWriteHeldTradeWithoutSnapshot() {
+        gate.arm();
+        gate.hold(101L, SnapshotGate.UNKNOWN_TIME);
+
+        gate.open();
+        gate.open();
+
+        verify(aggregatorService, times(1)).addPrice(ID, 101L);
+        assertFalse(gate.isPending());
+    }
+}
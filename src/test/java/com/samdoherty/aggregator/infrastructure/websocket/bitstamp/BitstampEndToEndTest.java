@@ -0,0 +1,298 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.model.CandleInterval;
+import com.samdoherty.aggregator.domain.model.Price;
+import com.samdoherty.aggregator.domain.model.Quote;
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.service.QuoteService;
+import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import com.samdoherty.aggregator.infrastructure.configuration.PairsConfiguration;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournals;
+import com.samdoherty.aggregator.infrastructure.recording.FrameRecorders;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampApiClient;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampMarketCache;
+import com.samdoherty.aggregator.infrastructure.websocket.ChannelWatchdog;
+import com.samdoherty.aggregator.infrastructure.websocket.Shard;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The whole ingest stack, REST bootstrap to stored prices, against {@link FakeBitstampExchange} over real sockets
+ * <p>
+ * The soak test only runs when 'soak.seconds' is set, as it depends on the machine keeping up. It runs at
+ * 'soak.tradesPerSecond' (default 10000) with bursts, reconnect requests and dropped connections,
+ * e.g. {@code ./gradlew test --tests '*EndToEnd*' -Psoak.seconds=600}
+ */
+class BitstampEndToEndTest {
+
+    private static final Logger log = LoggerFactory.getLogger(BitstampEndToEndTest.class);
+
+    private static final Pair BTC_USD = new Pair("BTC", "USD");
+    private static final Pair ETH_USD = new Pair("ETH", "USD");
+
+    @TempDir
+    private Path dir;
+
+    private FakeBitstampExchange exchange;
+    private BitstampWebsocket websocket;
+
+    private final PriceAggregatorService aggregatorService = new PriceAggregatorService();
+    private final InstrumentRegistry instrumentRegistry = new InstrumentRegistry(aggregatorService);
+    private final CandleService candleService = new CandleService(aggregatorService);
+    private final QuoteService quoteService = new QuoteService(aggregatorService);
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (websocket != null) {
+            websocket.shutdown();
+        }
+        if (exchange != null) {
+            exchange.close();
+        }
+    }
+
+    @Test
+    void trades_shouldFlowFromExchangeToStoredPricesAndCandles() throws Exception {
+        exchange = FakeBitstampExchange.builder().pairs(List.of(BTC_USD, ETH_USD)).tradesPerSecond(200).start();
+        websocket = connect();
+
+        awaitTrue(() -> exchange.subscribeRequests() == 2, "subscriptions");
+        for (Pair pair : exchange.pairs()) {
+            int id = instrumentRegistry.resolve("bitstamp", pair.base() + "-" + pair.quote());
+            assertNotEquals(InstrumentRegistry.UNKNOWN, id);
+            awaitTrue(() -> !candleService.getCandles(id, CandleInterval.ONE_SECOND, 1).isEmpty(), "candles for " + pair);
+            awaitTrue(() -> aggregatorService.getPrice(id) != null, "price for " + pair);
+        }
+        assertEquals(1, exchange.connections());
+    }
+
+    @Test
+    void requestReconnect_shouldReconnectResubscribeAndCarryOn() throws Exception {
+        exchange = FakeBitstampExchange.builder().tradesPerSecond(200).start();
+        websocket = connect();
+        awaitTrue(() -> exchange.subscribeRequests() == 1, "subscription");
+
+        exchange.requestReconnect();
+
+        awaitTrue(() -> exchange.connections() == 2 && exchange.subscribeRequests() == 2, "resubscription");
+        assertPriceMovesOn(BTC_USD);
+    }
+
+    @Test
+    void droppedConnection_shouldReconnectResubscribeAndCarryOn() throws Exception {
+        exchange = FakeBitstampExchange.builder().tradesPerSecond(200).start();
+        websocket = connect();
+        awaitTrue(() -> exchange.subscribeRequests() == 1, "subscription");
+
+        exchange.dropConnections();
+
+        awaitTrue(() -> exchange.connections() == 2 && exchange.subscribeRequests() == 2, "resubscription");
+        assertPriceMovesOn(BTC_USD);
+    }
+
+    @Test
+    void silentChannel_shouldBeResubscribedWithoutDisturbingTheOthers() throws Exception {
+        exchange = FakeBitstampExchange.builder().pairs(List.of(BTC_USD, ETH_USD)).tradesPerSecond(200).start();
+        websocket = connect();
+        awaitTrue(() -> exchange.subscribeRequests() == 2, "subscriptions");
+        // Long enough for both channels to have a usual rate
+        Thread.sleep(500);
+        websocket.checkChannels();
+
+        exchange.silence(ETH_USD);
+        Thread.sleep(2000);
+
+        // Driven by the test rather than the scheduler, judged a second short of the shortest stale silence from now.
+        // Only the channel silenced for two seconds is past it
+        awaitTrue(() -> {
+            long now = System.nanoTime() + ChannelWatchdog.MIN_SILENCE_NANOS - TimeUnit.SECONDS.toNanos(1);
+            websocket.checkChannels(now, now);
+            return exchange.unsubscribeRequests() == 1 && exchange.subscribeRequests() == 3;
+        }, "resubscription");
+        assertEquals(1, exchange.connections());
+        assertPriceMovesOn(ETH_USD);
+        assertPriceMovesOn(BTC_USD);
+        assertEquals(1, exchange.unsubscribeRequests());
+    }
+
+    @Test
+    void shards_shouldSplitPairsAndOnlyReconnectTheShardThatWasLost() throws Exception {
+        exchange = FakeBitstampExchange.builder().pairs(4).tradesPerSecond(400).start();
+        BitstampApiClient apiClient = new BitstampApiClient(exchange.apiUrl());
+        BitstampShards shards = new BitstampShards("Bitstamp", exchange.websocketUrl(), 2, 1, "none",
+                new PairsConfiguration(exchange.pairs()),
+                aggregatorService,
+                quoteService,
+                instrumentRegistry,
+                candleService,
+                apiClient,
+                new BitstampMarketCache(apiClient, dir.resolve("markets.json"), Duration.ofHours(1), Duration.ofSeconds(2)),
+                new TickJournals(aggregatorService, false, dir, 1024, 0),
+                new FrameRecorders(false, dir));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        shards.bindTo(registry);
+
+        try {
+            assertEquals(2, shards.getShards().size());
+            assertEquals(List.of(exchange.pairs().get(0), exchange.pairs().get(2)), shards.getShards().get(0).getPairs());
+            assertEquals(List.of(exchange.pairs().get(1), exchange.pairs().get(3)), shards.getShards().get(1).getPairs());
+            awaitTrue(() -> exchange.connections() == 2 && exchange.subscribeRequests() == 4, "subscriptions");
+
+            exchange.dropConnection(exchange.pairs().get(1));
+
+            awaitTrue(() -> exchange.connections() == 3 && exchange.subscribeRequests() == 6, "resubscription");
+            assertEquals(0, registry.get("exchange.disconnects").tag("shard", "1").functionCounter().count());
+            assertEquals(1, registry.get("exchange.disconnects").tag("shard", "2").functionCounter().count());
+            for (Pair pair : exchange.pairs()) {
+                assertPriceMovesOn(pair);
+            }
+        } finally {
+            shards.shutdown();
+        }
+    }
+
+    @Test
+    void redundantConnections_shouldTakeEachTradeOnceAndCarryOnWhileOneIsLost() throws Exception {
+        exchange = FakeBitstampExchange.builder().tradesPerSecond(200).start();
+        websocket = connect(2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        websocket.bindTo(registry);
+        awaitTrue(() -> exchange.connections() == 2 && exchange.subscribeRequests() == 2, "subscriptions");
+
+        // Every trade arrives twice, only the first copy is taken
+        awaitTrue(() -> websocket.duplicateTrades() > 10, "duplicates");
+        long sent = exchange.tradesSent();
+        awaitTrue(() -> trades(registry) >= sent, "trades to be taken");
+        assertTrue(trades(registry) <= exchange.tradesSent());
+
+        exchange.dropConnection();
+
+        // The other connection carries on while the lost one comes back
+        assertPriceMovesOn(BTC_USD);
+        awaitTrue(() -> exchange.connections() == 3 && exchange.subscribeRequests() == 3, "resubscription");
+        assertEquals(1, registry.get("exchange.disconnects").functionCounter().count());
+        assertEquals(2, registry.get("exchange.connections.open").gauge().value());
+        long resent = exchange.tradesSent();
+        awaitTrue(() -> trades(registry) >= resent, "trades to be taken");
+        assertTrue(trades(registry) <= exchange.tradesSent());
+    }
+
+    @Test
+    void orderBooks_shouldPublishTheTopOfEachBook() throws Exception {
+        // No trades, so the book stays centred on the starting price
+        exchange = FakeBitstampExchange.builder().pairs(List.of(BTC_USD, ETH_USD)).tradesPerSecond(0).start();
+        websocket = connect(1, BitstampBookFeed.SNAPSHOT);
+
+        awaitTrue(() -> exchange.subscribeRequests() == 4, "trade and book subscriptions");
+        for (Pair pair : exchange.pairs()) {
+            int id = instrumentRegistry.resolve("bitstamp", pair.base() + "-" + pair.quote());
+            awaitTrue(() -> quoteService.getQuote(id) != null, "quote for " + pair);
+
+            Quote quote = quoteService.getQuote(id);
+            long price = exchange.price(pair);
+            assertEquals(BigDecimal.valueOf(price - 1, 2), quote.bid());
+            assertEquals(BigDecimal.valueOf(price + 1, 2), quote.ask());
+            assertEquals(BigDecimal.valueOf(price, 2), quote.mid().setScale(2));
+            assertEquals(new BigDecimal("0.02"), quote.spread());
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "soak.seconds", matches = "\\d+")
+    void soak_shouldKeepUpWithBurstsAndReconnects() throws Exception {
+        long seconds = Long.getLong("soak.seconds");
+        int tradesPerSecond = Integer.getInteger("soak.tradesPerSecond", 10_000);
+
+        exchange = FakeBitstampExchange.builder()
+                .pairs(16)
+                .tradesPerSecond(tradesPerSecond)
+                .bursts(Duration.ofMillis(500), tradesPerSecond / 4)
+                .reconnectEvery(Duration.ofSeconds(Math.max(1, seconds / 3)))
+                .dropEvery(Duration.ofSeconds(Math.max(1, seconds / 2)))
+                .start();
+        websocket = connect();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        websocket.bindTo(registry);
+
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        awaitTrue(() -> exchange.connections() > 1, "reconnection");
+        long sent = exchange.tradesSent();
+        awaitTrue(() -> websocket.ingestLatency().count() >= registry.get("exchange.frames").functionCounter().count()
+                - websocket.droppedFrames(), "ingest to drain");
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        log.info("Soak: {} trades sent in {}s ({}/s), {} connections, {} frames dropped, p99 <= {}us",
+                sent, "%.1f".formatted(elapsed), "%.0f".formatted(sent / elapsed), exchange.connections(),
+                websocket.droppedFrames(), "%.1f".formatted(websocket.ingestLatency().quantileNanos(0.99) / 1e3));
+
+        assertTrue(sent > 0);
+        assertEquals(0, websocket.droppedFrames());
+        assertEquals(0, registry.get("exchange.parse.failures").functionCounter().count());
+    }
+
+    private BitstampWebsocket connect() {
+        return connect(1);
+    }
+
+    private BitstampWebsocket connect(int connections) {
+        return connect(connections, BitstampBookFeed.NONE);
+    }
+
+    private BitstampWebsocket connect(int connections, BitstampBookFeed bookFeed) {
+        BitstampApiClient apiClient = new BitstampApiClient(exchange.apiUrl());
+        return new BitstampWebsocket("Bitstamp", exchange.websocketUrl(), Shard.ONLY, connections, bookFeed,
+                new PairsConfiguration(exchange.pairs()),
+                aggregatorService,
+                quoteService,
+                instrumentRegistry,
+                candleService,
+                apiClient,
+                new BitstampMarketCache(apiClient, dir.resolve("markets.json"), Duration.ofHours(1), Duration.ofSeconds(2)),
+                new TickJournals(aggregatorService, false, dir, 1024, 0),
+                new FrameRecorders(false, dir));
+    }
+
+    private static double trades(SimpleMeterRegistry registry) {
+        return registry.get("exchange.channel.trades").functionCounter().count();
+    }
+
+    /**
+     * The stored price reaches one the exchange sent after now, so trades are flowing on the current connection
+     */
+    private void assertPriceMovesOn(Pair pair) throws InterruptedException {
+        int id = instrumentRegistry.resolve("bitstamp", pair.base() + "-" + pair.quote());
+        Price before = aggregatorService.getPrice(id);
+        awaitTrue(() -> {
+            Price now = aggregatorService.getPrice(id);
+            return now != null && (before == null || now.time().isAfter(before.time()))
+                    && now.price().equals(BigDecimal.valueOf(exchange.price(pair), 2));
+        }, "price to move on for " + pair);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
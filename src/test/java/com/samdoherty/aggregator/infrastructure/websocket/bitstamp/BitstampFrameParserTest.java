@@ -0,0 +1,186 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.store.OrderBook;
+import com.samdoherty.aggregator.infrastructure.websocket.bitstamp.dto.Event;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitstampFrameParserTest {
+
+    private BitstampFrameParser parser;
+
+    @BeforeEach
+    void setUp() {
+        parser = new BitstampFrameParser();
+    }
+
+    @Test
+    void parse_tradeFrame_findsEventChannelAndPrice() {
+        String frame = """
+                {"data": {"id": 1, "price": 122107.5, "tags": [{"a": "}"}]}, "channel": "live_trades_btcusd", "event": "trade"}""";
+
+        assertTrue(parser.parse(frame));
+        assertTrue(parser.isEvent(Event.TRADE));
+        assertEquals("live_trades_btcusd", frame.substring(parser.channelStart(), parser.channelEnd()));
+        assertEquals(12210750L, parser.price(2));
+        assertEquals(0, parser.amount(8));
+    }
+
+    @Test
+    void parse_tradeFrame_findsAmount() {
+        assertTrue(parser.parse("{\"data\":{\"amount\":0.0125,\"amount_str\":\"0.01250000\",\"price\":1},\"event\":\"trade\"}"));
+        assertEquals(1250000L, parser.amount(8));
+        assertEquals(100L, parser.price(2));
+        assertEquals(BitstampFrameParser.INVALID, parser.microtimestamp());
+    }
+
+    @Test
+    void parse_tradeFrame_findsMicrotimestamp() {
+        assertTrue(parser.parse("{\"data\":{\"price\":1,\"microtimestamp\":\"1752485434749389\"},\"event\":\"trade\"}"));
+        assertEquals(1752485434749389L, parser.microtimestamp());
+    }
+
+    @Test
+    void parse_controlFrame_hasNoPrice() {
+        assertTrue(parser.parse("{\"event\":\"bts:heartbeat\",\"channel\":\"\",\"data\":{\"status\":\"success\"}}"));
+        assertTrue(parser.isEvent(Event.HEARTBEAT));
+        assertFalse(parser.isEvent(Event.TRADE));
+        assertEquals(BitstampFrameParser.INVALID, parser.price(2));
+    }
+
+    @Test
+    void parse_malformedFrame_returnsFalse() {
+        assertFalse(parser.parse("not json"));
+        assertFalse(parser.parse("{\"event\":\"trade\",\"data\":{\"price\":1"));
+    }
+
+    @Test
+    void applyLevels_bookFrame_appliesEachSideStraightToTheBook() {
+        String frame = """
+                {"data": {"timestamp": "1752485434", "microtimestamp": "1752485434749389",
+                 "bids": [["50000.12", "0.50000000"], ["50000.10", "1.25000000"]],
+                 "asks": [["50000.15", "0.10000000"], ["50000.20", "2.00000000"], ["50000.30", "3.00000000"]]},
+                 "channel": "order_book_btcusd", "event": "data"}""";
+        OrderBook book = new OrderBook();
+
+        assertTrue(parser.parse(frame));
+        assertTrue(parser.isEvent(Event.DATA));
+        assertTrue(parser.hasLevels());
+        assertEquals("order_book_btcusd", frame.substring(parser.channelStart(), parser.channelEnd()));
+        assertEquals(1752485434749389L, parser.microtimestamp());
+
+        assertEquals(2, parser.applyLevels(true, book, 2, 8));
+        assertEquals(3, parser.applyLevels(false, book, 2, 8));
+        assertEquals(5000012L, book.bestBid());
+        assertEquals(50_000_000L, book.bidAmount(0));
+        assertEquals(5000015L, book.bestAsk());
+        assertEquals(3, book.askLevels());
+    }
+
+    @Test
+    void applyLevels_diffFrame_removesZeroAmounts() {
+        OrderBook book = new OrderBook();
+        book.bid(5000012L, 1);
+        book.bid(5000010L, 1);
+
+        assertTrue(parser.parse("""
+                {"data":{"microtimestamp":"1","bids":[["50000.12","0.00000000"],["50000.11","1"]],"asks":[]},"channel":"diff_order_book_btcusd","event":"data"}"""));
+
+        assertEquals(2, parser.applyLevels(true, book, 2, 8));
+        assertEquals(0, parser.applyLevels(false, book, 2, 8));
+        assertEquals(5000011L, book.bestBid());
+        assertEquals(2, book.bidLevels());
+    }
+
+    @Test
+    void applyLevels_skipsValuesAfterTheAmount() {
+        OrderBook book = new OrderBook();
+
+        assertTrue(parser.parse("""
+                {"data":{"bids":[[ 50000.12 , 0.5 , "1893417283674113" ]]},"channel":"detail_order_book_btcusd","event":"data"}"""));
+
+        assertEquals(1, parser.applyLevels(true, book, 2, 8));
+        assertEquals(5000012L, book.bestBid());
+        assertEquals(50_000_000L, book.bidAmount(0));
+    }
+
+    @Test
+    void applyLevels_malformedLevel_returnsMinusOne() {
+        OrderBook book = new OrderBook();
+
+        assertTrue(parser.parse("{\"data\":{\"asks\":[[\"1.00\",\"1\"],[\"x\",\"1\"]]},\"event\":\"data\"}"));
+        assertEquals(-1, parser.applyLevels(false, book, 2, 8));
+        // Levels before it were applied
+        assertEquals(100L, book.bestAsk());
+
+        assertTrue(parser.parse("{\"data\":{\"asks\":[[\"1.00\"]]},\"event\":\"data\"}"));
+        assertEquals(-1, parser.applyLevels(false, book, 2, 8));
+    }
+
+    @Test
+    void applyLevels_tradeFrame_hasNoLevels() {
+        assertTrue(parser.parse("{\"data\":{\"price\":1,\"bids\":[]},\"event\":\"trade\"}"));
+        assertEquals(0, parser.applyLevels(true, new OrderBook(), 2, 8));
+
+        // Arrays outside data are not levels
+        assertTrue(parser.parse("{\"bids\":[[\"1\",\"1\"]],\"event\":\"data\"}"));
+        assertFalse(parser.hasLevels());
+    }
+
+    @Test
+    void parseBook_restBody_findsTopLevelLevels() {
+        OrderBook book = new OrderBook();
+
+        assertTrue(parser.parseBook("""
+                {"timestamp": "1752485434", "microtimestamp": "1752485434749389",
+                 "bids": [["50000.12", "0.5"]], "asks": [["50000.15", "0.1"]]}"""));
+
+        assertEquals(1752485434749389L, parser.microtimestamp());
+        assertEquals(1, parser.applyLevels(true, book, 2, 8));
+        assertEquals(1, parser.applyLevels(false, book, 2, 8));
+        assertEquals(5000012L, book.bestBid());
+        assertEquals(5000015L, book.bestAsk());
+        assertFalse(parser.parseBook("not json"));
+    }
+
+    @Test
+    void tradeId_findsTheIdWithoutTheOrderIds() {
+        String frame = """
+                {"data": {"buy_order_id": 7, "id": 420368541, "price": 1}, "channel": "live_trades_btcusd", "event": "trade"}""";
+
+        assertEquals(420368541L, BitstampFrameParser.tradeId(frame));
+        assertEquals(BitstampFrameParser.INVALID, BitstampFrameParser.tradeId("{\"event\":\"bts:heartbeat\"}"));
+        assertEquals(BitstampFrameParser.INVALID, BitstampFrameParser.tradeId("{\"data\":{\"id\":\"x\"}}"));
+    }
+
+    @Test
+    void valueStart_skipsWhitespaceAndOpeningQuote() {
+        String frame = "{\"channel\" : \"live_trades_btcusd\"}";
+
+        int start = BitstampFrameParser.valueStart(frame, BitstampFrameParser.QUOTED_CHANNEL);
+        assertEquals("live_trades_btcusd", frame.substring(start, frame.indexOf('"', start)));
+        assertEquals(-1, BitstampFrameParser.valueStart("{\"event\":\"trade\"}", BitstampFrameParser.QUOTED_CHANNEL));
+    }
+
+    @Test
+    void toFixedPoint_matchesBigDecimalHalfEven() {
+        String[] values = {"0.005", "0.015", "0.0150001", "1", "12.3", "99.995", "-2.345", "0.00000001"};
+
+        for (String value : values) {
+            long expected = new BigDecimal(value).setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+            assertEquals(expected, BitstampFrameParser.toFixedPoint(value, 0, value.length(), 2), value);
+        }
+    }
+
+    @Test
+    void toFixedPoint_rejectsUnsupportedNumbers() {
+        assertEquals(BitstampFrameParser.INVALID, BitstampFrameParser.toFixedPoint("1E5", 0, 3, 2));
+        assertEquals(BitstampFrameParser.INVALID, BitstampFrameParser.toFixedPoint("99999999999999999999", 0, 20, 2));
+        assertEquals(BitstampFrameParser.INVALID, BitstampFrameParser.toFixedPoint("", 0, 0, 2));
+    }
+}
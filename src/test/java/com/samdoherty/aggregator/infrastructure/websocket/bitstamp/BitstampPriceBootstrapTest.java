@@ -0,0 +1,174 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.infrastructure.metrics.ChannelMetrics;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampApiClient;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Ticker;
+import com.samdoherty.aggregator.infrastructure.websocket.SnapshotGate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BitstampPriceBootstrapTest {
+
+    private static final long TICKER_SECONDS = 1752485434L;
+
+    @Mock
+    private BitstampApiClient apiClient;
+    @Mock
+    private PriceAggregatorService aggregatorService;
+
+    private BitstampPriceBootstrap bootstrap;
+
+    @BeforeEach
+    void setUp() {
+        bootstrap = new BitstampPriceBootstrap(apiClient);
+    }
+
+    @Test
+    void run_shouldPriceEveryMarketFromOneBulkCall() {
+        BitstampChannel btc = channel("BTC", 0);
+        BitstampChannel eth = channel("ETH", 1);
+        when(apiClient.getLatestPrices()).thenReturn(List.of(
+                new Ticker(new BigDecimal("122107.125"), TICKER_SECONDS, "BTC/USD"),
+                new Ticker(new BigDecimal("3012.4"), TICKER_SECONDS, "ETH/USD"),
+                new Ticker(BigDecimal.ONE, TICKER_SECONDS, "XRP/USD")));
+
+        assertEquals(2, bootstrap.run(markets(btc, eth)));
+
+        verify(aggregatorService).addPrice(0, 12210712L);
+        verify(aggregatorService).addPrice(1, 301240L);
+        verify(apiClient, never()).getLatestPrice(anyString());
+    }
+
+    @Test
+    void run_shouldFetchMissingMarketsOneByOne() {
+        BitstampChannel btc = channel("BTC", 0);
+        BitstampChannel eth = channel("ETH", 1);
+        when(apiClient.getLatestPrices()).thenReturn(List.of(new Ticker(BigDecimal.TEN, TICKER_SECONDS, "BTC/USD")));
+        when(apiClient.getLatestPrice("ethusd")).thenReturn(new Ticker(BigDecimal.TWO, null, null));
+
+        assertEquals(2, bootstrap.run(markets(btc, eth)));
+
+        verify(aggregatorService).addPrice(1, 200L);
+        verify(apiClient, never()).getLatestPrice("btcusd");
+    }
+
+    @Test
+    void run_shouldBoundRequestsInFlightWhenBulkCallFails() {
+        when(apiClient.getLatestPrices()).thenThrow(new IllegalStateException("Not found"));
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(apiClient.getLatestPrice(anyString())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            if ("aafusd".equals(invocation.getArgument(0))) {
+                throw new IllegalStateException("Bad market");
+            }
+            return new Ticker(BigDecimal.ONE, TICKER_SECONDS, null);
+        });
+
+        Map<String, BitstampChannel> markets = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            markets.put("aa" + (char) ('a' + i % 26) + "usd" + i, channel("AA" + (char) ('A' + i % 26) + i, i));
+        }
+        markets.put("aafusd", channel("AAF", 100));
+
+        assertEquals(100, bootstrap.run(markets));
+        assertTrue(maxInFlight.get() <= BitstampPriceBootstrap.MAX_IN_FLIGHT);
+        assertTrue(maxInFlight.get() > 1);
+    }
+
+    @Test
+    void run_shouldKeepTradeNewerThanTicker() {
+        BitstampChannel btc = channel("BTC", 0);
+        // Traded a second after the ticker was taken
+        assertTrue(btc.gate().hold(12345678L, (TICKER_SECONDS + 1) * 1_000_000));
+        when(apiClient.getLatestPrices()).thenReturn(List.of(new Ticker(BigDecimal.TEN, TICKER_SECONDS, "BTC/USD")));
+
+        bootstrap.run(markets(btc));
+
+        verify(aggregatorService).addPrice(0, 12345678L);
+        verifyNoMoreInteractions(aggregatorService);
+        assertFalse(btc.gate().isPending());
+    }
+
+    @Test
+    void run_shouldReleaseHeldTradesWhenNoTickerFound() {
+        BitstampChannel btc = channel("BTC", 0);
+        btc.gate().hold(12345678L, SnapshotGate.UNKNOWN_TIME);
+        when(apiClient.getLatestPrices()).thenReturn(List.of());
+        when(apiClient.getLatestPrice("btcusd")).thenThrow(new IllegalStateException("Not found"));
+
+        assertEquals(0, bootstrap.run(markets(btc)));
+
+        verify(aggregatorService).addPrice(0, 12345678L);
+        assertFalse(btc.gate().isPending());
+    }
+
+    @Test
+    void startAsync_whileRunning_shouldQueueMarketsForTheNextRun() throws InterruptedException {
+        BitstampChannel btc = channel("BTC", 0);
+        BitstampChannel eth = channel("ETH", 1);
+        CountDownLatch firstRequested = new CountDownLatch(1);
+        CountDownLatch firstReturned = new CountDownLatch(1);
+        when(apiClient.getLatestPrices())
+                .thenAnswer(invocation -> {
+                    firstRequested.countDown();
+                    firstReturned.await();
+                    return List.of(new Ticker(BigDecimal.TEN, TICKER_SECONDS, "BTC/USD"));
+                })
+                .thenReturn(List.of(new Ticker(BigDecimal.TEN, TICKER_SECONDS, "BTC/USD"),
+                        new Ticker(BigDecimal.TWO, TICKER_SECONDS, "ETH/USD")));
+
+        bootstrap.startAsync(markets(btc));
+        assertTrue(firstRequested.await(5, TimeUnit.SECONDS));
+
+        // Asked for while the first run is in flight, BTC again as well as ETH
+        bootstrap.startAsync(markets(btc, eth));
+        assertTrue(eth.gate().isPending());
+        firstReturned.countDown();
+
+        verify(aggregatorService, timeout(5000)).addPrice(1, 200L);
+        verify(aggregatorService, timeout(5000).times(2)).addPrice(0, 1000L);
+        verify(apiClient, times(2)).getLatestPrices();
+        assertFalse(btc.gate().isPending());
+        assertFalse(eth.gate().isPending());
+    }
+
+    private Map<String, BitstampChannel> markets(BitstampChannel... channels) {
+        Map<String, BitstampChannel> markets = new LinkedHashMap<>();
+        for (BitstampChannel channel : channels) {
+            Instrument instrument = channel.instrument();
+            markets.put((instrument.getBase() + instrument.getQuote()).toLowerCase(), channel);
+        }
+        return markets;
+    }
+
+    private BitstampChannel channel(String base, int id) {
+        Instrument instrument = Instrument.builder().exchange("bitstamp").base(base).quote("USD").scale(2).build();
+        String name = "live_trades_" + base.toLowerCase() + "usd";
+        SnapshotGate gate = new SnapshotGate(aggregatorService, id);
+        // As startAsync would before the bootstrap runs
+        gate.arm();
+        return new BitstampChannel(name, instrument, id, new ChannelMetrics(name), gate);
+    }
+}
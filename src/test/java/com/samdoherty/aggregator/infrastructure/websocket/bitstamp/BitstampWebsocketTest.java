@@ -1,21 +1,40 @@
 package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
 
 import com.samdoherty.aggregator.domain.model.Instrument;
+import com.samdoherty.aggregator.domain.service.CandleService;
+import com.samdoherty.aggregator.domain.service.InstrumentRegistry;
 import com.samdoherty.aggregator.domain.service.PriceAggregatorService;
+import com.samdoherty.aggregator.domain.service.QuoteService;
 import com.samdoherty.aggregator.infrastructure.configuration.Pair;
 import com.samdoherty.aggregator.infrastructure.configuration.PairsConfiguration;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournal;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournalReader;
+import com.samdoherty.aggregator.infrastructure.journal.TickJournals;
+import com.samdoherty.aggregator.infrastructure.recording.FrameRecorders;
 import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampApiClient;
+import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.client.BitstampMarketCache;
 import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Market;
 import com.samdoherty.aggregator.infrastructure.restclient.bitstamp.dto.Ticker;
+import com.samdoherty.aggregator.infrastructure.websocket.RecentIds;
+import com.samdoherty.aggregator.infrastructure.websocket.Shard;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -26,8 +45,20 @@ class BitstampWebsocketTest {
     @Mock
     private PriceAggregatorService aggregatorService;
     @Mock
+    private InstrumentRegistry instrumentRegistry;
+    @Mock
+    private CandleService candleService;
+    @Mock
+    private QuoteService quoteService;
+    @Mock
     private BitstampApiClient apiClient;
     @Mock
+    private BitstampMarketCache marketCache;
+    @Mock
+    private TickJournals journals;
+    @Mock
+    private FrameRecorders recorders;
+    @Mock
     private PairsConfiguration pairsConfiguration;
 
     private BitstampWebsocket websocket;
@@ -35,6 +66,7 @@ class BitstampWebsocketTest {
     private static final String PAIR_BASE = "BTC";
     private static final String PAIR_QUOTE = "USD";
     private static final String PAIR_SYMBOL = "btcusd";
+    private static final int INSTRUMENT_ID = 7;
 
     @BeforeEach
     void setUp() {
@@ -43,16 +75,21 @@ class BitstampWebsocketTest {
         when(pairsConfiguration.pairs()).thenReturn(List.of(pair));
         // Mock market
         Market market = new Market(PAIR_SYMBOL, PAIR_BASE, PAIR_QUOTE, 2); // 2 decimal places
-        when(apiClient.getMarkets()).thenReturn(List.of(market));
-        // Mock ticker for prePopulate
-        Ticker ticker = mock(Ticker.class);
+        when(marketCache.getMarkets()).thenReturn(Map.of(PAIR_SYMBOL, market));
+        // Aggregator id issued for the instrument
+        when(instrumentRegistry.register(any(Instrument.class))).thenReturn(INSTRUMENT_ID);
         // Use the testable subclass to prevent connect() from running
         websocket = new TestableBitstampWebsocket(
                 "bitstamp",
                 "wss://test",
                 pairsConfiguration,
                 aggregatorService,
-                apiClient
+                instrumentRegistry,
+                candleService,
+                apiClient,
+                marketCache,
+                journals,
+                recorders
         );
     }
 
@@ -64,26 +101,247 @@ class BitstampWebsocketTest {
 
         // When
         websocket.readMessage(tradeMessage);
+        websocket.endOfBatch();
+
+        // Then: aggregatorService.addPrice should be called with the instrument's id and fixed-point price
+        ArgumentCaptor<Long> priceCaptor = ArgumentCaptor.forClass(Long.class);
+        verify(aggregatorService, atLeastOnce()).addPrice(eq(INSTRUMENT_ID), priceCaptor.capture());
+        assertEquals(5000123L, priceCaptor.getValue());
+    }
 
-        // Then: aggregatorService.addPrice should be called with correct Instrument and price
+    @Test
+    void testReadMessage_withFullBitstampTrade_roundsHalfEven() {
+        // Given: a trade frame as Bitstamp sends it, data first with additional fields
+        String tradeMessage = """
+                {"data": {"id": 412345678, "timestamp": "1752485434", "amount": 0.0125, "amount_str": "0.01250000",
+                 "price": 50001.125, "price_str": "50001.125", "type": 1, "microtimestamp": "1752485434749389"},
+                 "channel": "live_trades_btcusd", "event": "trade"}""";
+
+        // When
+        websocket.readMessage(tradeMessage);
+        websocket.endOfBatch();
+
+        // Then: price is rounded the same way BigDecimal.setScale(2, HALF_EVEN) would
+        verify(aggregatorService).addPrice(INSTRUMENT_ID, 5000112L);
+        // And the trade amount reaches the candles
+        verify(candleService).recordTrade(INSTRUMENT_ID, 5000112L, 1250000L);
+    }
+
+    @Test
+    void testReadMessage_withExponentPrice_fallsBackToBigDecimal() {
+        // Given: a price the fixed-point scanner will not handle
+        String tradeMessage = """
+                {"event":"trade","channel":"live_trades_btcusd","data":{"price":5.000123E4}}""";
+
+        // When
+        websocket.readMessage(tradeMessage);
+
+        // Then: the DTO path still applies the price to the mapped instrument
         ArgumentCaptor<Instrument> instrumentCaptor = ArgumentCaptor.forClass(Instrument.class);
-        ArgumentCaptor<BigDecimal> priceCaptor = ArgumentCaptor.forClass(BigDecimal.class);
-        verify(aggregatorService, atLeastOnce()).addPrice(instrumentCaptor.capture(), priceCaptor.capture());
+        verify(aggregatorService).addPrice(instrumentCaptor.capture(), eq(new BigDecimal("50001.23")));
+        verify(candleService).recordTrade(any(Instrument.class), eq(new BigDecimal("5.000123E4")), eq(BigDecimal.ZERO));
         assertEquals("BTC", instrumentCaptor.getValue().getBase());
         assertEquals("USD", instrumentCaptor.getValue().getQuote());
-        assertEquals(BigDecimal.valueOf(50001.23).setScale(2), priceCaptor.getValue());
     }
 
     @Test
-    void testReadMessage_withReconnectRequest_callsClose() {
-        // Given: a reconnect request message
-        String reconnectMessage = "{\"event\":\"bts:request_reconnect\"}";
-        // Spy on websocket to verify close is called
-        BitstampWebsocket spyWebsocket = spy(websocket);
+    void testReadMessage_withPriceOrAmountTooLargeForFixedPoint_countsAParseFailureAndRecordsNothing() {
+        // Given: metrics are bound
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        websocket.bindTo(registry);
+
+        // When: trades for the DTO fallback whose price, then amount, has a mantissa beyond a long
+        websocket.readMessage("""
+                {"event":"trade","channel":"live_trades_btcusd","data":{"price":1E30}}""");
+        websocket.readMessage("""
+                {"event":"trade","channel":"live_trades_btcusd","data":{"price":5.000123E4,"amount":1E20}}""");
+        websocket.endOfBatch();
+
+        // Then: each is a parse failure, and neither reached the candles or the aggregator
+        assertEquals(2, registry.get("exchange.parse.failures").functionCounter().count());
+        assertEquals(0, registry.get("exchange.channel.trades").tag("channel", "live_trades_btcusd").functionCounter().count());
+        verifyNoInteractions(candleService);
+        verify(aggregatorService, never()).addPrice(any(Instrument.class), any(BigDecimal.class));
+    }
+
+    @Test
+    void testReadMessage_journalsEveryTradeAtEndOfBatch(@TempDir Path dir) throws IOException {
+        // Given: journaling enabled
+        TickJournal journal = new TickJournal(dir, 16, 0, id -> Instrument.builder()
+                .exchange("bitstamp").base(PAIR_BASE).quote(PAIR_QUOTE).scale(2).build());
+        when(journals.open("bitstamp")).thenReturn(journal);
+        websocket = new TestableBitstampWebsocket("bitstamp", "wss://test", pairsConfiguration, aggregatorService,
+                instrumentRegistry, candleService, apiClient, marketCache, journals, recorders);
+        TickJournalReader reader = journal.reader(0);
+
+        // When: a scanned trade and one the DTO fallback handles
+        websocket.readMessage("""
+                {"data": {"amount": 0.0125, "price": 50001.125, "microtimestamp": "1752485434749389"},
+                 "channel": "live_trades_btcusd", "event": "trade"}""");
+        websocket.readMessage("""
+                {"event":"trade","channel":"live_trades_btcusd","data":{"price":5.000123E4,"amount":1.5,"microtimestamp":"1752485434749390"}}""");
+
+        // Then: nothing is visible until the batch ends
+        assertFalse(reader.next());
+        websocket.endOfBatch();
+
+        assertTrue(reader.next());
+        assertEquals(INSTRUMENT_ID, reader.instrumentId());
+        assertEquals(1752485434749389L, reader.exchangeMicros());
+        assertEquals(5000112L, reader.price());
+        assertEquals(1250000L, reader.amount());
+        assertTrue(reader.receivedNanos() > 0);
+
+        assertTrue(reader.next());
+        assertEquals(1752485434749390L, reader.exchangeMicros());
+        assertEquals(5000123L, reader.price());
+        assertEquals(150000000L, reader.amount());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void testEndOfBatch_conflatesTradesPerInstrument() {
+        // Given: a batch of trades for the same channel
+        websocket.readMessage("{\"event\":\"trade\",\"channel\":\"live_trades_btcusd\",\"data\":{\"price\":100.01}}");
+        websocket.readMessage("{\"event\":\"trade\",\"channel\":\"live_trades_btcusd\",\"data\":{\"price\":100.02}}");
+        websocket.readMessage("{\"event\":\"trade\",\"channel\":\"live_trades_btcusd\",\"data\":{\"price\":100.03}}");
+
+        // Nothing is written until the batch ends
+        verify(aggregatorService, never()).addPrice(anyInt(), anyLong());
+
+        // When
+        websocket.endOfBatch();
+
+        // Then: only the latest trade is written, but every trade reaches the candles
+        verify(aggregatorService, times(1)).addPrice(INSTRUMENT_ID, 10003L);
+        verify(candleService, times(3)).recordTrade(eq(INSTRUMENT_ID), anyLong(), eq(0L));
+        assertEquals(2, websocket.conflatedTrades());
+    }
+
+    @Test
+    void testBindTo_publishesChannelAndLagMetrics() {
+        // Given: metrics are bound
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        websocket.bindTo(registry);
+
+        // When: a subscription confirmation and a trade with an exchange timestamp arrive, and one unparseable frame
+        websocket.readMessage("{\"event\":\"bts:subscription_succeeded\",\"channel\":\"live_trades_btcusd\",\"data\":{}}");
+        websocket.readMessage("{\"event\":\"trade\",\"channel\":\"live_trades_btcusd\",\"data\":{\"price\":1,\"microtimestamp\":\"1752485434749389\"}}");
+        websocket.readMessage("not json");
+        websocket.endOfBatch();
+
+        // Then: the confirmation, sent once per connection, is not a channel message
+        assertEquals(1, registry.get("exchange.channel.messages").tag("channel", "live_trades_btcusd").functionCounter().count());
+        assertEquals(1, registry.get("exchange.channel.trades").tag("channel", "live_trades_btcusd").functionCounter().count());
+        assertEquals(1, registry.get("exchange.lag").tag("exchange", "bitstamp").timer().count());
+        assertEquals(1, registry.get("exchange.parse.failures").functionCounter().count());
+        assertTrue(registry.get("exchange.channel.silence").gauge().value() >= 0);
+    }
+
+    @Test
+    void testSubscribe_bootstrapsPricesInBackground() {
+        // Given: the bulk ticker endpoint knows the market
+        when(apiClient.getLatestPrices()).thenReturn(List.of(new Ticker(new BigDecimal("50001.235"), 1752485434L, "BTC/USD")));
+
         // When
-        spyWebsocket.readMessage(reconnectMessage);
+        websocket.subscribe();
+
+        // Then: the starting price is applied without holding up subscribe
+        verify(aggregatorService, timeout(5000)).addPrice(INSTRUMENT_ID, 5000124L);
+    }
+
+    @Test
+    void testReadMessage_whileBootstrapping_holdsTradeUntilTickerLands() throws InterruptedException {
+        // Given: a ticker request that has not returned yet
+        CountDownLatch tickerRequested = new CountDownLatch(1);
+        CountDownLatch tickerReturned = new CountDownLatch(1);
+        when(apiClient.getLatestPrices()).thenAnswer(invocation -> {
+            tickerRequested.countDown();
+            tickerReturned.await();
+            return List.of(new Ticker(new BigDecimal("50000.00"), 1752485434L, "BTC/USD"));
+        });
+        websocket.subscribe();
+        assertTrue(tickerRequested.await(5, TimeUnit.SECONDS));
+
+        // When: a trade a second after the ticker was taken arrives first
+        websocket.readMessage("""
+                {"event":"trade","channel":"live_trades_btcusd","data":{"price":50001.23,"microtimestamp":"1752485435000000"}}""");
+        websocket.endOfBatch();
+
+        // Then: the trade is held, but still reaches the candles
+        verify(aggregatorService, never()).addPrice(anyInt(), anyLong());
+        verify(candleService).recordTrade(INSTRUMENT_ID, 5000123L, 0L);
+
+        // And: once the ticker lands the newer trade wins
+        tickerReturned.countDown();
+        verify(aggregatorService, timeout(5000)).addPrice(INSTRUMENT_ID, 5000123L);
+        verify(aggregatorService, never()).addPrice(INSTRUMENT_ID, 5000000L);
+
+        // And: later trades pass straight through
+        websocket.readMessage("{\"event\":\"trade\",\"channel\":\"live_trades_btcusd\",\"data\":{\"price\":50002.00}}");
+        websocket.endOfBatch();
+        verify(aggregatorService).addPrice(INSTRUMENT_ID, 5000200L);
+    }
+
+    @Test
+    void testReadMessage_withReconnectRequest_closesTheConnectionItArrivedOn() throws IOException {
+        // Given: an open connection
+        Session session = mock(Session.class);
+        when(session.getAsyncRemote()).thenReturn(mock(RemoteEndpoint.Async.class));
+        websocket.getConnections().getFirst().onOpen(session);
+
+        // When: it asks us to reconnect
+        websocket.readMessage("{\"event\":\"bts:request_reconnect\"}");
+
         // Then
-        verify(spyWebsocket, times(1)).close();
+        verify(session, times(1)).close();
+    }
+
+    @Test
+    void testCheckChannels_withChannelsQuietInOnePass_repricesEveryOne() {
+        // Given: two pairs on an open connection, bootstrapped once on subscribe
+        when(pairsConfiguration.pairs()).thenReturn(List.of(new Pair(PAIR_BASE, PAIR_QUOTE), new Pair("ETH", PAIR_QUOTE)));
+        when(marketCache.getMarkets()).thenReturn(Map.of(PAIR_SYMBOL, new Market(PAIR_SYMBOL, PAIR_BASE, PAIR_QUOTE, 2),
+                "ethusd", new Market("ethusd", "ETH", PAIR_QUOTE, 2)));
+        when(instrumentRegistry.register(any(Instrument.class))).thenReturn(INSTRUMENT_ID, INSTRUMENT_ID + 1);
+        when(apiClient.getLatestPrices()).thenReturn(List.of(
+                new Ticker(new BigDecimal("50000.00"), 1752485434L, "BTC/USD"),
+                new Ticker(new BigDecimal("3000.00"), 1752485434L, "ETH/USD")));
+        websocket = new TestableBitstampWebsocket("bitstamp", "wss://test", pairsConfiguration, aggregatorService,
+                instrumentRegistry, candleService, apiClient, marketCache, journals, recorders);
+        Session session = mock(Session.class);
+        when(session.getAsyncRemote()).thenReturn(mock(RemoteEndpoint.Async.class));
+        websocket.getConnections().getFirst().onOpen(session);
+        websocket.subscribe();
+        verify(aggregatorService, timeout(5000)).addPrice(INSTRUMENT_ID, 5000000L);
+        verify(aggregatorService, timeout(5000)).addPrice(INSTRUMENT_ID + 1, 300000L);
+
+        // And: each channel has a usual rate
+        websocket.readMessage("{\"event\":\"trade\",\"channel\":\"live_trades_btcusd\",\"data\":{\"price\":50001.00}}");
+        websocket.readMessage("{\"event\":\"trade\",\"channel\":\"live_trades_ethusd\",\"data\":{\"price\":3001.00}}");
+        websocket.endOfBatch();
+        long now = System.nanoTime();
+        websocket.checkChannels(now, now);
+
+        // When: both channels have been silent past any usual rate, while the session is still heard from
+        now += TimeUnit.MINUTES.toNanos(10);
+        websocket.checkChannels(now, now);
+
+        // Then: both are bootstrapped again, not only the first found
+        verify(aggregatorService, timeout(5000).times(2)).addPrice(INSTRUMENT_ID, 5000000L);
+        verify(aggregatorService, timeout(5000).times(2)).addPrice(INSTRUMENT_ID + 1, 300000L);
+        verify(apiClient, times(2)).getLatestPrices();
+    }
+
+    @Test
+    void testTradeKey_isTheTradeIdUnderTheInstrument() {
+        long key = websocket.tradeKey("""
+                {"data": {"id": 420368541, "price": 1}, "channel": "live_trades_btcusd", "event": "trade"}""");
+
+        assertEquals((long) (INSTRUMENT_ID + 1) << 48 | 420368541L, key);
+        assertEquals(RecentIds.NONE, websocket.tradeKey("""
+                {"data": {"id": 1, "price": 1}, "channel": "live_trades_ethusd", "event": "trade"}"""));
+        assertEquals(RecentIds.NONE, websocket.tradeKey("{\"event\":\"bts:heartbeat\",\"channel\":\"\",\"data\":{}}"));
     }
 
     @Test
@@ -110,6 +368,155 @@ class BitstampWebsocketTest {
         verify(spyWebsocket, never()).close();
     }
 
+    @Test
+    void testReadMessage_withOrderBookSnapshots_publishesTopOfBookOncePerChange() {
+        // Given: books kept from the order_book_ channel
+        websocket = bookWebsocket(BitstampBookFeed.SNAPSHOT);
+
+        // When: a snapshot arrives, then the same top of book again with a deeper level changed
+        websocket.readMessage(bookFrame("order_book", 100, "[[\"100.00\",\"1\"],[\"99.00\",\"2\"]]", "[[\"101.00\",\"1\"]]"));
+        websocket.endOfBatch();
+        websocket.readMessage(bookFrame("order_book", 101, "[[\"100.00\",\"1\"],[\"99.00\",\"3\"]]", "[[\"101.00\",\"1\"]]"));
+        websocket.endOfBatch();
+
+        // Then: only the first is published
+        verify(quoteService, times(1)).update(INSTRUMENT_ID, 10000L, 10100L);
+
+        // When: a new top of book, then the late copy of an older snapshot from another connection
+        websocket.readMessage(bookFrame("order_book", 102, "[[\"100.50\",\"1\"]]", "[[\"100.90\",\"1\"]]"));
+        websocket.readMessage(bookFrame("order_book", 101, "[[\"100.00\",\"1\"]]", "[[\"101.00\",\"1\"]]"));
+        websocket.endOfBatch();
+
+        // Then: the snapshot replaced the whole book and the older one was dropped
+        verify(quoteService).update(INSTRUMENT_ID, 10050L, 10090L);
+        verifyNoMoreInteractions(quoteService);
+        // Book frames are not trades
+        verifyNoInteractions(candleService);
+    }
+
+    @Test
+    void testReadMessage_withOrderBookDiffs_seedsFromRestAndAppliesNewerDiffs() throws InterruptedException {
+        // Given: books kept from the diff_order_book_ channel, seeded from a REST order book at micros 100
+        websocket = bookWebsocket(BitstampBookFeed.DIFF);
+        CountDownLatch bookReturned = new CountDownLatch(1);
+        when(apiClient.getOrderBook(PAIR_SYMBOL)).thenAnswer(invocation -> {
+            bookReturned.await();
+            return """
+                    {"timestamp": "1", "microtimestamp": "100", "bids": [["100.00", "1"], ["99.50", "1"]], "asks": [["101.00", "1"]]}""";
+        });
+        websocket.subscribe();
+
+        // When: diffs arrive while the order book is fetched, one older than it
+        websocket.readMessage(bookFrame("diff_order_book", 90, "[[\"100.50\",\"1\"]]", "[]"));
+        websocket.readMessage(bookFrame("diff_order_book", 110, "[]", "[[\"100.80\",\"1\"]]"));
+        websocket.endOfBatch();
+
+        // Then: nothing is published until the book is seeded
+        verify(quoteService, never()).update(anyInt(), anyLong(), anyLong());
+
+        // When: the order book lands and diffs keep coming. Applying the same diff again changes nothing
+        bookReturned.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mockingDetails(quoteService).getInvocations().isEmpty() && System.nanoTime() < deadline) {
+            websocket.readMessage(bookFrame("diff_order_book", 120, "[[\"100.00\",\"0\"]]", "[]"));
+            websocket.endOfBatch();
+            Thread.sleep(10);
+        }
+
+        // Then: the held diff newer than the book and the live diffs were applied, the older one dropped
+        verify(quoteService).update(INSTRUMENT_ID, 9950L, 10080L);
+    }
+
+    @Test
+    void testReadMessage_withOrderBookOlderThanFirstDiff_fetchesItAgain() throws InterruptedException {
+        // Given: a REST order book at micros 50 that lands after the first diff, then one at micros 150
+        websocket = bookWebsocket(BitstampBookFeed.DIFF);
+        CountDownLatch diffRead = new CountDownLatch(1);
+        when(apiClient.getOrderBook(PAIR_SYMBOL)).thenAnswer(invocation -> {
+            diffRead.await();
+            return """
+                    {"timestamp": "1", "microtimestamp": "50", "bids": [["90.00", "1"]], "asks": [["91.00", "1"]]}""";
+        }).thenReturn("""
+                {"timestamp": "1", "microtimestamp": "150", "bids": [["100.00", "1"]], "asks": [["101.00", "1"]]}""");
+        websocket.subscribe();
+
+        // When: the first diff received is at micros 100, so what changed between 50 and 100 was never seen
+        websocket.readMessage(bookFrame("diff_order_book", 100, "[[\"99.00\",\"1\"]]", "[]"));
+        websocket.endOfBatch();
+        diffRead.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        long micros = 200;
+        while (mockingDetails(quoteService).getInvocations().isEmpty() && System.nanoTime() < deadline) {
+            websocket.readMessage(bookFrame("diff_order_book", micros++, "[]", "[[\"100.80\",\"1\"]]"));
+            websocket.endOfBatch();
+            Thread.sleep(10);
+        }
+
+        // Then: the older order book was fetched again, and only the newer one was seeded
+        verify(apiClient, times(2)).getOrderBook(PAIR_SYMBOL);
+        verify(quoteService).update(INSTRUMENT_ID, 10000L, 10080L);
+        verify(quoteService, never()).update(eq(INSTRUMENT_ID), eq(9900L), anyLong());
+        verify(quoteService, never()).update(eq(INSTRUMENT_ID), eq(9000L), anyLong());
+    }
+
+    @Test
+    void testOnMessage_withTwoConnections_countsEachChannelMessageOnceAndAppliesBookCopiesHarmlessly()
+            throws InterruptedException {
+        // Given: two connections keeping diff books, seeded from a REST order book at micros 100
+        websocket = bookWebsocket(BitstampBookFeed.DIFF, 2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        websocket.bindTo(registry);
+        when(apiClient.getOrderBook(PAIR_SYMBOL)).thenReturn("""
+                {"timestamp": "1", "microtimestamp": "100", "bids": [["100.00", "1"], ["99.50", "1"]], "asks": [["101.00", "1"]]}""");
+        websocket.subscribe();
+        BitstampWebsocket.Connection first = websocket.getConnections().get(0);
+        BitstampWebsocket.Connection second = websocket.getConnections().get(1);
+
+        // When: both deliver every trade and diff, the second late, one diff after the next diff from the first
+        for (int id = 1; id <= 2; id++) {
+            String trade = """
+                    {"data": {"id": %d, "price": 1}, "channel": "live_trades_btcusd", "event": "trade"}""".formatted(id);
+            first.onMessage(trade);
+            second.onMessage(trade);
+        }
+        first.onMessage(bookFrame("diff_order_book", 90, "[[\"100.50\",\"1\"]]", "[]"));
+        first.onMessage(bookFrame("diff_order_book", 110, "[]", "[[\"100.80\",\"1\"]]"));
+        second.onMessage(bookFrame("diff_order_book", 90, "[[\"100.50\",\"1\"]]", "[]"));
+        first.onMessage(bookFrame("diff_order_book", 120, "[[\"100.00\",\"0\"]]", "[[\"100.80\",\"0\"]]"));
+        second.onMessage(bookFrame("diff_order_book", 110, "[]", "[[\"100.80\",\"1\"]]"));
+        second.onMessage(bookFrame("diff_order_book", 120, "[[\"100.00\",\"0\"]]", "[[\"100.80\",\"0\"]]"));
+        // The same diff until the order book has landed
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mockingDetails(quoteService).getInvocations().isEmpty() && System.nanoTime() < deadline) {
+            second.onMessage(bookFrame("diff_order_book", 130, "[[\"99.90\",\"1\"]]", "[]"));
+            Thread.sleep(10);
+        }
+
+        // Then: the book is as if each diff arrived once, the late copy of the diff at 110 did not restore its ask
+        verify(quoteService).update(INSTRUMENT_ID, 9990L, 10100L);
+        verifyNoMoreInteractions(quoteService);
+        // And: no channel counts a copy as another message
+        assertEquals(2, registry.get("exchange.channel.messages").tag("channel", "live_trades_btcusd").functionCounter().count());
+        assertEquals(4, registry.get("exchange.channel.messages").tag("channel", "diff_order_book_btcusd").functionCounter().count());
+        assertEquals(2, registry.get("exchange.trades.duplicates").functionCounter().count());
+    }
+
+    private BitstampWebsocket bookWebsocket(BitstampBookFeed bookFeed) {
+        return bookWebsocket(bookFeed, 1);
+    }
+
+    private BitstampWebsocket bookWebsocket(BitstampBookFeed bookFeed, int connections) {
+        return new TestableBitstampWebsocket("bitstamp", "wss://test", Shard.ONLY, connections, bookFeed,
+                pairsConfiguration, aggregatorService, quoteService, instrumentRegistry, candleService, apiClient,
+                marketCache, journals, recorders);
+    }
+
+    private static String bookFrame(String channel, long micros, String bids, String asks) {
+        return """
+                {"data": {"timestamp": "1", "microtimestamp": "%d", "bids": %s, "asks": %s}, "channel": "%s_btcusd", "event": "data"}"""
+                .formatted(micros, bids, asks, channel);
+    }
+
     // Testable subclass to override connect()
     static class TestableBitstampWebsocket extends BitstampWebsocket {
         public TestableBitstampWebsocket(
@@ -117,9 +524,72 @@ class BitstampWebsocketTest {
                 String websocketURL,
                 PairsConfiguration pairsConfiguration,
                 PriceAggregatorService aggregatorService,
-                BitstampApiClient apiClient
+                InstrumentRegistry instrumentRegistry,
+                CandleService candleService,
+                BitstampApiClient apiClient,
+                BitstampMarketCache marketCache,
+                TickJournals journals,
+                FrameRecorders recorders
+        ) {
+            this(name, websocketURL, Shard.ONLY, pairsConfiguration, aggregatorService, instrumentRegistry, candleService,
+                    apiClient, marketCache, journals, recorders);
+        }
+
+        public TestableBitstampWebsocket(
+                String name,
+                String websocketURL,
+                Shard shard,
+                PairsConfiguration pairsConfiguration,
+                PriceAggregatorService aggregatorService,
+                InstrumentRegistry instrumentRegistry,
+                CandleService candleService,
+                BitstampApiClient apiClient,
+                BitstampMarketCache marketCache,
+                TickJournals journals,
+                FrameRecorders recorders
+        ) {
+            this(name, websocketURL, shard, BitstampBookFeed.NONE, pairsConfiguration, aggregatorService,
+                    new QuoteService(aggregatorService), instrumentRegistry, candleService, apiClient, marketCache, journals,
+                    recorders);
+        }
+
+        public TestableBitstampWebsocket(
+                String name,
+                String websocketURL,
+                Shard shard,
+                BitstampBookFeed bookFeed,
+                PairsConfiguration pairsConfiguration,
+                PriceAggregatorService aggregatorService,
+                QuoteService quoteService,
+                InstrumentRegistry instrumentRegistry,
+                CandleService candleService,
+                BitstampApiClient apiClient,
+                BitstampMarketCache marketCache,
+                TickJournals journals,
+                FrameRecorders recorders
+        ) {
+            this(name, websocketURL, shard, 1, bookFeed, pairsConfiguration, aggregatorService, quoteService,
+                    instrumentRegistry, candleService, apiClient, marketCache, journals, recorders);
+        }
+
+        public TestableBitstampWebsocket(
+                String name,
+                String websocketURL,
+                Shard shard,
+                int connections,
+                BitstampBookFeed bookFeed,
+                PairsConfiguration pairsConfiguration,
+                PriceAggregatorService aggregatorService,
+                QuoteService quoteService,
+                InstrumentRegistry instrumentRegistry,
+                CandleService candleService,
+                BitstampApiClient apiClient,
+                BitstampMarketCache marketCache,
+                TickJournals journals,
+                FrameRecorders recorders
         ) {
-            super(name, websocketURL, pairsConfiguration, aggregatorService, apiClient);
+            super(name, websocketURL, shard, connections, bookFeed, pairsConfiguration, aggregatorService, quoteService,
+                    instrumentRegistry, candleService, apiClient, marketCache, journals, recorders);
         }
 
         @Override
@@ -0,0 +1,543 @@
+package com.samdoherty.aggregator.infrastructure.websocket.bitstamp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.samdoherty.aggregator.infrastructure.configuration.Pair;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.MessageHandler;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.ServerContainer;
+import jakarta.websocket.server.ServerEndpointConfig;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.websocket.server.WsSci;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Embeddable stand-in for Bitstamp on a local port, so the whole stack can be run over real sockets with no network
+ * <p>
+ * Serves the markets and ticker REST endpoints, and a websocket that answers 'bts:subscribe' and then emits
+ * synthetic 'live_trades_*' frames, shaped as Bitstamp sends them, to every subscribed channel. Trades follow a random
+ * walk per pair. The trade rate, bursts, reconnect requests and dropped connections are configurable
+ * <p>
+ * Subscribed 'order_book_*' channels are sent a few levels either side of the pair's latest price every few
+ * milliseconds
+ */
+public class FakeBitstampExchange implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BOOK_EVERY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final String TRADES = "live_trades_";
+    private static final String BOOK = "order_book_";
+
+    private final List<Pair> pairs;
+    private final int tradesPerSecond;
+    private final long burstEveryNanos;
+    private final int burstTrades;
+    private final long reconnectEveryNanos;
+    private final long dropEveryNanos;
+
+    private final Tomcat tomcat = new Tomcat();
+    private final Map<String, Long> prices = new ConcurrentHashMap<>();
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final Map<Session, List<String>> subscriptions = new ConcurrentHashMap<>();
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger subscribeRequests = new AtomicInteger();
+    private final AtomicInteger unsubscribeRequests = new AtomicInteger();
+
+    /**
+     * Channels whose current subscription has stopped sending trades, until they are unsubscribed
+     */
+    private final Set<String> silenced = ConcurrentHashMap.newKeySet();
+    private final AtomicLong tradesSent = new AtomicLong();
+    private final AtomicLong tradeId = new AtomicLong(400_000_000);
+
+    private volatile boolean running;
+    private Thread emitter;
+    private int port;
+
+    private FakeBitstampExchange(Builder builder) {
+        this.pairs = List.copyOf(builder.pairs);
+        this.tradesPerSecond = builder.tradesPerSecond;
+        this.burstEveryNanos = builder.burstEvery.toNanos();
+        this.burstTrades = builder.burstTrades;
+        this.reconnectEveryNanos = builder.reconnectEvery.toNanos();
+        this.dropEveryNanos = builder.dropEvery.toNanos();
+
+        for (Pair pair : pairs) {
+            prices.put(symbol(pair), 10_000_00L + ThreadLocalRandom.current().nextLong(1_000_00L));
+        }
+    }
+
+    public static @NotNull Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private List<Pair> pairs = List.of(new Pair("BTC", "USD"));
+        private int tradesPerSecond = 100;
+        private Duration burstEvery = Duration.ZERO;
+        private int burstTrades;
+        private Duration reconnectEvery = Duration.ZERO;
+        private Duration dropEvery = Duration.ZERO;
+
+        private Builder() {
+        }
+
+        public Builder pairs(@NotNull List<Pair> pairs) {
+            this.pairs = pairs;
+            return this;
+        }
+
+        /**
+         * Synthetic pairs 'AAA/USD', 'AAB/USD'...
+         */
+        public Builder pairs(int count) {
+            List<Pair> generated = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                generated.add(new Pair("" + (char) ('A' + i / 676 % 26) + (char) ('A' + i / 26 % 26) + (char) ('A' + i % 26), "USD"));
+            }
+            return pairs(generated);
+        }
+
+        /**
+         * Steady rate across all subscribed channels, 0 for none
+         */
+        public Builder tradesPerSecond(int tradesPerSecond) {
+            this.tradesPerSecond = tradesPerSecond;
+            return this;
+        }
+
+        /**
+         * Send an extra burst of trades back to back, e.g. a volatility spike
+         */
+        public Builder bursts(@NotNull Duration every, int trades) {
+            this.burstEvery = every;
+            this.burstTrades = trades;
+            return this;
+        }
+
+        /**
+         * Send 'bts:request_reconnect' to every connection this often
+         */
+        public Builder reconnectEvery(@NotNull Duration every) {
+            this.reconnectEvery = every;
+            return this;
+        }
+
+        /**
+         * Drop every connection, without asking, this often
+         */
+        public Builder dropEvery(@NotNull Duration every) {
+            this.dropEvery = every;
+            return this;
+        }
+
+        public FakeBitstampExchange start() throws IOException, LifecycleException {
+            FakeBitstampExchange exchange = new FakeBitstampExchange(this);
+            exchange.startServer();
+            return exchange;
+        }
+    }
+
+    public @NotNull String apiUrl() {
+        return "http://localhost:" + port;
+    }
+
+    public @NotNull String websocketUrl() {
+        return "ws://localhost:" + port + "/";
+    }
+
+    public @NotNull List<Pair> pairs() {
+        return pairs;
+    }
+
+    /**
+     * @return websocket connections accepted so far
+     */
+    public int connections() {
+        return connections.get();
+    }
+
+    /**
+     * @return 'bts:subscribe' requests answered so far
+     */
+    public int subscribeRequests() {
+        return subscribeRequests.get();
+    }
+
+    /**
+     * @return 'bts:unsubscribe' requests answered so far
+     */
+    public int unsubscribeRequests() {
+        return unsubscribeRequests.get();
+    }
+
+    /**
+     * Stop sending a pair's trades while its connection stays up, as if its subscription silently died. Cleared by
+     * the pair being unsubscribed
+     */
+    public void silence(@NotNull Pair pair) {
+        silenced.add(TRADES + symbol(pair));
+    }
+
+    /**
+     * @return trades sent, once however many connections each went to
+     */
+    public long tradesSent() {
+        return tradesSent.get();
+    }
+
+    /**
+     * @return the latest price sent for a pair, at 2 decimal places
+     */
+    public long price(@NotNull Pair pair) {
+        return prices.get(symbol(pair));
+    }
+
+    /**
+     * Send 'bts:request_reconnect' to every connection now
+     */
+    public void requestReconnect() {
+        for (Session session : sessions) {
+            send(session, "{\"event\":\"bts:request_reconnect\",\"channel\":\"\",\"data\":\"\"}");
+        }
+    }
+
+    /**
+     * Close every connection now, without asking
+     */
+    public void dropConnections() {
+        for (Session session : sessions) {
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "Dropped"));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Close one connection now, without asking
+     */
+    public void dropConnection() {
+        for (Session session : sessions) {
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "Dropped"));
+                return;
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Close only the connection subscribed to a pair's trades, without asking
+     */
+    public void dropConnection(@NotNull Pair pair) {
+        String channel = TRADES + symbol(pair);
+        subscriptions.forEach((session, channels) -> {
+            if (channels.contains(channel)) {
+                try {
+                    session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "Dropped"));
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() throws LifecycleException {
+        running = false;
+        if (emitter != null) {
+            emitter.interrupt();
+        }
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    private void startServer() throws IOException, LifecycleException {
+        tomcat.setBaseDir(Files.createTempDirectory("fake-bitstamp").toString());
+        Connector connector = new Connector();
+        connector.setPort(0);
+        tomcat.setConnector(connector);
+
+        Context context = tomcat.addContext("", null);
+        Tomcat.addServlet(context, "api", new ApiServlet());
+        context.addServletMappingDecoded("/api/v2/*", "api");
+        // Tomcat only filters requests that map to a servlet, and WsFilter performs the websocket upgrade
+        context.addServletMappingDecoded("/", "api");
+
+        context.addServletContainerInitializer(new WsSci(), null);
+        context.addServletContainerInitializer((classes, servletContext) -> {
+            ServerContainer container = (ServerContainer) servletContext.getAttribute(ServerContainer.class.getName());
+            try {
+                container.addEndpoint(ServerEndpointConfig.Builder.create(TradeEndpoint.class, "/")
+                        .configurator(new ServerEndpointConfig.Configurator() {
+                            @Override
+                            @SuppressWarnings("unchecked")
+                            public <T> T getEndpointInstance(Class<T> endpointClass) {
+                                return (T) new TradeEndpoint();
+                            }
+                        })
+                        .build());
+            } catch (jakarta.websocket.DeploymentException e) {
+                throw new IllegalStateException(e);
+            }
+        }, null);
+
+        tomcat.start();
+        port = connector.getLocalPort();
+
+        running = true;
+        emitter = new Thread(this::emit, "fake-bitstamp-emitter");
+        emitter.setDaemon(true);
+        emitter.start();
+    }
+
+    /**
+     * Paces trades, bursts, reconnect requests and drops from one thread
+     */
+    private void emit() {
+        long start = System.nanoTime();
+        long nextBurst = start + burstEveryNanos;
+        long nextReconnect = start + reconnectEveryNanos;
+        long nextDrop = start + dropEveryNanos;
+        long nextBook = start;
+        long due = 0;
+        int next = 0;
+
+        while (running) {
+            long now = System.nanoTime();
+            long target = (long) ((now - start) / 1e9 * tradesPerSecond);
+            // Capped so a backlog cannot hold up the reconnect and drop schedule
+            int trades = (int) Math.min(target - due, 1_000);
+            due = target;
+
+            if (burstEveryNanos > 0 && now >= nextBurst) {
+                trades += burstTrades;
+                nextBurst += burstEveryNanos;
+            }
+
+            if (trades > 0) {
+                // Every connection subscribed to a channel gets the same trades, as with redundant connections
+                Map<String, List<Session>> subscribers = new LinkedHashMap<>();
+                subscriptions.forEach((session, subscribed) -> subscribed.stream()
+                        .filter(channel -> channel.startsWith(TRADES) && !silenced.contains(channel))
+                        .forEach(channel -> subscribers.computeIfAbsent(channel, key -> new ArrayList<>()).add(session)));
+                List<Map.Entry<String, List<Session>>> channels = new ArrayList<>(subscribers.entrySet());
+                for (int i = 0; i < trades && !channels.isEmpty(); i++) {
+                    next = sendTrade(channels, next);
+                }
+            }
+
+            if (now >= nextBook) {
+                sendBooks();
+                nextBook += BOOK_EVERY_NANOS;
+            }
+
+            if (reconnectEveryNanos > 0 && now >= nextReconnect) {
+                requestReconnect();
+                nextReconnect += reconnectEveryNanos;
+            }
+            if (dropEveryNanos > 0 && now >= nextDrop) {
+                dropConnections();
+                nextDrop += dropEveryNanos;
+            }
+
+            LockSupport.parkNanos(TICK_NANOS);
+        }
+    }
+
+    /**
+     * @param channels every channel subscribed to, with its subscribers
+     * @param next     index of the channel to send to, round robin
+     * @return the index after the one sent to
+     */
+    private int sendTrade(List<Map.Entry<String, List<Session>>> channels, int next) {
+        Map.Entry<String, List<Session>> target = channels.get(next % channels.size());
+        String symbol = target.getKey().substring(TRADES.length());
+        long price = prices.compute(symbol, (key, last) -> Math.max(1, last + ThreadLocalRandom.current().nextLong(-500, 501)));
+        long micros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()) + ThreadLocalRandom.current().nextInt(1000);
+        long amount = 1 + ThreadLocalRandom.current().nextLong(100_000_000);
+
+        String frame = ("{\"data\": {\"id\": %d, \"timestamp\": \"%d\", \"amount\": %d.%08d, \"amount_str\": \"%d.%08d\", "
+                + "\"price\": %d.%02d, \"price_str\": \"%d.%02d\", \"type\": %d, \"microtimestamp\": \"%d\", "
+                + "\"buy_order_id\": 1893417283674113, \"sell_order_id\": 1893417282039810}, "
+                + "\"channel\": \"%s\", \"event\": \"trade\"}")
+                .formatted(tradeId.incrementAndGet(), micros / 1_000_000, amount / 100_000_000, amount % 100_000_000,
+                        amount / 100_000_000, amount % 100_000_000, price / 100, price % 100, price / 100, price % 100,
+                        price & 1, micros, target.getKey());
+
+        boolean sent = false;
+        for (Session session : target.getValue()) {
+            sent |= send(session, frame);
+        }
+        if (sent) {
+            tradesSent.incrementAndGet();
+        }
+        return (next + 1) % channels.size();
+    }
+
+    /**
+     * Five levels a side, a cent apart, either side of each subscribed pair's latest price
+     */
+    private void sendBooks() {
+        subscriptions.forEach((session, subscribed) -> {
+            for (String channel : subscribed) {
+                if (!channel.startsWith(BOOK)) {
+                    continue;
+                }
+
+                long price = prices.get(channel.substring(BOOK.length()));
+                StringBuilder bids = new StringBuilder();
+                StringBuilder asks = new StringBuilder();
+                for (int level = 1; level <= 5; level++) {
+                    String separator = level == 1 ? "" : ", ";
+                    bids.append(separator).append(level(price - level));
+                    asks.append(separator).append(level(price + level));
+                }
+
+                long micros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+                send(session, ("{\"data\": {\"timestamp\": \"%d\", \"microtimestamp\": \"%d\", \"bids\": [%s], \"asks\": [%s]}, "
+                        + "\"channel\": \"%s\", \"event\": \"data\"}")
+                        .formatted(micros / 1_000_000, micros, bids, asks, channel));
+            }
+        });
+    }
+
+    private static String level(long price) {
+        return "[\"%d.%02d\", \"1.00000000\"]".formatted(price / 100, price % 100);
+    }
+
+    private static boolean send(Session session, String frame) {
+        if (!session.isOpen()) {
+            return false;
+        }
+
+        // Subscription replies and trades are sent from different threads
+        synchronized (session) {
+            try {
+                session.getBasicRemote().sendText(frame);
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                return false;
+            }
+        }
+    }
+
+    private static String symbol(Pair pair) {
+        return (pair.base() + pair.quote()).toLowerCase();
+    }
+
+    /**
+     * Answers subscriptions, trades are sent by the emitter
+     */
+    private final class TradeEndpoint extends Endpoint {
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            connections.incrementAndGet();
+            sessions.add(session);
+            subscriptions.put(session, new CopyOnWriteArrayList<>());
+
+            session.addMessageHandler(String.class, (MessageHandler.Whole<String>) message -> {
+                try {
+                    JsonNode request = MAPPER.readTree(message);
+                    String event = request.path("event").asText();
+                    String channel = request.path("data").path("channel").asText();
+
+                    String symbol = channel.startsWith(BOOK) ? channel.substring(BOOK.length()) : channel.replace(TRADES, "");
+                    if ("bts:subscribe".equals(event) && prices.containsKey(symbol)) {
+                        subscriptions.get(session).add(channel);
+                        subscribeRequests.incrementAndGet();
+                        send(session, "{\"event\":\"bts:subscription_succeeded\",\"channel\":\"%s\",\"data\":{}}".formatted(channel));
+                    } else if ("bts:unsubscribe".equals(event)) {
+                        subscriptions.get(session).remove(channel);
+                        silenced.remove(channel);
+                        unsubscribeRequests.incrementAndGet();
+                        send(session, "{\"event\":\"bts:unsubscription_succeeded\",\"channel\":\"%s\",\"data\":{}}".formatted(channel));
+                    } else if ("bts:heartbeat".equals(event)) {
+                        send(session, "{\"event\":\"bts:heartbeat\",\"channel\":\"\",\"data\":{\"status\":\"success\"}}");
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            sessions.remove(session);
+            subscriptions.remove(session);
+        }
+    }
+
+    /**
+     * '/api/v2/markets/', '/api/v2/ticker/' and '/api/v2/ticker/{symbol}'
+     */
+    private final class ApiServlet extends HttpServlet {
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String path = request.getPathInfo() == null ? "" : request.getPathInfo().replaceAll("/+$", "");
+            Object body;
+
+            if (path.equals("/markets")) {
+                body = pairs.stream().map(pair -> Map.of(
+                        "market_symbol", symbol(pair),
+                        "base_currency", pair.base(),
+                        "counter_currency", pair.quote(),
+                        "instant_order_counter_decimals", 2)).toList();
+            } else if (path.equals("/ticker")) {
+                body = pairs.stream().map(pair -> ticker(pair, true)).toList();
+            } else if (path.startsWith("/ticker/")) {
+                String symbol = path.substring("/ticker/".length());
+                Pair pair = pairs.stream().filter(candidate -> symbol(candidate).equals(symbol)).findFirst().orElse(null);
+                if (pair == null) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+                body = ticker(pair, false);
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            response.setContentType("application/json");
+            MAPPER.writeValue(response.getOutputStream(), body);
+        }
+
+        private Map<String, Object> ticker(Pair pair, boolean withPair) {
+            long price = prices.get(symbol(pair));
+            String last = "%d.%02d".formatted(price / 100, price % 100);
+            String timestamp = Long.toString(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+            return withPair
+                    ? Map.of("last", last, "timestamp", timestamp, "pair", pair.base() + "/" + pair.quote())
+                    : Map.of("last", last, "timestamp", timestamp);
+        }
+    }
+}